@@ -125,7 +125,7 @@ public class AddPodcastActivity extends BaseActivity implements AddPodcastDialog
             // We need to keep note which podcast we are loading
             currentLoadUrl = newPodcast.getUrl();
 
-            podcastManager.load(newPodcast);
+            podcastManager.load(newPodcast, true);
         }
     }
 
@@ -184,7 +184,7 @@ public class AddPodcastActivity extends BaseActivity implements AddPodcastDialog
         newPodcast.setUsername(username);
         newPodcast.setPassword(password);
 
-        podcastManager.load(newPodcast);
+        podcastManager.load(newPodcast, true);
     }
 
     @Override
@@ -27,14 +27,22 @@ import android.preference.PreferenceManager;
 
 import net.alliknow.podcatcher.listeners.OnLoadDownloadsListener;
 import net.alliknow.podcatcher.listeners.OnLoadPlaylistListener;
+import net.alliknow.podcatcher.listeners.OnLoadOlderEpisodesListener;
 import net.alliknow.podcatcher.listeners.OnLoadPodcastListener;
 import net.alliknow.podcatcher.listeners.OnLoadPodcastLogoListener;
+import net.alliknow.podcatcher.listeners.OnMergeEpisodesListener;
 import net.alliknow.podcatcher.listeners.OnReorderEpisodeListener;
 import net.alliknow.podcatcher.listeners.OnReverseSortingListener;
 import net.alliknow.podcatcher.listeners.OnSelectPodcastListener;
 import net.alliknow.podcatcher.listeners.OnToggleFilterListener;
+import net.alliknow.podcatcher.model.EpisodeListMerger;
+import net.alliknow.podcatcher.model.EpisodeListMerger.Change;
+import net.alliknow.podcatcher.model.FilteredEpisodeList;
+import net.alliknow.podcatcher.model.FilteredEpisodeList.Filter;
 import net.alliknow.podcatcher.model.tasks.remote.LoadPodcastTask.PodcastLoadError;
 import net.alliknow.podcatcher.model.types.Episode;
+import net.alliknow.podcatcher.model.types.EpisodeListDiff;
+import net.alliknow.podcatcher.model.types.EpisodeOrder;
 import net.alliknow.podcatcher.model.types.Podcast;
 import net.alliknow.podcatcher.model.types.Progress;
 import net.alliknow.podcatcher.view.ContentSpinner;
@@ -43,10 +51,10 @@ import net.alliknow.podcatcher.view.fragments.AuthorizationFragment.OnEnterAutho
 import net.alliknow.podcatcher.view.fragments.EpisodeListFragment;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -59,12 +67,17 @@ import java.util.TreeSet;
 public abstract class EpisodeListActivity extends EpisodeActivity implements
         OnLoadPodcastListener, OnEnterAuthorizationListener, OnLoadPodcastLogoListener,
         OnSelectPodcastListener, OnLoadDownloadsListener, OnLoadPlaylistListener,
-        OnReorderEpisodeListener, OnToggleFilterListener, OnReverseSortingListener {
+        OnReorderEpisodeListener, OnToggleFilterListener, OnReverseSortingListener,
+        OnMergeEpisodesListener, OnLoadOlderEpisodesListener {
 
     /** Key used to save the current content mode in bundle */
     public static final String MODE_KEY = "mode_key";
     /** Key used to store podcast URL in intent or bundle */
     public static final String PODCAST_URL_KEY = "podcast_url_key";
+    /** Key for the downloads in the episode merger */
+    private static final String DOWNLOADS_RUN = "downloads";
+    /** Key for the playlist in the episode merger */
+    private static final String PLAYLIST_RUN = "playlist";
 
     /** The current episode list fragment */
     protected EpisodeListFragment episodeListFragment;
@@ -73,6 +86,21 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
 
     /** The current episode set (ordered) */
     private SortedSet<Episode> currentEpisodeSet = new TreeSet<>();
+    /** The episode list versions of the podcasts in the current episode set */
+    private Map<Podcast, Integer> currentEpisodeVersions = new HashMap<>();
+    /**
+     * Merges the podcasts' episode lists in all podcasts mode (instead of the
+     * current episode set), <code>null</code> in the other modes
+     */
+    private EpisodeListMerger episodeMerger;
+    /** The filter to only show new episodes */
+    private final Filter newEpisodesFilter = new Filter() {
+
+        @Override
+        public boolean accept(Episode episode) {
+            return !episodeManager.getState(episode);
+        }
+    };
     /** Load failed counter for all podcasts selected mode */
     private int loadFailedCounter = 0;
 
@@ -143,6 +171,14 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
         updateFilterUi();
     }
 
+    @Override
+    public void onLoadOlderEpisodes() {
+        final Podcast podcast = selection.getPodcast();
+
+        if (selection.isSingle() && podcast != null)
+            podcastManager.loadOlderEpisodes(podcast);
+    }
+
     @Override
     public void onToggleLoad() {
         super.onToggleLoad();
@@ -156,7 +192,9 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
         selection.setPodcast(podcast);
         selection.setMode(ContentMode.SINGLE_PODCAST);
 
+        stopMerging();
         this.currentEpisodeSet = new TreeSet<>();
+        this.currentEpisodeVersions = new HashMap<>();
         this.loadFailedCounter = 0;
 
         switch (view) {
@@ -173,9 +211,10 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
                 // Update other UI
                 updateSortingUi();
                 updateFilterUi();
+                updateLoadOlderUi();
 
                 // Load podcast...
-                podcastManager.load(podcast);
+                podcastManager.load(podcast, true);
                 // ... and special episodes
                 episodeManager.getDownloadsAsync(this, podcast);
                 episodeManager.getPlaylistAsync(this, podcast);
@@ -192,7 +231,10 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
         selection.resetPodcast();
         selection.setMode(ContentMode.ALL_PODCASTS);
 
+        stopMerging();
+        this.episodeMerger = new EpisodeListMerger(this);
         this.currentEpisodeSet = new TreeSet<>();
+        this.currentEpisodeVersions = new HashMap<>();
         this.loadFailedCounter = 0;
 
         switch (view) {
@@ -214,6 +256,7 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
                 // Update other UI
                 updateSortingUi();
                 updateFilterUi();
+                updateLoadOlderUi();
 
                 // Go load all podcasts...
                 for (Podcast podcast : podcastManager.getPodcastList())
@@ -236,7 +279,9 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
         selection.resetPodcast();
         selection.setMode(ContentMode.SINGLE_PODCAST);
 
+        stopMerging();
         currentEpisodeSet.clear();
+        currentEpisodeVersions.clear();
 
         if (!view.isSmallPortrait()) {
             // If there is an episode list visible, reset it
@@ -246,6 +291,7 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
             // Update other UI
             updateSortingUi();
             updateFilterUi();
+            updateLoadOlderUi();
         }
     }
 
@@ -254,7 +300,9 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
         selection.resetPodcast();
         selection.setMode(ContentMode.DOWNLOADS);
 
+        stopMerging();
         this.currentEpisodeSet = new TreeSet<>();
+        this.currentEpisodeVersions = new HashMap<>();
 
         switch (view) {
             case SMALL_LANDSCAPE:
@@ -283,14 +331,15 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
         selection.resetPodcast();
         selection.setMode(ContentMode.PLAYLIST);
 
-        this.currentEpisodeSet = new TreeSet<>(new Comparator<Episode>() {
+        stopMerging();
+        this.currentEpisodeSet = new TreeSet<>(new EpisodeOrder() {
 
             @Override
-            public int compare(Episode one, Episode another) {
-                return episodeManager.getPlaylistPosition(one)
-                        - episodeManager.getPlaylistPosition(another);
+            protected long getKey(Episode episode) {
+                return episodeManager.getPlaylistPosition(episode);
             }
         });
+        this.currentEpisodeVersions = new HashMap<>();
 
         switch (view) {
             case SMALL_LANDSCAPE:
@@ -328,9 +377,44 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
 
     @Override
     public void onPodcastLoaded(Podcast podcast) {
+        // Merge the episodes in the background, the list fragment is updated
+        // when done
+        if (isMerging()) {
+            final EpisodeListDiff diff = podcast.getEpisodeListDiff();
+            final Integer shownVersion = currentEpisodeVersions.get(podcast);
+
+            if (diff != null && (shownVersion == null || shownVersion != diff.getVersion())) {
+                episodeMerger.setRun(podcast, diff.getEpisodes());
+                currentEpisodeVersions.put(podcast, diff.getVersion());
+            }
+        }
         // Update list fragment to show episode list
-        if (selection.isAll() || selection.isSingle() && podcast.equals(selection.getPodcast())) {
-            currentEpisodeSet.addAll(podcast.getEpisodes());
+        else if (selection.isAll()
+                || selection.isSingle() && podcast.equals(selection.getPodcast())) {
+            final EpisodeListDiff diff = podcast.getEpisodeListDiff();
+            final Integer shownVersion = currentEpisodeVersions.get(podcast);
+
+            if (diff != null) {
+                // We show the episodes the changes are based on, only apply
+                // these
+                if (shownVersion != null && shownVersion == diff.getBaseVersion()) {
+                    diff.applyTo(currentEpisodeSet);
+
+                    for (Episode removed : diff.getRemoved())
+                        if (isShownAnyway(removed))
+                            currentEpisodeSet.add(removed);
+                }
+                // We show nothing or another version, start over
+                else if (shownVersion == null || shownVersion != diff.getVersion()) {
+                    if (shownVersion != null)
+                        removeEpisodes(podcast);
+
+                    currentEpisodeSet.addAll(diff.getEpisodes());
+                }
+
+                currentEpisodeVersions.put(podcast, diff.getVersion());
+            }
+
             updateEpisodeListUi();
         }
 
@@ -342,6 +426,7 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
         updateActionBar();
         updateSortingUi();
         updateFilterUi();
+        updateLoadOlderUi();
     }
 
     @Override
@@ -365,7 +450,7 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
                 authorizationFragment.show(getFragmentManager(), AuthorizationFragment.TAG);
             } else {
                 // We might at least be able to show special episodes
-                if (currentEpisodeSet.size() > 0)
+                if (getCurrentEpisodeCount() > 0)
                     updateEpisodeListUi();
                 else
                     episodeListFragment.showLoadFailed(code);
@@ -374,7 +459,7 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
         // One of potentially many podcasts failed
         else if (selection.isAll()) {
             // The last podcast failed and we have no episodes at all
-            if (podcastManager.getLoadCount() == 0 && currentEpisodeSet.isEmpty())
+            if (podcastManager.getLoadCount() == 0 && getCurrentEpisodeCount() == 0)
                 episodeListFragment.showLoadAllFailed();
             // One of many podcasts failed to load
             else {
@@ -391,13 +476,16 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
         updateActionBar();
         updateSortingUi();
         updateFilterUi();
+        updateLoadOlderUi();
     }
 
     @Override
     public void onDownloadsLoaded(List<Episode> downloads) {
         // If showing downloads or in one of the podcast modes, add downloaded
         // episodes to the episode list
-        if (!ContentMode.PLAYLIST.equals(selection.getMode())) {
+        if (isMerging())
+            episodeMerger.setRun(DOWNLOADS_RUN, downloads);
+        else if (!ContentMode.PLAYLIST.equals(selection.getMode())) {
             currentEpisodeSet.addAll(downloads);
 
             // Update the UI unless the podcast is still loading
@@ -409,13 +497,16 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
         updateActionBar();
         updateSortingUi();
         updateFilterUi();
+        updateLoadOlderUi();
     }
 
     @Override
     public void onPlaylistLoaded(List<Episode> playlist) {
         // If showing playlist or in one of the podcast modes, add enqueued
         // episodes to the episode list
-        if (!ContentMode.DOWNLOADS.equals(selection.getMode())) {
+        if (isMerging())
+            episodeMerger.setRun(PLAYLIST_RUN, playlist);
+        else if (!ContentMode.DOWNLOADS.equals(selection.getMode())) {
             currentEpisodeSet.addAll(playlist);
 
             // Update the UI unless the podcast is still loading
@@ -427,6 +518,27 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
         updateActionBar();
         updateSortingUi();
         updateFilterUi();
+        updateLoadOlderUi();
+    }
+
+    @Override
+    public void onEpisodesMerged(List<Change> changes) {
+        // The list fragment might not be around in small portrait mode
+        if (isMerging() && episodeListFragment != null) {
+            // Only swap the paged list's source (unless the filter info
+            // needs an update or the list is not shown yet), the fragment
+            // keeps the selection in place
+            if (selection.isEpisodeFilterEnabled()
+                    || !episodeListFragment.applyEpisodeListChanges(
+                            episodeMerger.getEpisodes(), changes))
+                updateEpisodeListUi();
+
+            // Update other UI
+            updateActionBar();
+            updateSortingUi();
+            updateFilterUi();
+            updateLoadOlderUi();
+        }
     }
 
     @Override
@@ -542,7 +654,7 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
             super.onDownloadProgress(episode, percent);
 
         // Check whether the episode is potentially currently displayed
-        if (currentEpisodeSet.contains(episode))
+        if (isMerging() || currentEpisodeSet.contains(episode))
             episodeListFragment.showProgress(episode, percent);
     }
 
@@ -555,6 +667,76 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
             episodeListFragment.setThemeColors(themeColor, lightThemeColor);
     }
 
+    /**
+     * Remove all episodes of the given podcast from the current episode set
+     * (unless shown anyway).
+     */
+    private void removeEpisodes(Podcast podcast) {
+        final Iterator<Episode> iterator = currentEpisodeSet.iterator();
+
+        while (iterator.hasNext()) {
+            final Episode episode = iterator.next();
+
+            if (podcast.equals(episode.getPodcast()) && !isShownAnyway(episode))
+                iterator.remove();
+        }
+    }
+
+    /**
+     * @return The selected podcast's episode list if the current episode set
+     *         holds exactly its episodes, in the same order. <code>null</code>
+     *         if not in single podcast mode or the set differs, e.g. because
+     *         it has downloads no longer in the feed.
+     */
+    private List<Episode> getSelectedPodcastEpisodes() {
+        if (!selection.isSingle() || !selection.isPodcastSet())
+            return null;
+
+        // The set has the episodes of the version shown and maybe some more
+        final EpisodeListDiff diff = selection.getPodcast().getEpisodeListDiff();
+        final Integer shownVersion = currentEpisodeVersions.get(selection.getPodcast());
+        if (diff != null && diff.isSorted() && shownVersion != null
+                && shownVersion == diff.getVersion()
+                && diff.getEpisodes().size() == currentEpisodeSet.size())
+            return diff.getEpisodes();
+        else
+            return null;
+    }
+
+    /**
+     * @return Whether the episode list is put together by the episode merger.
+     */
+    private boolean isMerging() {
+        return episodeMerger != null && selection.isAll();
+    }
+
+    /**
+     * Stop the episode merger (if any), its results are no longer needed.
+     */
+    private void stopMerging() {
+        if (episodeMerger != null) {
+            episodeMerger.cancel();
+            episodeMerger = null;
+        }
+    }
+
+    /**
+     * @return The number of episodes in the current episode set (or merged
+     *         list).
+     */
+    private int getCurrentEpisodeCount() {
+        return isMerging() ? episodeMerger.size() : currentEpisodeSet.size();
+    }
+
+    /**
+     * @return Whether the episode is shown even if no longer in its podcast's
+     *         feed, because it is downloaded or in the playlist.
+     */
+    private boolean isShownAnyway(Episode episode) {
+        return episodeManager.isDownloadingOrDownloaded(episode)
+                || episodeManager.isInPlaylist(episode);
+    }
+
     /**
      * Make sure the episode list selection matches current state.
      */
@@ -570,7 +752,7 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
      * Update the sorting menu icon visibility.
      */
     protected void updateSortingUi() {
-        episodeListFragment.setSortMenuItemVisibility(currentEpisodeSet.size() > 1 &&
+        episodeListFragment.setSortMenuItemVisibility(getCurrentEpisodeCount() > 1 &&
                 !ContentMode.PLAYLIST.equals(selection.getMode()),
                 selection.isEpisodeOrderReversed());
     }
@@ -579,11 +761,21 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
      * Update the filter menu icon visibility.
      */
     protected void updateFilterUi() {
-        episodeListFragment.setFilterMenuItemVisibility(!currentEpisodeSet.isEmpty() &&
+        episodeListFragment.setFilterMenuItemVisibility(getCurrentEpisodeCount() > 0 &&
                 !ContentMode.PLAYLIST.equals(selection.getMode()),
                 selection.isEpisodeFilterEnabled());
     }
 
+    /**
+     * Update the load older episodes menu item visibility.
+     */
+    protected void updateLoadOlderUi() {
+        final Podcast podcast = selection.getPodcast();
+
+        episodeListFragment.setLoadOlderMenuItemVisibility(selection.isSingle() &&
+                podcast != null && podcast.hasOlderEpisodes());
+    }
+
     @Override
     protected void updateDownloadUi() {
         if (!view.isSmallPortrait())
@@ -616,8 +808,8 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
         final int loadingPodcastCount = podcastManager.getLoadCount();
 
         // Load finished for all podcasts and there are episodes
-        if (loadingPodcastCount == 0 && !currentEpisodeSet.isEmpty()) {
-            final int episodeCount = currentEpisodeSet.size();
+        final int episodeCount = getCurrentEpisodeCount();
+        if (loadingPodcastCount == 0 && episodeCount > 0) {
 
             if (episodeCount == 0)
                 contentSpinner.setSubtitle(null);
@@ -637,28 +829,32 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
 
     /**
      * Set the current episode list to show in the episode list fragment using
-     * {@link #currentEpisodeSet} as the basis. This will filter and reverse the
-     * list as needed.
+     * {@link #currentEpisodeSet} (or the merged list) as the basis. This will
+     * filter and reverse the list as needed.
      */
     private void updateEpisodeListUi() {
-        final List<Episode> filteredList = new ArrayList<>(currentEpisodeSet);
+        // The merged list and a podcast's own list are shown as they are, only
+        // copy the current episode set if there is no such list
+        final List<Episode> podcastEpisodes = isMerging() ?
+                episodeMerger.getEpisodes() : getSelectedPodcastEpisodes();
+        final FilteredEpisodeList episodeList;
+        if (podcastEpisodes != null)
+            episodeList = new FilteredEpisodeList(podcastEpisodes, EpisodeOrder.NEWEST_FIRST);
+        else
+            episodeList = new FilteredEpisodeList(new ArrayList<>(currentEpisodeSet),
+                    currentEpisodeSet.comparator() == null ?
+                            EpisodeOrder.NEWEST_FIRST : currentEpisodeSet.comparator());
 
         // Further refine the episode list if not in playlist mode
         if (!ContentMode.PLAYLIST.equals(selection.getMode())) {
             // Apply the filter
-            if (selection.isEpisodeFilterEnabled()) {
-                Iterator<Episode> iterator = filteredList.iterator();
-
-                while (iterator.hasNext())
-                    if (episodeManager.getState(iterator.next()))
-                        iterator.remove();
-            }
+            if (selection.isEpisodeFilterEnabled())
+                episodeList.setFilter(newEpisodesFilter);
 
             // We might need to reverse the order of our list,
             // but there is no need for sorting since we already come
             // from a sorted set.
-            if (selection.isEpisodeOrderReversed())
-                Collections.reverse(filteredList);
+            episodeList.setReversed(selection.isEpisodeOrderReversed());
         }
 
         // Make sure the episode list fragment shows the right empty view
@@ -667,7 +863,7 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
         else if (ContentMode.PLAYLIST.equals(selection.getMode()))
             episodeListFragment.setEmptyStringId(R.string.playlist_empty);
         else if (selection.isEpisodeFilterEnabled()
-                && filteredList.isEmpty() && !currentEpisodeSet.isEmpty())
+                && episodeList.isEmpty() && getCurrentEpisodeCount() > 0)
             episodeListFragment.setEmptyStringId(R.string.episodes_no_new);
         else if (selection.isAll())
             episodeListFragment.setEmptyStringId(R.string.episode_none_all_podcasts);
@@ -675,7 +871,7 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
             episodeListFragment.setEmptyStringId(R.string.episode_none);
 
         // Make sure the episode list fragment shows the right info box
-        if (ContentMode.PLAYLIST.equals(selection.getMode()) && filteredList.size() > 1)
+        if (ContentMode.PLAYLIST.equals(selection.getMode()) && episodeList.size() > 1)
             episodeListFragment
                     .setShowTopInfoBox(true, getString(R.string.playlist_swipe_reorder));
         else if (selection.isSingle() && loadFailedCounter > 0)
@@ -685,7 +881,7 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
             episodeListFragment
                     .setShowTopInfoBox(true, getString(R.string.podcast_load_multiple_error_some));
         else if (selection.isEpisodeFilterEnabled()) {
-            final int filteredCount = currentEpisodeSet.size() - filteredList.size();
+            final int filteredCount = episodeList.getFilteredCount();
 
             episodeListFragment.setShowTopInfoBox(
                     filteredCount > 0, getResources().getQuantityString(
@@ -695,7 +891,7 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
             episodeListFragment.setShowTopInfoBox(false, null);
 
         // Finally set the list and make sure selection matches
-        episodeListFragment.setEpisodeList(filteredList);
+        episodeListFragment.setEpisodeList(episodeList);
         updateEpisodeListSelection();
     }
 
@@ -29,7 +29,10 @@ import android.os.AsyncTask;
 import android.os.Process;
 
 import net.alliknow.podcatcher.model.EpisodeManager;
+import net.alliknow.podcatcher.model.LogoCache;
+import net.alliknow.podcatcher.model.LogoStore;
 import net.alliknow.podcatcher.model.PodcastManager;
+import net.alliknow.podcatcher.model.ShowNotesStore;
 import net.alliknow.podcatcher.model.SuggestionManager;
 import net.alliknow.podcatcher.model.SyncManager;
 import net.alliknow.podcatcher.model.tasks.LoadEpisodeMetadataTask;
@@ -57,7 +60,7 @@ public class Podcatcher extends Application {
     /** The HTTP cache size */
     public static final long HTTP_CACHE_SIZE = 8 * 1024 * 1024; // 8 MiB
 
-    /** Thread to move the http cache flushing off the UI thread */
+    /** Thread to move the http and logo cache flushing off the UI thread */
     private static class FlushCacheThread extends Thread {
 
         @Override
@@ -67,6 +70,9 @@ public class Podcatcher extends Application {
             final HttpResponseCache cache = HttpResponseCache.getInstalled();
             if (cache != null)
                 cache.flush();
+
+            // The logo index might have changed as well
+            LogoStore.getInstance().flush();
         }
     }
 
@@ -84,6 +90,11 @@ public class Podcatcher extends Application {
         SuggestionManager.getInstance(this);
         // and sync as well
         SyncManager.getInstance(this);
+        // The show notes live on disk
+        ShowNotesStore.getInstance(this);
+        // Logos are shared from a memory cache and stored on disk
+        LogoCache.getInstance(this);
+        LogoStore.getInstance(this);
 
         // Enabled caching for our HTTP connections
         try {
@@ -108,8 +119,23 @@ public class Podcatcher extends Application {
                 .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, (Void) null);
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        // Logos can be restored from disk, so give their memory back
+        LogoCache.getInstance().trimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+
+        LogoCache.getInstance().trimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
     /**
-     * Write http cache data to disk (async).
+     * Write http cache data and the logo index to disk (async).
      */
     public void flushHttpCache() {
         new FlushCacheThread().start();
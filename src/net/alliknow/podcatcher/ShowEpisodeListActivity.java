@@ -83,6 +83,7 @@ public class ShowEpisodeListActivity extends EpisodeListActivity {
         super.onResume();
 
         updateFilterUi();
+        updateLoadOlderUi();
         updateDownloadUi();
     }
 
@@ -119,7 +120,7 @@ public class ShowEpisodeListActivity extends EpisodeListActivity {
         // Init the list view...
         episodeListFragment.resetAndSpin();
         // ... and start loading
-        podcastManager.load(podcast);
+        podcastManager.load(podcast, true);
         // ... plus special episodes
         episodeManager.getDownloadsAsync(this, podcast);
         episodeManager.getPlaylistAsync(this, podcast);
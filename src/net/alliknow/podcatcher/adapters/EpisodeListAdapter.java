@@ -19,14 +19,13 @@ package net.alliknow.podcatcher.adapters;
 
 import android.content.Context;
 import android.graphics.Color;
-import android.graphics.drawable.ColorDrawable;
-import android.graphics.drawable.StateListDrawable;
 import android.view.View;
 import android.view.ViewGroup;
 
 import net.alliknow.podcatcher.R;
 import net.alliknow.podcatcher.model.EpisodeManager;
 import net.alliknow.podcatcher.model.types.Episode;
+import net.alliknow.podcatcher.model.types.EpisodeStatus;
 import net.alliknow.podcatcher.view.EpisodeListItemView;
 
 import java.util.List;
@@ -43,6 +42,8 @@ public class EpisodeListAdapter extends PodcatcherBaseListAdapter {
 
     /** Our episode manager handle */
     private EpisodeManager episodeManager;
+    /** The status object re-used for all rows */
+    private final EpisodeStatus status = new EpisodeStatus();
 
     /**
      * Create new adapter.
@@ -100,41 +101,23 @@ public class EpisodeListAdapter extends PodcatcherBaseListAdapter {
         final EpisodeListItemView returnView = (EpisodeListItemView)
                 findReturnView(convertView, parent, R.layout.episode_list_item);
         final Episode item = (Episode) getItem(position);
-        final boolean isOld = episodeManager.getState(item);
+
+        // One look-up for all the episode's state, the status is re-used
+        episodeManager.getStatus(item, status);
 
         // Make sure the coloring is right
         if (checkedPositions.get(position))
-            returnView.setBackgroundDrawable(createBackground(lightThemeColor));
+            returnView.setBackgroundForState(lightThemeColor);
         else if (selectedPositions.get(position))
-            returnView.setBackgroundDrawable(createBackground(themeColor));
-        else if (!isOld)
-            returnView.setBackgroundDrawable(createBackground(Color.WHITE));
+            returnView.setBackgroundForState(themeColor);
+        else if (!status.isOld)
+            returnView.setBackgroundForState(Color.WHITE);
         else
-            returnView.setBackgroundDrawable(createBackground(Color.TRANSPARENT));
+            returnView.setBackgroundForState(Color.TRANSPARENT);
 
         // Make the view represent episode at given position
-        returnView.show(item, showPodcastNames, isOld);
+        returnView.show(item, showPodcastNames, status);
 
         return returnView;
     }
-
-    private StateListDrawable createBackground(int defaultColor) {
-        final StateListDrawable background = new StateListDrawable();
-
-        // This is needed because we want the list selector to be visible even
-        // though is not drawn on top. To this goal, we set the background to
-        // transparent when the list item is pressed.
-        background.addState(new int[] {
-                android.R.attr.state_pressed
-        }, new ColorDrawable(Color.TRANSPARENT));
-        background.addState(new int[] {
-                android.R.attr.state_focused
-        }, new ColorDrawable(Color.TRANSPARENT));
-        background.addState(new int[] {
-                android.R.attr.state_selected
-        }, new ColorDrawable(Color.TRANSPARENT));
-        background.addState(new int[] {}, new ColorDrawable(defaultColor));
-
-        return background;
-    }
 }
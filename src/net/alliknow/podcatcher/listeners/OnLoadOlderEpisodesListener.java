@@ -0,0 +1,30 @@
+/** Copyright 2012-2014 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.listeners;
+
+/**
+ * Interface for the controller to implement when the user requests the episodes
+ * that are older than the podcast's episode window.
+ */
+public interface OnLoadOlderEpisodesListener {
+
+    /**
+     * Called on the listener if older episodes should be loaded.
+     */
+    public void onLoadOlderEpisodes();
+}
@@ -0,0 +1,39 @@
+/** Copyright 2012-2014 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.listeners;
+
+import net.alliknow.podcatcher.model.EpisodeListMerger;
+import net.alliknow.podcatcher.model.EpisodeListMerger.Change;
+
+import java.util.List;
+
+/**
+ * Interface definition for a callback to be invoked when the episode list
+ * merger published a new merged list.
+ */
+public interface OnMergeEpisodesListener {
+
+    /**
+     * Called on listener (on the main thread) when a merge completed. The
+     * merged list is available from {@link EpisodeListMerger#getEpisodes()}.
+     * 
+     * @param changes The changes leading from the previous merged list to the
+     *            new one, in the order they need to be applied.
+     */
+    public void onEpisodesMerged(List<Change> changes);
+}
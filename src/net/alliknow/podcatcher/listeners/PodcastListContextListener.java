@@ -20,6 +20,8 @@ package net.alliknow.podcatcher.listeners;
 import static android.net.Uri.encode;
 import static net.alliknow.podcatcher.BaseActivity.PODCAST_POSITION_LIST_KEY;
 import static net.alliknow.podcatcher.view.fragments.AuthorizationFragment.USERNAME_PRESET_KEY;
+import static net.alliknow.podcatcher.view.fragments.EpisodeWindowFragment.LIMIT_PRESET_KEY;
+import static net.alliknow.podcatcher.view.fragments.EpisodeWindowFragment.MONTHS_PRESET_KEY;
 
 import android.content.ActivityNotFoundException;
 import android.content.Intent;
@@ -39,6 +41,8 @@ import net.alliknow.podcatcher.model.PodcastManager;
 import net.alliknow.podcatcher.model.types.Podcast;
 import net.alliknow.podcatcher.view.fragments.AuthorizationFragment;
 import net.alliknow.podcatcher.view.fragments.AuthorizationFragment.OnEnterAuthorizationListener;
+import net.alliknow.podcatcher.view.fragments.EpisodeWindowFragment;
+import net.alliknow.podcatcher.view.fragments.EpisodeWindowFragment.OnSelectEpisodeWindowListener;
 import net.alliknow.podcatcher.view.fragments.PodcastListFragment;
 
 import java.util.ArrayList;
@@ -54,6 +58,8 @@ public class PodcastListContextListener implements MultiChoiceModeListener {
 
     /** The edit authorization menu item */
     private MenuItem editAuthMenuItem;
+    /** The episode window menu item */
+    private MenuItem episodeWindowMenuItem;
     /** The send suggestion menu item */
     private MenuItem sendSuggestionMenuItem;
 
@@ -71,6 +77,7 @@ public class PodcastListContextListener implements MultiChoiceModeListener {
         mode.getMenuInflater().inflate(R.menu.podcast_list_context, menu);
 
         editAuthMenuItem = menu.findItem(R.id.edit_auth_contextmenuitem);
+        episodeWindowMenuItem = menu.findItem(R.id.episode_window_contextmenuitem);
         sendSuggestionMenuItem = menu.findItem(R.id.suggest_podcast_contextmenuitem);
 
         return true;
@@ -131,6 +138,34 @@ public class PodcastListContextListener implements MultiChoiceModeListener {
                 authorizationFragment
                         .show(fragment.getFragmentManager(), AuthorizationFragment.TAG);
 
+                return true;
+            case R.id.episode_window_contextmenuitem:
+                // There is only one podcast checked...
+                final Podcast windowed =
+                        (Podcast) fragment.getListAdapter().getItem(positions.get(0));
+
+                // Show dialog for the episode window, the current one checked
+                final EpisodeWindowFragment windowFragment = new EpisodeWindowFragment();
+                final Bundle args = new Bundle();
+                args.putInt(LIMIT_PRESET_KEY, windowed.getEpisodeLimit());
+                args.putInt(MONTHS_PRESET_KEY, windowed.getEpisodeMonths());
+                windowFragment.setArguments(args);
+
+                // Set the callback
+                windowFragment.setListener(new OnSelectEpisodeWindowListener() {
+
+                    @Override
+                    public void onSelectEpisodeWindow(int limit, int months) {
+                        PodcastManager.getInstance().setEpisodeWindow(windowed, limit, months);
+
+                        // Action picked, so close the CAB
+                        mode.finish();
+                    }
+                });
+
+                // Finally show the dialog
+                windowFragment.show(fragment.getFragmentManager(), EpisodeWindowFragment.TAG);
+
                 return true;
             case R.id.suggest_podcast_contextmenuitem:
                 // There is only one podcast checked...
@@ -202,6 +237,7 @@ public class PodcastListContextListener implements MultiChoiceModeListener {
 
             // Show/hide edit auth menu item
             editAuthMenuItem.setVisible(checkedItemCount == 1);
+            episodeWindowMenuItem.setVisible(checkedItemCount == 1);
             sendSuggestionMenuItem.setVisible(checkedItemCount == 1);
         } catch (NullPointerException npe) {
             // pass, this happens when some of the parts (fragment or listview)
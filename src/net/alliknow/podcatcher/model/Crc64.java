@@ -0,0 +1,86 @@
+/** Copyright 2012-2014 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+/**
+ * Computes the 64-bit cyclic redundancy check (CRC-64/XZ, ECMA-182 polynomial)
+ * of a byte sequence. Feed the bytes in any number of chunks using
+ * {@link #update(byte[], int, int)}. With 64 bits, two different feed files
+ * practically never share the same value, so it can be used to tell whether
+ * a file changed without keeping the old one around.
+ */
+public class Crc64 {
+
+    /** The ECMA-182 polynomial (bit-reversed) */
+    private static final long POLYNOMIAL = 0xc96c5795d7870f42L;
+    /** The CRC values for all byte values */
+    private static final long[] TABLE = new long[256];
+
+    static {
+        for (int value = 0; value < TABLE.length; value++) {
+            long crc = value;
+
+            for (int bit = 0; bit < 8; bit++)
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+
+            TABLE[value] = crc;
+        }
+    }
+
+    /** The current (inverted) CRC value */
+    private long crc = -1L;
+
+    /**
+     * Add the given bytes to the checksum.
+     * 
+     * @param bytes The byte array to read from.
+     * @param offset The position of the first byte to add.
+     * @param count The number of bytes to add.
+     */
+    public void update(byte[] bytes, int offset, int count) {
+        long value = crc;
+
+        for (int index = offset; index < offset + count; index++)
+            value = TABLE[((int) value ^ bytes[index]) & 0xff] ^ (value >>> 8);
+
+        crc = value;
+    }
+
+    /**
+     * Add a single byte to the checksum.
+     * 
+     * @param b The byte to add (only the lowest eight bits are used).
+     */
+    public void update(int b) {
+        crc = TABLE[((int) crc ^ b) & 0xff] ^ (crc >>> 8);
+    }
+
+    /**
+     * @return The checksum of all bytes added so far.
+     */
+    public long getValue() {
+        return ~crc;
+    }
+
+    /**
+     * Reset the checksum to the state before any bytes were added.
+     */
+    public void reset() {
+        crc = -1L;
+    }
+}
@@ -0,0 +1,396 @@
+/** Copyright 2012-2014 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Thread-safe parser for the date strings found in podcast feeds. Reads the
+ * RFC 822 format used by RSS (e.g. "Sun, 17 Nov 2013 10:15:00 -0600") and the
+ * ISO 8601 format used by Atom (e.g. "2013-11-17T10:15:00Z"). Two-digit years
+ * are resolved like {@link java.text.SimpleDateFormat} does, time zones can be
+ * given as numeric offsets or as one of the names defined by RFC 822. Dates
+ * without a time or a zone are taken as local time. The parser does not
+ * synchronize and does not create any objects (apart from the time zone
+ * lookup for local dates).
+ */
+public class DateParser {
+
+    /** The return value for strings that cannot be parsed */
+    public static final long INVALID = Long.MIN_VALUE;
+
+    /** The month names, only the first three letters are mandatory */
+    private static final String[] MONTHS = {
+            "January", "February", "March", "April", "May", "June", "July",
+            "August", "September", "October", "November", "December"
+    };
+    /** The time zone names supported */
+    private static final String[] ZONE_NAMES = {
+            "GMT", "UTC", "UT", "Z", "EST", "EDT", "CST", "CDT", "MST", "MDT", "PST", "PDT"
+    };
+    /** The time zone offsets in minutes, same order as the names above */
+    private static final int[] ZONE_OFFSETS = {
+            0, 0, 0, 0, -300, -240, -360, -300, -420, -360, -480, -420
+    };
+
+    /**
+     * The first year of the century two-digit years are mapped to (80 years
+     * back, just like {@link java.text.SimpleDateFormat} does)
+     */
+    private static final int CENTURY_START_YEAR =
+            Calendar.getInstance(Locale.US).get(Calendar.YEAR) - 80;
+
+    private static final long MILLIS_PER_MINUTE = 60 * 1000;
+    private static final long MILLIS_PER_DAY = 24 * 60 * MILLIS_PER_MINUTE;
+    /** Marks a missing time zone (used internally only) */
+    private static final int NO_ZONE = Integer.MIN_VALUE;
+
+    /**
+     * Parse a date string from a feed.
+     * 
+     * @param date The date string to read.
+     * @return The number of milliseconds since the epoch or {@link #INVALID}
+     *         if the string is <code>null</code> or not in any of the formats
+     *         supported.
+     */
+    public static long parse(String date) {
+        if (date == null)
+            return INVALID;
+
+        // Ignore leading and trailing white space
+        int start = skipWhitespace(date, 0);
+        int end = date.length();
+        while (end > start && Character.isWhitespace(date.charAt(end - 1)))
+            end--;
+
+        if (start == end)
+            return INVALID;
+        else if (isDigit(date.charAt(start))) {
+            final int digitsEnd = skipDigits(date, start, end);
+
+            // ISO 8601 starts with the year followed by a dash
+            if (digitsEnd < end && date.charAt(digitsEnd) == '-')
+                return parseIso8601(date, start, end);
+            else
+                return parseRfc822(date, start, end);
+        } else {
+            // Skip the day of week, it is not needed and optional
+            start = skipLetters(date, start, end);
+            if (start < end && date.charAt(start) == ',')
+                start++;
+
+            return parseRfc822(date, skipWhitespace(date, start), end);
+        }
+    }
+
+    private static long parseRfc822(String date, int pos, int end) {
+        // 1. Day, month, year
+        int next = skipDigits(date, pos, end);
+        if (next == pos || next - pos > 2)
+            return INVALID;
+        final int day = toInt(date, pos, next);
+
+        pos = skipWhitespace(date, next);
+        next = skipLetters(date, pos, end);
+        final int month = toMonth(date, pos, next);
+        if (month < 0)
+            return INVALID;
+
+        pos = skipWhitespace(date, next);
+        next = skipDigits(date, pos, end);
+        final int year = toYear(date, pos, next);
+        if (year < 0)
+            return INVALID;
+
+        final long days = toDays(year, month, day);
+        pos = skipWhitespace(date, next);
+        // Only the date is given
+        if (pos == end)
+            return fromLocalTime(days * MILLIS_PER_DAY);
+
+        // 2. Time (hours and minutes, seconds are optional)
+        final long time = parseTime(date, pos, end, false);
+        if (time < 0)
+            return INVALID;
+        pos = skipWhitespace(date, (int) (time >>> 32));
+        final long localMillis = days * MILLIS_PER_DAY + (time & 0xffffffffL);
+        if (pos == end)
+            return fromLocalTime(localMillis);
+
+        // 3. Time zone, anything after it is ignored
+        final int offset = parseZone(date, pos, end);
+        if (offset == NO_ZONE)
+            return INVALID;
+        else
+            return localMillis - offset * MILLIS_PER_MINUTE;
+    }
+
+    private static long parseIso8601(String date, int pos, int end) {
+        // 1. Year, month, day
+        int next = skipDigits(date, pos, end);
+        final int year = toYear(date, pos, next);
+        if (year < 0 || next >= end || date.charAt(next) != '-')
+            return INVALID;
+
+        pos = next + 1;
+        next = skipDigits(date, pos, end);
+        if (next == pos || next - pos > 2 || next >= end || date.charAt(next) != '-')
+            return INVALID;
+        final int month = toInt(date, pos, next) - 1;
+
+        pos = next + 1;
+        next = skipDigits(date, pos, end);
+        if (next == pos || next - pos > 2)
+            return INVALID;
+        final long days = toDays(year, month, toInt(date, pos, next));
+        // Only the date is given
+        if (next == end)
+            return fromLocalTime(days * MILLIS_PER_DAY);
+
+        // 2. Time, separated by a "T" or a blank
+        final char separator = date.charAt(next);
+        if (separator != 'T' && separator != 't' && separator != ' ')
+            return INVALID;
+        final long time = parseTime(date, next + 1, end, true);
+        if (time < 0)
+            return INVALID;
+        pos = (int) (time >>> 32);
+        final long localMillis = days * MILLIS_PER_DAY + (time & 0xffffffffL);
+        if (pos == end)
+            return fromLocalTime(localMillis);
+
+        // 3. Time zone, nothing is allowed after it
+        final int offset = parseZone(date, pos, end);
+        if (offset == NO_ZONE || skipZone(date, pos, end) != end)
+            return INVALID;
+        else
+            return localMillis - offset * MILLIS_PER_MINUTE;
+    }
+
+    /**
+     * Read a time of day "hh:mm[:ss[.fff]]", fractions are only allowed if
+     * asked for. Returns the position after the time in the upper and the
+     * milliseconds of the day in the lower 32 bits, or -1 if not valid.
+     */
+    private static long parseTime(String date, int pos, int end, boolean allowFraction) {
+        int next = skipDigits(date, pos, end);
+        if (next == pos || next - pos > 2 || next >= end || date.charAt(next) != ':')
+            return -1;
+        long millis = toInt(date, pos, next) * 60 * MILLIS_PER_MINUTE;
+
+        pos = next + 1;
+        next = skipDigits(date, pos, end);
+        if (next == pos || next - pos > 2)
+            return -1;
+        millis += toInt(date, pos, next) * MILLIS_PER_MINUTE;
+
+        if (next < end && date.charAt(next) == ':') {
+            pos = next + 1;
+            next = skipDigits(date, pos, end);
+            if (next == pos || next - pos > 2)
+                return -1;
+            millis += toInt(date, pos, next) * 1000;
+
+            if (allowFraction && next < end && date.charAt(next) == '.') {
+                pos = next + 1;
+                next = skipDigits(date, pos, end);
+                if (next == pos)
+                    return -1;
+                // Only milliseconds matter
+                int fraction = toInt(date, pos, Math.min(next, pos + 3));
+                for (int digits = next - pos; digits < 3; digits++)
+                    fraction *= 10;
+                millis += fraction;
+            }
+        }
+
+        return ((long) next << 32) | millis;
+    }
+
+    /**
+     * Read a time zone, either numeric (e.g. "+0100", "-05:00", "+02") or by
+     * name, optionally followed by an offset (e.g. "GMT+01:00"). Returns the
+     * offset in minutes or {@link #NO_ZONE} if not valid.
+     */
+    private static int parseZone(String date, int pos, int end) {
+        final char first = date.charAt(pos);
+
+        if (first == '+' || first == '-')
+            return parseOffset(date, pos, end);
+        else {
+            final int next = skipLetters(date, pos, end);
+            int offset = NO_ZONE;
+
+            for (int index = 0; index < ZONE_NAMES.length; index++)
+                if (ZONE_NAMES[index].length() == next - pos
+                        && date.regionMatches(true, pos, ZONE_NAMES[index], 0, next - pos)) {
+                    offset = ZONE_OFFSETS[index];
+                    break;
+                }
+
+            // UTC and GMT might come with an offset
+            if (offset == 0 && next < end
+                    && (date.charAt(next) == '+' || date.charAt(next) == '-'))
+                offset = parseOffset(date, next, end);
+
+            return offset;
+        }
+    }
+
+    private static int parseOffset(String date, int pos, int end) {
+        final int sign = date.charAt(pos) == '-' ? -1 : 1;
+        final int start = pos + 1;
+        int next = skipDigits(date, start, end);
+
+        // e.g. "+0100" or "+01"
+        if (next - start == 4)
+            return sign * (toInt(date, start, start + 2) * 60 + toInt(date, start + 2, next));
+        else if (next - start == 2 || next - start == 1) {
+            int minutes = toInt(date, start, next) * 60;
+
+            // e.g. "+01:00"
+            if (next < end && date.charAt(next) == ':') {
+                final int minutesStart = next + 1;
+                next = skipDigits(date, minutesStart, end);
+                if (next - minutesStart != 2)
+                    return NO_ZONE;
+
+                minutes += toInt(date, minutesStart, next);
+            }
+
+            return sign * minutes;
+        } else
+            return NO_ZONE;
+    }
+
+    /**
+     * @return The position after the time zone starting at the given position.
+     */
+    private static int skipZone(String date, int pos, int end) {
+        pos = skipLetters(date, pos, end);
+
+        if (pos < end && (date.charAt(pos) == '+' || date.charAt(pos) == '-')) {
+            pos = skipDigits(date, pos + 1, end);
+
+            if (pos < end && date.charAt(pos) == ':')
+                pos = skipDigits(date, pos + 1, end);
+        }
+
+        return pos;
+    }
+
+    /**
+     * @return The month index (0-11) or -1 if the letters between start and
+     *         end are not the name of a month or its three letter abbreviation
+     *         (also allowing for "Sept").
+     */
+    private static int toMonth(String date, int start, int end) {
+        final int length = end - start;
+
+        if (length >= 3)
+            for (int index = 0; index < MONTHS.length; index++) {
+                final String month = MONTHS[index];
+                // Abbreviation, full name or "Sept"
+                final boolean lengthFits = length == 3 || length == month.length()
+                        || (index == 8 && length == 4);
+
+                if (lengthFits && date.regionMatches(true, start, month, 0, length))
+                    return index;
+            }
+
+        return -1;
+    }
+
+    /**
+     * @return The year for the digits between start and end, two-digit years
+     *         are mapped to the century starting 80 years ago. Returns -1 if
+     *         there are not two or four digits.
+     */
+    private static int toYear(String date, int start, int end) {
+        if (end - start == 4)
+            return toInt(date, start, end);
+        else if (end - start == 2) {
+            final int shortYear = toInt(date, start, end);
+            final int year = (CENTURY_START_YEAR / 100) * 100 + shortYear;
+
+            return shortYear < CENTURY_START_YEAR % 100 ? year + 100 : year;
+        } else
+            return -1;
+    }
+
+    /**
+     * @return The days since the epoch for the given date. Month and day do not
+     *         need to be in range, they will simply roll over.
+     */
+    private static long toDays(int year, int month, int day) {
+        // Make month fit 0-11
+        year += month >= 0 ? month / 12 : (month - 11) / 12;
+        month = ((month % 12) + 12) % 12;
+
+        // Count from March, so the leap day is the last day of the year
+        final int y = month < 2 ? year - 1 : year;
+        final int era = (y >= 0 ? y : y - 399) / 400;
+        final int yearOfEra = y - era * 400;
+        final int dayOfYear = (153 * (month < 2 ? month + 10 : month - 2) + 2) / 5;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+        return era * 146097L + dayOfEra - 719468 + day - 1;
+    }
+
+    private static long fromLocalTime(long localMillis) {
+        final TimeZone zone = TimeZone.getDefault();
+
+        return localMillis - zone.getOffset(localMillis - zone.getRawOffset());
+    }
+
+    private static int toInt(String date, int start, int end) {
+        int result = 0;
+
+        for (int index = start; index < end; index++)
+            result = result * 10 + date.charAt(index) - '0';
+
+        return result;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int skipDigits(String date, int pos, int end) {
+        while (pos < end && isDigit(date.charAt(pos)))
+            pos++;
+
+        return pos;
+    }
+
+    private static int skipLetters(String date, int pos, int end) {
+        while (pos < end && Character.isLetter(date.charAt(pos)))
+            pos++;
+
+        return pos;
+    }
+
+    private static int skipWhitespace(String date, int pos) {
+        while (pos < date.length() && Character.isWhitespace(date.charAt(pos)))
+            pos++;
+
+        return pos;
+    }
+}
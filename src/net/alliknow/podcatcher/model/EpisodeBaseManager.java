@@ -25,8 +25,10 @@ import net.alliknow.podcatcher.listeners.OnStoreEpisodeMetadataListener;
 import net.alliknow.podcatcher.model.tasks.StoreEpisodeMetadataTask;
 import net.alliknow.podcatcher.model.types.Episode;
 import net.alliknow.podcatcher.model.types.EpisodeMetadata;
+import net.alliknow.podcatcher.model.types.Podcast;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
@@ -50,6 +52,8 @@ public abstract class EpisodeBaseManager implements OnLoadEpisodeMetadataListene
     protected Map<String, EpisodeMetadata> metadata;
     /** Flag to indicate whether metadata is dirty */
     protected boolean metadataChanged;
+    /** The episode flags per podcast URL, created on demand */
+    private final Map<String, EpisodeFlags> episodeFlags = new ConcurrentHashMap<>();
 
     /** Amount of milliseconds between {@link #saveState()} calls */
     private long PERSIST_METADATA_INTERVAL = 60 * 1000;
@@ -68,6 +72,36 @@ public abstract class EpisodeBaseManager implements OnLoadEpisodeMetadataListene
         }
     };
 
+    /** The metadata lookup key per thread, re-used for every lookup */
+    private static final ThreadLocal<MetadataKey> metadataKeys = new ThreadLocal<MetadataKey>() {
+
+        @Override
+        protected MetadataKey initialValue() {
+            return new MetadataKey();
+        }
+    };
+
+    /**
+     * Key to find an episode's metadata record without building the media
+     * URL it is stored under. This works because maps compare the key given
+     * to the ones stored using the given key's {@link #equals(Object)}.
+     */
+    private static class MetadataKey {
+
+        /** The episode we are looking for */
+        private Episode episode;
+
+        @Override
+        public int hashCode() {
+            return episode.getMediaUrlHashCode();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof String && episode.hasMediaUrl((String) other);
+        }
+    }
+
     /** Latch we use to block all threads until we have our data */
     private CountDownLatch latch = new CountDownLatch(1);
 
@@ -94,6 +128,7 @@ public abstract class EpisodeBaseManager implements OnLoadEpisodeMetadataListene
         // clean-up work off to other threads.
         this.metadata = new ConcurrentHashMap<>(metadata);
         this.metadataChanged = false;
+        episodeFlags.clear();
 
         // Here we need to release all threads (AsyncTasks) that might be
         // waiting for the episode metadata to become available
@@ -143,6 +178,27 @@ public abstract class EpisodeBaseManager implements OnLoadEpisodeMetadataListene
         isStoreTaskRunning = false;
     }
 
+    /**
+     * Find the metadata record of an episode. This is the same as looking it
+     * up using {@link Episode#getMediaUrl()}, but does not build the URL.
+     * 
+     * @param episode Episode to find the record for (not <code>null</code>).
+     * @return The metadata record or <code>null</code> if there is none, the
+     *         episode has no media URL or the metadata is not available.
+     */
+    protected EpisodeMetadata getMetadata(Episode episode) {
+        if (metadata == null)
+            return null;
+
+        final MetadataKey key = metadataKeys.get();
+        key.episode = episode;
+        try {
+            return metadata.get(key);
+        } finally {
+            key.episode = null;
+        }
+    }
+
     /**
      * Utility method to populate an episode's metadata object.
      * 
@@ -159,4 +215,77 @@ public abstract class EpisodeBaseManager implements OnLoadEpisodeMetadataListene
             meta.podcastUrl = episode.getPodcast().getUrl();
         }
     }
+
+    /**
+     * Get the flags for the podcast's current episode list. They are created
+     * from the metadata if not present or made for another list version.
+     * 
+     * @param podcast Podcast to get flags for (not <code>null</code>).
+     * @return The flags or <code>null</code> if the metadata is not available.
+     */
+    protected EpisodeFlags getFlags(Podcast podcast) {
+        final List<Episode> episodes = podcast.getEpisodes();
+        EpisodeFlags flags = episodeFlags.get(podcast.getUrl());
+
+        if ((flags == null || !flags.isFor(episodes)) && metadata != null) {
+            flags = new EpisodeFlags(episodes);
+
+            for (int position = 0; position < episodes.size(); position++)
+                flags.update(position, getMetadata(episodes.get(position)));
+
+            episodeFlags.put(podcast.getUrl(), flags);
+        }
+
+        return flags;
+    }
+
+    /**
+     * Find the flags covering the given episode. Episodes restored from the
+     * metadata share the flags of the podcast they belong to.
+     * 
+     * @param episode Episode to find flags for (not <code>null</code>).
+     * @return The flags or <code>null</code> if there are none for the
+     *         episode's podcast.
+     */
+    protected EpisodeFlags findFlags(Episode episode) {
+        final Podcast podcast = episode.getPodcast();
+        if (podcast == null || metadata == null)
+            return null;
+
+        final EpisodeFlags flags = episodeFlags.get(podcast.getUrl());
+        // Restored episodes have a podcast without episodes, do not
+        // create flags for that
+        if (flags == null && podcast.getEpisodeCount() > 0)
+            return getFlags(podcast);
+        else
+            return flags;
+    }
+
+    /**
+     * Make the episode flags match the episode's metadata. Call this whenever
+     * the old, download, playlist or resume information changes.
+     * 
+     * @param episode Episode that changed (not <code>null</code>).
+     * @param meta The episode's metadata record, might be <code>null</code>.
+     */
+    protected void updateFlags(Episode episode, EpisodeMetadata meta) {
+        final Podcast podcast = episode.getPodcast();
+        final EpisodeFlags flags = podcast == null ? null : episodeFlags.get(podcast.getUrl());
+
+        if (flags != null) {
+            final int position = flags.indexOf(episode);
+
+            if (position >= 0)
+                flags.update(position, meta);
+        }
+    }
+
+    /**
+     * Drop the episode flags of a podcast, e.g. because it was removed.
+     * 
+     * @param podcast Podcast to drop flags for (not <code>null</code>).
+     */
+    protected void removeFlags(Podcast podcast) {
+        episodeFlags.remove(podcast.getUrl());
+    }
 }
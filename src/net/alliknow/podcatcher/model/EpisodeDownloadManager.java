@@ -95,7 +95,7 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager implemen
     public void download(Episode episode) {
         if (episode != null && metadata != null && !isDownloadingOrDownloaded(episode)) {
             // Find or create the metadata information holder
-            EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+            EpisodeMetadata meta = getMetadata(episode);
             if (meta == null) {
                 meta = new EpisodeMetadata();
                 metadata.put(episode.getMediaUrl(), meta);
@@ -108,6 +108,7 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager implemen
             // Prepare metadata record
             meta.downloadProgress = -1;
             putAdditionalEpisodeInformation(episode, meta);
+            updateFlags(episode, meta);
 
             // Mark metadata record as dirty
             metadataChanged = true;
@@ -126,9 +127,10 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager implemen
     @Override
     public void onEpisodeEnqueued(Episode episode, long id) {
         // Find the metadata record for the episode
-        final EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+        final EpisodeMetadata meta = getMetadata(episode);
         if (meta != null) {
             meta.downloadId = id;
+            updateFlags(episode, meta);
 
             // Mark metadata record as dirty
             metadataChanged = true;
@@ -138,7 +140,7 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager implemen
     @Override
     public void onEpisodeDownloadProgressed(Episode episode, int percent) {
         // Find the metadata record for the episode
-        final EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+        final EpisodeMetadata meta = getMetadata(episode);
         if (meta != null) {
             meta.downloadProgress = percent;
         }
@@ -150,9 +152,10 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager implemen
     @Override
     public void onEpisodeDownloaded(Episode episode, File episodeFile) {
         // Find the metadata record for the episode
-        final EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+        final EpisodeMetadata meta = getMetadata(episode);
         if (meta != null) {
             meta.filePath = episodeFile.getAbsolutePath();
+            updateFlags(episode, meta);
 
             for (OnDownloadEpisodeListener listener : downloadListeners)
                 listener.onDownloadSuccess(episode);
@@ -169,10 +172,11 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager implemen
     @Override
     public void onEpisodeDownloadFailed(Episode episode, EpisodeDownloadError error) {
         // Find the metadata record for the episode
-        final EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+        final EpisodeMetadata meta = getMetadata(episode);
         if (meta != null) {
             meta.downloadId = null;
             meta.filePath = null;
+            updateFlags(episode, meta);
 
             for (OnDownloadEpisodeListener listener : downloadListeners)
                 listener.onDownloadFailed(episode, error);
@@ -190,7 +194,7 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager implemen
     public void deleteDownload(Episode episode) {
         if (episode != null && metadata != null && isDownloadingOrDownloaded(episode)) {
             // Find the metadata information holder
-            final EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+            final EpisodeMetadata meta = getMetadata(episode);
             if (meta != null) {
                 // Keep info for the thread to run on
                 final long downloadId = meta.downloadId;
@@ -218,6 +222,7 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager implemen
 
                 meta.downloadId = null;
                 meta.filePath = null;
+                updateFlags(episode, meta);
 
                 // Alert listeners
                 for (OnDownloadEpisodeListener listener : downloadListeners)
@@ -240,8 +245,15 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager implemen
      * @return <code>true</code> if the episode is downloaded and available.
      */
     public boolean isDownloaded(Episode episode) {
-        if (episode != null && metadata != null)
-            return isDownloaded(metadata.get(episode.getMediaUrl()));
+        if (episode != null && metadata != null) {
+            // Most episodes are not downloaded, the flags tell us cheaply
+            final EpisodeFlags flags = findFlags(episode);
+            final int position = flags == null ? -1 : flags.indexOf(episode);
+            if (position >= 0 && !flags.get(position, EpisodeFlags.DOWNLOADED))
+                return false;
+
+            return isDownloaded(getMetadata(episode));
+        }
         else
             return false;
     }
@@ -255,7 +267,7 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager implemen
      */
     public boolean isDownloading(Episode episode) {
         if (episode != null && metadata != null) {
-            final EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+            final EpisodeMetadata meta = getMetadata(episode);
 
             return meta != null
                     && meta.downloadId != null
@@ -288,7 +300,7 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager implemen
      */
     public int getDownloadProgress(Episode episode) {
         if (isDownloading(episode)) {
-            final EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+            final EpisodeMetadata meta = getMetadata(episode);
 
             if (meta != null) {
                 return meta.downloadProgress;
@@ -389,7 +401,7 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager implemen
      */
     public String getLocalPath(Episode episode) {
         if (episode != null && metadata != null) {
-            final EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+            final EpisodeMetadata meta = getMetadata(episode);
 
             return meta == null ? null : meta.filePath;
         }
@@ -425,11 +437,15 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager implemen
                 downloadsSize++;
     }
 
-    private boolean isDownloaded(EpisodeMetadata meta) {
+    /**
+     * @param meta The metadata record to check, might be <code>null</code>.
+     * @return Whether the record belongs to a downloaded episode with its file
+     *         available.
+     */
+    protected boolean isDownloaded(EpisodeMetadata meta) {
         return meta != null
                 && meta.downloadId != null
-                && meta.filePath != null
-                && new File(meta.filePath).exists();
+                && meta.isFileAvailable();
     }
 
     /** The receiver we register for download selections */
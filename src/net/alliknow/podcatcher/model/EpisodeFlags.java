@@ -0,0 +1,179 @@
+/** Copyright 2012-2014 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import net.alliknow.podcatcher.model.types.Episode;
+import net.alliknow.podcatcher.model.types.EpisodeMetadata;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The flags (old, downloaded, in playlist, resume set, downloading) of all
+ * episodes in a podcast's episode list, kept as one bit set per flag with a
+ * counter each. Episodes are found via their media URL hash, so neither a
+ * lookup nor an update allocates. The flags belong to one version of the
+ * episode list, check {@link #isFor(List)} before trusting the counts.
+ */
+public final class EpisodeFlags {
+
+    /** The episode is marked old */
+    public static final int OLD = 0;
+    /** The episode has a local file recorded */
+    public static final int DOWNLOADED = 1;
+    /** The episode is in the playlist */
+    public static final int IN_PLAYLIST = 2;
+    /** The episode has a resume time set */
+    public static final int RESUME_SET = 3;
+    /** The episode is downloading */
+    public static final int DOWNLOADING = 4;
+    /** The number of flags we keep */
+    private static final int FLAG_COUNT = 5;
+
+    /** The episode list the flags are for */
+    private final List<Episode> episodes;
+    /** The episodes' hash codes in ascending order */
+    private final int[] hashes;
+    /** The episode list positions for the hash codes */
+    private final int[] positions;
+    /** The bits per flag, indexed by episode list position */
+    private final BitSet[] bits = new BitSet[FLAG_COUNT];
+    /** The number of bits set per flag */
+    private final int[] counts = new int[FLAG_COUNT];
+
+    /**
+     * Create the flags for an episode list, all flags are cleared.
+     * 
+     * @param episodes The episode list (not <code>null</code>, not changing).
+     */
+    public EpisodeFlags(List<Episode> episodes) {
+        final int size = episodes.size();
+        this.episodes = episodes;
+        this.hashes = new int[size];
+        this.positions = new int[size];
+
+        // Sort hash and position pairs by hash
+        final long[] pairs = new long[size];
+        for (int position = 0; position < size; position++)
+            pairs[position] = (long) episodes.get(position).hashCode() << 32 | position;
+        Arrays.sort(pairs);
+
+        for (int index = 0; index < size; index++) {
+            hashes[index] = (int) (pairs[index] >> 32);
+            positions[index] = (int) pairs[index];
+        }
+
+        for (int flag = 0; flag < FLAG_COUNT; flag++)
+            bits[flag] = new BitSet(size);
+    }
+
+    /**
+     * @param episodes The current episode list of the podcast.
+     * @return Whether these flags were created for that list.
+     */
+    public boolean isFor(List<Episode> episodes) {
+        return this.episodes == episodes;
+    }
+
+    /**
+     * @return The number of episodes covered.
+     */
+    public int size() {
+        return episodes.size();
+    }
+
+    /**
+     * Find the position of an episode in the list the flags are for.
+     * 
+     * @param episode The episode to look for.
+     * @return The position or -1 if the episode is not in the list.
+     */
+    public int indexOf(Episode episode) {
+        final int hash = episode.hashCode();
+        int index = Arrays.binarySearch(hashes, hash);
+
+        if (index >= 0) {
+            // Several episodes might share the hash
+            while (index > 0 && hashes[index - 1] == hash)
+                index--;
+
+            for (; index < hashes.length && hashes[index] == hash; index++)
+                if (episodes.get(positions[index]).equals(episode))
+                    return positions[index];
+        }
+
+        return -1;
+    }
+
+    /**
+     * @param position The episode position.
+     * @param flag The flag to check.
+     * @return Whether the flag is set for the episode.
+     */
+    public synchronized boolean get(int position, int flag) {
+        return bits[flag].get(position);
+    }
+
+    /**
+     * @param position The episode position.
+     * @return All flags set for the episode, flag <code>f</code> is set if
+     *         bit <code>1 &lt;&lt; f</code> is.
+     */
+    public synchronized int getMask(int position) {
+        int mask = 0;
+
+        for (int flag = 0; flag < FLAG_COUNT; flag++)
+            if (bits[flag].get(position))
+                mask |= 1 << flag;
+
+        return mask;
+    }
+
+    /**
+     * @param flag The flag to count.
+     * @return The number of episodes the flag is set for.
+     */
+    public synchronized int count(int flag) {
+        return counts[flag];
+    }
+
+    /**
+     * Update all flags for the episode at the given position to match its
+     * metadata record.
+     * 
+     * @param position The episode position.
+     * @param meta The episode's metadata, <code>null</code> clears all flags.
+     */
+    public synchronized void update(int position, EpisodeMetadata meta) {
+        set(position, OLD, meta != null && meta.isOld != null && meta.isOld);
+        set(position, DOWNLOADED, meta != null && meta.downloadId != null
+                && meta.filePath != null);
+        set(position, IN_PLAYLIST, meta != null && meta.playlistPosition != null);
+        set(position, RESUME_SET, meta != null && meta.resumeAt != null);
+        set(position, DOWNLOADING, meta != null && meta.downloadId != null
+                && meta.filePath == null);
+    }
+
+    private void set(int position, int flag, boolean value) {
+        if (bits[flag].get(position) != value) {
+            bits[flag].set(position, value);
+            counts[flag] += value ? 1 : -1;
+        }
+    }
+}
@@ -0,0 +1,547 @@
+/** Copyright 2012-2014 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import static android.os.Process.THREAD_PRIORITY_BACKGROUND;
+
+import android.os.AsyncTask;
+import android.os.Process;
+
+import net.alliknow.podcatcher.listeners.OnMergeEpisodesListener;
+import net.alliknow.podcatcher.model.types.Episode;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges the episode lists of many podcasts (and other sources) into one
+ * sorted list of distinct episodes. Each source list is kept as a sorted run.
+ * When a run is set or removed, only the episodes that actually changed are
+ * merged (a k-way merge of the runs' new episodes), the result then goes into
+ * a new combined list in a single pass alongside the current one. This
+ * happens off the main thread on an executor of its own, so merges never wait
+ * for feed loads. The main thread only swaps in the new list, the listener
+ * receives the position-level changes to follow along.
+ * <p>
+ * Call all methods but {@link #merge()} from the main thread only.
+ * </p>
+ */
+public class EpisodeListMerger {
+
+    /** The time the idle merge worker is kept alive (in seconds) */
+    private static final int WORKER_KEEP_ALIVE = 30;
+
+    /** The single worker all merges run on, one after the other */
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+            WORKER_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread("EpisodeListMerger") {
+
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(THREAD_PRIORITY_BACKGROUND);
+
+                            runnable.run();
+                        }
+                    };
+                }
+            });
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /** A position-level change to the merged episode list */
+    public static final class Change {
+
+        /** The kinds of changes */
+        public static enum Kind {
+            /** The episode was inserted at the position */
+            INSERT,
+            /** The episode at the position was removed */
+            REMOVE,
+            /** The episode at the position was replaced by a new instance */
+            REPLACE
+        }
+
+        /** The kind of this change */
+        private final Kind kind;
+        /** The position in the list at the time the change is applied */
+        private final int position;
+        /** The episode inserted, removed or put in place */
+        private final Episode episode;
+
+        private Change(Kind kind, int position, Episode episode) {
+            this.kind = kind;
+            this.position = position;
+            this.episode = episode;
+        }
+
+        /**
+         * @return The kind of change.
+         */
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * @return The position changed, valid for the list with all the
+         *         changes before this one applied.
+         */
+        public int getPosition() {
+            return position;
+        }
+
+        /**
+         * @return The episode inserted, removed or put in place.
+         */
+        public Episode getEpisode() {
+            return episode;
+        }
+
+        @Override
+        public String toString() {
+            return kind + "@" + position + ": " + episode;
+        }
+    }
+
+    /** The runs merged, by their keys */
+    private final Map<Object, List<Episode>> runs = new HashMap<>();
+    /** The instance in the merged list for each episode */
+    private final Map<Episode, Episode> shown = new HashMap<>();
+    /** The number of runs each episode in the merged list is part of */
+    private final Map<Episode, Integer> runCounts = new HashMap<>();
+    /** The merged list as of the last merge, never changed once merged */
+    private List<Episode> merged = Collections.emptyList();
+
+    /** The runs set (or removed, value null) since the last merge started */
+    private final Map<Object, List<Episode>> pendingRuns = new LinkedHashMap<>();
+    /** The merged list as published to the main thread (read-only) */
+    private List<Episode> episodes = Collections.emptyList();
+    /** The call-back */
+    private final WeakReference<OnMergeEpisodesListener> listener;
+    /** The merge currently running, if any */
+    private MergeTask task;
+    /** Whether this merger is cancelled */
+    private boolean cancelled = false;
+
+    /**
+     * Create a new merger.
+     * 
+     * @param listener Call-back to alert on each completed merge. The listener
+     *            is held as a weak reference, so you can safely call this from
+     *            an activity without leaking it.
+     */
+    public EpisodeListMerger(OnMergeEpisodesListener listener) {
+        this.listener = new WeakReference<>(listener);
+    }
+
+    /**
+     * Set (or replace) a run of episodes to merge. The run does not need to
+     * be sorted, but if it is, merging is faster. The list is not changed.
+     * 
+     * @param key The key to identify the run by, e.g. the podcast.
+     * @param run The episodes.
+     */
+    public void setRun(Object key, List<Episode> run) {
+        queue(key, run == null ? Collections.<Episode> emptyList() : run);
+    }
+
+    /**
+     * Remove a run of episodes. The episodes are taken out of the merged list
+     * unless part of another run.
+     * 
+     * @param key The key of the run to remove.
+     */
+    public void removeRun(Object key) {
+        queue(key, null);
+    }
+
+    /**
+     * @return The merged list (sorted, unmodifiable) as of the last merge
+     *         published to the listener. The list returned never changes,
+     *         each merge publishes a new one.
+     */
+    public List<Episode> getEpisodes() {
+        return episodes;
+    }
+
+    /**
+     * @return The number of episodes in the merged list.
+     */
+    public int size() {
+        return episodes.size();
+    }
+
+    /**
+     * Stop this merger. The listener will not be called any more.
+     */
+    public void cancel() {
+        cancelled = true;
+
+        if (task != null)
+            task.cancel(false);
+    }
+
+    /**
+     * Merge the runs set or removed since the last merge into the merged list.
+     * This is done for you in the background, only call this directly for
+     * testing.
+     * 
+     * @return The position-level changes to apply to the previous merged list
+     *         to get the new one, in list order (from the front).
+     */
+    public synchronized List<Change> merge() {
+        // 1. Take over the runs set since the last merge
+        final Map<Object, List<Episode>> updates;
+        synchronized (pendingRuns) {
+            updates = new LinkedHashMap<>(pendingRuns);
+            pendingRuns.clear();
+        }
+
+        // 2. Find the episodes to take out, put in, or replace in place
+        final List<Episode> removals = new ArrayList<>();
+        final List<List<Episode>> insertionRuns = new ArrayList<>();
+        final Map<Episode, Boolean> insertions = new IdentityHashMap<>();
+        final Map<Episode, Episode> replacements = new IdentityHashMap<>();
+
+        for (Map.Entry<Object, List<Episode>> update : updates.entrySet()) {
+            final List<Episode> oldRun = runs.remove(update.getKey());
+            final List<Episode> newRun = update.getValue() == null ?
+                    Collections.<Episode> emptyList() : toSortedRun(update.getValue());
+            if (update.getValue() != null)
+                runs.put(update.getKey(), newRun);
+
+            final Map<Episode, Episode> oldEpisodes = new HashMap<>();
+            if (oldRun != null)
+                for (Episode episode : oldRun)
+                    oldEpisodes.put(episode, episode);
+
+            // Episodes new to the run
+            final List<Episode> inserted = new ArrayList<>();
+            for (Episode episode : newRun) {
+                final Episode before = oldEpisodes.remove(episode);
+
+                if (before == null) {
+                    if (retain(episode)) {
+                        shown.put(episode, episode);
+                        insertions.put(episode, Boolean.TRUE);
+                        inserted.add(episode);
+                    }
+                }
+                // Episode still in the run, but we show the old instance
+                else if (before != episode && shown.get(episode) == before) {
+                    shown.put(episode, episode);
+
+                    if (takesSamePlace(before, episode))
+                        replacements.put(before, episode);
+                    else {
+                        remove(before, removals, insertions);
+                        insertions.put(episode, Boolean.TRUE);
+                        inserted.add(episode);
+                    }
+                }
+            }
+            insertionRuns.add(inserted);
+
+            // Episodes no longer in the run
+            for (Episode episode : oldEpisodes.keySet())
+                if (release(episode))
+                    remove(shown.remove(episode), removals, insertions);
+        }
+
+        // 3. Build the new list in one pass over the current one: take out,
+        // replace where the new instance takes the same place, and put in the
+        // new episodes from all runs in order
+        final Map<Episode, Boolean> removed = new IdentityHashMap<>();
+        for (Episode episode : removals)
+            removed.put(episode, Boolean.TRUE);
+
+        final List<Episode> result = new ArrayList<>(merged.size() + insertions.size());
+        final List<Change> changes = new ArrayList<>();
+        final RunMerger newEpisodes = new RunMerger(insertionRuns, insertions);
+        Episode next = newEpisodes.hasNext() ? newEpisodes.next() : null;
+
+        for (Episode episode : merged) {
+            if (removed.containsKey(episode)) {
+                changes.add(new Change(Change.Kind.REMOVE, result.size(), episode));
+                continue;
+            }
+
+            while (next != null && next.compareTo(episode) < 0) {
+                changes.add(new Change(Change.Kind.INSERT, result.size(), next));
+                result.add(next);
+                next = newEpisodes.hasNext() ? newEpisodes.next() : null;
+            }
+
+            final Episode replacement = replacements.get(episode);
+            if (replacement != null) {
+                changes.add(new Change(Change.Kind.REPLACE, result.size(), replacement));
+                result.add(replacement);
+            } else
+                result.add(episode);
+        }
+
+        while (next != null) {
+            changes.add(new Change(Change.Kind.INSERT, result.size(), next));
+            result.add(next);
+            next = newEpisodes.hasNext() ? newEpisodes.next() : null;
+        }
+
+        merged = Collections.unmodifiableList(result);
+        return changes;
+    }
+
+    private void queue(Object key, List<Episode> run) {
+        synchronized (pendingRuns) {
+            pendingRuns.put(key, run);
+        }
+
+        startMerge();
+    }
+
+    private void startMerge() {
+        if (task == null && !cancelled) {
+            task = new MergeTask();
+            task.executeOnExecutor(executor, (Void) null);
+        }
+    }
+
+    /**
+     * @return The run as a sorted list of distinct episodes, the given list
+     *         itself if it already is one.
+     */
+    private static List<Episode> toSortedRun(List<Episode> run) {
+        final Set<Episode> distinct = new LinkedHashSet<>(run);
+        final List<Episode> result = distinct.size() == run.size() ? run
+                : new ArrayList<>(distinct);
+
+        for (int index = 1; index < result.size(); index++)
+            if (result.get(index - 1).compareTo(result.get(index)) > 0) {
+                final List<Episode> sorted = new ArrayList<>(result);
+                Collections.sort(sorted);
+
+                return sorted;
+            }
+
+        return result;
+    }
+
+    /**
+     * @return Whether the new instance of a shown episode has the same place
+     *         in the merged list as the old one. Its feed position (the tie
+     *         key) only matters if there are episodes with the same date.
+     */
+    private boolean takesSamePlace(Episode before, Episode after) {
+        final long sortKey = before.getSortKey();
+        if (sortKey != after.getSortKey())
+            return false;
+        else if (before.getTieKey() == after.getTieKey())
+            return true;
+
+        final int position = Collections.binarySearch(merged, before);
+        return position >= 0
+                && (position == 0 || merged.get(position - 1).getSortKey() != sortKey)
+                && (position == merged.size() - 1
+                || merged.get(position + 1).getSortKey() != sortKey);
+    }
+
+    /**
+     * Count one more run for the episode.
+     * 
+     * @return Whether this is the first run of the episode.
+     */
+    private boolean retain(Episode episode) {
+        final Integer count = runCounts.get(episode);
+        runCounts.put(episode, count == null ? 1 : count + 1);
+
+        return count == null;
+    }
+
+    /**
+     * Count one run less for the episode.
+     * 
+     * @return Whether this was the last run of the episode.
+     */
+    private boolean release(Episode episode) {
+        final Integer count = runCounts.get(episode);
+
+        if (count == null || count <= 1) {
+            runCounts.remove(episode);
+            return true;
+        } else {
+            runCounts.put(episode, count - 1);
+            return false;
+        }
+    }
+
+    /**
+     * Take the episode instance out, it is either in the merged list or was
+     * only just about to be inserted.
+     */
+    private static void remove(Episode episode, List<Episode> removals,
+            Map<Episode, Boolean> insertions) {
+        if (episode != null && insertions.remove(episode) == null)
+            removals.add(episode);
+    }
+
+    /** Merges the sorted runs of new episodes (k-way) */
+    private static class RunMerger {
+
+        /** The runs with episodes left, ordered by their next episode */
+        private final PriorityQueue<Cursor> queue;
+        /** The episodes still to merge, others in the runs are skipped */
+        private final Map<Episode, Boolean> included;
+
+        private RunMerger(List<List<Episode>> runs, Map<Episode, Boolean> included) {
+            this.queue = new PriorityQueue<>(Math.max(1, runs.size()), new Comparator<Cursor>() {
+
+                @Override
+                public int compare(Cursor one, Cursor another) {
+                    return one.peek().compareTo(another.peek());
+                }
+            });
+            this.included = included;
+
+            for (List<Episode> run : runs) {
+                final Cursor cursor = new Cursor(run);
+
+                if (cursor.skipTo(included))
+                    queue.add(cursor);
+            }
+        }
+
+        private boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        private Episode peek() {
+            return queue.peek().peek();
+        }
+
+        private Episode next() {
+            final Episode result = advance();
+            // The same instance might be in several runs, only take it once
+            included.remove(result);
+
+            while (!queue.isEmpty() && !included.containsKey(peek()))
+                advance();
+
+            return result;
+        }
+
+        private Episode advance() {
+            final Cursor cursor = queue.poll();
+            final Episode result = cursor.peek();
+
+            cursor.index++;
+            if (cursor.skipTo(included))
+                queue.add(cursor);
+
+            return result;
+        }
+    }
+
+    /** A position in a run */
+    private static class Cursor {
+
+        /** The run */
+        private final List<Episode> run;
+        /** The current position */
+        private int index = 0;
+
+        private Cursor(List<Episode> run) {
+            this.run = run;
+        }
+
+        private Episode peek() {
+            return run.get(index);
+        }
+
+        /**
+         * Move on to the next episode to include (if not there already).
+         * 
+         * @return Whether there is such an episode.
+         */
+        private boolean skipTo(Map<Episode, Boolean> included) {
+            while (index < run.size() && !included.containsKey(run.get(index)))
+                index++;
+
+            return index < run.size();
+        }
+    }
+
+    /**
+     * Publish the list of the last merge.
+     */
+    private synchronized void publish() {
+        episodes = merged;
+    }
+
+    /** Runs the merges in the background */
+    private class MergeTask extends AsyncTask<Void, Void, List<Change>> {
+
+        @Override
+        protected List<Change> doInBackground(Void... nothing) {
+            return merge();
+        }
+
+        @Override
+        protected void onPostExecute(List<Change> changes) {
+            task = null;
+
+            if (!cancelled) {
+                publish();
+
+                final OnMergeEpisodesListener callback = listener.get();
+                if (callback != null)
+                    callback.onEpisodesMerged(changes);
+
+                // More runs might have come in meanwhile
+                boolean pending;
+                synchronized (pendingRuns) {
+                    pending = !pendingRuns.isEmpty();
+                }
+                if (pending)
+                    startMerge();
+            }
+        }
+
+        @Override
+        protected void onCancelled(List<Change> changes) {
+            task = null;
+        }
+    }
+}
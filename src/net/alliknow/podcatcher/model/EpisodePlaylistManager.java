@@ -192,8 +192,14 @@ public abstract class EpisodePlaylistManager extends EpisodeDownloadManager {
         int result = -1;
 
         if (episode != null && metadata != null) {
+            // The flags tell us cheaply if the episode is not enqueued
+            final EpisodeFlags flags = findFlags(episode);
+            final int position = flags == null ? -1 : flags.indexOf(episode);
+            if (position >= 0 && !flags.get(position, EpisodeFlags.IN_PLAYLIST))
+                return result;
+
             // Find metadata information holder
-            EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+            EpisodeMetadata meta = getMetadata(episode);
             if (meta != null && meta.playlistPosition != null)
                 result = meta.playlistPosition;
         }
@@ -224,7 +230,7 @@ public abstract class EpisodePlaylistManager extends EpisodeDownloadManager {
             // Only insert the episode if it is not already part of the playlist
             if (!isInPlaylist(episode)) {
                 // Find or create the metadata information holder
-                EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+                EpisodeMetadata meta = getMetadata(episode);
                 if (meta == null) {
                     meta = new EpisodeMetadata();
                     metadata.put(episode.getMediaUrl(), meta);
@@ -240,6 +246,7 @@ public abstract class EpisodePlaylistManager extends EpisodeDownloadManager {
                 // Put metadata information
                 meta.playlistPosition = position < getPlaylistSize() ? position : getPlaylistSize();
                 putAdditionalEpisodeInformation(episode, meta);
+                updateFlags(episode, meta);
 
                 // Increment counter
                 if (playlistSize != -1)
@@ -263,7 +270,7 @@ public abstract class EpisodePlaylistManager extends EpisodeDownloadManager {
     public void removeFromPlaylist(Episode episode) {
         if (episode != null && metadata != null) {
             // Find the metadata information holder
-            EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+            EpisodeMetadata meta = getMetadata(episode);
             if (meta != null && meta.playlistPosition != null) {
                 // Update the playlist positions for all entries beyond the one
                 // we are removing
@@ -279,6 +286,7 @@ public abstract class EpisodePlaylistManager extends EpisodeDownloadManager {
 
                 // Reset the playlist position for given episode
                 meta.playlistPosition = null;
+                updateFlags(episode, meta);
 
                 // Decrement counter
                 if (playlistSize != -1)
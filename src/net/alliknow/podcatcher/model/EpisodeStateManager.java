@@ -27,7 +27,9 @@ import net.alliknow.podcatcher.listeners.OnChangePodcastListListener;
 import net.alliknow.podcatcher.listeners.OnLoadPodcastListener;
 import net.alliknow.podcatcher.model.tasks.remote.LoadPodcastTask.PodcastLoadError;
 import net.alliknow.podcatcher.model.types.Episode;
+import net.alliknow.podcatcher.model.types.EpisodeListDiff;
 import net.alliknow.podcatcher.model.types.EpisodeMetadata;
+import net.alliknow.podcatcher.model.types.EpisodeStatus;
 import net.alliknow.podcatcher.model.types.Podcast;
 import net.alliknow.podcatcher.model.types.Progress;
 
@@ -82,8 +84,8 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
      *            to reset the value to the default.
      */
     public void setState(Episode episode, Boolean isOld) {
-        if (episode != null && episode.getMediaUrl() != null && metadata != null) {
-            EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+        if (episode != null && episode.hasMediaUrl() && metadata != null) {
+            EpisodeMetadata meta = getMetadata(episode);
 
             // Metadata not yet created
             if (meta == null && isOld != null && isOld) {
@@ -102,6 +104,7 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
             // the metadata for the episode).
             if (meta != null && meta.isOld != null && episode.getPodcast() != null)
                 meta.podcastUrl = episode.getPodcast().getUrl();
+            updateFlags(episode, meta);
 
             // Mark metadata record as dirty
             metadataChanged = true;
@@ -120,9 +123,15 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
      *         <code>false</code> otherwise.
      */
     public boolean getState(Episode episode) {
-        if (episode != null && episode.getMediaUrl() != null && metadata != null) {
-            EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
-
+        if (episode != null && metadata != null) {
+            // Look at the podcast's flags first, no need for the media URL
+            final EpisodeFlags flags = findFlags(episode);
+            final int position = flags == null ? -1 : flags.indexOf(episode);
+            if (position >= 0)
+                return flags.get(position, EpisodeFlags.OLD);
+
+            // Not covered, look at the metadata
+            final EpisodeMetadata meta = getMetadata(episode);
             if (meta != null && meta.isOld != null)
                 return meta.isOld;
         }
@@ -131,20 +140,24 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
     }
 
     /**
-     * Count the number of episodes not marked old for given podcast.
+     * Count the number of episodes not marked old for given podcast. This
+     * uses a counter kept up-to-date with the episode states and does not
+     * look at the episodes (unless the podcast's episode list changed).
      * 
      * @param podcast Podcast to count for.
      * @return The number of new episode in the podcast.
      */
     public int getNewEpisodeCount(Podcast podcast) {
-        int count = 0;
-
-        if (podcast != null)
-            for (Episode episode : podcast.getEpisodes())
-                if (!getState(episode))
-                    count++;
-
-        return count;
+        if (podcast == null)
+            return 0;
+        // Without metadata, all episodes are new
+        else if (metadata == null)
+            return podcast.getEpisodeCount();
+        else {
+            final EpisodeFlags flags = getFlags(podcast);
+
+            return flags.size() - flags.count(EpisodeFlags.OLD);
+        }
     }
 
     /**
@@ -175,8 +188,8 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
      *            resume playback from. Give <code>null</code> to reset.
      */
     public void setResumeAt(Episode episode, Integer at) {
-        if (episode != null && episode.getMediaUrl() != null && metadata != null) {
-            EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+        if (episode != null && episode.hasMediaUrl() && metadata != null) {
+            EpisodeMetadata meta = getMetadata(episode);
 
             // Metadata not yet created
             if (meta == null && at != null) {
@@ -194,6 +207,7 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
             // the metadata for the episode).
             if (meta != null && meta.resumeAt != null && episode.getPodcast() != null)
                 meta.podcastUrl = episode.getPodcast().getUrl();
+            updateFlags(episode, meta);
 
             // Mark metadata record as dirty
             metadataChanged = true;
@@ -211,9 +225,14 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
      * @return The resume time as millis from the start or zero if not set.
      */
     public int getResumeAt(Episode episode) {
-        if (episode != null && episode.getMediaUrl() != null && metadata != null) {
-            EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
-
+        if (episode != null && metadata != null) {
+            // The flags tell us cheaply if there is no resume time
+            final EpisodeFlags flags = findFlags(episode);
+            final int position = flags == null ? -1 : flags.indexOf(episode);
+            if (position >= 0 && !flags.get(position, EpisodeFlags.RESUME_SET))
+                return 0;
+
+            final EpisodeMetadata meta = getMetadata(episode);
             if (meta != null && meta.resumeAt != null)
                 return meta.resumeAt;
         }
@@ -221,6 +240,46 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
         return 0;
     }
 
+    /**
+     * Get all the user related state for an episode in one go, e.g. to show it
+     * in a list. Episodes that only have their old/new state set (the vast
+     * majority) are answered from the flags without looking at the metadata.
+     * Once the flags for the episode's podcast exist, this creates no objects,
+     * the metadata is looked up without building the media URL and the
+     * downloaded file is checked via the record's cached file.
+     * 
+     * @param episode Episode to get state for.
+     * @param status The status object to fill, all fields are overwritten.
+     */
+    public void getStatus(Episode episode, EpisodeStatus status) {
+        status.clear();
+
+        if (episode != null && metadata != null) {
+            // 1. Try the flags, nothing more to do if they only have the state
+            final EpisodeFlags flags = findFlags(episode);
+            final int position = flags == null ? -1 : flags.indexOf(episode);
+            if (position >= 0) {
+                final int mask = flags.getMask(position);
+                status.isOld = (mask & 1 << EpisodeFlags.OLD) != 0;
+
+                if ((mask & ~(1 << EpisodeFlags.OLD)) == 0)
+                    return;
+            }
+
+            // 2. Look at the metadata record
+            final EpisodeMetadata meta = getMetadata(episode);
+            if (meta != null) {
+                status.isOld = meta.isOld != null && meta.isOld;
+                status.isDownloading = meta.downloadId != null && meta.filePath == null;
+                status.isDownloaded = isDownloaded(meta);
+                status.downloadProgress = status.isDownloading ? meta.downloadProgress : -1;
+                status.resumeAt = meta.resumeAt == null ? 0 : meta.resumeAt;
+                status.playlistPosition = meta.playlistPosition == null ?
+                        -1 : meta.playlistPosition;
+            }
+        }
+    }
+
     public void onPodcastAdded(Podcast podcast) {
         // pass
     }
@@ -228,6 +287,8 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
     @Override
     public void onPodcastRemoved(final Podcast podcast) {
         if (podcast != null) {
+            removeFlags(podcast);
+
             // Go off the main thread, we rely on getting an iterator from the
             // metadata being thread safe here!
             new Thread() {
@@ -259,10 +320,28 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
 
     @Override
     public void onPodcastLoaded(final Podcast podcast) {
-        // We do not want to run this too frequently and for all podcasts at
-        // once. In addition it should run only once per podcast during the
-        // lifetime of this EpisodeManager
-        if (podcast != null && podcast.getEpisodeCount() > 0
+        // Move the flags to the new episode list right away, so they do not
+        // cover episodes about to lose their state below
+        if (podcast != null && metadata != null)
+            getFlags(podcast);
+
+        // If the feed has more episodes than we keep, episodes missing from
+        // the list might still be in the feed and we cannot clean up
+        if (podcast == null || podcast.hasOlderEpisodes())
+            return;
+
+        // Episodes just gone from the feed do not need their state anymore,
+        // the diff tells us which ones without looking at all the others
+        final EpisodeListDiff diff = podcast.getEpisodeListDiff();
+        if (diff != null && metadata != null)
+            for (Episode removed : diff.getRemoved())
+                clearStateData(removed.getMediaUrl());
+
+        // The complete clean-up below also finds episodes that went away
+        // while the app was not running. We do not want to run this too
+        // frequently and for all podcasts at once. In addition it should run
+        // only once per podcast during the lifetime of this EpisodeManager
+        if (podcast.getEpisodeCount() > 0
                 && !podcastsCleanUpRanFor.contains(podcast.getUrl())
                 && podcastLoadCounter % 10 == 0) {
             // Update helpers
@@ -277,6 +356,11 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
                 public void run() {
                     Process.setThreadPriority(THREAD_PRIORITY_BACKGROUND);
 
+                    // The media URLs of the episodes present
+                    final Set<String> mediaUrls = new HashSet<>();
+                    for (Episode episode : podcast.getEpisodes())
+                        mediaUrls.add(episode.getMediaUrl());
+
                     // Clean all state meta data information for episodes no
                     // longer present in the podcast feed
                     Iterator<Entry<String, EpisodeMetadata>> iterator = metadata.entrySet()
@@ -286,12 +370,8 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
 
                         // Podcast matches
                         if (podcast.getUrl().equals(entry.getValue().podcastUrl)) {
-                            boolean stillInPodcast = false;
-
                             // Check whether the episode is still there
-                            for (Episode episode : podcast.getEpisodes())
-                                if (episode.getMediaUrl().equals(entry.getKey()))
-                                    stillInPodcast = true;
+                            final boolean stillInPodcast = mediaUrls.contains(entry.getKey());
 
                             // If it is not there and the episode metadata does
                             // not have any other information, delete the
@@ -310,10 +390,25 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
         // The other interesting case is when the load counter allowed the
         // clean-up to run but the podcast is already clean: Do nothing.
         // In all other cases: increment counter.
-        else if (podcast != null && podcastLoadCounter % 10 != 0)
+        else if (podcastLoadCounter % 10 != 0)
             podcastLoadCounter++;
     }
 
+    private void clearStateData(String mediaUrl) {
+        final EpisodeMetadata meta = metadata.get(mediaUrl);
+
+        // Only if the metadata does not have any other information
+        if (meta != null && meta.hasOnlyStateData() && (meta.isOld != null
+                || meta.resumeAt != null)) {
+            // This is actually enough since the task storing the metadata will
+            // clean empty records
+            meta.isOld = null;
+            meta.resumeAt = null;
+
+            metadataChanged = true;
+        }
+    }
+
     @Override
     public void onPodcastLoadProgress(Podcast podcast, Progress progress) {
         // pass
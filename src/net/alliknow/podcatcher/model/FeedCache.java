@@ -0,0 +1,271 @@
+/** Copyright 2012-2014 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import android.content.Context;
+
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Keeps a copy of the raw feed file for podcasts with an episode window (see
+ * {@link Podcast#setEpisodeWindow(int, int)}), so older episodes can be paged
+ * in later without loading the feed again. Feeds are never downloaded just to
+ * be cached: If the parser stopped at the end of the window and nobody read
+ * the rest of the feed, only the part read is kept. Paging in older episodes
+ * then only needs to load the rest of the feed.
+ * <p>
+ * <b>Usage:</b> Wrap the feed stream using {@link #cache(Context, Podcast,
+ * InputStream)} and parse from the result. Call {@link CachingStream#commit()}
+ * once the parse succeeded, this will replace the cached copy with the
+ * complete or partial feed read. Use {@link #open(Context, Podcast)} to read
+ * the complete cached copy and {@link #openPartial(Context, Podcast)} to read
+ * the start of the feed if only that is available.
+ * </p>
+ * <p>
+ * All methods block on file I/O, so do not call them on the main thread.
+ * </p>
+ */
+public class FeedCache {
+
+    /** The directory name in the app's cache dir */
+    private static final String DIRECTORY_NAME = "feeds";
+    /** The cached feed file ending */
+    private static final String FILE_ENDING = ".feed";
+    /** The partially cached feed file ending */
+    private static final String PARTIAL_FILE_ENDING = ".part";
+    /** The buffer size used */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Wrap the given feed stream, so everything read from it also goes to the
+     * podcast's cached feed file.
+     * 
+     * @param context The context to get the cache dir from.
+     * @param podcast The podcast the feed is for.
+     * @param feed The stream to read the feed from.
+     * @return The stream to read the feed from instead.
+     * @throws IOException If the cache file cannot be created.
+     */
+    public static CachingStream cache(Context context, Podcast podcast, InputStream feed)
+            throws IOException {
+        // Feeds used to be named by the URL's hash code, which might collide
+        new File(context.getCacheDir(), DIRECTORY_NAME + File.separator
+                + podcast.getUrl().hashCode() + FILE_ENDING).delete();
+
+        final File file = getFeedFile(context, podcast);
+        file.getParentFile().mkdirs();
+
+        return new CachingStream(feed, file, getPartialFile(context, podcast));
+    }
+
+    /**
+     * Open the podcast's cached feed.
+     * 
+     * @param context The context to get the cache dir from.
+     * @param podcast The podcast to open the cached feed for.
+     * @return The stream to read the feed from or <code>null</code> if there
+     *         is no complete cached copy.
+     */
+    public static InputStream open(Context context, Podcast podcast) {
+        return open(getFeedFile(context, podcast));
+    }
+
+    /**
+     * Open the start of the podcast's feed, if the parser did not need the
+     * rest of it the last time the feed was loaded. Use
+     * {@link #getPartialLength(Context, Podcast)} to find out how much of the
+     * feed there is.
+     * 
+     * @param context The context to get the cache dir from.
+     * @param podcast The podcast to open the partially cached feed for.
+     * @return The stream to read the start of the feed from or
+     *         <code>null</code> if there is no partial copy.
+     */
+    public static InputStream openPartial(Context context, Podcast podcast) {
+        return open(getPartialFile(context, podcast));
+    }
+
+    /**
+     * @param context The context to get the cache dir from.
+     * @param podcast The podcast to check.
+     * @return The number of bytes at the start of the podcast's feed
+     *         available via {@link #openPartial(Context, Podcast)}, zero if
+     *         there is no partial copy.
+     */
+    public static long getPartialLength(Context context, Podcast podcast) {
+        return getPartialFile(context, podcast).length();
+    }
+
+    /**
+     * Delete the podcast's cached feed (if any).
+     * 
+     * @param context The context to get the cache dir from.
+     * @param podcast The podcast to delete the cached feed for.
+     */
+    public static void delete(Context context, Podcast podcast) {
+        getFeedFile(context, podcast).delete();
+        getPartialFile(context, podcast).delete();
+    }
+
+    private static InputStream open(File file) {
+        try {
+            return new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        } catch (FileNotFoundException fnfe) {
+            return null;
+        }
+    }
+
+    private static File getFeedFile(Context context, Podcast podcast) {
+        return new File(context.getCacheDir(), DIRECTORY_NAME + File.separator
+                + podcast.getFileId() + FILE_ENDING);
+    }
+
+    private static File getPartialFile(Context context, Podcast podcast) {
+        return new File(context.getCacheDir(), DIRECTORY_NAME + File.separator
+                + podcast.getFileId() + FILE_ENDING + PARTIAL_FILE_ENDING);
+    }
+
+    /**
+     * The stream handed out by {@link FeedCache#cache(Context, Podcast,
+     * InputStream)}. Copies all bytes read to a temporary file that replaces
+     * the cached feed on {@link #commit()}, either as the complete feed or as
+     * its start if the feed was not read to its end.
+     */
+    public static class CachingStream extends FilterInputStream {
+
+        /** The cached feed file */
+        private final File file;
+        /** The partially cached feed file */
+        private final File partialFile;
+        /** The temporary file we write to */
+        private final File tempFile;
+        /** The stream writing to the temporary file */
+        private OutputStream copy;
+        /** Whether the end of the feed was reached */
+        private boolean complete = false;
+
+        private CachingStream(InputStream in, File file, File partialFile) throws IOException {
+            super(in);
+
+            this.file = file;
+            this.partialFile = partialFile;
+            this.tempFile = new File(file.getPath() + ".tmp");
+            this.copy = new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int result = super.read();
+
+            if (result < 0)
+                complete = true;
+            else if (copy != null)
+                copy.write(result);
+
+            return result;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            final int result = super.read(buffer, offset, count);
+
+            if (result < 0)
+                complete = true;
+            else if (result > 0 && copy != null)
+                copy.write(buffer, offset, result);
+
+            return result;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            // Skipped bytes need to go to the copy as well
+            final byte[] buffer = new byte[(int) Math.min(count, BUFFER_SIZE)];
+            final int result = read(buffer, 0, buffer.length);
+
+            return result < 0 ? 0 : result;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Make the copy the podcast's cached feed if the feed was read to its
+         * end. Otherwise, the copy becomes the partially cached feed and the
+         * cached feed (which is outdated now) is deleted.
+         * 
+         * @throws IOException If the copy cannot be written. The cached feed
+         *             is deleted then.
+         */
+        public void commit() throws IOException {
+            if (copy != null) {
+                final OutputStream out = copy;
+                copy = null;
+
+                try {
+                    out.close();
+
+                    // Replace the cached feed, so readers never see a
+                    // half-written file
+                    final File target = complete ? file : partialFile;
+                    (complete ? partialFile : file).delete();
+                    if (!tempFile.renameTo(target))
+                        throw new IOException("Cannot replace cached feed " + target);
+                } finally {
+                    if (tempFile.exists()) {
+                        tempFile.delete();
+                        file.delete();
+                        partialFile.delete();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                // Not committed, throw the copy away
+                if (copy != null) {
+                    try {
+                        copy.close();
+                    } catch (IOException e) {
+                        // Nothing we can do here
+                    }
+
+                    copy = null;
+                    tempFile.delete();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/** Copyright 2012-2014 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import net.alliknow.podcatcher.model.types.Episode;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A read-only episode list view to back the episode list UI. It does not copy
+ * its source list: filtering only builds an index of the source positions
+ * shown and reversing the order simply flips the positions. Rows are read
+ * from the source when accessed, so the cost of accessing a row does not
+ * depend on the size of the source.
+ * <p>
+ * The source list needs to allow fast random access. Call
+ * {@link #setSource(List)} to replace it or once it changed. If the order of
+ * the source is given, {@link #indexOf(Object)} uses a binary search.
+ * </p>
+ * <p>
+ * <b>Why rows are not paged:</b> The sources shown are lists the app holds in
+ * memory anyway (a podcast's episodes or the merged list), so materialising
+ * pages of rows around the visible range would only copy references that
+ * {@link #get(int)} reads directly. The one step that looks at all episodes
+ * is building the filter index on {@link #setFilter(Filter)} and
+ * {@link #setSource(List)}. It cannot be put off to the pages scrolled to,
+ * since the list size and {@link #getFilteredCount()} (shown to the user)
+ * depend on all of it. It runs once per update, never while scrolling or
+ * binding rows, and does one filter call (a state look-up for the new
+ * episodes filter) per episode. See the test's benchmark for the numbers.
+ * </p>
+ */
+public class FilteredEpisodeList extends AbstractList<Episode> implements RandomAccess {
+
+    /**
+     * Decides which episodes from the source are shown.
+     */
+    public interface Filter {
+
+        /**
+         * @param episode The episode to check.
+         * @return Whether the episode should be shown.
+         */
+        public boolean accept(Episode episode);
+    }
+
+    /** The list we show */
+    private List<Episode> source;
+    /** The order the source is sorted in, <code>null</code> if unknown */
+    private Comparator<? super Episode> order;
+    /** The filter to apply, <code>null</code> for none */
+    private Filter filter;
+    /** The ascending source positions that pass the filter, if any */
+    private int[] index;
+    /** The number of rows we show */
+    private int size;
+    /** Whether we show the source (or its filtered index) in reverse order */
+    private boolean reversed;
+
+    /**
+     * Create a new list for the source given showing all its episodes in their
+     * source order.
+     * 
+     * @param source The episodes to show (not <code>null</code>).
+     * @param order The order the source is sorted in, give <code>null</code>
+     *            if it is not sorted or the order is not known.
+     */
+    public FilteredEpisodeList(List<Episode> source, Comparator<? super Episode> order) {
+        setSource(source, order);
+    }
+
+    /**
+     * Replace the source list with one sorted the same way. The filter and
+     * order stay in place.
+     * 
+     * @param source The new episodes to show (not <code>null</code>).
+     */
+    public void setSource(List<Episode> source) {
+        setSource(source, order);
+    }
+
+    /**
+     * Replace the source list. The filter and order stay in place.
+     * 
+     * @param source The new episodes to show (not <code>null</code>).
+     * @param order The order the source is sorted in, give <code>null</code>
+     *            if it is not sorted or the order is not known.
+     */
+    public void setSource(List<Episode> source, Comparator<? super Episode> order) {
+        this.source = source;
+        this.order = order;
+
+        updateIndex();
+    }
+
+    /**
+     * Set the filter for this list. This needs to look at each source episode
+     * once, but will not copy them.
+     * 
+     * @param filter The filter to apply, give <code>null</code> to show all
+     *            episodes.
+     */
+    public void setFilter(Filter filter) {
+        this.filter = filter;
+
+        updateIndex();
+    }
+
+    /**
+     * @return Whether a filter is set for this list.
+     */
+    public boolean isFiltered() {
+        return filter != null;
+    }
+
+    /**
+     * Set the order of this list.
+     * 
+     * @param reversed Whether to show the source in reverse order.
+     */
+    public void setReversed(boolean reversed) {
+        if (this.reversed != reversed) {
+            this.reversed = reversed;
+            this.modCount++;
+        }
+    }
+
+    /**
+     * @return Whether the source is shown in reverse order.
+     */
+    public boolean isReversed() {
+        return reversed;
+    }
+
+    /**
+     * @return The number of source episodes the filter hides.
+     */
+    public int getFilteredCount() {
+        return source.size() - size;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Episode get(int position) {
+        if (position < 0 || position >= size)
+            throw new IndexOutOfBoundsException("Position: " + position + ", size: " + size);
+
+        final int row = reversed ? size - 1 - position : position;
+
+        return source.get(index == null ? row : index[row]);
+    }
+
+    @Override
+    public int indexOf(Object object) {
+        // Look up the source position
+        final int sourcePosition = findInSource(object);
+        if (sourcePosition < 0)
+            return -1;
+
+        final int row = index == null ?
+                sourcePosition : Arrays.binarySearch(index, 0, size, sourcePosition);
+
+        return row < 0 ? -1 : reversed ? size - 1 - row : row;
+    }
+
+    @Override
+    public int lastIndexOf(Object object) {
+        // Episodes are distinct in our lists
+        return indexOf(object);
+    }
+
+    @Override
+    public boolean contains(Object object) {
+        return indexOf(object) >= 0;
+    }
+
+    private int findInSource(Object object) {
+        if (order == null)
+            return source.indexOf(object);
+        else if (!(object instanceof Episode))
+            return -1;
+        else {
+            final int position = Collections.binarySearch(source, (Episode) object, order);
+
+            return position < 0 ? -1 : position;
+        }
+    }
+
+    private void updateIndex() {
+        final int sourceSize = source.size();
+
+        if (filter == null) {
+            this.index = null;
+            this.size = sourceSize;
+        } else {
+            // Re-use the current index array if large enough
+            if (index == null || index.length < sourceSize)
+                index = new int[sourceSize];
+
+            int count = 0;
+            for (int position = 0; position < sourceSize; position++)
+                if (filter.accept(source.get(position)))
+                    index[count++] = position;
+
+            this.size = count;
+        }
+
+        this.modCount++;
+    }
+}
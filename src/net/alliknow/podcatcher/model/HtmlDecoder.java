@@ -0,0 +1,238 @@
+/** Copyright 2012-2014 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import android.text.Html;
+
+/**
+ * Turns short HTML snippets like podcast and episode titles into plain text.
+ * The result is the same as <code>Html.fromHtml(html).toString()</code>, but
+ * without building a styled text first: Entities are decoded, inline tags
+ * without effect on the text (like &lt;b&gt; or &lt;em&gt;) are removed and
+ * white space is collapsed just like {@link Html} does it. If the snippet
+ * contains anything else (e.g. block tags, tag attributes or unusual
+ * entities), the decoder falls back to {@link Html#fromHtml(String)}.
+ * <p>
+ * Strings that need no decoding at all are returned as they are, so the
+ * common case does not allocate anything.
+ * </p>
+ */
+public class HtmlDecoder {
+
+    /** The named entities we decode ourselves */
+    private static final String[] ENTITY_NAMES = {
+            "amp", "lt", "gt", "quot", "nbsp", "ndash", "mdash", "lsquo", "rsquo", "sbquo",
+            "ldquo", "rdquo", "bdquo", "hellip", "laquo", "raquo", "middot", "bull", "copy",
+            "reg", "trade", "euro", "deg", "auml", "ouml", "uuml", "Auml", "Ouml", "Uuml",
+            "szlig", "aacute", "agrave", "eacute", "egrave", "iacute", "oacute", "uacute",
+            "Eacute", "ccedil", "ntilde"
+    };
+    /** The characters for the above, in the same order */
+    private static final char[] ENTITY_CHARS = {
+            '&', '<', '>', '"', '\u00a0', '\u2013', '\u2014', '\u2018', '\u2019', '\u201a',
+            '\u201c', '\u201d', '\u201e', '\u2026', '\u00ab', '\u00bb', '\u00b7', '\u2022',
+            '\u00a9', '\u00ae', '\u2122', '\u20ac', '\u00b0', '\u00e4', '\u00f6', '\u00fc',
+            '\u00c4', '\u00d6', '\u00dc', '\u00df', '\u00e1', '\u00e0', '\u00e9', '\u00e8',
+            '\u00ed', '\u00f3', '\u00fa', '\u00c9', '\u00e7', '\u00f1'
+    };
+    /** The tags we can simply drop since they only change the style */
+    private static final String[] INLINE_TAGS = {
+            "a", "b", "i", "u", "s", "em", "strong", "span", "font", "small", "big", "tt",
+            "cite", "dfn", "strike", "del", "ins", "sub", "sup"
+    };
+
+    /** Marks a position in the snippet we cannot handle ourselves */
+    private static final int FALL_BACK = -1;
+
+    /**
+     * Decode the given HTML snippet to plain text.
+     * 
+     * @param html The snippet to decode.
+     * @return The plain text, this is the very same string instance if there
+     *         is nothing to decode. Returns <code>null</code> for
+     *         <code>null</code>.
+     */
+    public static String decode(String html) {
+        if (html == null || !needsDecoding(html))
+            return html;
+
+        final int length = html.length();
+        final StringBuilder result = new StringBuilder(length);
+
+        int index = 0;
+        while (index < length) {
+            final char c = html.charAt(index);
+
+            if (c == '&')
+                index = appendEntity(html, index, result);
+            else if (c == '<')
+                index = skipInlineTag(html, index);
+            // We do not know what Html does with these
+            else if (c == '\r' || c == '\t' || c == '\u0000')
+                index = FALL_BACK;
+            else {
+                appendCollapsed(result, c);
+                index++;
+            }
+
+            if (index == FALL_BACK)
+                return Html.fromHtml(html).toString();
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * @return Whether there is anything to do for the given snippet.
+     */
+    private static boolean needsDecoding(String html) {
+        char previous = '\n';
+
+        for (int index = 0; index < html.length(); index++) {
+            final char c = html.charAt(index);
+
+            if (c == '&' || c == '<' || c == '\n' || c == '\r' || c == '\t' || c == '\u0000'
+                    || (c == ' ' && (previous == ' ' || previous == '\n')))
+                return true;
+
+            previous = c;
+        }
+
+        return false;
+    }
+
+    /**
+     * Append the character, but collapse blanks and line breaks into a single
+     * blank and drop them completely at the start.
+     */
+    private static void appendCollapsed(StringBuilder result, char c) {
+        if (c == ' ' || c == '\n') {
+            final int length = result.length();
+            final char previous = length == 0 ? '\n' : result.charAt(length - 1);
+
+            if (previous != ' ' && previous != '\n')
+                result.append(' ');
+        } else
+            result.append(c);
+    }
+
+    /**
+     * Decode the entity at the given position (pointing at the ampersand).
+     * 
+     * @return The position after the entity or {@link #FALL_BACK}.
+     */
+    private static int appendEntity(String html, int start, StringBuilder result) {
+        final int length = html.length();
+        final int nameStart = start + 1;
+
+        // Not an entity at all, e.g. "Q & A"
+        if (nameStart == length || !(isLetter(html.charAt(nameStart))
+                || html.charAt(nameStart) == '#')) {
+            appendCollapsed(result, '&');
+            return nameStart;
+        }
+
+        // Entities without a closing semicolon are left to Html
+        final int end = html.indexOf(';', nameStart);
+        if (end < 0)
+            return FALL_BACK;
+
+        if (html.charAt(nameStart) == '#') {
+            final int codePoint = parseCodePoint(html, nameStart + 1, end);
+            // Leave control characters and odd values to Html
+            if ((codePoint < 32 && codePoint != '\n') || (codePoint >= 127 && codePoint < 160)
+                    || (codePoint >= 0xd800 && codePoint <= 0xdfff) || codePoint > 0x10ffff)
+                return FALL_BACK;
+
+            if (codePoint == ' ' || codePoint == '\n')
+                appendCollapsed(result, (char) codePoint);
+            else
+                result.appendCodePoint(codePoint);
+        } else {
+            final int nameLength = end - nameStart;
+            int entity = 0;
+            while (entity < ENTITY_NAMES.length && !(ENTITY_NAMES[entity].length() == nameLength
+                    && html.regionMatches(nameStart, ENTITY_NAMES[entity], 0, nameLength)))
+                entity++;
+
+            if (entity == ENTITY_NAMES.length)
+                return FALL_BACK;
+
+            result.append(ENTITY_CHARS[entity]);
+        }
+
+        return end + 1;
+    }
+
+    /**
+     * @return The code point given by the decimal or hexadecimal (starting
+     *         with "x") digits between start and end or -1 if not valid.
+     */
+    private static int parseCodePoint(String html, int start, int end) {
+        final boolean hex = start < end && (html.charAt(start) == 'x' || html.charAt(start) == 'X');
+        final int radix = hex ? 16 : 10;
+        if (hex)
+            start++;
+
+        // Not a number or too long
+        if (start == end || end - start > 7)
+            return -1;
+
+        int result = 0;
+        for (int index = start; index < end; index++) {
+            final int digit = Character.digit(html.charAt(index), radix);
+            if (digit < 0)
+                return -1;
+
+            result = result * radix + digit;
+        }
+
+        return result;
+    }
+
+    /**
+     * Skip the tag at the given position (pointing at the opening bracket) if
+     * it is a simple inline tag without attributes.
+     * 
+     * @return The position after the tag or {@link #FALL_BACK}.
+     */
+    private static int skipInlineTag(String html, int start) {
+        final int length = html.length();
+        int nameStart = start + 1;
+        if (nameStart < length && html.charAt(nameStart) == '/')
+            nameStart++;
+
+        int nameEnd = nameStart;
+        while (nameEnd < length && isLetter(html.charAt(nameEnd)))
+            nameEnd++;
+
+        if (nameEnd == nameStart || nameEnd == length || html.charAt(nameEnd) != '>')
+            return FALL_BACK;
+
+        for (String tag : INLINE_TAGS)
+            if (tag.length() == nameEnd - nameStart
+                    && html.regionMatches(true, nameStart, tag, 0, tag.length()))
+                return nameEnd + 1;
+
+        return FALL_BACK;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
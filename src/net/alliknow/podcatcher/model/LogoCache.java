@@ -0,0 +1,328 @@
+/** Copyright 2012-2014 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_MODERATE;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import net.alliknow.podcatcher.Podcatcher;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The central in-memory cache for podcast logos. Logos are kept in an LRU
+ * cache bounded by the number of bytes their pixels take, so only the logos
+ * recently shown stay on the heap. Entries are keyed by the podcast URL and
+ * the target size, the logo as decoded by the load task is kept at size
+ * <code>0x0</code>, all other sizes are scaled from it on demand. Bitmaps
+ * handed out are immutable and shared, callers must not recycle them.
+ * <p>
+ * Logos dropped because of the size limit or memory pressure are remembered,
+ * so the UI can ask the podcast manager to restore them from disk once they
+ * are needed again. See {@link PodcastManager#restoreLogo(Podcast)}.
+ * </p>
+ */
+public class LogoCache {
+
+    /** The share of the app's memory class we use for logos */
+    private static final int MEMORY_SHARE = 8;
+
+    /** The single instance */
+    private static LogoCache cache;
+
+    /** The logos, the size of each entry is its byte count */
+    private final LruCache<Key, Bitmap> logos;
+    /** The key used for look-ups, saves us creating one each time */
+    private final Key lookupKey = new Key(null, 0, 0);
+    /** The URLs of the podcasts whose decoded logo was evicted */
+    private final Set<String> evicted = new HashSet<>();
+
+    /** The number of look-ups that found a logo */
+    private int hitCount;
+    /** The number of look-ups that did not find a logo */
+    private int missCount;
+    /** The number of logos evicted */
+    private int evictionCount;
+
+    /** The cache key, a podcast URL plus target size */
+    private static class Key {
+
+        /** The podcast URL */
+        private String url;
+        /** The target width */
+        private int width;
+        /** The target height */
+        private int height;
+
+        private Key(String url, int width, int height) {
+            set(url, width, height);
+        }
+
+        private Key set(String url, int width, int height) {
+            this.url = url;
+            this.width = width;
+            this.height = height;
+
+            return this;
+        }
+
+        private boolean isDecoded() {
+            return width == 0 && height == 0;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+
+            final Key other = (Key) o;
+            return width == other.width && height == other.height && url.equals(other.url);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * url.hashCode() + width) + height;
+        }
+    }
+
+    private LogoCache(int maxBytes) {
+        this.logos = new LruCache<Key, Bitmap>(maxBytes) {
+
+            @Override
+            protected int sizeOf(Key key, Bitmap logo) {
+                return logo.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evict, Key key, Bitmap oldLogo, Bitmap newLogo) {
+                // Only called while we hold the lock on the cache
+                if (evict) {
+                    evictionCount++;
+
+                    if (key.isDecoded())
+                        evicted.add(key.url);
+                }
+            }
+        };
+    }
+
+    /**
+     * Get the logo cache instance. The returned object is a singleton, all
+     * calls to this method will always return the same single instance.
+     * 
+     * @param podcatcher The main app object.
+     * @return The cache handle.
+     */
+    public static LogoCache getInstance(Podcatcher podcatcher) {
+        if (cache == null) {
+            final ActivityManager manager =
+                    (ActivityManager) podcatcher.getSystemService(Context.ACTIVITY_SERVICE);
+
+            cache = new LogoCache(manager.getMemoryClass() * 1024 * 1024 / MEMORY_SHARE);
+        }
+
+        return cache;
+    }
+
+    /**
+     * Get the logo cache instance.
+     * 
+     * @return The cache handle or <code>null</code> if the cache has not been
+     *         created by the app.
+     */
+    public static LogoCache getInstance() {
+        return cache;
+    }
+
+    /**
+     * Get the logo for the given podcast as decoded.
+     * 
+     * @param url The podcast's URL.
+     * @return The shared logo or <code>null</code> if not in the cache.
+     */
+    public synchronized Bitmap get(String url) {
+        final Bitmap logo = logos.get(lookupKey.set(url, 0, 0));
+        count(logo);
+
+        return logo;
+    }
+
+    /**
+     * Get the logo for the given podcast at the given size. If not present,
+     * this is scaled (and cached) from the decoded logo if that is available.
+     * 
+     * @param url The podcast's URL.
+     * @param width The target width in pixels.
+     * @param height The target height in pixels.
+     * @return The shared logo or <code>null</code> if not available.
+     */
+    public synchronized Bitmap get(String url, int width, int height) {
+        Bitmap logo = logos.get(lookupKey.set(url, width, height));
+
+        if (logo == null && !lookupKey.isDecoded()) {
+            final Bitmap decoded = logos.get(lookupKey.set(url, 0, 0));
+
+            if (decoded != null) {
+                logo = Bitmap.createScaledBitmap(decoded, width, height, true);
+                logos.put(new Key(url, width, height), logo);
+            }
+        }
+
+        count(logo);
+        return logo;
+    }
+
+    /**
+     * Check whether the decoded logo for the given podcast is in the cache.
+     * This does not count as a hit or miss.
+     * 
+     * @param url The podcast's URL.
+     * @return <code>true</code> iff the logo is available.
+     */
+    public synchronized boolean contains(String url) {
+        return logos.get(lookupKey.set(url, 0, 0)) != null;
+    }
+
+    /**
+     * Put a decoded logo into the cache. This replaces the podcast's logo in
+     * all sizes.
+     * 
+     * @param url The podcast's URL.
+     * @param logo The logo to put, if this is mutable, an immutable copy is
+     *            cached. Giving <code>null</code> will remove the logo, logos
+     *            too big for the cache are ignored.
+     */
+    public synchronized void put(String url, Bitmap logo) {
+        remove(url);
+
+        if (logo != null)
+            put(url, 0, 0, logo);
+    }
+
+    /**
+     * Put a logo scaled to the given size into the cache, e.g. a pre-scaled
+     * variant read from the {@link LogoStore}. Call this after
+     * {@link #put(String, Bitmap)}, which drops all sizes.
+     * 
+     * @param url The podcast's URL.
+     * @param width The width the logo is scaled to.
+     * @param height The height the logo is scaled to.
+     * @param logo The logo to put (not <code>null</code>).
+     */
+    public synchronized void put(String url, int width, int height, Bitmap logo) {
+        if (logo.getByteCount() <= logos.maxSize())
+            logos.put(new Key(url, width, height), logo.isMutable()
+                    ? logo.copy(logo.getConfig(), false) : logo);
+    }
+
+    /**
+     * Drop the given podcast's logo in all sizes from the cache.
+     * 
+     * @param url The podcast's URL.
+     */
+    public synchronized void remove(String url) {
+        evicted.remove(url);
+
+        for (Key key : logos.snapshot().keySet())
+            if (key.url.equals(url))
+                logos.remove(key);
+    }
+
+    /**
+     * Check whether the decoded logo for the given podcast was evicted and
+     * forget about it, i.e. the next call will return <code>false</code>
+     * unless it is evicted again.
+     * 
+     * @param url The podcast's URL.
+     * @return <code>true</code> iff the logo was evicted and is not restored.
+     */
+    public synchronized boolean clearEvicted(String url) {
+        return evicted.remove(url);
+    }
+
+    /**
+     * Release memory according to the level given.
+     * 
+     * @param level The trim level as given to
+     *            {@link android.content.ComponentCallbacks2#onTrimMemory(int)}
+     *            .
+     */
+    public synchronized void trimMemory(int level) {
+        // We are about to be killed or the system is really low
+        if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL)
+            logos.evictAll();
+        // Running low, UI hidden or in background: keep the recent half
+        // (LruCache.trimToSize() is not public before API 17, the snapshot
+        // has the least recently used logos first, removing them does not
+        // count as eviction for the cache, so we do that ourselves)
+        else if (level >= TRIM_MEMORY_RUNNING_LOW)
+            for (Key key : logos.snapshot().keySet()) {
+                if (logos.size() <= logos.maxSize() / 2)
+                    break;
+
+                if (logos.remove(key) != null) {
+                    evictionCount++;
+
+                    if (key.isDecoded())
+                        evicted.add(key.url);
+                }
+            }
+    }
+
+    /**
+     * @return The number of look-ups that found a logo.
+     */
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return The number of look-ups that did not find a logo.
+     */
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return The number of logos dropped because of the size limit or memory
+     *         pressure.
+     */
+    public synchronized int getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return logos.size() + "/" + logos.maxSize() + " bytes, " + hitCount + " hits, "
+                + missCount + " misses, " + evictionCount + " evictions";
+    }
+
+    private void count(Bitmap logo) {
+        if (logo == null)
+            missCount++;
+        else
+            hitCount++;
+    }
+}
@@ -0,0 +1,309 @@
+/** Copyright 2012-2014 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import static android.os.Process.THREAD_PRIORITY_BACKGROUND;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads and decodes podcast logos off the shared async task executor. Logo
+ * loads run on a small executor of their own, ordered by priority, so logos
+ * for podcasts visible on screen come first and a long list of logos to load
+ * (e.g. at start-up) never gets into the way of feed loads. Loads already
+ * queued can be moved to the front using {@link #prioritize(Object, int)}.
+ * <p>
+ * <b>Decoding:</b> Images are sampled down by a power of two as far as
+ * possible while decoding and then scaled down to the exact target size. The
+ * intermediate bitmaps are kept in a small pool and reused via
+ * {@link BitmapFactory.Options#inBitmap}, since many podcasts use logos of
+ * the same (large) size.
+ * </p>
+ */
+public class LogoDecoder {
+
+    /** Priority for logos of podcasts visible to the user */
+    public static final int PRIORITY_VISIBLE = 0;
+    /** Priority for logos the user is not waiting for */
+    public static final int PRIORITY_BACKGROUND = 1;
+
+    /** The number of logos loaded at the same time */
+    private static final int WORKER_COUNT = 2;
+    /** The time idle workers are kept alive (in seconds) */
+    private static final int WORKER_KEEP_ALIVE = 30;
+    /** The number of intermediate bitmaps kept for reuse */
+    private static final int POOL_SIZE = 2;
+
+    /** The single instance */
+    private static LogoDecoder decoder;
+
+    /** The executor the loads run on */
+    private final ThreadPoolExecutor executor;
+    /** The jobs waiting to run by key */
+    private final Map<Object, Job> queued = new HashMap<>();
+    /** The number of jobs created so far, used to keep order stable */
+    private long sequence = 0;
+
+    /** The bitmaps available for reuse */
+    private final List<Bitmap> pool = new ArrayList<>();
+
+    /** A load waiting to run */
+    private class Job implements Runnable, Comparable<Job> {
+
+        /** The key the job was submitted for */
+        private final Object key;
+        /** The actual work */
+        private final Runnable command;
+        /** The job's priority, the lower the more urgent */
+        private final int priority;
+        /** The job's position in the order of creation */
+        private final long sequence;
+
+        private Job(Object key, Runnable command, int priority, long sequence) {
+            this.key = key;
+            this.command = command;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            synchronized (LogoDecoder.this) {
+                if (queued.get(key) == this)
+                    queued.remove(key);
+            }
+
+            command.run();
+        }
+
+        @Override
+        public int compareTo(Job another) {
+            if (priority != another.priority)
+                return priority < another.priority ? -1 : 1;
+            // Visible logos asked for last are the ones on screen now
+            else if (priority == PRIORITY_VISIBLE)
+                return sequence > another.sequence ? -1 : sequence == another.sequence ? 0 : 1;
+            else
+                return sequence < another.sequence ? -1 : sequence == another.sequence ? 0 : 1;
+        }
+    }
+
+    private LogoDecoder() {
+        this.executor = new ThreadPoolExecutor(WORKER_COUNT, WORKER_COUNT,
+                WORKER_KEEP_ALIVE, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+
+                    /** The number of threads created so far */
+                    private int count = 0;
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread("LogoDecoder #" + ++count) {
+
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(THREAD_PRIORITY_BACKGROUND);
+
+                                runnable.run();
+                            }
+                        };
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Get the logo decoder instance. The returned object is a singleton, all
+     * calls to this method will always return the same single instance.
+     * 
+     * @return The decoder handle.
+     */
+    public static synchronized LogoDecoder getInstance() {
+        if (decoder == null)
+            decoder = new LogoDecoder();
+
+        return decoder;
+    }
+
+    /**
+     * Get an executor to run a logo load on, e.g. to give to
+     * {@link android.os.AsyncTask#executeOnExecutor(Executor, Object...)}.
+     * 
+     * @param key The key to identify the load, e.g. the podcast, use this for
+     *            {@link #prioritize(Object, int)}.
+     * @param priority The load's priority, one of the <code>PRIORITY_</code>
+     *            constants.
+     * @return The executor to use once.
+     */
+    public Executor getExecutor(final Object key, final int priority) {
+        return new Executor() {
+
+            @Override
+            public void execute(Runnable command) {
+                submit(key, command, priority);
+            }
+        };
+    }
+
+    /**
+     * Raise the priority of a load waiting to run.
+     * 
+     * @param key The key given to {@link #getExecutor(Object, int)}.
+     * @param priority The load's new priority, only used if more urgent.
+     * @return Whether a load for the key is waiting to run.
+     */
+    public synchronized boolean prioritize(Object key, int priority) {
+        final Job job = queued.get(key);
+
+        // Re-insert, the queue does not notice the change otherwise
+        if (job != null && priority < job.priority && executor.getQueue().remove(job))
+            submit(key, job.command, priority);
+
+        return job != null;
+    }
+
+    /**
+     * Decode the given image data, sampled and scaled down so its shorter side
+     * is the size given. Images smaller than that keep their size.
+     * 
+     * @param data The image data.
+     * @param size The target size of the shorter side (in pixels).
+     * @param options The options to use, after this returns the fields
+     *            <code>outWidth</code> and <code>outHeight</code> hold the
+     *            image's original size.
+     * @return The decoded image or <code>null</code> if the data cannot be
+     *         decoded. The bitmap returned is immutable.
+     */
+    public Bitmap decode(byte[] data, int size, BitmapFactory.Options options) {
+        // 1. Find the image's size
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            return null;
+
+        final int width = options.outWidth;
+        final int height = options.outHeight;
+        final int shorter = Math.min(width, height);
+
+        // 2. Sample down by the largest power of two that keeps us above size
+        int sampleSize = 1;
+        while (shorter / (sampleSize * 2) >= size)
+            sampleSize *= 2;
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+
+        // 3. No need to scale, decode straight into the result
+        final int sampledWidth = width / sampleSize;
+        final int sampledHeight = height / sampleSize;
+        if (shorter <= size || Math.min(sampledWidth, sampledHeight) == size) {
+            options.inMutable = false;
+            options.inBitmap = null;
+
+            return restoreSize(BitmapFactory.decodeByteArray(data, 0, data.length, options),
+                    options, width, height);
+        }
+
+        // 4. Decode into a pooled bitmap and scale to the exact size
+        options.inMutable = true;
+        options.inBitmap = take(sampledWidth, sampledHeight, sampleSize);
+        Bitmap sampled;
+        try {
+            sampled = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException iae) {
+            // The pooled bitmap did not fit after all
+            options.inBitmap = null;
+            sampled = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+
+        Bitmap result = null;
+        if (sampled != null) {
+            final float scale = (float) size / Math.min(sampled.getWidth(), sampled.getHeight());
+            result = Bitmap.createScaledBitmap(sampled,
+                    Math.max(1, Math.round(sampled.getWidth() * scale)),
+                    Math.max(1, Math.round(sampled.getHeight() * scale)), true);
+
+            release(sampled);
+        }
+
+        options.inBitmap = null;
+        return restoreSize(result, options, width, height);
+    }
+
+    private synchronized void submit(Object key, Runnable command, int priority) {
+        final Job job = new Job(key, command, priority, sequence++);
+
+        queued.put(key, job);
+        executor.execute(job);
+    }
+
+    private Bitmap restoreSize(Bitmap result, BitmapFactory.Options options, int width,
+            int height) {
+        // Decoding overwrites these with the sampled size
+        options.outWidth = width;
+        options.outHeight = height;
+
+        return result;
+    }
+
+    private synchronized Bitmap take(int width, int height, int sampleSize) {
+        final Iterator<Bitmap> iterator = pool.iterator();
+
+        while (iterator.hasNext()) {
+            final Bitmap bitmap = iterator.next();
+
+            if (canReuse(bitmap, width, height, sampleSize)) {
+                iterator.remove();
+                return bitmap;
+            }
+        }
+
+        return null;
+    }
+
+    private synchronized void release(Bitmap bitmap) {
+        if (bitmap.isMutable() && pool.size() < POOL_SIZE)
+            pool.add(bitmap);
+        else
+            bitmap.recycle();
+    }
+
+    private static boolean canReuse(Bitmap bitmap, int width, int height, int sampleSize) {
+        // KitKat reuses any bitmap big enough, before that we need the exact
+        // size and no sampling
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+            return bitmap.getAllocationByteCount() >= width * height * 4;
+        else
+            return sampleSize == 1 && bitmap.getWidth() == width
+                    && bitmap.getHeight() == height;
+    }
+}
@@ -0,0 +1,700 @@
+/** Copyright 2012-2014 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import static android.os.Process.THREAD_PRIORITY_BACKGROUND;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.BitmapFactory;
+import android.os.Process;
+import android.util.Log;
+
+import net.alliknow.podcatcher.Podcatcher;
+import net.alliknow.podcatcher.R;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps downloaded podcast logos on disk. Each logo is stored in a couple of
+ * pre-scaled variants (see {@link Variant}), so showing a logo never needs to
+ * decode and scale the full image. All we know about the logos stored lives in
+ * a small index file that is read once, so finding out whether a logo is
+ * available and fresh does not touch the file system.
+ * <p>
+ * <b>Format:</b> The index file starts with a magic number and a format
+ * version, followed by one record per logo with the podcast URL, the content
+ * hash and dimensions of the logo as downloaded, the time it was fetched, the
+ * cache validators sent by the server and the size of the variant files. The
+ * records are kept in least recently used order, once the variant files take
+ * more than the store's budget (see {@link #MAX_DISK_SIZE}), the logos used
+ * longest ago are dropped. Variant files are named by a running id, so podcast
+ * URLs never collide. An index with another version or any other problem is
+ * dropped together with all logo files. Changes are not written right away,
+ * the index is written once a couple of changes add up and on
+ * {@link #flush()}.
+ * </p>
+ * <p>
+ * All methods block on file I/O, so do not call them on the main thread.
+ * </p>
+ */
+public class LogoStore {
+
+    /** The disk space the app's logo files may take (in bytes) */
+    public static final long MAX_DISK_SIZE = 12 * 1024 * 1024;
+    /** The number of changes after which the index is written */
+    private static final int INDEX_BATCH_SIZE = 16;
+
+    /** The directory name in the app's cache dir */
+    private static final String DIRECTORY_NAME = "logos";
+    /** The directory name used by earlier versions of the app */
+    private static final String OLD_DIRECTORY_NAME = "logoCache";
+    /** The index file name */
+    private static final String INDEX_FILE_NAME = "index";
+    /** The magic number the index file starts with ("PCLG") */
+    private static final int MAGIC = 0x50434c47;
+    /** The current format version, increase when changing the format */
+    private static final int VERSION = 1;
+    /** The quality used for lossy variants */
+    private static final int QUALITY = 85;
+    /** Our log tag */
+    private static final String TAG = "LogoStore";
+
+    /** The single instance */
+    private static LogoStore store;
+
+    /** The directory the files live in */
+    private final File directory;
+    /** The disk space the logo files may take (in bytes) */
+    private final long maxDiskSize;
+    /** The variant sizes in pixels, by variant ordinal */
+    private final int[] widths = new int[Variant.values().length];
+    private final int[] heights = new int[Variant.values().length];
+
+    /** The entries by podcast URL, least recently used first */
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    /** The total size of all variant files */
+    private long diskSize;
+    /** The id for the next entry */
+    private int nextId;
+    /** Whether the index file was read */
+    private boolean loaded;
+    /** Whether the index changed since written */
+    private boolean dirty;
+    /** The number of logos stored, touched or removed since written */
+    private int changes;
+
+    /** The pre-scaled sizes we store each logo in */
+    public static enum Variant {
+        /** Large logo below the podcast list, shorter side is the logo size */
+        LARGE,
+
+        /** Small logo shown in podcast list rows */
+        ROW,
+
+        /** Large icon for notifications */
+        NOTIFICATION;
+    }
+
+    /**
+     * What the index knows about a stored logo. Entries are immutable, the
+     * store replaces them on change.
+     */
+    public static class Entry {
+
+        /** The podcast URL the logo belongs to */
+        public final String url;
+        /** The CRC-64 of the logo file as downloaded */
+        public final long contentHash;
+        /** The width of the logo as downloaded */
+        public final int width;
+        /** The height of the logo as downloaded */
+        public final int height;
+        /** The time the logo was last fetched or confirmed current */
+        public final long fetchedAt;
+        /** The entity tag the server sent with the logo (might be null) */
+        public final String etag;
+        /** The last modified date the server sent (might be null) */
+        public final String lastModified;
+
+        /** The id used to name the variant files */
+        private final int id;
+        /** The variant file sizes, by variant ordinal */
+        private final int[] sizes;
+
+        private Entry(String url, int id, long contentHash, int width, int height,
+                long fetchedAt, String etag, String lastModified, int[] sizes) {
+            this.url = url;
+            this.id = id;
+            this.contentHash = contentHash;
+            this.width = width;
+            this.height = height;
+            this.fetchedAt = fetchedAt;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.sizes = sizes;
+        }
+
+        /**
+         * Check whether the logo is fresh.
+         * 
+         * @param maxAge The maximum age in minutes.
+         * @return <code>true</code> iff the logo was fetched or confirmed
+         *         current no longer than the given time ago.
+         */
+        public boolean isFresh(int maxAge) {
+            return System.currentTimeMillis() - fetchedAt <= maxAge * 60 * 1000L;
+        }
+
+        private long getDiskSize() {
+            long size = 0;
+            for (int variantSize : sizes)
+                size += variantSize;
+
+            return size;
+        }
+    }
+
+    private LogoStore(Podcatcher app) {
+        this(app.getResources(), new File(app.getCacheDir(), DIRECTORY_NAME), MAX_DISK_SIZE);
+
+        // The old logo cache grew without bounds, the files are not needed
+        final File oldDirectory = new File(app.getCacheDir(), OLD_DIRECTORY_NAME);
+        if (oldDirectory.exists())
+            new Thread() {
+
+                @Override
+                public void run() {
+                    Process.setThreadPriority(THREAD_PRIORITY_BACKGROUND);
+
+                    deleteAll(oldDirectory);
+                    oldDirectory.delete();
+                }
+            }.start();
+    }
+
+    /**
+     * Create a logo store. The app uses the single instance returned by
+     * {@link #getInstance(Podcatcher)}, only create your own for testing.
+     * 
+     * @param res The resources to take the variant sizes from.
+     * @param directory The directory to put the files in. Do not share it,
+     *            all files in there are deleted if there is no valid index.
+     * @param maxDiskSize The disk space the logo files may take (in bytes).
+     */
+    public LogoStore(Resources res, File directory, long maxDiskSize) {
+        this.directory = directory;
+        this.maxDiskSize = maxDiskSize;
+
+        final int largeSize = res.getDimensionPixelSize(R.dimen.logo_size);
+        setSize(Variant.LARGE, largeSize, largeSize);
+        final int rowSize = res.getDimensionPixelSize(R.dimen.logo_row_size);
+        setSize(Variant.ROW, rowSize, rowSize);
+        setSize(Variant.NOTIFICATION,
+                (int) res.getDimension(android.R.dimen.notification_large_icon_width),
+                (int) res.getDimension(android.R.dimen.notification_large_icon_height));
+    }
+
+    /**
+     * Get the logo store instance. The returned object is a singleton, all
+     * calls to this method will always return the same single instance.
+     * 
+     * @param podcatcher The main app object.
+     * @return The store handle.
+     */
+    public static LogoStore getInstance(Podcatcher podcatcher) {
+        if (store == null)
+            store = new LogoStore(podcatcher);
+
+        return store;
+    }
+
+    /**
+     * Get the logo store instance.
+     * 
+     * @return The store handle or <code>null</code> if the store has not been
+     *         created by the app.
+     */
+    public static LogoStore getInstance() {
+        return store;
+    }
+
+    /**
+     * @param variant The variant to get the width for.
+     * @return The width the variant is stored at (in pixels). Logos keep their
+     *         aspect ratio for {@link Variant#LARGE}, so this is the size of
+     *         the shorter side. All other variants are cut to fill exactly
+     *         this size without being stretched.
+     */
+    public int getWidth(Variant variant) {
+        return widths[variant.ordinal()];
+    }
+
+    /**
+     * @param variant The variant to get the height for.
+     * @return The height the variant is stored at (in pixels).
+     * @see #getWidth(Variant)
+     */
+    public int getHeight(Variant variant) {
+        return heights[variant.ordinal()];
+    }
+
+    /**
+     * Get what the index knows about a podcast's logo. This does not count as
+     * a use of the logo and does not touch the file system, except for reading
+     * the index file on the first call.
+     * 
+     * @param url The podcast's URL.
+     * @return The entry or <code>null</code> if no logo is stored.
+     */
+    public synchronized Entry get(String url) {
+        ensureLoaded();
+
+        return entries.get(url);
+    }
+
+    /**
+     * Read a variant of a podcast's logo.
+     * 
+     * @param url The podcast's URL.
+     * @param variant The variant to read.
+     * @return The logo or <code>null</code> if not available.
+     */
+    public Bitmap read(String url, Variant variant) {
+        final Entry entry;
+
+        synchronized (this) {
+            ensureLoaded();
+
+            // Mark as the most recently used
+            entry = entries.remove(url);
+            if (entry == null)
+                return null;
+
+            entries.put(url, entry);
+            dirty = true;
+        }
+
+        final Bitmap logo = BitmapFactory.decodeFile(getFile(entry, variant).getPath());
+        // The file might have been removed behind our back
+        if (logo == null)
+            synchronized (this) {
+                if (entries.get(url) == entry)
+                    remove(entry);
+            }
+
+        return logo;
+    }
+
+    /**
+     * Check whether the given logo data is the logo stored for the podcast. If
+     * so, the logo is marked as fetched (see
+     * {@link #touch(String, String, String)}) and there is no need to decode
+     * or store it again.
+     * 
+     * @param url The podcast's URL.
+     * @param data The logo file as downloaded.
+     * @param etag The entity tag the server sent (might be <code>null</code>).
+     * @param lastModified The last modified date the server sent (might be
+     *            <code>null</code>).
+     * @return Whether the logo is unchanged.
+     */
+    public boolean touchIfUnchanged(String url, byte[] data, String etag, String lastModified) {
+        final Entry current = get(url);
+
+        if (current != null && current.contentHash == hash(data)) {
+            touch(url, etag, lastModified);
+            return true;
+        } else
+            return false;
+    }
+
+    /**
+     * Store a logo, replacing the one stored for the podcast (if any).
+     * 
+     * @param url The podcast's URL.
+     * @param data The logo file as downloaded.
+     * @param etag The entity tag the server sent (might be <code>null</code>).
+     * @param lastModified The last modified date the server sent (might be
+     *            <code>null</code>).
+     * @return The logo in its {@link Variant#LARGE} variant or
+     *         <code>null</code> if the data could not be decoded.
+     */
+    public Bitmap put(String url, byte[] data, String etag, String lastModified) {
+        // 1. Decode the logo, scaled down to the large size
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        final Bitmap logo = LogoDecoder.getInstance().decode(data, getWidth(Variant.LARGE),
+                options);
+        if (logo == null)
+            return null;
+
+        final int width = options.outWidth;
+        final int height = options.outHeight;
+
+        // 2. Write the variant files, these are not in the index yet
+        final int id;
+        synchronized (this) {
+            // The next id comes from the index
+            ensureLoaded();
+            id = nextId++;
+        }
+        final int[] sizes = new int[Variant.values().length];
+        final Entry entry = new Entry(url, id, hash(data), width, height,
+                System.currentTimeMillis(), etag, lastModified, sizes);
+
+        try {
+            directory.mkdirs();
+
+            // The large variant is the downloaded file if that has the right
+            // size, no need to re-encode it then
+            if (logo.getWidth() == width && logo.getHeight() == height)
+                sizes[Variant.LARGE.ordinal()] = write(getFile(entry, Variant.LARGE), data);
+            else
+                sizes[Variant.LARGE.ordinal()] =
+                        write(getFile(entry, Variant.LARGE), logo, CompressFormat.JPEG);
+
+            // The small variants are lossless
+            for (Variant variant : new Variant[] { Variant.ROW, Variant.NOTIFICATION }) {
+                final Bitmap scaled = crop(logo, getWidth(variant), getHeight(variant));
+
+                sizes[variant.ordinal()] =
+                        write(getFile(entry, variant), scaled, CompressFormat.PNG);
+                if (scaled != logo)
+                    scaled.recycle();
+            }
+        } catch (IOException ioe) {
+            // Logo is not stored, but we can still show it
+            Log.d(TAG, "Cannot store logo for " + url, ioe);
+
+            deleteFiles(entry);
+            return logo;
+        }
+
+        // 3. Update the index
+        synchronized (this) {
+            final Entry old = entries.remove(url);
+            if (old != null)
+                remove(old);
+
+            entries.put(url, entry);
+            diskSize += entry.getDiskSize();
+            trimToSize(entry);
+
+            changed();
+        }
+
+        return logo;
+    }
+
+    /**
+     * Mark a podcast's logo as fetched (current) right now, e.g. because the
+     * server told us it has not changed. Validators given replace the ones
+     * stored.
+     * 
+     * @param url The podcast's URL.
+     * @param etag The entity tag the server sent (might be <code>null</code>
+     *            to keep the one stored).
+     * @param lastModified The last modified date the server sent (might be
+     *            <code>null</code> to keep the one stored).
+     */
+    public synchronized void touch(String url, String etag, String lastModified) {
+        ensureLoaded();
+
+        final Entry entry = entries.remove(url);
+        if (entry != null) {
+            entries.put(url, new Entry(url, entry.id, entry.contentHash, entry.width,
+                    entry.height, System.currentTimeMillis(), etag == null ? entry.etag : etag,
+                    lastModified == null ? entry.lastModified : lastModified, entry.sizes));
+
+            changed();
+        }
+    }
+
+    /**
+     * Remove the podcast's logo (if any).
+     * 
+     * @param url The podcast's URL.
+     */
+    public synchronized void remove(String url) {
+        ensureLoaded();
+
+        final Entry entry = entries.remove(url);
+        if (entry != null) {
+            remove(entry);
+
+            changed();
+        }
+    }
+
+    /**
+     * Write the index if it changed. Call this when the app goes to the
+     * background, changes since the last write are lost otherwise.
+     */
+    public synchronized void flush() {
+        if (dirty)
+            writeIndex();
+    }
+
+    /**
+     * @return The total size of all logo files (in bytes).
+     */
+    public synchronized long getDiskSize() {
+        ensureLoaded();
+
+        return diskSize;
+    }
+
+    private void changed() {
+        dirty = true;
+
+        // Write the index every couple of changes, not for each of them
+        if (++changes >= INDEX_BATCH_SIZE)
+            writeIndex();
+    }
+
+    private void setSize(Variant variant, int width, int height) {
+        widths[variant.ordinal()] = width;
+        heights[variant.ordinal()] = height;
+    }
+
+    private static long hash(byte[] data) {
+        final Crc64 crc = new Crc64();
+        crc.update(data, 0, data.length);
+
+        return crc.getValue();
+    }
+
+    private File getFile(Entry entry, Variant variant) {
+        return new File(directory, entry.id + "." + variant.ordinal());
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.url);
+        diskSize -= entry.getDiskSize();
+        dirty = true;
+
+        deleteFiles(entry);
+    }
+
+    private void deleteFiles(Entry entry) {
+        for (Variant variant : Variant.values())
+            getFile(entry, variant).delete();
+    }
+
+    private void trimToSize(Entry keep) {
+        final List<Entry> evicted = new ArrayList<>();
+        long size = diskSize;
+
+        // Drop the least recently used logos, never the one to keep
+        final Iterator<Entry> iterator = entries.values().iterator();
+        while (size > maxDiskSize && iterator.hasNext()) {
+            final Entry entry = iterator.next();
+
+            if (entry != keep) {
+                evicted.add(entry);
+                size -= entry.getDiskSize();
+            }
+        }
+
+        for (Entry entry : evicted)
+            remove(entry);
+    }
+
+    private void ensureLoaded() {
+        if (!loaded) {
+            loaded = true;
+
+            try {
+                readIndex();
+            } catch (IOException ioe) {
+                // No index or a broken one, the logo files are useless
+                entries.clear();
+                diskSize = 0;
+                nextId = 0;
+
+                deleteAll(directory);
+            }
+        }
+    }
+
+    private void readIndex() throws IOException {
+        final File file = new File(directory, INDEX_FILE_NAME);
+        if (!file.exists())
+            throw new IOException("No index");
+
+        final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Unknown index format");
+
+            nextId = in.readInt();
+            final int count = in.readInt();
+            for (int index = 0; index < count; index++) {
+                final String url = in.readUTF();
+                final int id = in.readInt();
+                final long contentHash = in.readLong();
+                final int width = in.readInt();
+                final int height = in.readInt();
+                final long fetchedAt = in.readLong();
+                final String etag = in.readBoolean() ? in.readUTF() : null;
+                final String lastModified = in.readBoolean() ? in.readUTF() : null;
+                final int[] sizes = new int[Variant.values().length];
+                for (int variant = 0; variant < sizes.length; variant++)
+                    sizes[variant] = in.readInt();
+
+                final Entry entry = new Entry(url, id, contentHash, width, height,
+                        fetchedAt, etag, lastModified, sizes);
+                entries.put(url, entry);
+                diskSize += entry.getDiskSize();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void writeIndex() {
+        final File file = new File(directory, INDEX_FILE_NAME);
+        final File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+
+        try {
+            directory.mkdirs();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(nextId);
+            out.writeInt(entries.size());
+            for (Entry entry : entries.values()) {
+                out.writeUTF(entry.url);
+                out.writeInt(entry.id);
+                out.writeLong(entry.contentHash);
+                out.writeInt(entry.width);
+                out.writeInt(entry.height);
+                out.writeLong(entry.fetchedAt);
+                out.writeBoolean(entry.etag != null);
+                if (entry.etag != null)
+                    out.writeUTF(entry.etag);
+                out.writeBoolean(entry.lastModified != null);
+                if (entry.lastModified != null)
+                    out.writeUTF(entry.lastModified);
+                for (int size : entry.sizes)
+                    out.writeInt(size);
+            }
+            out.close();
+            out = null;
+
+            // Replace the index, so readers never see a half-written file
+            if (tempFile.renameTo(file)) {
+                dirty = false;
+                changes = 0;
+            } else
+                tempFile.delete();
+        } catch (IOException ioe) {
+            tempFile.delete();
+        } finally {
+            if (out != null)
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Nothing we can do here
+                }
+        }
+    }
+
+    /**
+     * Scale a logo to fill the given box while keeping its aspect ratio, the
+     * parts sticking out on the longer side are cut off evenly.
+     * 
+     * @param logo The logo to scale.
+     * @param width The width of the box (in pixels).
+     * @param height The height of the box (in pixels).
+     * @return The scaled logo, this is the logo given if it already has the
+     *         box's size.
+     */
+    private static Bitmap crop(Bitmap logo, int width, int height) {
+        final int logoWidth = logo.getWidth();
+        final int logoHeight = logo.getHeight();
+
+        // Find the part of the logo that has the box's aspect ratio
+        int cropWidth = logoWidth;
+        int cropHeight = logoHeight;
+        if ((long) logoWidth * height > (long) logoHeight * width)
+            cropWidth = Math.max(1, Math.round((float) logoHeight * width / height));
+        else
+            cropHeight = Math.max(1, Math.round((float) logoWidth * height / width));
+
+        final Bitmap cropped = Bitmap.createBitmap(logo, (logoWidth - cropWidth) / 2,
+                (logoHeight - cropHeight) / 2, cropWidth, cropHeight);
+        final Bitmap scaled = Bitmap.createScaledBitmap(cropped, width, height, true);
+
+        if (cropped != logo && cropped != scaled)
+            cropped.recycle();
+
+        return scaled;
+    }
+
+    private static int write(File file, byte[] data) throws IOException {
+        final OutputStream out = new FileOutputStream(file);
+
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+
+        return data.length;
+    }
+
+    private static int write(File file, Bitmap bitmap, CompressFormat format)
+            throws IOException {
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+
+        try {
+            if (!bitmap.compress(format, QUALITY, out))
+                throw new IOException("Cannot encode logo");
+        } finally {
+            out.close();
+        }
+
+        return (int) file.length();
+    }
+
+    private static void deleteAll(File directory) {
+        final File[] files = directory.listFiles();
+
+        if (files != null)
+            for (File file : files)
+                file.delete();
+    }
+}
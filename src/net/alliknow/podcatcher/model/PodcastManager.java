@@ -23,6 +23,8 @@ import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.UserManager;
 import android.preference.PreferenceManager;
 
@@ -48,11 +50,11 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 
 /**
@@ -63,7 +65,7 @@ import java.util.concurrent.RejectedExecutionException;
  * should never have to create this yourself.
  */
 public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastListener,
-        OnLoadPodcastLogoListener {
+        OnLoadPodcastLogoListener, PodcastRefreshScheduler.Loader {
 
     /** The single instance */
     private static PodcastManager manager;
@@ -83,6 +85,15 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
     /** Maximum byte size for the logo to load when on mobile connection */
     public static final int MAX_LOGO_SIZE_MOBILE = 500000;
 
+    /** The time between two runs of the background update (in milliseconds) */
+    private static final int UPDATE_INTERVAL = 1000 * 60 * 5; // five minutes
+    /** The time the background update refreshes podcasts before they are due */
+    private static final int UPDATE_HEAD_START = 1000 * 60 * 6; // six minutes
+    /** The number of concurrent podcast loads on fast connections */
+    private static final int LOAD_WORKERS = 4;
+    /** The number of concurrent podcast loads on mobile connections */
+    private static final int LOAD_WORKERS_MOBILE = 2;
+
     /** Max stale time we accept from http cache on fast connections */
     private static final int MAX_STALE = 60 * 60; // one hour
     /** Max stale time we accept from http cache on mobile connections */
@@ -95,6 +106,13 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
     /** The OPML file encoding */
     public static final String OPML_FILE_ENCODING = "utf8";
 
+    /** The time the manager was created, i.e. the app started */
+    private final long createdTime = System.currentTimeMillis();
+    /** The time it took from start-up to the podcast list being available */
+    private long startupTime = -1;
+    /** The time it took from start-up to all snapshots being restored */
+    private long restoreTime = -1;
+
     /** The list of podcasts we know */
     private List<Podcast> podcastList;
     /** Flag to indicate whether podcast list is dirty */
@@ -106,10 +124,30 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
      */
     private boolean blockExplicit = false;
 
+    /**
+     * The podcasts waiting for their content to be restored from a snapshot,
+     * in restore order (guarded by itself)
+     */
+    private final LinkedList<Podcast> unrestoredPodcasts = new LinkedList<>();
+    /**
+     * The loads asked for while the podcast was not restored yet, mapped to
+     * whether the user selected the podcast
+     */
+    private Map<Podcast, Boolean> loadsAfterRestore = new HashMap<>();
+
+    /** The podcasts whose next load parses their (extended) episode window */
+    private Set<Podcast> windowLoads = new HashSet<>();
+
     /** The current podcast load tasks */
     private Map<Podcast, LoadPodcastTask> loadPodcastTasks = new HashMap<>();
+    /** The scheduler deciding when podcasts are loaded */
+    private final PodcastRefreshScheduler refreshScheduler;
+    /** The handler to run the background update on (main thread) */
+    private final Handler updateHandler = new Handler(Looper.getMainLooper());
     /** The current podcast logo load tasks */
     private Map<Podcast, LoadPodcastLogoTask> loadPodcastLogoTasks = new HashMap<>();
+    /** The age (in minutes) stored logos are checked after, -1 for default */
+    private int logoMaxAge = -1;
 
     /** The call-back set for the podcast list load listeners */
     private Set<OnLoadPodcastListListener> loadPodcastListListeners = new HashSet<>();
@@ -121,42 +159,77 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
     private Set<OnLoadPodcastLogoListener> loadPodcastLogoListeners = new HashSet<>();
 
     /** This is the background update task */
-    private class PodcastUpdateTask extends TimerTask {
+    private class PodcastUpdateTask implements Runnable {
 
         @Override
         public void run() {
-            final boolean online = podcatcher.isOnline();
-            // This is the current time minus the time to life for the podcast
-            // minus some extra time to make sure we refresh before it if
-            // actually due
-            final Date triggerIfLoadedBefore = new Date(new Date().getTime() -
-                    (podcatcher.isOnFastConnection() ? TIME_TO_LIFE : TIME_TO_LIFE_MOBILE) -
-                    1000 * 60 * 6); // trigger if six minutes before reload
-
-            // There are some conditions here: We need to be online and there
-            // should not be too many threads open
-            if (online && (loadPodcastTasks.size() + loadPodcastLogoTasks.size() < 50))
+            final long now = new Date().getTime();
+            final long timeToLife =
+                    podcatcher.isOnFastConnection() ? TIME_TO_LIFE : TIME_TO_LIFE_MOBILE;
+
+            // We need to be online here, the scheduler takes care of not
+            // running too many loads at once and of podcasts already loading
+            if (podcatcher.isOnline()) {
+                refreshScheduler.setWorkerCount(podcatcher.isOnFastConnection() ?
+                        LOAD_WORKERS : LOAD_WORKERS_MOBILE);
+
                 for (Podcast podcast : podcastList) {
-                    // There are more conditions here: The podcast is not
-                    // currently loading, and has not been loaded recently
-                    if (!loadPodcastTasks.containsKey(podcast) &&
-                            (podcast.getLastLoaded() == null || podcast.getLastLoaded().before(
-                                    triggerIfLoadedBefore))) {
-                        // Download podcast RSS feed (async)
-                        final LoadPodcastTask task = new LoadPodcastTask(PodcastManager.this);
-                        task.setBlockExplicitEpisodes(blockExplicit);
-                        try {
-                            task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, podcast);
-
-                            // Keep task reference, so we can cancel the load
-                            // and determine whether a task for this podcast is
-                            // already running
-                            loadPodcastTasks.put(podcast, task);
-                        } catch (RejectedExecutionException ree) {
-                            // Skip update
-                        }
-                    }
+                    final Date lastLoaded = podcast.getLastLoaded();
+
+                    // Only refresh podcasts that are due according to their
+                    // own publishing cadence, we start some extra time early
+                    // to make sure we refresh before it if actually due
+                    if (lastLoaded == null || now - lastLoaded.getTime() > PodcastRefreshScheduler
+                            .getCheckInterval(podcast, timeToLife) - UPDATE_HEAD_START)
+                        refreshScheduler.schedule(podcast,
+                                PodcastRefreshScheduler.PRIORITY_BACKGROUND);
+                }
+            }
+
+            updateHandler.postDelayed(this, UPDATE_INTERVAL);
+        }
+    }
+
+    /**
+     * This task restores the podcasts' content from their snapshots, so
+     * episodes are available without loading the feeds first. Podcasts are
+     * restored in list order, the ones a load is asked for go first.
+     */
+    private class RestoreSnapshotsTask extends AsyncTask<Void, Podcast, Void> {
+
+        @Override
+        protected Void doInBackground(Void... nothing) {
+            while (true) {
+                final Podcast podcast;
+                synchronized (unrestoredPodcasts) {
+                    podcast = unrestoredPodcasts.peek();
                 }
+
+                if (podcast == null)
+                    return null;
+
+                // Leave the podcast in the queue while restoring, so loads
+                // wait for it
+                PodcastSnapshot.restore(podcatcher, podcast);
+                synchronized (unrestoredPodcasts) {
+                    unrestoredPodcasts.remove(podcast);
+                }
+
+                publishProgress(podcast);
+            }
+        }
+
+        @Override
+        protected void onProgressUpdate(Podcast... podcasts) {
+            onSnapshotRestored(podcasts[0]);
+        }
+
+        @Override
+        protected void onPostExecute(Void nothing) {
+            if (restoreTime < 0)
+                restoreTime = System.currentTimeMillis() - createdTime;
+
+            startUpdates();
         }
     }
 
@@ -172,6 +245,8 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
 
         // Check for preferences
         this.blockExplicit = checkForRestrictedProfileBlocksExplicit();
+        // All podcast loads go through the scheduler
+        this.refreshScheduler = new PodcastRefreshScheduler(this);
     }
 
     /**
@@ -212,6 +287,17 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
         this.podcastList = list;
         this.podcastListChanged = false;
 
+        // Measure how long the user had to wait for the list
+        if (startupTime < 0)
+            startupTime = System.currentTimeMillis() - createdTime;
+
+        // Bring back the podcasts' content as of the last run in the
+        // background, loads asked for in the meantime wait for it
+        synchronized (unrestoredPodcasts) {
+            unrestoredPodcasts.addAll(list);
+        }
+        new RestoreSnapshotsTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+
         // Put some nice sample podcasts for testing
         // if (podcatcher.isInDebugMode())
         // putSamplePodcasts();
@@ -220,18 +306,19 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
         for (OnLoadPodcastListListener listener : loadPodcastListListeners)
             listener.onPodcastListLoaded(getPodcastList(), input);
 
-        // Go load all podcast logo available offline
+        // Go load all podcast logo available offline, these are queued in list
+        // order and the ones the UI asks for are moved to the front
         for (Podcast podcast : podcastList)
-            loadLogo(podcast, true);
+            loadLogo(podcast, true, LogoDecoder.PRIORITY_BACKGROUND);
+    }
 
+    private void startUpdates() {
         // Run podcast update task every five minutes
-        final int fiveMinutes = 1000 * 60 * 5;
         final boolean isSelectAllOnStart = PreferenceManager.getDefaultSharedPreferences(
                 podcatcher.getApplicationContext()).getBoolean(
                 SettingsActivity.KEY_SELECT_ALL_ON_START, false);
-        new Timer().schedule(new PodcastUpdateTask(),
-                isSelectAllOnStart || podcatcher.isInDebugMode() ?
-                        fiveMinutes : 0, fiveMinutes);
+        updateHandler.postDelayed(new PodcastUpdateTask(),
+                isSelectAllOnStart || podcatcher.isInDebugMode() ? UPDATE_INTERVAL : 0);
     }
 
     @Override
@@ -241,6 +328,26 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
         onPodcastListLoaded(new ArrayList<Podcast>(), inputFile);
     }
 
+    /**
+     * @return The time in milliseconds it took from the app's start to the
+     *         podcast list being available or -1 if not available yet. The
+     *         podcasts' content might still be restored at this point.
+     * @see #getRestoreTime()
+     */
+    public long getStartupTime() {
+        return startupTime;
+    }
+
+    /**
+     * @return The time in milliseconds it took from the app's start to the
+     *         content of all podcasts being restored from their snapshots or
+     *         -1 if not done yet.
+     * @see PodcastSnapshot
+     */
+    public long getRestoreTime() {
+        return restoreTime;
+    }
+
     /**
      * Get the list of podcast currently known. This will come as a sorted,
      * shallow-copied list. Use the <code>add</code> and <code>remove</code>
@@ -271,32 +378,146 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
      * @see EpisodeManager#blockUntilEpisodeMetadataIsLoaded()
      */
     public void load(Podcast podcast) {
-        // Only load podcast if not too old
-        if (!shouldReload(podcast))
-            onPodcastLoaded(podcast);
-        // Only start the load task if it is not already active
-        else if (!loadPodcastTasks.containsKey(podcast)) {
-            // Download podcast RSS feed (async)
-            final LoadPodcastTask task = new LoadPodcastTask(this);
-            task.setBlockExplicitEpisodes(blockExplicit);
-            // We will accept stale versions from the cache in certain
-            // situations
+        load(podcast, false);
+    }
+
+    /**
+     * Load data for given podcast from its URL, see {@link #load(Podcast)}.
+     * Loads for the podcast the user selected are started before all others.
+     * 
+     * @param podcast Podcast to load.
+     * @param selected Whether this is the podcast the user selected.
+     * @see PodcastRefreshScheduler
+     */
+    public void load(Podcast podcast, boolean selected) {
+        // The podcast's snapshot is not restored yet, do that next and load
+        // afterwards
+        if (prioritizeRestore(podcast)) {
+            final Boolean wasSelected = loadsAfterRestore.get(podcast);
+            loadsAfterRestore.put(podcast, selected || Boolean.TRUE.equals(wasSelected));
+        }
+        // Only load podcast if not too old, this must not interfere with a
+        // load task that might be running for the podcast
+        else if (!shouldReload(podcast, selected))
+            notifyPodcastLoaded(podcast);
+        // The podcast (or its server) failed recently and we do not try again
+        // yet, show what we have
+        else if (!selected && !loadPodcastTasks.containsKey(podcast)
+                && refreshScheduler.isBlocked(podcast)) {
+            final PodcastLoadError error = refreshScheduler.getLastError(podcast);
+
+            if (podcast.getLastLoaded() != null)
+                notifyPodcastLoaded(podcast);
+            else
+                for (OnLoadPodcastListener listener : loadPodcastListeners)
+                    listener.onPodcastLoadFailed(podcast,
+                            error == null ? PodcastLoadError.NOT_REACHABLE : error);
+        }
+        // The scheduler will start the load task once there is room for it,
+        // unless it is already active
+        else
+            refreshScheduler.schedule(podcast, selected ?
+                    PodcastRefreshScheduler.PRIORITY_SELECTED :
+                    PodcastRefreshScheduler.PRIORITY_VISIBLE);
+    }
+
+    private boolean prioritizeRestore(Podcast podcast) {
+        synchronized (unrestoredPodcasts) {
+            final boolean unrestored = unrestoredPodcasts.remove(podcast);
+            if (unrestored)
+                unrestoredPodcasts.addFirst(podcast);
+
+            return unrestored;
+        }
+    }
+
+    private void onSnapshotRestored(Podcast podcast) {
+        final Boolean selected = loadsAfterRestore.remove(podcast);
+
+        if (selected != null)
+            load(podcast, selected);
+    }
+
+    @Override
+    public void startLoad(Podcast podcast, Executor executor, boolean acceptStale) {
+        // Download podcast RSS feed (async)
+        final LoadPodcastTask task = new LoadPodcastTask(podcatcher, this);
+        task.setBlockExplicitEpisodes(blockExplicit);
+        // The episode window changed, so we need to parse all of it
+        task.setLoadOlderEpisodes(windowLoads.contains(podcast));
+        // We will accept stale versions from the cache in certain situations
+        if (acceptStale)
             task.setMaxStale(podcatcher.isOnline() ?
                     podcatcher.isOnFastConnection() ? MAX_STALE : MAX_STALE_MOBILE
                     : MAX_STALE_OFFLINE);
 
-            try {
-                task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, podcast);
+        task.executeOnExecutor(executor, podcast);
+        windowLoads.remove(podcast);
 
-                // Keep task reference, so we can cancel the load and determine
-                // whether a task for this podcast is already running
-                loadPodcastTasks.put(podcast, task);
-            } catch (RejectedExecutionException ree) {
-                // Skip update TODO We might need a better solution here?
-            }
+        // Keep task reference, so we can cancel the load and determine
+        // whether a task for this podcast is already running
+        loadPodcastTasks.put(podcast, task);
+    }
+
+    /**
+     * Page in the next older episodes for a podcast with an episode window.
+     * This is an async load just like {@link #load(Podcast)} and alerts the
+     * same call-backs, but parses the complete (extended) window from the
+     * cached feed if available. The load goes through the scheduler like all
+     * others.
+     * 
+     * @param podcast Podcast to load older episodes for.
+     * @return Whether there are older episodes and the load was started.
+     * @see Podcast#hasOlderEpisodes()
+     */
+    public boolean loadOlderEpisodes(Podcast podcast) {
+        if (!podcast.hasOlderEpisodes() || loadPodcastTasks.containsKey(podcast))
+            return false;
+
+        podcast.extendEpisodeWindow();
+        scheduleWindowLoad(podcast);
+
+        return true;
+    }
+
+    /**
+     * Set and permanently store the episode window for the given podcast. If
+     * the podcast is loaded, it is parsed again to apply the new window (once
+     * the current load finished if it is loading right now).
+     * 
+     * @param podcast Podcast to set the window for. Needs to be in the
+     *            manager's list.
+     * @param limit The maximum number of episodes to keep, 0 (zero) for no
+     *            limit.
+     * @param months The maximum age of the episodes to keep in months, 0
+     *            (zero) for no limit.
+     * @see Podcast#setEpisodeWindow(int, int)
+     */
+    public void setEpisodeWindow(Podcast podcast, int limit, int months) {
+        if (podcastList.contains(podcast)) {
+            podcast.setEpisodeWindow(limit, months);
+
+            if (podcast.getLastLoaded() != null)
+                scheduleWindowLoad(podcast);
+
+            // Mark podcast list dirty
+            podcastListChanged = true;
         }
     }
 
+    private void scheduleWindowLoad(Podcast podcast) {
+        // The user is waiting for this and the feed will usually come from
+        // the cache, if the podcast is loading right now we start once the
+        // load finished
+        windowLoads.add(podcast);
+        refreshScheduler.schedule(podcast, PodcastRefreshScheduler.PRIORITY_SELECTED);
+    }
+
+    @Override
+    public boolean hasLoadTask(Podcast podcast) {
+        return loadPodcastTasks.containsKey(podcast);
+    }
+
     /**
      * Check whether a podcast is currently loading.
      * 
@@ -304,14 +525,24 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
      * @return <code>true</code> iff loading.
      */
     public boolean isLoading(Podcast podcast) {
-        return loadPodcastTasks.containsKey(podcast);
+        return loadPodcastTasks.containsKey(podcast) || refreshScheduler.isPending(podcast)
+                || loadsAfterRestore.containsKey(podcast);
     }
 
     /**
-     * @return The number of podcasts currently loading.
+     * @return The number of podcasts currently loading (including the ones
+     *         waiting for their load to start).
      */
     public int getLoadCount() {
-        return loadPodcastTasks.size();
+        return loadPodcastTasks.size() + refreshScheduler.getQueueSize()
+                + loadsAfterRestore.size();
+    }
+
+    /**
+     * @return The scheduler for podcast loads, use this to access its metrics.
+     */
+    public PodcastRefreshScheduler getRefreshScheduler() {
+        return refreshScheduler;
     }
 
     @Override
@@ -324,13 +555,32 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
     @Override
     public void onPodcastLoaded(Podcast podcast) {
         // Remove from the map of loading task
-        loadPodcastTasks.remove(podcast);
-        // Clear the failed count for this podcast
-        podcast.resetFailedLoadAttempts();
+        final LoadPodcastTask task = loadPodcastTasks.remove(podcast);
+        // The podcast was actually loaded (not only served from memory)
+        if (task != null) {
+            // Clear the failed count for this podcast
+            podcast.resetFailedLoadAttempts();
+            refreshScheduler.onLoadFinished(podcast, null);
+            // The episode window changed while the podcast was loading
+            if (windowLoads.contains(podcast))
+                refreshScheduler.schedule(podcast, PodcastRefreshScheduler.PRIORITY_SELECTED);
+
+            // Make sure new cache validators are persisted
+            if (task.haveCacheValidatorsChanged())
+                podcastListChanged = true;
+        }
 
         // Notify listeners
-        if (blockExplicit && podcast.isExplicit())
+        if (task != null && blockExplicit && podcast.isExplicit())
             onPodcastLoadFailed(podcast, PodcastLoadError.EXPLICIT_BLOCKED);
+        else
+            notifyPodcastLoaded(podcast);
+    }
+
+    private void notifyPodcastLoaded(Podcast podcast) {
+        if (blockExplicit && podcast.isExplicit())
+            for (OnLoadPodcastListener listener : loadPodcastListeners)
+                listener.onPodcastLoadFailed(podcast, PodcastLoadError.EXPLICIT_BLOCKED);
         else
             for (OnLoadPodcastListener listener : loadPodcastListeners)
                 listener.onPodcastLoaded(podcast);
@@ -340,8 +590,10 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
     public void onPodcastLoadFailed(Podcast podcast, PodcastLoadError code) {
         // Remove from the map of loading task
         loadPodcastTasks.remove(podcast);
-        // Increment the failed load attempt count
+        // Increment the failed load attempt count, the scheduler will hold
+        // the podcast back for a while
         podcast.incrementFailedLoadAttempts();
+        refreshScheduler.onLoadFinished(podcast, code);
 
         // Notify listeners
         for (OnLoadPodcastListener listener : loadPodcastListeners)
@@ -351,33 +603,82 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
     /**
      * Load logo for given podcast from its URL. This is an async load, so this
      * method will return immediately. Implement the appropriate call-back to
-     * monitor the load process and to get its result.
+     * monitor the load process and to get its result. Logos available are
+     * shown right away, even if stale. These are checked with the server in
+     * the background and the call-back is alerted again if they changed.
      * 
      * @param podcast Podcast to load logo for.
      * @see OnLoadPodcastLogoListener
      */
     public void loadLogo(Podcast podcast) {
-        loadLogo(podcast, false);
+        loadLogo(podcast, false, LogoDecoder.PRIORITY_BACKGROUND);
     }
 
-    private void loadLogo(Podcast podcast, boolean localOnly) {
-        // Only load podcast logo if it is not there yet
-        if (podcast.isLogoCached())
-            onPodcastLogoLoaded(podcast);
+    /**
+     * Set the age after which stored logos shown are checked with the server.
+     * The default is the one of {@link LoadPodcastLogoTask}.
+     * 
+     * @param minutes Maximum age in minutes, give -1 to reset to the default.
+     * @see LoadPodcastLogoTask#setMaxAge(int)
+     */
+    public void setLogoMaxAge(int minutes) {
+        this.logoMaxAge = minutes;
+    }
+
+    /**
+     * Load a podcast logo from the local file cache again, if the logo was
+     * evicted from the {@link LogoCache}. This is meant to be called by UI
+     * components that find the logo missing when they need it, the usual
+     * logo call-backs will alert once it is available again. If the logo is
+     * waiting to load, it is moved to the front of the queue. Does nothing if
+     * the logo was neither evicted nor is waiting.
+     * 
+     * @param podcast Podcast to restore the logo for.
+     */
+    public void restoreLogo(Podcast podcast) {
+        final LogoCache cache = LogoCache.getInstance();
+
+        if (!LogoDecoder.getInstance().prioritize(podcast, LogoDecoder.PRIORITY_VISIBLE)
+                && cache != null && cache.clearEvicted(podcast.getUrl()))
+            loadLogo(podcast, true, LogoDecoder.PRIORITY_VISIBLE);
+    }
+
+    private void loadLogo(Podcast podcast, boolean localOnly, int priority) {
+        final boolean online = podcatcher.isOnline();
+
+        // The logo is there already, show it right away. It might be stale,
+        // so check it in the background unless we are limited to local files.
+        if (podcast.isLogoCached()) {
+            notifyLogoLoaded(podcast);
+
+            if (!localOnly && online)
+                startLogoTask(podcast, false, true, LogoDecoder.PRIORITY_BACKGROUND);
+        }
+        // Only use stored file if offline (even if stale)
+        else
+            startLogoTask(podcast, !online || localOnly, false, priority);
+    }
+
+    private void startLogoTask(Podcast podcast, boolean localOnly, boolean revalidate,
+            int priority) {
         // Only start the load task if it is not already active
-        else if (!loadPodcastLogoTasks.containsKey(podcast)) {
+        if (!loadPodcastLogoTasks.containsKey(podcast)) {
             // Start logo download
             LoadPodcastLogoTask task = new LoadPodcastLogoTask(podcatcher, this);
 
             // Limit logo size download unless we are on a fast network.
             if (!podcatcher.isOnFastConnection())
                 task.setLoadLimit(MAX_LOGO_SIZE_MOBILE);
-            // Only use cached file if offline (even if stale)
-            task.setLocalOnly(!podcatcher.isOnline() || localOnly);
+            task.setLocalOnly(localOnly);
+            task.setRevalidate(revalidate);
+            if (logoMaxAge >= 0)
+                task.setMaxAge(logoMaxAge);
 
             try {
-                // Go for it!
-                task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, podcast);
+                // Go for it! Logos have their own executor, so they do not
+                // get into the way of feed loads
+                task.executeOnExecutor(LogoDecoder.getInstance().getExecutor(podcast, priority),
+                        podcast);
 
                 // Keep task reference, so we can cancel the load and determine
                 // whether a task for this podcast logo is already running
@@ -390,10 +691,15 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
 
     @Override
     public void onPodcastLogoLoaded(Podcast podcast) {
-        loadPodcastLogoTasks.remove(podcast);
+        final LoadPodcastLogoTask task = loadPodcastLogoTasks.remove(podcast);
 
-        for (OnLoadPodcastLogoListener listener : loadPodcastLogoListeners)
-            listener.onPodcastLogoLoaded(podcast);
+        // A check that found the logo unchanged is of no interest
+        if (task == null || task.isChanged())
+            notifyLogoLoaded(podcast);
+
+        // The logo shown is stale, check it in the background
+        if (task != null && task.isStale() && podcatcher.isOnline())
+            startLogoTask(podcast, false, true, LogoDecoder.PRIORITY_BACKGROUND);
     }
 
     @Override
@@ -404,6 +710,11 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
             listener.onPodcastLogoLoadFailed(podcast);
     }
 
+    private void notifyLogoLoaded(Podcast podcast) {
+        for (OnLoadPodcastLogoListener listener : loadPodcastLogoListeners)
+            listener.onPodcastLogoLoaded(podcast);
+    }
+
     /**
      * Add a new podcast to the list of podcasts.
      * {@link OnChangePodcastListListener}s will be notified. If the podcast
@@ -442,7 +753,24 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
     public void removePodcast(int index) {
         if (index >= 0 && index < size()) {
             // Remove podcast at given position
-            Podcast removedPodcast = podcastList.remove(index);
+            final Podcast removedPodcast = podcastList.remove(index);
+            refreshScheduler.cancel(removedPodcast);
+            loadsAfterRestore.remove(removedPodcast);
+            windowLoads.remove(removedPodcast);
+            synchronized (unrestoredPodcasts) {
+                unrestoredPodcasts.remove(removedPodcast);
+            }
+            // Its logo, snapshot and cached feed are not needed anymore
+            removedPodcast.setLogo(null);
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    PodcastSnapshot.delete(podcatcher, removedPodcast);
+                    LogoStore.getInstance().remove(removedPodcast.getUrl());
+                    FeedCache.delete(podcatcher, removedPodcast);
+                }
+            });
 
             // Alert listeners of removed podcast
             for (OnChangePodcastListListener listener : changePodcastListListeners)
@@ -474,6 +802,8 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
         if (podcastList.contains(podcast)) {
             podcast.setUsername(username);
             podcast.setPassword(password);
+            // Podcast waiting for credentials can load again
+            refreshScheduler.resetBackoff(podcast);
 
             // Mark podcast list dirty
             podcastListChanged = true;
@@ -489,6 +819,7 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
         if (podcastListChanged && podcastList != null) {
             final StorePodcastListTask task = new StorePodcastListTask(podcatcher, null);
             task.setWriteAuthorization(true);
+            task.setWriteCacheValidators(true);
             task.execute(new ArrayList<>(podcastList));
 
             // Reset the flag, so the list will only be saved if changed again
@@ -563,7 +894,7 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
             // Go try find the episode
             for (Podcast podcast : podcastList)
                 for (Episode episode : podcast.getEpisodes())
-                    if (episode.getMediaUrl().equals(url))
+                    if (episode.hasMediaUrl(url))
                         return episode;
         }
 
@@ -591,7 +922,7 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
                 // Go try find the episode
                 if (podcast != null)
                     for (Episode episode : podcast.getEpisodes())
-                        if (episode.getMediaUrl().equals(episodeUrl))
+                        if (episode.hasMediaUrl(episodeUrl))
                             return episode;
             }
         }
@@ -686,10 +1017,14 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
      * file on the provider's server.
      * 
      * @param Podcast to check.
+     * @param selected Whether the user selected the podcast, in this case the
+     *            time to live is used. For all other podcasts, the interval
+     *            adapts to the podcast's publishing cadence.
      * @return <code>true</code> iff time to live expired or the podcast has
      *         never been loaded.
+     * @see PodcastRefreshScheduler#getCheckInterval(Podcast, long)
      */
-    private boolean shouldReload(Podcast podcast) {
+    private boolean shouldReload(Podcast podcast, boolean selected) {
         // Has never been loaded
         if (podcast.getLastLoaded() == null)
             return true;
@@ -699,7 +1034,11 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
         // Check age
         else {
             final long age = new Date().getTime() - podcast.getLastLoaded().getTime();
-            return age > (podcatcher.isOnFastConnection() ? TIME_TO_LIFE : TIME_TO_LIFE_MOBILE);
+            final long timeToLife =
+                    podcatcher.isOnFastConnection() ? TIME_TO_LIFE : TIME_TO_LIFE_MOBILE;
+
+            return age > (selected ? timeToLife :
+                    PodcastRefreshScheduler.getCheckInterval(podcast, timeToLife));
         }
     }
 
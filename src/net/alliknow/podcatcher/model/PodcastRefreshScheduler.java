@@ -0,0 +1,621 @@
+/** Copyright 2012-2014 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import android.net.Uri;
+
+import net.alliknow.podcatcher.model.tasks.remote.LoadPodcastTask.PodcastLoadError;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when podcast feeds are loaded. All load requests are put into a
+ * queue ordered by priority (the selected podcast first, then podcasts the
+ * user is looking at, then background refreshes) and staleness (podcasts never
+ * loaded or loaded longest ago first). Loads run on the scheduler's own
+ * executor with a limited number of workers and a limit on the number of
+ * concurrent loads per host. Requests for podcasts already queued or loading
+ * are merged, requests that cannot be started right away are kept and retried,
+ * never dropped.
+ * <p>
+ * <b>Refresh intervals:</b> Use {@link #getCheckInterval(Podcast, long)} to
+ * find out how often a podcast should be checked for new episodes. The
+ * interval follows the podcast's publishing cadence and grows as loads keep
+ * coming back unchanged.
+ * </p>
+ * <p>
+ * <b>Failures:</b> Podcasts failing to load are not tried again in the
+ * background (or for the all podcasts view) for a while. The time grows
+ * exponentially with the podcast's failed load count and is randomised, so
+ * failing podcasts do not all come back at once. Podcasts that need
+ * credentials are parked until {@link #resetBackoff(Podcast)} is called.
+ * Servers that cannot be reached repeatedly are blocked for all their
+ * podcasts (circuit breaker), until a single trial load gets through. Loads
+ * for the selected podcast are always started.
+ * </p>
+ * <p>
+ * The scheduler is owned by the {@link PodcastManager}, which starts the
+ * actual loads (see {@link Loader}) and reports back once they finish. All
+ * methods but the metrics getters need to be called on the main thread.
+ * </p>
+ */
+public class PodcastRefreshScheduler {
+
+    /** Priority for the podcast the user selected */
+    public static final int PRIORITY_SELECTED = 0;
+    /** Priority for podcasts visible to the user (e.g. all podcasts mode) */
+    public static final int PRIORITY_VISIBLE = 1;
+    /** Priority for refreshes the user is not waiting for */
+    public static final int PRIORITY_BACKGROUND = 2;
+
+    /** The default number of loads running at the same time */
+    public static final int DEFAULT_WORKER_COUNT = 4;
+    /** The default number of loads running at the same time per host */
+    public static final int DEFAULT_HOST_LIMIT = 2;
+    /** The time idle workers are kept alive (in seconds) */
+    private static final int WORKER_KEEP_ALIVE = 30;
+
+    /** The longest time between two checks of a podcast (in millis) */
+    public static final long MAX_CHECK_INTERVAL = 24 * 60 * 60 * 1000;
+    /** The number of checks per typical time between two episodes */
+    private static final int CHECKS_PER_EPISODE = 8;
+    /** Feeds quiet for this many publishing intervals are considered dormant */
+    private static final int DORMANT_FACTOR = 4;
+    /** The first wait time after a podcast failed to load (in millis) */
+    private static final long BACKOFF_BASE = 5 * 60 * 1000;
+    /** The first wait time after a feed could not be parsed (in millis) */
+    private static final long BACKOFF_BASE_NOT_PARSEABLE = 30 * 60 * 1000;
+    /** The longest wait time after failed loads (in millis) */
+    private static final long MAX_BACKOFF = 12 * 60 * 60 * 1000;
+    /** The number of network failures in a row that block a host */
+    private static final int CIRCUIT_THRESHOLD = 3;
+    /** The first time a host is blocked (in millis) */
+    private static final long CIRCUIT_OPEN_TIME = 10 * 60 * 1000;
+    /** The longest time a host is blocked (in millis) */
+    private static final long MAX_CIRCUIT_OPEN_TIME = 2 * 60 * 60 * 1000;
+
+    /** The number of unchanged loads that double the check interval */
+    private static final int UNCHANGED_LOADS_PER_STEP = 4;
+    /** The largest number of unchanged loads we take into account */
+    private static final int MAX_UNCHANGED_LOADS = 8;
+
+    /** The loader starting the loads */
+    private final Loader loader;
+    /** The executor the loads run on */
+    private final ThreadPoolExecutor executor;
+
+    /** The number of workers */
+    private int workerCount = DEFAULT_WORKER_COUNT;
+    /** The number of concurrent loads per host */
+    private int hostLimit = DEFAULT_HOST_LIMIT;
+
+    /** The pending requests in the order to run them */
+    private final PriorityQueue<Request> queue = new PriorityQueue<>();
+    /** The pending requests by podcast */
+    private final Map<Podcast, Request> pending = new HashMap<>();
+    /** The hosts of the loads currently running by podcast */
+    private final Map<Podcast, String> running = new HashMap<>();
+    /** The number of loads currently running by host */
+    private final Map<String, Integer> runningPerHost = new HashMap<>();
+    /** The number of requests created so far, used to keep order stable */
+    private long sequence = 0;
+    /** The backoff state of podcasts that failed to load */
+    private final Map<Podcast, Backoff> backoffs = new HashMap<>();
+    /** The circuit state of hosts with network failures */
+    private final Map<String, Circuit> circuits = new HashMap<>();
+    /** The source for the backoff jitter */
+    private final Random random = new Random();
+
+    /** The number of loads started so far */
+    private volatile long dispatchedCount = 0;
+    /** The total time started requests waited in the queue (in millis) */
+    private volatile long totalWaitTime = 0;
+    /** The longest time a started request waited in the queue (in millis) */
+    private volatile long maxWaitTime = 0;
+    /** The current number of pending requests */
+    private volatile int queueSize = 0;
+
+    /** The interface the scheduler starts the actual loads with */
+    public interface Loader {
+
+        /**
+         * @param podcast Podcast to check for.
+         * @return Whether a load task for the given podcast is running, no
+         *         matter who started it.
+         */
+        public boolean hasLoadTask(Podcast podcast);
+
+        /**
+         * Start the load task for the given podcast. The scheduler needs to be
+         * told once the load finished via
+         * {@link PodcastRefreshScheduler#onLoadFinished(Podcast, PodcastLoadError)}.
+         * 
+         * @param podcast Podcast to load.
+         * @param executor The executor to run the task on.
+         * @param acceptStale Whether the user is waiting for the podcast and
+         *            we accept stale content from the cache.
+         * @throws RejectedExecutionException If the executor does not take
+         *             the task, it is not started then.
+         */
+        public void startLoad(Podcast podcast, Executor executor, boolean acceptStale);
+    }
+
+    /** A pending load request */
+    private static class Request implements Comparable<Request> {
+
+        /** The podcast to load */
+        private final Podcast podcast;
+        /** The podcast's host */
+        private final String host;
+        /** The time the podcast was last loaded, the older the more urgent */
+        private final long lastLoaded;
+        /** The request's position in the order of creation */
+        private final long sequence;
+        /** The time the request was created */
+        private final long createdTime;
+        /** The request's priority, the lower the more urgent */
+        private int priority;
+
+        private Request(Podcast podcast, int priority, long sequence, long createdTime) {
+            this.podcast = podcast;
+            this.host = Uri.parse(podcast.getUrl()).getHost();
+            this.lastLoaded = podcast.getLastLoaded() == null ?
+                    Long.MIN_VALUE : podcast.getLastLoaded().getTime();
+            this.priority = priority;
+            this.sequence = sequence;
+            this.createdTime = createdTime;
+        }
+
+        @Override
+        public int compareTo(Request another) {
+            if (priority != another.priority)
+                return priority < another.priority ? -1 : 1;
+            else if (lastLoaded != another.lastLoaded)
+                return lastLoaded < another.lastLoaded ? -1 : 1;
+            else
+                return sequence < another.sequence ? -1 : sequence == another.sequence ? 0 : 1;
+        }
+    }
+
+    /** The state of a podcast that failed to load */
+    private static class Backoff {
+
+        /** The last error */
+        private PodcastLoadError error;
+        /** The time we try again */
+        private long retryTime;
+        /** Whether we wait for the user to fix the podcast (e.g. credentials) */
+        private boolean parked;
+    }
+
+    /** The state of a host with network failures */
+    private static class Circuit {
+
+        /** The number of network failures in a row */
+        private int failures;
+        /** The time the host is blocked until, zero if not blocked */
+        private long openUntil;
+        /** The time the host was blocked the last time */
+        private long openTime;
+        /** Whether a trial load to see if the host is back is running */
+        private boolean trialRunning;
+    }
+
+    /**
+     * Create the scheduler.
+     * 
+     * @param loader The loader to start the loads with.
+     */
+    public PodcastRefreshScheduler(Loader loader) {
+        this.loader = loader;
+
+        this.executor = new ThreadPoolExecutor(workerCount, workerCount,
+                WORKER_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Find the time that should pass between two checks of the given
+     * podcast's feed. This is a fraction of the time the podcast typically
+     * takes to publish a new episode, so a daily show is checked every few
+     * hours and a weekly show about once a day. If the podcast did not change
+     * for a number of loads and no episode is due yet, the interval grows.
+     * Podcasts silent for much longer than usual are checked rarely.
+     * 
+     * @param podcast The podcast to check.
+     * @param minInterval The shortest interval to return (in millis), this
+     *            is also used if the podcast's cadence is unknown.
+     * @return The interval between two checks (in millis), this is between
+     *         the given minimum and {@link #MAX_CHECK_INTERVAL}.
+     */
+    public static long getCheckInterval(Podcast podcast, long minInterval) {
+        long cadence = podcast.getPublishingInterval();
+        if (cadence <= 0)
+            return minInterval;
+
+        final Date latest = podcast.getLatestPubDate();
+        final long sinceLatest = latest == null ? 0 : System.currentTimeMillis()
+                - latest.getTime();
+        // 1. The podcast might have stopped publishing
+        if (sinceLatest > DORMANT_FACTOR * cadence)
+            cadence = sinceLatest;
+
+        long interval = cadence / CHECKS_PER_EPISODE;
+        // 2. Back off if nothing changed recently, but not once an episode is
+        // due, so we catch it quickly
+        if (sinceLatest < cadence)
+            interval += interval * Math.min(podcast.getUnchangedLoadCount(),
+                    MAX_UNCHANGED_LOADS) / UNCHANGED_LOADS_PER_STEP;
+
+        return Math.max(minInterval, Math.min(MAX_CHECK_INTERVAL, interval));
+    }
+
+    /**
+     * Set the number of loads to run at the same time. Loads already running
+     * are not affected if the number is lowered.
+     * 
+     * @param count The number of workers (at least one).
+     */
+    public void setWorkerCount(int count) {
+        final int newCount = Math.max(1, count);
+
+        if (newCount != workerCount) {
+            // Order matters here, the core size may never exceed the maximum
+            if (newCount > workerCount) {
+                executor.setMaximumPoolSize(newCount);
+                executor.setCorePoolSize(newCount);
+            } else {
+                executor.setCorePoolSize(newCount);
+                executor.setMaximumPoolSize(newCount);
+            }
+
+            this.workerCount = newCount;
+            dispatch();
+        }
+    }
+
+    /**
+     * Set the number of loads to run at the same time for any single host.
+     * 
+     * @param limit The number of loads per host (at least one).
+     */
+    public void setHostLimit(int limit) {
+        this.hostLimit = Math.max(1, limit);
+
+        dispatch();
+    }
+
+    /**
+     * Request a load for the given podcast. If the podcast is already loading,
+     * nothing happens. If it is already waiting to load, its priority is
+     * raised if needed. Podcasts that failed recently are only scheduled with
+     * {@link #PRIORITY_SELECTED}.
+     * 
+     * @param podcast The podcast to load.
+     * @param priority The load's priority, one of the <code>PRIORITY_</code>
+     *            constants.
+     */
+    public void schedule(Podcast podcast, int priority) {
+        // We do not try again too soon unless the user asks for it, the next
+        // call after the wait time will schedule the podcast
+        if (running.containsKey(podcast) || loader.hasLoadTask(podcast)
+                || (priority != PRIORITY_SELECTED && isBackingOff(podcast)))
+            return;
+
+        final Request request = pending.get(podcast);
+        if (request == null) {
+            final Request newRequest = new Request(podcast, priority, sequence++,
+                    currentTime());
+
+            pending.put(podcast, newRequest);
+            queue.add(newRequest);
+        } else if (priority < request.priority) {
+            // Re-insert, the queue does not notice the change otherwise
+            queue.remove(request);
+            request.priority = priority;
+            queue.add(request);
+        }
+
+        queueSize = queue.size();
+        dispatch();
+    }
+
+    /**
+     * Remove the podcast's pending request (if any) and forget about its
+     * failures. Loads already running are not affected.
+     * 
+     * @param podcast The podcast not to load.
+     */
+    public void cancel(Podcast podcast) {
+        final Request request = pending.remove(podcast);
+        backoffs.remove(podcast);
+
+        if (request != null) {
+            queue.remove(request);
+            queueSize = queue.size();
+        }
+    }
+
+    /**
+     * Check whether a load for the given podcast is waiting in the queue.
+     * 
+     * @param podcast Podcast to check for.
+     * @return <code>true</code> iff the podcast is pending.
+     */
+    public boolean isPending(Podcast podcast) {
+        return pending.containsKey(podcast);
+    }
+
+    /**
+     * Check whether the podcast is held back because it (or its server) failed
+     * to load recently. Only the selected podcast is loaded then.
+     * 
+     * @param podcast Podcast to check for.
+     * @return <code>true</code> iff the podcast is held back.
+     */
+    public boolean isBlocked(Podcast podcast) {
+        final Circuit circuit = circuits.get(Uri.parse(podcast.getUrl()).getHost());
+
+        return isBackingOff(podcast)
+                || (circuit != null && circuit.openUntil > currentTime());
+    }
+
+    /**
+     * @return The error the given podcast failed with last or
+     *         <code>null</code> if it did not fail.
+     */
+    public PodcastLoadError getLastError(Podcast podcast) {
+        final Backoff backoff = backoffs.get(podcast);
+
+        return backoff == null ? null : backoff.error;
+    }
+
+    /**
+     * Forget about the podcast's failures, so it can be loaded right away.
+     * Call this if the user changed the podcast's credentials.
+     * 
+     * @param podcast The podcast to reset.
+     */
+    public void resetBackoff(Podcast podcast) {
+        backoffs.remove(podcast);
+    }
+
+    /**
+     * @return The number of hosts currently blocked because of repeated
+     *         network failures.
+     */
+    public int getBlockedHostCount() {
+        final long now = currentTime();
+        int count = 0;
+
+        for (Circuit circuit : circuits.values())
+            if (circuit.openUntil > now)
+                count++;
+
+        return count;
+    }
+
+    /**
+     * Tell the scheduler a load finished, so the next one can start.
+     * 
+     * @param podcast The podcast loaded.
+     * @param error The error if the load failed, <code>null</code> on
+     *            success. The podcast's failed load count needs to be updated
+     *            already.
+     */
+    public void onLoadFinished(Podcast podcast, PodcastLoadError error) {
+        final String host = running.remove(podcast);
+
+        if (host != null) {
+            final int hostCount = runningPerHost.get(host) - 1;
+            if (hostCount == 0)
+                runningPerHost.remove(host);
+            else
+                runningPerHost.put(host, hostCount);
+
+            // Keep track of failures
+            if (error == null)
+                backoffs.remove(podcast);
+            else
+                backOff(podcast, error);
+
+            if (error == PodcastLoadError.NOT_REACHABLE || error == PodcastLoadError.UNKNOWN)
+                onNetworkFailure(host);
+            else
+                // The server answered, so it is fine
+                circuits.remove(host);
+
+            dispatch();
+        }
+    }
+
+    /**
+     * @return The number of requests waiting in the queue.
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * @return The number of loads started by the scheduler so far.
+     */
+    public long getDispatchedCount() {
+        return dispatchedCount;
+    }
+
+    /**
+     * @return The average time started loads waited in the queue (in
+     *         milliseconds).
+     */
+    public long getAverageWaitTime() {
+        final long count = dispatchedCount;
+
+        return count == 0 ? 0 : totalWaitTime / count;
+    }
+
+    /**
+     * @return The longest time a started load waited in the queue (in
+     *         milliseconds).
+     */
+    public long getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    /**
+     * Start as many pending loads as the limits allow.
+     */
+    private void dispatch() {
+        // Requests held back because their host is busy
+        final List<Request> deferred = new ArrayList<>();
+
+        while (running.size() < workerCount && !queue.isEmpty()) {
+            final Request request = queue.poll();
+            final Integer hostCount = runningPerHost.get(request.host);
+            final Circuit circuit = circuits.get(request.host);
+
+            // Check this first, the request must not take the circuit's trial
+            if (loader.hasLoadTask(request.podcast))
+                // Started elsewhere in the meantime, nothing to do
+                pending.remove(request.podcast);
+            else if ((hostCount != null && hostCount >= hostLimit)
+                    || (request.priority != PRIORITY_SELECTED && !mayLoadFrom(circuit)))
+                deferred.add(request);
+            else if (start(request, hostCount == null ? 0 : hostCount)) {
+                pending.remove(request.podcast);
+
+                // The first load to a blocked host is the trial, the circuit
+                // lets nothing else through until it finished
+                if (circuit != null && circuit.openUntil != 0)
+                    circuit.trialRunning = true;
+            } else {
+                // The executor does not take the load right now, keep it and
+                // retry once the next load finishes or another one is added
+                deferred.add(request);
+                break;
+            }
+        }
+
+        queue.addAll(deferred);
+        queueSize = queue.size();
+    }
+
+    /**
+     * Check whether the host's circuit lets a load through. If the host is
+     * blocked and the block expired, this lets a single trial load pass.
+     */
+    private boolean mayLoadFrom(Circuit circuit) {
+        return circuit == null || circuit.openUntil == 0
+                || (!circuit.trialRunning && circuit.openUntil <= currentTime());
+    }
+
+    private void backOff(Podcast podcast, PodcastLoadError error) {
+        Backoff backoff = backoffs.get(podcast);
+        if (backoff == null) {
+            backoff = new Backoff();
+            backoffs.put(podcast, backoff);
+        }
+
+        backoff.error = error;
+        switch (error) {
+            case AUTH_REQUIRED:
+            case ACCESS_DENIED:
+            case EXPLICIT_BLOCKED:
+                // Trying again will not help, wait for the user
+                backoff.parked = true;
+                break;
+            default:
+                // Double the wait time for every failure in a row, take a
+                // random part of the second half to spread the retries
+                final long base = error == PodcastLoadError.NOT_PARSEABLE ?
+                        BACKOFF_BASE_NOT_PARSEABLE : BACKOFF_BASE;
+                final int doublings = Math.min(20,
+                        Math.max(0, podcast.getFailedLoadAttemptCount() - 1));
+                final long wait = Math.min(MAX_BACKOFF, base << doublings);
+
+                backoff.parked = false;
+                backoff.retryTime = currentTime() + wait / 2
+                        + (long) (random.nextDouble() * (wait / 2));
+        }
+    }
+
+    private void onNetworkFailure(String host) {
+        Circuit circuit = circuits.get(host);
+        if (circuit == null) {
+            circuit = new Circuit();
+            circuits.put(host, circuit);
+        }
+
+        circuit.failures++;
+        // Block the host if it failed too often or the trial failed, the
+        // time blocked doubles every time
+        if (circuit.failures >= CIRCUIT_THRESHOLD || circuit.trialRunning) {
+            circuit.openTime = circuit.openTime == 0 ? CIRCUIT_OPEN_TIME
+                    : Math.min(MAX_CIRCUIT_OPEN_TIME, circuit.openTime * 2);
+            circuit.openUntil = currentTime() + circuit.openTime;
+            circuit.trialRunning = false;
+        }
+    }
+
+    private boolean isBackingOff(Podcast podcast) {
+        final Backoff backoff = backoffs.get(podcast);
+
+        return backoff != null
+                && (backoff.parked || backoff.retryTime > currentTime());
+    }
+
+    private boolean start(Request request, int hostCount) {
+        try {
+            loader.startLoad(request.podcast, executor,
+                    request.priority != PRIORITY_BACKGROUND);
+        } catch (RejectedExecutionException ree) {
+            return false;
+        }
+
+        running.put(request.podcast, request.host);
+        runningPerHost.put(request.host, hostCount + 1);
+
+        // Update the metrics
+        final long waitTime = currentTime() - request.createdTime;
+        totalWaitTime += waitTime;
+        maxWaitTime = Math.max(maxWaitTime, waitTime);
+        dispatchedCount++;
+
+        return true;
+    }
+
+    /**
+     * @return The current time in milliseconds, all of the scheduler's
+     *         decisions are based on this. Sub-classes might override this to
+     *         control the time (e.g. in tests).
+     */
+    protected long currentTime() {
+        return System.currentTimeMillis();
+    }
+}
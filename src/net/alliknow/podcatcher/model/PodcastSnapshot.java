@@ -0,0 +1,202 @@
+/** Copyright 2012-2014 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import android.content.Context;
+
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.zip.CRC32;
+
+/**
+ * Stores the parsed content of podcasts (episode list, logo URL, cache
+ * validators, content fingerprint) in a compact binary file per podcast and
+ * restores it. This allows the app to show episodes right after start-up
+ * without loading and parsing all the feeds first.
+ * <p>
+ * <b>Format:</b> Each snapshot file starts with a magic number and a format
+ * version, followed by the length and the CRC32 checksum of the payload
+ * written by {@link Podcast#writeSnapshot(java.io.DataOutput)}. Snapshots with
+ * another version, a bad checksum or any other problem are deleted and the
+ * podcast simply is loaded from the network as before. The file's modification
+ * time marks the last time the content was known to be current.
+ * </p>
+ * <p>
+ * All methods block on file I/O, so do not call them on the main thread.
+ * </p>
+ */
+public class PodcastSnapshot {
+
+    /** The directory name in the app's cache dir */
+    private static final String DIRECTORY_NAME = "snapshots";
+    /** The snapshot file ending */
+    private static final String FILE_ENDING = ".snapshot";
+    /** The magic number all snapshot files start with ("PCSN") */
+    private static final int MAGIC = 0x5043534e;
+    /** The current format version, increase when changing the format */
+    private static final int VERSION = 3;
+    /** The largest payload we accept */
+    private static final int MAX_PAYLOAD_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Write a snapshot of the given podcast, replacing the one present (if
+     * any). Failures are ignored, the next start-up will then load the podcast
+     * from the network.
+     * 
+     * @param context The context to get the cache dir from.
+     * @param podcast The podcast to write (should be loaded).
+     */
+    public static void store(Context context, Podcast podcast) {
+        final File file = getSnapshotFile(context, podcast);
+        final File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+
+        try {
+            // 1. Create the payload
+            final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            podcast.writeSnapshot(new DataOutputStream(payload));
+            final byte[] bytes = payload.toByteArray();
+
+            final CRC32 checksum = new CRC32();
+            checksum.update(bytes);
+
+            // 2. Write to a temporary file
+            file.getParentFile().mkdirs();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(bytes.length);
+            out.writeLong(checksum.getValue());
+            out.write(bytes);
+            out.close();
+            out = null;
+
+            // 3. Replace the snapshot, so readers never see a half-written file
+            if (!tempFile.renameTo(file))
+                tempFile.delete();
+        } catch (IOException ioe) {
+            tempFile.delete();
+        } finally {
+            if (out != null)
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Nothing we can do here
+                }
+        }
+    }
+
+    /**
+     * Restore the given podcast from its snapshot (if there is one). On
+     * success, the podcast has its episodes and a last loaded date set just as
+     * if it had been loaded at the time the snapshot was last marked current.
+     * 
+     * @param context The context to get the cache dir from.
+     * @param podcast The podcast to restore (should not be loaded yet).
+     * @return Whether the podcast was restored.
+     */
+    public static boolean restore(Context context, Podcast podcast) {
+        // Snapshots used to be named by the URL's hash code, which might collide
+        new File(context.getCacheDir(), DIRECTORY_NAME + File.separator
+                + podcast.getUrl().hashCode() + FILE_ENDING).delete();
+
+        final File file = getSnapshotFile(context, podcast);
+        boolean restored = false;
+
+        if (file.exists()) {
+            DataInputStream in = null;
+
+            try {
+                // 1. Read and check the header and the payload
+                in = new DataInputStream(new FileInputStream(file));
+                if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                    throw new IOException("Unknown snapshot format");
+
+                final int length = in.readInt();
+                final long expectedChecksum = in.readLong();
+                if (length < 0 || length > MAX_PAYLOAD_SIZE)
+                    throw new IOException("Bad snapshot length " + length);
+
+                final byte[] bytes = new byte[length];
+                in.readFully(bytes);
+
+                final CRC32 checksum = new CRC32();
+                checksum.update(bytes);
+                if (checksum.getValue() != expectedChecksum)
+                    throw new IOException("Bad snapshot checksum");
+
+                // 2. Restore the podcast content
+                restored = podcast.readSnapshot(new DataInputStream(
+                        new ByteArrayInputStream(bytes)), new Date(file.lastModified()));
+            } catch (IOException | RuntimeException e) {
+                // Broken snapshot, get rid of it and load from the network
+                file.delete();
+            } finally {
+                close(in);
+            }
+        }
+
+        return restored;
+    }
+
+    /**
+     * Mark the podcast's snapshot as current without writing it again. Use
+     * this if the server confirmed the feed did not change.
+     * 
+     * @param context The context to get the cache dir from.
+     * @param podcast The podcast to mark.
+     */
+    public static void touch(Context context, Podcast podcast) {
+        getSnapshotFile(context, podcast).setLastModified(System.currentTimeMillis());
+    }
+
+    /**
+     * Delete the podcast's snapshot (if any).
+     * 
+     * @param context The context to get the cache dir from.
+     * @param podcast The podcast to delete the snapshot for.
+     */
+    public static void delete(Context context, Podcast podcast) {
+        getSnapshotFile(context, podcast).delete();
+    }
+
+    private static File getSnapshotFile(Context context, Podcast podcast) {
+        return new File(context.getCacheDir(), DIRECTORY_NAME + File.separator
+                + podcast.getFileId() + FILE_ENDING);
+    }
+
+    private static void close(InputStream in) {
+        if (in != null)
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Nothing we can do here
+            }
+    }
+}
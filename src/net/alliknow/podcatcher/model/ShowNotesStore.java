@@ -0,0 +1,394 @@
+/** Copyright 2012-2014 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import static android.os.Process.THREAD_PRIORITY_BACKGROUND;
+
+import android.os.Process;
+import android.util.LruCache;
+
+import net.alliknow.podcatcher.Podcatcher;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps long episode texts (show notes) on disk instead of the heap. Texts are
+ * appended to a file per podcast while its feed is parsed, the episode only
+ * keeps a {@link Note} handle pointing at the text. Reading the text goes
+ * through a small in-memory LRU cache, since only few episodes are shown at a
+ * time. The files only live as long as the app process, they are cleared on
+ * start-up. A podcast's file is replaced by a new one once it grows too big.
+ * The new file only takes over once the parse writing it has committed, and
+ * files are only deleted when no note points into them anymore, so episode
+ * objects still held elsewhere (e.g. by the player or the playlist) can always
+ * read their texts.
+ */
+public class ShowNotesStore {
+
+    /** Texts shorter than this (in chars) are not worth writing to disk */
+    public static final int MIN_TEXT_LENGTH = 256;
+
+    /** The directory name in the app's cache dir */
+    private static final String DIRECTORY_NAME = "shownotes";
+    /** The size a podcast's file may grow to before we start a new one */
+    private static final long MAX_FILE_SIZE = 512 * 1024;
+    /** The number of chars we keep in memory */
+    private static final int CACHE_SIZE = 128 * 1024;
+    /** The encoding used for the files */
+    private static final Charset ENCODING = Charset.forName("UTF-8");
+
+    /** The single instance */
+    private static ShowNotesStore store;
+
+    /** The directory the files live in */
+    private final File directory;
+    /** The size a podcast's file may grow to before we start a new one */
+    private final long maxFileSize;
+    /** The prefix for all files created by this process */
+    private final String session;
+    /** The number of files created so far */
+    private int fileCount = 0;
+    /** The file state by podcast URL */
+    private final Map<String, PodcastFiles> files = new HashMap<>();
+    /** The files not reachable anymore show up here */
+    private final ReferenceQueue<NotesFile> releasedFiles = new ReferenceQueue<>();
+    /** The references for all files we created and did not delete yet */
+    private final Set<FileReference> liveFiles = new HashSet<>();
+    /** The texts recently read */
+    private final LruCache<Note, String> cache = new LruCache<Note, String>(CACHE_SIZE) {
+
+        @Override
+        protected int sizeOf(Note note, String text) {
+            return text.length();
+        }
+    };
+
+    /**
+     * Handle for a text written to disk. Episodes keep this instead of the
+     * actual text.
+     */
+    public static class Note {
+
+        /** The file the text is in, this keeps the file from being deleted */
+        private final NotesFile file;
+        /** The byte offset of the text in the file */
+        private final long offset;
+        /** The length of the text in bytes */
+        private final int length;
+
+        private Note(NotesFile file, long offset, int length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * A file texts are written to. The notes in it and the podcast currently
+     * using it keep this object reachable, once it is not the file is deleted.
+     */
+    private static class NotesFile {
+
+        /** The actual file on disk */
+        private final File file;
+
+        private NotesFile(File file) {
+            this.file = file;
+        }
+    }
+
+    /** Tells us when a notes file is not reachable anymore */
+    private static class FileReference extends PhantomReference<NotesFile> {
+
+        /** The file to delete then */
+        private final File file;
+
+        private FileReference(NotesFile notesFile, ReferenceQueue<NotesFile> queue) {
+            super(notesFile, queue);
+
+            this.file = notesFile.file;
+        }
+    }
+
+    /** The files we use for a podcast */
+    private static class PodcastFiles {
+
+        /** The file with the texts of the podcast's current episodes */
+        private NotesFile current;
+        /** Whether a writer for the podcast is open */
+        private boolean writing;
+    }
+
+    /**
+     * Writes the texts for one parse of a podcast's feed. Get one using
+     * {@link ShowNotesStore#openWriter(Podcast)} and make sure to close it.
+     */
+    public class Writer implements Closeable {
+
+        /** The files state we write for */
+        private final PodcastFiles podcastFiles;
+        /** The file we write to */
+        private final NotesFile file;
+        /** Whether this file does not have the texts of the current episodes */
+        private final boolean needsAllTexts;
+        /** The stream we write to */
+        private final OutputStream out;
+        /** The current position in the file */
+        private long position;
+
+        private Writer(PodcastFiles podcastFiles, NotesFile file, boolean needsAllTexts)
+                throws IOException {
+            this.podcastFiles = podcastFiles;
+            this.file = file;
+            this.needsAllTexts = needsAllTexts;
+            this.position = file.file.length();
+            this.out = new BufferedOutputStream(new FileOutputStream(file.file, true));
+        }
+
+        /**
+         * @return Whether all texts need to be written (again) because the
+         *         writer starts a new file. Episodes loaded earlier should not
+         *         be taken over then, since their notes would keep the old file
+         *         around.
+         */
+        public boolean needsAllTexts() {
+            return needsAllTexts;
+        }
+
+        /**
+         * Write a text.
+         * 
+         * @param text The text to write (not <code>null</code>).
+         * @return The handle to use to read the text back.
+         * @throws IOException If the text cannot be written.
+         */
+        public Note write(String text) throws IOException {
+            final byte[] bytes = text.getBytes(ENCODING);
+            out.write(bytes);
+
+            final Note note = new Note(file, position, bytes.length);
+            position += bytes.length;
+
+            return note;
+        }
+
+        /**
+         * Mark the texts written as complete, i.e. all episodes of the podcast
+         * now have their texts written to this writer's file, which becomes
+         * the podcast's current file. Call this before the episodes are made
+         * available, the texts can be read once this returns.
+         * 
+         * @throws IOException If the texts cannot be flushed to disk. The
+         *             notes written are not valid then and the podcast keeps
+         *             its current file.
+         */
+        public void commit() throws IOException {
+            out.flush();
+
+            synchronized (ShowNotesStore.this) {
+                podcastFiles.current = file;
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // Nothing we can do here, reads will fail
+            } finally {
+                synchronized (ShowNotesStore.this) {
+                    podcastFiles.writing = false;
+                }
+            }
+        }
+    }
+
+    private ShowNotesStore(Podcatcher app) {
+        this(new File(app.getCacheDir(), DIRECTORY_NAME), MAX_FILE_SIZE);
+
+        // Clean up files left over by earlier runs of the app
+        final File[] oldFiles = directory.listFiles();
+        if (oldFiles != null && oldFiles.length > 0)
+            new Thread() {
+
+                @Override
+                public void run() {
+                    Process.setThreadPriority(THREAD_PRIORITY_BACKGROUND);
+
+                    for (File file : oldFiles)
+                        file.delete();
+                }
+            }.start();
+    }
+
+    /**
+     * Create a show notes store. The app uses the single instance returned by
+     * {@link #getInstance(Podcatcher)}, only create your own for testing.
+     * 
+     * @param directory The directory to put the files in, all files created
+     *            before are left alone.
+     * @param maxFileSize The size a podcast's file may grow to before we
+     *            start a new one.
+     */
+    public ShowNotesStore(File directory, long maxFileSize) {
+        this.directory = directory;
+        this.maxFileSize = maxFileSize;
+        this.session = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+    }
+
+    /**
+     * Get the show notes store instance. The returned object is a singleton,
+     * all calls to this method will always return the same single instance.
+     * 
+     * @param podcatcher The main app object.
+     * @return The store handle.
+     */
+    public static ShowNotesStore getInstance(Podcatcher podcatcher) {
+        if (store == null)
+            store = new ShowNotesStore(podcatcher);
+
+        return store;
+    }
+
+    /**
+     * Get the show notes store instance.
+     * 
+     * @return The store handle or <code>null</code> if the store has not been
+     *         created by the app.
+     */
+    public static ShowNotesStore getInstance() {
+        return store;
+    }
+
+    /**
+     * Open a writer for the given podcast's texts. Only one writer per podcast
+     * can be open at a time.
+     * 
+     * @param podcast The podcast to write texts for.
+     * @return The writer or <code>null</code> if the texts cannot be written
+     *         to disk right now.
+     */
+    public synchronized Writer openWriter(Podcast podcast) {
+        PodcastFiles podcastFiles = files.get(podcast.getUrl());
+        if (podcastFiles == null) {
+            podcastFiles = new PodcastFiles();
+            files.put(podcast.getUrl(), podcastFiles);
+        } else if (podcastFiles.writing)
+            return null;
+
+        // Files nobody points to anymore can go now
+        deleteReleasedFiles();
+
+        // Start a new file if needed, it only replaces the current one on
+        // commit and the current one is deleted once its notes are gone
+        final boolean newFile = podcastFiles.current == null
+                || podcastFiles.current.file.length() > maxFileSize;
+        final NotesFile file = newFile ? createFile() : podcastFiles.current;
+
+        try {
+            directory.mkdirs();
+
+            final Writer writer = new Writer(podcastFiles, file, newFile);
+            podcastFiles.writing = true;
+
+            return writer;
+        } catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    private NotesFile createFile() {
+        final NotesFile file = new NotesFile(new File(directory, session + "-" + fileCount++));
+        liveFiles.add(new FileReference(file, releasedFiles));
+
+        return file;
+    }
+
+    private void deleteReleasedFiles() {
+        FileReference reference;
+        while ((reference = (FileReference) releasedFiles.poll()) != null) {
+            liveFiles.remove(reference);
+            reference.file.delete();
+        }
+    }
+
+    /**
+     * Read a text back from disk.
+     * 
+     * @param note The handle for the text.
+     * @return The text or <code>null</code> if it cannot be read.
+     */
+    public String read(Note note) {
+        return read(note, true);
+    }
+
+    /**
+     * Read a text back from disk.
+     * 
+     * @param note The handle for the text.
+     * @param keep Whether to keep the text in the cache. Give
+     *            <code>false</code> when reading many texts at once, so the
+     *            texts currently shown are not evicted.
+     * @return The text or <code>null</code> if it cannot be read.
+     */
+    public String read(Note note, boolean keep) {
+        String text = cache.get(note);
+
+        if (text == null) {
+            RandomAccessFile file = null;
+
+            try {
+                file = new RandomAccessFile(note.file.file, "r");
+                final byte[] bytes = new byte[note.length];
+
+                file.seek(note.offset);
+                file.readFully(bytes);
+
+                text = new String(bytes, ENCODING);
+                if (keep)
+                    cache.put(note, text);
+            } catch (IOException ioe) {
+                // File gone or broken, text not available
+            } finally {
+                if (file != null)
+                    try {
+                        file.close();
+                    } catch (IOException e) {
+                        // Nothing we can do here
+                    }
+            }
+        }
+
+        return text;
+    }
+}
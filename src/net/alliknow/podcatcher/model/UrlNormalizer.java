@@ -0,0 +1,217 @@
+/** Copyright 2012-2014 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Locale;
+
+/**
+ * Normalizes URL strings, see
+ * http://en.wikipedia.org/wiki/URL_normalization for details: White space is
+ * trimmed, the path is normalized and at least "/" (but never ends with a
+ * slash otherwise), scheme and host are lower case, default ports and
+ * fragments are dropped.
+ * <p>
+ * Most URLs found in feeds are already normalized. These are recognized in a
+ * single pass over the string and returned as they are, so the common case
+ * does not allocate anything. Everything else is taken apart and put back
+ * together using {@link URI} and {@link URL}.
+ * </p>
+ */
+public class UrlNormalizer {
+
+    /**
+     * Normalize the given URL string.
+     * 
+     * @param spec The URL string to normalize.
+     * @return The same URL string with unchanged semantics, but normalized
+     *         syntax. When not a valid URL or <code>null</code>, the string
+     *         given is returned unaltered. If already normalized, the very
+     *         same string instance is returned.
+     */
+    public static String normalize(final String spec) {
+        if (spec == null || isNormalized(spec))
+            return spec;
+
+        try {
+            // Trim white spaces, normalize path, throw exception if mal-formed
+            final URL url = new URI(spec.trim()).normalize().toURL();
+
+            // Make sure protocol and server are lower case
+            final String scheme = url.getProtocol().toLowerCase(Locale.US);
+            final String host = url.getHost().toLowerCase(Locale.US);
+
+            // Normalize path to be at least "/"
+            String path = url.getPath();
+            if (path == null || path.isEmpty())
+                path = "/";
+            else if (path.length() > 1 && path.endsWith("/"))
+                path = path.substring(0, path.length() - 1);
+
+            // Look at ports and only keep non-defaults
+            boolean needsPort = url.getPort() != -1;
+            if ((scheme.equals("http") && url.getPort() == 80)
+                    || (scheme.equals("https") && url.getPort() == 443))
+                needsPort = false;
+
+            // Reconstruct the string
+            return scheme + "://" + host + (needsPort ? ":" + url.getPort() : "")
+                    + path + (url.getQuery() == null ? "" : "?" + url.getQuery());
+        } catch (MalformedURLException | NullPointerException | URISyntaxException
+                | IllegalArgumentException e) {
+            // We simply return the original string
+            return spec;
+        }
+    }
+
+    /**
+     * Check whether the string starts with the given prefix, ignoring the
+     * case of ASCII letters. Unlike lower-casing the string first, this does
+     * not create a copy of it.
+     * 
+     * @param string The string to check.
+     * @param prefix The prefix to look for, needs to be lower case ASCII.
+     * @return Whether the string starts with the prefix.
+     */
+    public static boolean startsWithIgnoreCase(String string, String prefix) {
+        if (string.length() < prefix.length())
+            return false;
+
+        for (int index = 0; index < prefix.length(); index++) {
+            char c = string.charAt(index);
+            if (c >= 'A' && c <= 'Z')
+                c += 'a' - 'A';
+
+            if (c != prefix.charAt(index))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return Whether the URL string would come out of the normalization
+     *         unchanged. This is conservative, some normalized URLs (e.g. with
+     *         unusual schemes or characters) are reported as not normalized.
+     */
+    private static boolean isNormalized(String spec) {
+        final int length = spec.length();
+
+        // 1. The scheme, we only look at the common ones
+        final boolean https;
+        int position;
+        if (spec.startsWith("http://")) {
+            https = false;
+            position = 7;
+        } else if (spec.startsWith("https://")) {
+            https = true;
+            position = 8;
+        } else
+            return false;
+
+        // 2. The host needs to be lower case (no user info, no IPv6)
+        final int hostStart = position;
+        while (position < length && isHostChar(spec.charAt(position)))
+            position++;
+        if (position == hostStart)
+            return false;
+
+        // 3. The port (if any) needs to be a non-default one
+        if (position < length && spec.charAt(position) == ':') {
+            final int portStart = ++position;
+            int port = 0;
+            while (position < length && position - portStart < 5
+                    && isDigit(spec.charAt(position)))
+                port = port * 10 + spec.charAt(position++) - '0';
+
+            if (position == portStart || spec.charAt(portStart) == '0' || port > 65535
+                    || port == (https ? 443 : 80))
+                return false;
+        }
+
+        // 4. The path needs to be there and has no empty, "." or ".." segments
+        // (this also rules out a trailing slash), unless it is just "/"
+        if (position == length || spec.charAt(position) != '/')
+            return false;
+        final int pathStart = position;
+        while (position < length && spec.charAt(position) != '?') {
+            final char c = spec.charAt(position);
+
+            if (c == '/') {
+                int segmentEnd = position + 1;
+                while (segmentEnd < length && spec.charAt(segmentEnd) != '/'
+                        && spec.charAt(segmentEnd) != '?')
+                    segmentEnd++;
+
+                final int segmentLength = segmentEnd - position - 1;
+                final boolean rootOnly = position == pathStart
+                        && (segmentEnd == length || spec.charAt(segmentEnd) == '?');
+                if ((segmentLength == 0 && !rootOnly)
+                        || (segmentLength == 1 && spec.charAt(position + 1) == '.')
+                        || (segmentLength == 2 && spec.charAt(position + 1) == '.'
+                        && spec.charAt(position + 2) == '.'))
+                    return false;
+            } else if (!isPathChar(spec, position))
+                return false;
+
+            position++;
+        }
+
+        // 5. The query (if any) should not be empty, fragments are not allowed
+        if (position < length) {
+            if (++position == length)
+                return false;
+
+            for (; position < length; position++) {
+                final char c = spec.charAt(position);
+
+                if (c != '/' && c != '?' && !isPathChar(spec, position))
+                    return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isHostChar(char c) {
+        return (c >= 'a' && c <= 'z') || isDigit(c) || c == '.' || c == '-';
+    }
+
+    private static boolean isPathChar(String spec, int position) {
+        final char c = spec.charAt(position);
+
+        // Escapes need to be valid
+        if (c == '%')
+            return position + 2 < spec.length() && isHexDigit(spec.charAt(position + 1))
+                    && isHexDigit(spec.charAt(position + 2));
+
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || isDigit(c)
+                || "-._~!$&'()*+,;=:@".indexOf(c) >= 0;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isHexDigit(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+}
@@ -32,4 +32,8 @@ public abstract class OPML {
 
     public static final String EXTRA_USER = "user";
     public static final String EXTRA_PASS = "pass";
+    public static final String EXTRA_ETAG = "etag";
+    public static final String EXTRA_LAST_MODIFIED = "lastModified";
+    public static final String EXTRA_EPISODE_LIMIT = "episodeLimit";
+    public static final String EXTRA_EPISODE_MONTHS = "episodeMonths";
 }
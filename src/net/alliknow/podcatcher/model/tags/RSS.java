@@ -25,6 +25,8 @@ package net.alliknow.podcatcher.model.tags;
  */
 @SuppressWarnings("javadoc")
 public class RSS {
+    public static final String CHANNEL = "channel";
+    public static final String GROUP = "group";
     public static final String ITEM = "item";
     public static final String IMAGE = "image";
     public static final String TITLE = "title";
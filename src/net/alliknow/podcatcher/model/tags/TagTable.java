@@ -0,0 +1,142 @@
+/** Copyright 2012-2014 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.tags;
+
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * Maps XML tag names to integer ids, so parsers can dispatch on tags using a
+ * <code>switch</code> statement instead of a chain of string comparisons. Tag
+ * names are matched ignoring case. A tag can be restricted to a namespace by
+ * giving it as "{namespace}name", all other tags match in any namespace. The
+ * id for a tag is its position in the list given to the constructor.
+ * <p>
+ * Lookups hash the case-folded tag name and only compare strings if there is
+ * a candidate with the same hash, so tags not in the table are almost always
+ * rejected without any string comparison. Tables are immutable and can be
+ * shared between threads.
+ * </p>
+ */
+public class TagTable {
+
+    /** The id returned for tags not in the table */
+    public static final int UNKNOWN = -1;
+
+    /** The tag names (without namespace) by slot */
+    private final String[] names;
+    /** The namespaces required by slot, <code>null</code> means any */
+    private final String[] namespaces;
+    /** The case-folded name hashes by slot */
+    private final int[] hashes;
+    /** The tag ids by slot */
+    private final int[] ids;
+    /** The mask to apply to a hash to get its slot */
+    private final int mask;
+
+    /**
+     * Create a new tag table.
+     * 
+     * @param tags The tag names to put into the table, the index of the tag
+     *            is its id. Use "{namespace}name" to require a namespace.
+     */
+    public TagTable(String... tags) {
+        // Keep the table sparse so probe sequences are short
+        int size = 8;
+        while (size < tags.length * 4)
+            size *= 2;
+
+        this.names = new String[size];
+        this.namespaces = new String[size];
+        this.hashes = new int[size];
+        this.ids = new int[size];
+        this.mask = size - 1;
+
+        for (int id = 0; id < tags.length; id++) {
+            String name = tags[id];
+            String namespace = null;
+
+            if (name.startsWith("{")) {
+                namespace = name.substring(1, name.indexOf('}'));
+                name = name.substring(namespace.length() + 2);
+            }
+
+            final int hash = foldedHash(name);
+            int slot = hash & mask;
+            while (names[slot] != null)
+                slot = (slot + 1) & mask;
+
+            names[slot] = name;
+            namespaces[slot] = namespace;
+            hashes[slot] = hash;
+            ids[slot] = id;
+        }
+    }
+
+    /**
+     * Find the id of the tag the parser is currently pointing at.
+     * 
+     * @param parser The parser, set to a start or end tag.
+     * @return The tag id or {@link #UNKNOWN} if the tag is not in the table.
+     */
+    public int lookup(XmlPullParser parser) {
+        final String name = parser.getName();
+
+        return name == null ? UNKNOWN : lookup(name, parser.getNamespace());
+    }
+
+    /**
+     * Find the id of the given tag.
+     * 
+     * @param name The tag's name (without prefix).
+     * @param namespace The tag's namespace, only needed for tags that were
+     *            given with a namespace when creating the table.
+     * @return The tag id or {@link #UNKNOWN} if the tag is not in the table.
+     */
+    public int lookup(String name, String namespace) {
+        final int hash = foldedHash(name);
+        int slot = hash & mask;
+
+        while (names[slot] != null) {
+            if (hashes[slot] == hash && names[slot].length() == name.length()
+                    && names[slot].regionMatches(true, 0, name, 0, name.length())
+                    && (namespaces[slot] == null || namespaces[slot].equals(namespace)))
+                return ids[slot];
+
+            slot = (slot + 1) & mask;
+        }
+
+        return UNKNOWN;
+    }
+
+    private static int foldedHash(String name) {
+        int hash = 0;
+
+        for (int index = 0; index < name.length(); index++) {
+            char c = name.charAt(index);
+            // Fast path for ASCII, which is what we see almost always
+            if (c >= 'A' && c <= 'Z')
+                c += 'a' - 'A';
+            else if (c > 127)
+                c = Character.toLowerCase(Character.toUpperCase(c));
+
+            hash = 31 * hash + c;
+        }
+
+        return hash;
+    }
+}
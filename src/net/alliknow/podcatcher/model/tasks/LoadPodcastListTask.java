@@ -22,9 +22,9 @@ import static net.alliknow.podcatcher.model.PodcastManager.OPML_FILENAME;
 import android.content.Context;
 import android.net.Uri;
 import android.os.AsyncTask;
-import android.text.Html;
 
 import net.alliknow.podcatcher.listeners.OnLoadPodcastListListener;
+import net.alliknow.podcatcher.model.HtmlDecoder;
 import net.alliknow.podcatcher.model.PodcastManager;
 import net.alliknow.podcatcher.model.tags.OPML;
 import net.alliknow.podcatcher.model.types.Podcast;
@@ -176,7 +176,7 @@ public class LoadPodcastListTask extends AsyncTask<Void, Progress, List<Podcast>
             if (name.equals("null"))
                 name = null;
             else
-                name = Html.fromHtml(name).toString();
+                name = HtmlDecoder.decode(name);
 
             // Create the podcast
             result = new Podcast(name, parser.getAttributeValue("", OPML.XMLURL));
@@ -184,6 +184,13 @@ public class LoadPodcastListTask extends AsyncTask<Void, Progress, List<Podcast>
             // Set authorization information
             result.setUsername(parser.getAttributeValue("", OPML.EXTRA_USER));
             result.setPassword(parser.getAttributeValue("", OPML.EXTRA_PASS));
+            // Set cache validators (only present in our own file)
+            result.setCacheValidators(parser.getAttributeValue("", OPML.EXTRA_ETAG),
+                    parser.getAttributeValue("", OPML.EXTRA_LAST_MODIFIED));
+            // Set episode window (only present in files written by us)
+            result.setEpisodeWindow(
+                    parseCount(parser.getAttributeValue("", OPML.EXTRA_EPISODE_LIMIT)),
+                    parseCount(parser.getAttributeValue("", OPML.EXTRA_EPISODE_MONTHS)));
         } catch (XmlPullParserException e) {
             /* Bad outline, skip */
         } catch (IOException e) {
@@ -192,4 +199,12 @@ public class LoadPodcastListTask extends AsyncTask<Void, Progress, List<Podcast>
 
         return result;
     }
+
+    private int parseCount(String value) {
+        try {
+            return value == null ? 0 : Integer.parseInt(value.trim());
+        } catch (NumberFormatException nfe) {
+            return 0;
+        }
+    }
 }
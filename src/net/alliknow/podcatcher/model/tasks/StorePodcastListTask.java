@@ -61,6 +61,11 @@ public class StorePodcastListTask extends StoreFileTask<List<Podcast>> {
      * to the resulting file.
      */
     protected boolean writeAuthorization = false;
+    /**
+     * Flag to indicate whether the task should write the feed cache validators
+     * to the resulting file.
+     */
+    protected boolean writeCacheValidators = false;
     /** The exception that might have been occurred */
     protected Exception exception;
 
@@ -103,6 +108,21 @@ public class StorePodcastListTask extends StoreFileTask<List<Podcast>> {
         this.writeAuthorization = write;
     }
 
+    /**
+     * Sets the write cache validators flag. If set to <code>true</code>, the
+     * resulting OPML file will contain extra information on the validators
+     * (ETag and Last-Modified) the podcasts' feeds were last loaded with. The
+     * default is <code>false</code>, since this only makes sense for the app's
+     * own podcast list.
+     * 
+     * @param write Whether cache validators should be written to output.
+     * @see Podcast#getEtag()
+     * @see Podcast#getLastModified()
+     */
+    public void setWriteCacheValidators(boolean write) {
+        this.writeCacheValidators = write;
+    }
+
     @Override
     protected Void doInBackground(List<Podcast>... params) {
         this.podcastList = params[0];
@@ -177,6 +197,23 @@ public class StorePodcastListTask extends StoreFileTask<List<Podcast>> {
                         OPML.EXTRA_PASS, htmlEncode(podcast.getPassword()));
             }
 
+            if (writeCacheValidators) {
+                if (podcast.getEtag() != null)
+                    opmlString = String.format("%s %s=\"%s\" />",
+                            opmlString.substring(0, opmlString.length() - 3),
+                            OPML.EXTRA_ETAG, htmlEncode(podcast.getEtag()));
+                if (podcast.getLastModified() != null)
+                    opmlString = String.format("%s %s=\"%s\" />",
+                            opmlString.substring(0, opmlString.length() - 3),
+                            OPML.EXTRA_LAST_MODIFIED, htmlEncode(podcast.getLastModified()));
+            }
+
+            if (podcast.hasEpisodeWindow())
+                opmlString = String.format("%s %s=\"%d\" %s=\"%d\" />",
+                        opmlString.substring(0, opmlString.length() - 3),
+                        OPML.EXTRA_EPISODE_LIMIT, podcast.getEpisodeLimit(),
+                        OPML.EXTRA_EPISODE_MONTHS, podcast.getEpisodeMonths());
+
             writeLine(2, opmlString);
         }
     }
@@ -17,23 +17,20 @@
 
 package net.alliknow.podcatcher.model.tasks.remote;
 
-import static java.lang.Math.round;
-
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.util.Log;
 
-import net.alliknow.podcatcher.R;
+import net.alliknow.podcatcher.Podcatcher;
 import net.alliknow.podcatcher.listeners.OnLoadPodcastLogoListener;
+import net.alliknow.podcatcher.model.LogoCache;
+import net.alliknow.podcatcher.model.LogoStore;
+import net.alliknow.podcatcher.model.LogoStore.Variant;
 import net.alliknow.podcatcher.model.types.Podcast;
 import net.alliknow.podcatcher.model.types.Progress;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URL;
-import java.util.Date;
 
 /**
  * An async task to load a podcast logo. Implement
@@ -43,30 +40,43 @@ import java.util.Date;
  * caching logic. Podcast logos are only downloaded or updated if absolutely
  * necessary. You can manipulate its behaviour by calling the
  * {@link #setLocalOnly(boolean)} and {@link #setMaxAge(int)} methods. Once
- * downloaded and scaled, all podcast logos are stored in the app's private
- * folders under the path <tt>logoCache/<i>podcast URL hash</i>.jpeg</tt>. The
- * task will prefer these downloaded copies whenever possible.
+ * downloaded, all podcast logos are scaled and kept in the {@link LogoStore}.
+ * The task will prefer these stored copies whenever possible.
+ * </p>
+ * <p>
+ * <b>Revalidation:</b> A stored logo older than the max age is still returned
+ * right away, {@link #isStale()} tells the caller to check it using another
+ * task with {@link #setRevalidate(boolean)} set. That task asks the server
+ * using the validators stored with the logo, if the server says the logo is
+ * unchanged (or sends the same file again), the logo is only marked as current
+ * and neither decoded nor stored again. Should the stored files be gone, the
+ * logo is loaded again without validators. {@link #isChanged()} tells whether
+ * the task actually changed the podcast's logo.
  * </p>
  */
 public class LoadPodcastLogoTask extends LoadRemoteFileTask<Podcast, Bitmap> {
 
-    /** The name of the podcast logo cache directory */
-    private static final String CACHE_DIR = "logoCache";
-    /** The file name ending for cached logos */
-    private static final String CACHED_LOGO_ENDING = ".jpeg";
     /** Our log tag */
     private static final String TAG = "LoadPodcastLogoTask";
 
     /** Call back */
     private final OnLoadPodcastLogoListener listener;
-    /** The task's context */
-    private final Context context;
+    /** The logo store */
+    private final LogoStore store;
 
     /** Podcast currently loading logo for */
     private Podcast podcast;
+    /** The logo variant for list rows, put into the memory cache as well */
+    private Bitmap rowLogo;
+    /** Whether the logo returned is the one in memory already */
+    private boolean inMemory = false;
+    /** Whether the logo returned is older than the max age */
+    private boolean stale = false;
 
     /** Flag to indicate that we should return local copies only. */
     private boolean localOnly = false;
+    /** Flag to indicate that we should check a stale stored logo */
+    private boolean revalidate = false;
     /** Flag to indicate the max age that would trigger re-load. */
     private int maxAge = 60 * 24 * 7; // One week is the default
 
@@ -77,7 +87,18 @@ public class LoadPodcastLogoTask extends LoadRemoteFileTask<Podcast, Bitmap> {
      * @param listener Callback to be alerted on progress and completion.
      */
     public LoadPodcastLogoTask(Context context, OnLoadPodcastLogoListener listener) {
-        this.context = context;
+        this(LogoStore.getInstance((Podcatcher) context.getApplicationContext()), listener);
+    }
+
+    /**
+     * Create new task working on the given logo store. The app uses the single
+     * store instance, only give your own for testing.
+     * 
+     * @param store The store to read logos from and put them into.
+     * @param listener Callback to be alerted on progress and completion.
+     */
+    public LoadPodcastLogoTask(LogoStore store, OnLoadPodcastLogoListener listener) {
+        this.store = store;
         this.listener = listener;
     }
 
@@ -93,6 +114,18 @@ public class LoadPodcastLogoTask extends LoadRemoteFileTask<Podcast, Bitmap> {
         this.localOnly = localOnly;
     }
 
+    /**
+     * Set whether the task should check a stored logo older than the max age
+     * with the server before returning it. Default is <code>false</code>,
+     * which makes the task return the stored logo right away.
+     * 
+     * @param revalidate The flag.
+     * @see #isStale()
+     */
+    public void setRevalidate(boolean revalidate) {
+        this.revalidate = revalidate;
+    }
+
     /**
      * Set the age of the cached logo that would trigger a reload from the
      * internets. The default is equivalent to one week.
@@ -103,58 +136,111 @@ public class LoadPodcastLogoTask extends LoadRemoteFileTask<Podcast, Bitmap> {
         this.maxAge = minutes;
     }
 
+    /**
+     * @return Whether the logo returned is a stored one older than the max age
+     *         that should be revalidated. Only valid once the task completed.
+     * @see #setRevalidate(boolean)
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * @return Whether the task changed the podcast's logo, i.e. it was not
+     *         the logo in memory already. Only valid once the task completed.
+     */
+    public boolean isChanged() {
+        return !inMemory;
+    }
+
     @Override
     protected Bitmap doInBackground(Podcast... podcasts) {
         this.podcast = podcasts[0];
+        final String url = podcast.getUrl();
+        // The index knows whether we have the logo, no need to ask the disk
+        final LogoStore.Entry stored = store.get(url);
+        final boolean canLoad = !localOnly && podcast.getLogoUrl() != null;
         Bitmap result = null;
 
         // Let's go. There are a lot of options here, since we really want to
-        // optimize this for re-using the cached versions as much as possible.
+        // optimize this for re-using the stored versions as much as possible.
         try {
             publishProgress(Progress.CONNECT);
             // 1. So this the simple case where we have the local version and
-            // it is fresh enough. Return it.
-            if (isCachedLocally(podcast) && getCachedLogoAge(podcast) <= maxAge) {
+            // it is fresh enough (or we do not wait for the check). Return it.
+            if (stored != null && (stored.isFresh(maxAge) || !revalidate || !canLoad)) {
                 publishProgress(Progress.PARSE);
-                result = restoreBitmapFromFileCache(podcast);
+                result = getStoredLogo();
+                stale = result != null && !stored.isFresh(maxAge) && canLoad;
             }
+
             // 2. If that is not the case, we need to go over the air, unless
             // the localOnly flag is set or we do not know the remote location.
-            else if (!localOnly && podcast.getLogoUrl() != null) {
-                // 2a. Get logo data remotely
+            if (result == null && canLoad) {
+                // 2a. Get logo data remotely, only if changed
                 this.authorization = podcast.getAuthorization();
-                final byte[] logo = loadFile(new URL(podcast.getLogoUrl()));
+                if (stored != null)
+                    setCacheValidators(stored.etag, stored.lastModified);
+                byte[] logo = loadFile(new URL(podcast.getLogoUrl()));
 
-                // 2b. Decode and sample the result
-                if (!isCancelled()) {
+                // 2b. The logo did not change, no need to decode it
+                if (notModified && !isCancelled()) {
                     publishProgress(Progress.PARSE);
-                    result = decodeAndSampleBitmap(logo);
+                    store.touch(url, responseEtag, responseLastModified);
+                    result = getStoredLogo();
+
+                    // The stored files are gone, so the server's answer does
+                    // not help us, load the logo without validators
+                    if (result == null) {
+                        setCacheValidators(null, null);
+                        notModified = false;
+                        logo = loadFile(new URL(podcast.getLogoUrl()));
+                    }
                 }
 
-                // 2c. Save to file
-                if (!isCancelled())
-                    storeBitmapToFileCache(podcast, result);
+                if (result == null && !isCancelled()) {
+                    publishProgress(Progress.PARSE);
+
+                    // 2c. Same file as stored, no need to decode it either
+                    if (store.touchIfUnchanged(url, logo, responseEtag, responseLastModified))
+                        result = getStoredLogo();
+                    // 2d. Decode, scale and store the new logo (or the same
+                    // one again if its files are gone)
+                    if (result == null) {
+                        inMemory = false;
+                        result = store.put(url, logo, responseEtag, responseLastModified);
+                    }
+
+                    if (result == null)
+                        throw new IOException("Logo cannot be decoded");
+                }
             }
-            // 3. No fresh cached logo available and we cannot get it over the
-            // air. Throw an exception, the catch clause will try to get any
-            // stale cached version.
-            else
+            // 3. No stored logo available and we cannot get it over the air.
+            // Throw an exception, the catch clause will try to get any stored
+            // version.
+            else if (result == null)
                 throw new IOException();
         } catch (Throwable throwable) {
-            // Return the cached version even though it is stale (having an old
+            // Return the stored version even though it is stale (having an old
             // logo for the podcast is better then having none).
-            if (isCachedLocally(podcast)) {
+            if (stored != null) {
                 publishProgress(Progress.PARSE);
-                result = restoreBitmapFromFileCache(podcast);
+                result = getStoredLogo();
             }
+
             // We are out of options here
-            else {
+            if (result == null) {
                 Log.d(TAG, "Logo failed to load for podcast \"" + podcast +
                         "\" with logo URL " + podcast.getLogoUrl(), throwable);
 
                 cancel(true);
             }
         } finally {
+            // The small variant is cheap to read and saves the list from
+            // scaling the logo while it scrolls
+            if (result != null && !inMemory && !isCancelled())
+                rowLogo = store.read(url, Variant.ROW);
+
             publishProgress(Progress.DONE);
         }
 
@@ -163,8 +249,15 @@ public class LoadPodcastLogoTask extends LoadRemoteFileTask<Podcast, Bitmap> {
 
     @Override
     protected void onPostExecute(Bitmap result) {
-        // Set the logo as a podcast member
-        podcast.setLogo(result);
+        // Put the logo into the memory cache, unless it is there already
+        if (!inMemory) {
+            podcast.setLogo(result);
+
+            final LogoCache cache = LogoCache.getInstance();
+            if (rowLogo != null && cache != null)
+                cache.put(podcast.getUrl(), store.getWidth(Variant.ROW),
+                        store.getHeight(Variant.ROW), rowLogo);
+        }
 
         // Podcast logo was loaded
         if (listener != null)
@@ -178,90 +271,11 @@ public class LoadPodcastLogoTask extends LoadRemoteFileTask<Podcast, Bitmap> {
             listener.onPodcastLogoLoadFailed(podcast);
     }
 
-    /**
-     * Create a memory-efficient bitmap at the correct size needed for the
-     * application.
-     * 
-     * @param data Bitmap data loaded from the Internet.
-     * @return The decoded and sampled bitmap.
-     */
-    protected Bitmap decodeAndSampleBitmap(byte[] data) {
-        final BitmapFactory.Options options = new BitmapFactory.Options();
-
-        // Decode with inJustDecodeBounds=true to check dimensions
-        options.inJustDecodeBounds = true;
-        BitmapFactory.decodeByteArray(data, 0, data.length, options);
-
-        // Calculate inSampleSize
-        options.inSampleSize = calculateInSampleSize(options);
-        // Decode bitmap with inSampleSize set
-        options.inJustDecodeBounds = false;
-
-        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
-    }
-
-    /**
-     * Calculate the sample size for the image.
-     * 
-     * @param options Bitmap options to work with.
-     * @return The sample size.
-     */
-    protected int calculateInSampleSize(BitmapFactory.Options options) {
-        // Raw height and width of image
-        final int height = options.outHeight;
-        final int width = options.outWidth;
-        int sampleSize = 1;
-
-        // Adjust max height/width according to screen resolution
-        final int max = context.getResources().getDimensionPixelSize(R.dimen.logo_size);
-        // ... and calculate sample size
-        if (height > max || width > max)
-            sampleSize = round((width > height ? (float) height : (float) width) / (float) max);
-
-        return sampleSize;
-    }
+    private Bitmap getStoredLogo() {
+        // The logo in memory is the stored one, no need to decode it again
+        final Bitmap logo = podcast.getLogo();
+        inMemory = logo != null;
 
-    private File getLogoCacheFile(Podcast podcast) {
-        // Create the complete path leading to where we expect the cached file
-        return new File(context.getCacheDir(), CACHE_DIR + File.separator
-                + podcast.getUrl().hashCode() + CACHED_LOGO_ENDING);
-    }
-
-    private boolean isCachedLocally(Podcast podcast) {
-        return getLogoCacheFile(podcast).exists();
-    }
-
-    private int getCachedLogoAge(Podcast podcast) {
-        if (isCachedLocally(podcast))
-            return (int) ((new Date().getTime() - getLogoCacheFile(podcast).lastModified())
-            / (60 * 1000)); // Calculate to minutes
-        else
-            return -1;
-    }
-
-    private Bitmap restoreBitmapFromFileCache(Podcast podcast) {
-        return BitmapFactory.decodeFile(getLogoCacheFile(podcast).getAbsolutePath());
-    }
-
-    private void storeBitmapToFileCache(Podcast podcast, Bitmap bitmap) {
-        final File logoCacheDir = new File(context.getCacheDir(), CACHE_DIR);
-        logoCacheDir.mkdirs();
-
-        FileOutputStream out = null;
-        // If this fails, we have no cached version, but that's okay
-        try {
-            out = new FileOutputStream(getLogoCacheFile(podcast));
-
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 85, out);
-            out.flush();
-        } catch (IOException e) {
-            // pass
-        } finally {
-            try {
-                out.close();
-            } catch (Exception e) {
-                // Nothing more we could do here
-            }
-        }
+        return inMemory ? logo : store.read(podcast.getUrl(), Variant.LARGE);
     }
 }
@@ -17,10 +17,14 @@
 
 package net.alliknow.podcatcher.model.tasks.remote;
 
+import android.content.Context;
 import android.util.Log;
 
 import net.alliknow.podcatcher.listeners.OnLoadPodcastListener;
+import net.alliknow.podcatcher.model.Crc64;
 import net.alliknow.podcatcher.model.EpisodeManager;
+import net.alliknow.podcatcher.model.FeedCache;
+import net.alliknow.podcatcher.model.PodcastSnapshot;
 import net.alliknow.podcatcher.model.types.Podcast;
 import net.alliknow.podcatcher.model.types.Progress;
 
@@ -28,13 +32,17 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Loads a podcast's RSS file from the server and parses its contents
- * asynchronously.
+ * asynchronously. The file is not downloaded first, but the parser is fed
+ * directly from the remote stream, so loading and parsing overlap and the
+ * complete file is never held in memory.
  * <p>
  * <b>Usage:</b> Implement the {@link OnLoadPodcastListener} interface and give
  * it to the task's constructor to be alerted on completion, progress, or
@@ -49,6 +57,48 @@ import java.net.URL;
  * {@link OnLoadPodcastListener#onPodcastLoadFailed(Podcast, PodcastLoadError)}
  * will be called with the code set to {@link PodcastLoadError#AUTH_REQUIRED}.
  * </p>
+ * <p>
+ * <b>Conditional load:</b> If the podcast has been loaded before, the task
+ * sends the cache validators returned by {@link Podcast#getEtag()} and
+ * {@link Podcast#getLastModified()}. Should the server respond with
+ * "304 Not Modified", the podcast is not parsed again, but only marked as
+ * loaded via {@link Podcast#markUnchanged()}. The listener is alerted the same
+ * way as for a complete load. Validators sent along with the response
+ * replace the ones the podcast has.
+ * </p>
+ * <p>
+ * <b>Incremental parse:</b> For podcasts loaded before, the task uses
+ * {@link Podcast#parse(XmlPullParser, boolean)} in incremental mode and stops
+ * reading the feed once it reaches the known episodes. The number of feed
+ * items and bytes skipped this way is available via
+ * {@link #getSkippedItemCount()} and {@link #getSkippedByteCount()}.
+ * </p>
+ * <p>
+ * <b>Fingerprint:</b> If the server does not send any cache validators, the
+ * task computes the feed's checksum while the parser reads it. If the parser
+ * reads all of the feed and the checksum matches the podcast's
+ * {@link Podcast#getContentFingerprint()} from the last parse, the episodes
+ * parsed are dropped and the podcast is treated as if the server answered
+ * "304 Not Modified". A feed the parser stops reading early (see above) is
+ * never loaded completely just for the checksum. See
+ * {@link #getFingerprintHitRate()} for how often this happens.
+ * </p>
+ * <p>
+ * <b>Snapshots:</b> If created with a context, the task writes a
+ * {@link PodcastSnapshot} of the podcast after a successful load, so its
+ * content is available right away on the next start-up. The snapshot is only
+ * written again if the podcast's content changed.
+ * </p>
+ * <p>
+ * <b>Episode window:</b> For podcasts with an episode window (see
+ * {@link Podcast#setEpisodeWindow(int, int)}) the task keeps the feed in the
+ * {@link FeedCache} if created with a context. If the parser stopped early,
+ * only the part of the feed read is kept. Use
+ * {@link #setLoadOlderEpisodes(boolean)} to parse the podcast's extended
+ * window from there. For a partially cached feed, only the rest of the feed
+ * is loaded if the server confirms it did not change. Otherwise, the complete
+ * feed is loaded from the network.
+ * </p>
  */
 public class LoadPodcastTask extends LoadRemoteFileTask<Podcast, Void> {
 
@@ -57,6 +107,15 @@ public class LoadPodcastTask extends LoadRemoteFileTask<Podcast, Void> {
     /** Our log tag */
     private static final String TAG = "LoadPodcastTask";
 
+    /** The number of feed items not parsed because they were known */
+    private static final AtomicLong skippedItems = new AtomicLong();
+    /** The number of feed bytes not loaded because the items were known */
+    private static final AtomicLong skippedBytes = new AtomicLong();
+    /** The number of loads that compared the feed's fingerprint */
+    private static final AtomicLong fingerprintChecks = new AtomicLong();
+    /** The number of loads that skipped parsing because of the fingerprint */
+    private static final AtomicLong fingerprintHits = new AtomicLong();
+
     /**
      * Podcast load error codes as returned by
      * {@link OnLoadPodcastListener#onPodcastLoadFailed(Podcast, PodcastLoadError)}
@@ -97,6 +156,8 @@ public class LoadPodcastTask extends LoadRemoteFileTask<Podcast, Void> {
 
     /** Call back */
     private OnLoadPodcastListener listener;
+    /** The context to write the snapshot with, might be <code>null</code> */
+    private Context context;
 
     /** Podcast currently loading */
     private Podcast podcast;
@@ -105,6 +166,10 @@ public class LoadPodcastTask extends LoadRemoteFileTask<Podcast, Void> {
 
     /** Flag whether we strip out explicit episodes */
     private boolean blockExplicit = false;
+    /** Flag whether the podcast's cache validators changed */
+    private boolean cacheValidatorsChanged = false;
+    /** Flag whether we page in older episodes */
+    private boolean loadOlderEpisodes = false;
 
     /**
      * Create new task.
@@ -112,6 +177,19 @@ public class LoadPodcastTask extends LoadRemoteFileTask<Podcast, Void> {
      * @param listener Callback to be alerted on progress and completion.
      */
     public LoadPodcastTask(OnLoadPodcastListener listener) {
+        this(null, listener);
+    }
+
+    /**
+     * Create new task that writes a snapshot of the podcast on success.
+     * 
+     * @param context The context to write the snapshot with. Give
+     *            <code>null</code> to not write a snapshot.
+     * @param listener Callback to be alerted on progress and completion.
+     * @see PodcastSnapshot
+     */
+    public LoadPodcastTask(Context context, OnLoadPodcastListener listener) {
+        this.context = context;
         this.listener = listener;
         // We disable the load limit for the podcast feeds because there are
         // huge feeds out there and user's really do not understand why they are
@@ -129,33 +207,186 @@ public class LoadPodcastTask extends LoadRemoteFileTask<Podcast, Void> {
         this.blockExplicit = block;
     }
 
+    /**
+     * @param loadOlder Whether the task should (re-)parse the complete episode
+     *            window, e.g. after {@link Podcast#extendEpisodeWindow()}. The
+     *            cached feed is used if available, otherwise the feed (or the
+     *            part of it not cached) is loaded without cache validators.
+     */
+    public void setLoadOlderEpisodes(boolean loadOlder) {
+        this.loadOlderEpisodes = loadOlder;
+    }
+
+    /**
+     * @return The total number of feed items (episodes) all tasks did not
+     *         need to parse because they stopped at known episodes.
+     */
+    public static long getSkippedItemCount() {
+        return skippedItems.get();
+    }
+
+    /**
+     * @return The total number of feed bytes all tasks did not need to load
+     *         because they stopped at known episodes. Only counts feeds where
+     *         the server reports the content length.
+     */
+    public static long getSkippedByteCount() {
+        return skippedBytes.get();
+    }
+
+    /**
+     * @return The total number of loads that compared the feed's content
+     *         fingerprint because the server sent no cache validators.
+     */
+    public static long getFingerprintCheckCount() {
+        return fingerprintChecks.get();
+    }
+
+    /**
+     * @return The total number of loads that did not parse the feed because
+     *         its content fingerprint was unchanged.
+     */
+    public static long getFingerprintHitCount() {
+        return fingerprintHits.get();
+    }
+
+    /**
+     * @return The share of fingerprint checks that found the feed unchanged
+     *         and skipped parsing (between 0 and 1).
+     */
+    public static float getFingerprintHitRate() {
+        final long checks = fingerprintChecks.get();
+
+        return checks == 0 ? 0 : (float) fingerprintHits.get() / checks;
+    }
+
+    /**
+     * @return Whether the load changed the podcast's cache validators, i.e.
+     *         whether {@link Podcast#getEtag()} or
+     *         {@link Podcast#getLastModified()} return new values. Only
+     *         valid after the task completed.
+     */
+    public boolean haveCacheValidatorsChanged() {
+        return cacheValidatorsChanged;
+    }
+
     @Override
     protected Void doInBackground(Podcast... podcasts) {
         this.podcast = podcasts[0];
+        InputStream podcastRssStream = null;
+        InputStream partialStream = null;
+        FeedCache.CachingStream cachingStream = null;
 
         try {
-            // 1. Load the file from the Internet
+            // 1. Connect to the file on the Internet
             publishProgress(Progress.CONNECT);
 
             // Set auth
             this.authorization = podcast.getAuthorization();
-            // ... and go get the file
-            byte[] podcastRssFile = loadFile(new URL(podcast.getUrl()));
-
-            if (isCancelled())
-                return null;
-            else
-                publishProgress(Progress.PARSE);
-
-            // 2. Create the parser to use
-            XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-            factory.setNamespaceAware(true);
-            XmlPullParser parser = factory.newPullParser();
-            parser.setInput(new ByteArrayInputStream(podcastRssFile), null);
-
-            // 3. Parse as podcast content
-            if (!isCancelled())
-                podcast.parse(parser);
+            // Set validators, this only makes sense if we have the content
+            // and are only interested in changes
+            if (podcast.getLastLoaded() != null && !loadOlderEpisodes)
+                setCacheValidators(podcast.getEtag(), podcast.getLastModified());
+            // Older episodes come from the cached feed if we have it
+            if (loadOlderEpisodes && context != null) {
+                podcastRssStream = FeedCache.open(context, podcast);
+
+                // If we only have the start of the feed, we ask for the rest
+                // of it as long as the feed did not change
+                final String validator = getResumeValidator();
+                if (podcastRssStream == null && validator != null) {
+                    final long partialLength = FeedCache.getPartialLength(context, podcast);
+                    partialStream = FeedCache.openPartial(context, podcast);
+
+                    if (partialStream != null && partialLength > 0)
+                        setResume(partialLength, validator);
+                }
+            }
+            final boolean fromCache = podcastRssStream != null;
+            // ... or go get the file, we do not wait for it to download
+            // completely but feed the parser directly from the wire
+            if (!fromCache)
+                podcastRssStream = loadFileAsStream(new URL(podcast.getUrl()));
+
+            // Without validators, we can only tell whether the feed changed
+            // by its fingerprint
+            final RemoteFileStream remoteStream =
+                    fromCache ? null : (RemoteFileStream) podcastRssStream;
+            final Crc64 checksum = fromCache || notModified || resumed
+                    || responseEtag != null || responseLastModified != null ? null : new Crc64();
+            // The fingerprint is only comparable for content we have
+            final long knownFingerprint = checksum == null || podcast.getLastLoaded() == null
+                    || loadOlderEpisodes ? 0 : podcast.getContentFingerprint();
+
+            // The server only sent the rest of the feed
+            InputStream feedStream = resumed ?
+                    new SequenceInputStream(partialStream, podcastRssStream) : podcastRssStream;
+            // The stream computes the fingerprint while the parser reads, this
+            // only gives a fingerprint if the parser reads all of the feed
+            if (checksum != null)
+                remoteStream.setChecksum(checksum);
+
+            // Whether the snapshot needs to be written again
+            boolean snapshotChanged = false;
+
+            // The feed did not change, so there is nothing to parse
+            if (notModified)
+                markUnchanged();
+            else {
+                // 2. Create the parser to use
+                XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+                factory.setNamespaceAware(true);
+                XmlPullParser parser = factory.newPullParser();
+                // Keep the complete feed for paging in older episodes later
+                if (!fromCache && context != null && podcast.hasEpisodeWindow())
+                    feedStream = cachingStream = FeedCache.cache(context, podcast, feedStream);
+                parser.setInput(feedStream, null);
+
+                // 3. Parse as podcast content (this will download the file as
+                // needed and stop once we reach known episodes or the end of
+                // the episode window) and keep the validators (or the
+                // fingerprint) for the next load. If there is a fingerprint
+                // to compare with and the parser reads all of the feed, the
+                // episodes parsed are dropped should the feed be the same.
+                if (!isCancelled()) {
+                    final FingerprintCheck check = knownFingerprint == 0 ? null :
+                            new FingerprintCheck(feedStream, checksum, knownFingerprint);
+                    final int knownEpisodeCount =
+                            podcast.parse(parser, !loadOlderEpisodes, check);
+
+                    if (check != null && check.unchanged)
+                        markUnchanged();
+                    else {
+                        snapshotChanged = podcast.hasContentChanged();
+                        if (!fromCache) {
+                            cacheValidatorsChanged = podcast.setCacheValidators(responseEtag,
+                                    responseLastModified);
+
+                            // We do not load the rest of the feed just for the
+                            // fingerprint if the parser stopped early, the one
+                            // we have is still good if the content did not
+                            // change though
+                            long fingerprint = 0;
+                            if (checksum != null && remoteStream.isComplete())
+                                fingerprint = checksum.getValue();
+                            else if (checksum != null && !snapshotChanged)
+                                fingerprint = podcast.getContentFingerprint();
+
+                            // The snapshot has the fingerprint, the validators
+                            // go to the podcast list
+                            snapshotChanged |= fingerprint != podcast.getContentFingerprint();
+                            podcast.setContentFingerprint(fingerprint);
+                        }
+                    }
+
+                    // The cached feed is only kept if it is complete
+                    if (cachingStream != null)
+                        cachingStream.commit();
+
+                    if (knownEpisodeCount > 0)
+                        recordSkipped(knownEpisodeCount, remoteStream);
+                }
+            }
 
             // 4. Clean out explicit episodes
             if (!isCancelled() && blockExplicit) {
@@ -169,16 +400,29 @@ public class LoadPodcastTask extends LoadRemoteFileTask<Podcast, Void> {
                 }
             }
 
-            // 5. We need to wait here and make sure the episode metadata is
+            // 5. Keep the content for the next start-up, if the feed or the
+            // content parsed from it did not change the snapshot we have is
+            // still good
+            if (!isCancelled() && context != null)
+                if (!snapshotChanged)
+                    PodcastSnapshot.touch(context, podcast);
+                else
+                    PodcastSnapshot.store(context, podcast);
+
+            // 6. We need to wait here and make sure the episode metadata is
             // available before we return
             EpisodeManager.getInstance().blockUntilEpisodeMetadataIsLoaded();
         } catch (XmlPullParserException xppe) {
-            errorCode = PodcastLoadError.NOT_PARSEABLE;
+            // Since parsing and loading overlap, the parser might also fail
+            // because the load was cancelled
+            if (!isCancelled())
+                errorCode = PodcastLoadError.NOT_PARSEABLE;
 
             cancel(true);
         } catch (IOException ioe) {
             // This will also catch mal-formed URLs
-            errorCode = PodcastLoadError.NOT_REACHABLE;
+            if (!isCancelled())
+                errorCode = PodcastLoadError.NOT_REACHABLE;
 
             cancel(true);
         } catch (Throwable throwable) {
@@ -186,12 +430,105 @@ public class LoadPodcastTask extends LoadRemoteFileTask<Podcast, Void> {
 
             cancel(true);
         } finally {
+            if (partialStream != null)
+                try {
+                    partialStream.close();
+                } catch (IOException e) {
+                    // Nothing we can do here
+                }
+            // Drop the feed copy if not committed
+            if (cachingStream != null)
+                try {
+                    cachingStream.close();
+                } catch (IOException e) {
+                    // Nothing we can do here
+                }
+            // Close the stream, this will also disconnect
+            if (podcastRssStream != null)
+                try {
+                    podcastRssStream.close();
+                } catch (IOException e) {
+                    // Nothing we can do here
+                }
+
             publishProgress(Progress.DONE);
         }
 
         return null;
     }
 
+    private String getResumeValidator() {
+        // Weak entity tags cannot be used to resume
+        final String etag = podcast.getEtag();
+        if (etag != null && !etag.startsWith("W/"))
+            return etag;
+        else
+            return podcast.getLastModified();
+    }
+
+    private void markUnchanged() {
+        podcast.markUnchanged();
+
+        // The server might send new validators along, if it sends none the
+        // ones we have are still good
+        cacheValidatorsChanged = podcast.setCacheValidators(
+                responseEtag == null ? podcast.getEtag() : responseEtag,
+                responseLastModified == null ? podcast.getLastModified() : responseLastModified);
+    }
+
+    private static void readToEnd(InputStream stream) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+
+        while (stream.read(buffer) >= 0) {
+            // Nothing to do, the streams take care of the counting
+        }
+    }
+
+    private void recordSkipped(int items, RemoteFileStream stream) {
+        skippedItems.addAndGet(items);
+
+        // We can only tell if we know how much there would have been
+        final int contentLength = stream == null ? -1 : stream.getContentLength();
+        if (contentLength > 0 && contentLength > stream.getBytesRead())
+            skippedBytes.addAndGet(contentLength - stream.getBytesRead());
+    }
+
+    /**
+     * Compares the fingerprint of the feed the parser read to its end with the
+     * one we know.
+     */
+    private static class FingerprintCheck implements Podcast.FeedCheck {
+
+        /** The stream the parser reads from */
+        private final InputStream feedStream;
+        /** The checksum the stream updates */
+        private final Crc64 checksum;
+        /** The fingerprint of the feed parsed last time */
+        private final long knownFingerprint;
+
+        /** Whether the check found the feed unchanged */
+        private boolean unchanged = false;
+
+        private FingerprintCheck(InputStream feedStream, Crc64 checksum, long knownFingerprint) {
+            this.feedStream = feedStream;
+            this.checksum = checksum;
+            this.knownFingerprint = knownFingerprint;
+        }
+
+        @Override
+        public boolean isUnchanged() throws IOException {
+            // The parser might not have read what follows the document
+            readToEnd(feedStream);
+
+            fingerprintChecks.incrementAndGet();
+            unchanged = checksum.getValue() == knownFingerprint;
+            if (unchanged)
+                fingerprintHits.incrementAndGet();
+
+            return unchanged;
+        }
+    }
+
     @Override
     protected void onProgressUpdate(Progress... progress) {
         if (listener != null)
@@ -17,6 +17,8 @@
 
 package net.alliknow.podcatcher.model.tasks.remote;
 
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
+import static java.net.HttpURLConnection.HTTP_PARTIAL;
 import static java.net.HttpURLConnection.HTTP_UNAUTHORIZED;
 import static net.alliknow.podcatcher.Podcatcher.AUTHORIZATION_KEY;
 import static net.alliknow.podcatcher.Podcatcher.USER_AGENT_KEY;
@@ -24,11 +26,15 @@ import static net.alliknow.podcatcher.Podcatcher.USER_AGENT_VALUE;
 
 import android.os.AsyncTask;
 
+import net.alliknow.podcatcher.model.Crc64;
 import net.alliknow.podcatcher.model.types.Progress;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 
@@ -46,6 +52,8 @@ public abstract class LoadRemoteFileTask<Params, Result> extends
     protected static final int CONNECT_TIMEOUT = 8000;
     /** The read timeout */
     protected static final int READ_TIMEOUT = 60000;
+    /** The buffer size used when reading from the remote */
+    protected static final int BUFFER_SIZE = 8 * 1024;
 
     /** The use caches flag set to the http connection before it is opened. */
     protected boolean useCaches;
@@ -60,6 +68,24 @@ public abstract class LoadRemoteFileTask<Params, Result> extends
     /** The flag to indicate that authorization is/was required */
     protected boolean needsAuthorization = false;
 
+    /** The entity tag to send as a cache validator */
+    protected String ifNoneMatch;
+    /** The last modified date to send as a cache validator */
+    protected String ifModifiedSince;
+    /** The flag to indicate that the remote file was not modified */
+    protected boolean notModified = false;
+    /** The entity tag sent by the remote with the file */
+    protected String responseEtag;
+    /** The last modified date sent by the remote with the file */
+    protected String responseLastModified;
+
+    /** The byte offset to resume the download at, zero for the whole file */
+    protected long resumeOffset = 0;
+    /** The validator the file needs to match for the download to resume */
+    protected String ifRange;
+    /** The flag to indicate that the remote only sent the rest of the file */
+    protected boolean resumed = false;
+
     /**
      * Set a "max-stale" cache control directive when downloading the file. The
      * default is a negative number, turning off the directive. If not negative,
@@ -74,8 +100,8 @@ public abstract class LoadRemoteFileTask<Params, Result> extends
     /**
      * Set a load limit for the actual download of the file. The default is a
      * negative number, turning off the limit evaluation. If positive and
-     * reached, {@link #loadFile(URL)} below will return <code>null</code>
-     * immediately.
+     * reached, {@link #loadFile(URL)} below will fail immediately, the stream
+     * returned by {@link #loadFileAsStream(URL)} fails once the limit is hit.
      * 
      * @param bytes The limit to set in bytes.
      */
@@ -83,90 +109,89 @@ public abstract class LoadRemoteFileTask<Params, Result> extends
         this.loadLimit = bytes;
     }
 
+    /**
+     * Make the download conditional by sending the cache validators given.
+     * If the remote file is unchanged according to these, the server will
+     * respond with "304 Not Modified" and {@link #loadFileAsStream(URL)} will
+     * return <code>null</code>. The default is to send no validators.
+     * 
+     * @param etag The entity tag to send as "If-None-Match" (or
+     *            <code>null</code> to send nothing).
+     * @param lastModified The date to send as "If-Modified-Since" (or
+     *            <code>null</code> to send nothing).
+     */
+    public void setCacheValidators(String etag, String lastModified) {
+        this.ifNoneMatch = etag;
+        this.ifModifiedSince = lastModified;
+    }
+
+    /**
+     * Ask the server for the rest of the file only, starting at the offset
+     * given. This only happens if the file still matches the validator given,
+     * otherwise the server sends the complete file. {@link #resumed} tells
+     * which one it was once {@link #loadFileAsStream(URL)} returns. The file
+     * is requested without any content encoding, so the offset is the one in
+     * the file as stored by the server. The default is to load the whole
+     * file.
+     * 
+     * @param offset The number of bytes at the start of the file we already
+     *            have, give zero to load the whole file.
+     * @param validator The strong entity tag or last modified date of the
+     *            file we have the start of, sent as "If-Range".
+     */
+    public void setResume(long offset, String validator) {
+        this.resumeOffset = offset;
+        this.ifRange = validator;
+    }
+
     /**
      * Download the file and return it as a byte array. Will feed
      * {@link #publishProgress(Object...)}.
      * 
      * @param remote URL connection to load from.
-     * @return The file content.
+     * @return The file content or <code>null</code> if the task was cancelled
+     *         or the remote file is not modified.
      * @throws IOException If something goes wrong.
+     * @see #loadFileAsStream(URL)
      */
     protected byte[] loadFile(URL remote) throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) remote.openConnection();
-        connection.setConnectTimeout(CONNECT_TIMEOUT);
-        connection.setReadTimeout(READ_TIMEOUT);
-        // Set whether we use the http cache
-        connection.setUseCaches(useCaches);
-        // We set a custom user agent here because some servers (e.g. ZDF.de)
-        // redirect connections from mobile devices to servers where the content
-        // we are looking for might not be available.
-        connection.setRequestProperty(USER_AGENT_KEY, USER_AGENT_VALUE);
-        // Set cache control directive
-        if (maxStale >= 0)
-            connection.addRequestProperty("Cache-Control", "max-stale=" + maxStale);
-        // Allow for password protected feeds
-        if (authorization != null)
-            connection.setRequestProperty(AUTHORIZATION_KEY, authorization);
-
-        BufferedInputStream bufferedRemoteStream = null;
+        InputStream remoteStream = null;
         ByteArrayOutputStream result = null;
 
         try {
-            // 1. Open stream and check whether we know its length
-            bufferedRemoteStream = new BufferedInputStream(connection.getInputStream());
-            final int contentLength = connection.getContentLength();
-            // Check whether we should abort load since we have a load limit set
-            // and the content length is higher.
-            if (loadLimit >= 0 && contentLength >= 0 && contentLength > loadLimit)
-                throw new IOException("Load limit exceeded (content length reported by remote is "
-                        + contentLength + " bytes, limit was " + loadLimit + " bytes)!");
-            // Check whether we could calculate the percentage of completion,
-            // this only works if a content length is given and the content is
-            // not gzipped
-            final boolean isZippedResponse = connection.getContentEncoding() != null
-                    && connection.getContentEncoding().equals("gzip");
-            final boolean sendLoadProgress = contentLength > 0 && !isZippedResponse;
-
-            // showResponseHeaderDetails(connection);
+            // 1. Open the stream, this will check the load limit
+            remoteStream = loadFileAsStream(remote);
+            if (remoteStream == null)
+                return null;
 
             // 2. Create the byte buffer to write to
             result = new ByteArrayOutputStream();
-            publishProgress(Progress.LOAD);
 
-            byte[] buffer = new byte[1024];
+            byte[] buffer = new byte[BUFFER_SIZE];
             int bytesRead = 0;
-            int totalBytes = 0;
 
-            // 3. Read stream and report progress (if possible)
-            while ((bytesRead = bufferedRemoteStream.read(buffer)) > 0) {
+            // 3. Read stream, progress is reported by the stream itself
+            while ((bytesRead = remoteStream.read(buffer)) > 0) {
                 if (isCancelled())
                     return null;
 
-                totalBytes += bytesRead;
-                if (loadLimit >= 0 && totalBytes > loadLimit)
-                    throw new IOException("Load limit exceeded (read " + totalBytes +
-                            " bytes, limit was " + loadLimit + " bytes)!");
-
                 result.write(buffer, 0, bytesRead);
-
-                if (sendLoadProgress)
-                    publishProgress(new Progress(totalBytes, contentLength));
             }
 
             // 4. Return result as a byte array
             return result.toByteArray();
-        } catch (IOException ioe) {
-            // Make sure sub-classes can react if auth is needed
-            if (connection.getResponseCode() == HTTP_UNAUTHORIZED)
-                needsAuthorization = true;
-
-            throw ioe;
+        } catch (InterruptedIOException iioe) {
+            // The stream gives up if the task is cancelled
+            if (isCancelled())
+                return null;
+            else
+                throw iioe;
         } finally {
             // Close the streams
-            // To remote
-            if (bufferedRemoteStream != null)
+            // To remote (this will also disconnect)
+            if (remoteStream != null)
                 try {
-                    bufferedRemoteStream.close();
+                    remoteStream.close();
                 } catch (Exception e) {
                     // Nothing we can do here
                 }
@@ -179,10 +204,255 @@ public abstract class LoadRemoteFileTask<Params, Result> extends
                     // Nothing we can do here
                 }
 
-            // Disconnect
+            // reportCacheStats();
+        }
+    }
+
+    /**
+     * Open the remote file and return a stream to read its content from as it
+     * comes in over the wire. Nothing is buffered beyond what the stream needs
+     * internally, so this is the way to go for potentially big files that can
+     * be processed on the fly. The stream returned enforces the load limit set,
+     * feeds {@link #publishProgress(Object...)} while it is read and fails with
+     * an {@link IOException} once the task is cancelled. Make sure to close the
+     * stream when done, this will also disconnect from the remote server.
+     * Validators for the file as sent by the remote are available in
+     * {@link #responseEtag} and {@link #responseLastModified} once this
+     * returns, also for a "304 Not Modified" response.
+     * 
+     * @param remote URL connection to load from.
+     * @return The stream to read the file content from or <code>null</code>
+     *         iff cache validators were set and the server responded with
+     *         "304 Not Modified". {@link #notModified} is set in this case.
+     * @see #setCacheValidators(String, String)
+     * @throws IOException If the connection cannot be established or the load
+     *             limit is exceeded.
+     * @see #setLoadLimit(int)
+     */
+    protected InputStream loadFileAsStream(URL remote) throws IOException {
+        final HttpURLConnection connection = openConnection(remote);
+
+        try {
+            // 1. Check whether the remote has anything new for us, this will
+            // connect. The body of a 304 response is empty, so there is
+            // nothing to read and we are done. The server might send updated
+            // validators with the response.
+            if ((ifNoneMatch != null || ifModifiedSince != null)
+                    && connection.getResponseCode() == HTTP_NOT_MODIFIED) {
+                notModified = true;
+                responseEtag = connection.getHeaderField("ETag");
+                responseLastModified = connection.getHeaderField("Last-Modified");
+                connection.disconnect();
+
+                return null;
+            }
+
+            // The server might only send the rest of the file as asked for
+            resumed = resumeOffset > 0 && connection.getResponseCode() == HTTP_PARTIAL;
+
+            // 2. Open stream and check whether we know its length
+            final InputStream remoteStream = connection.getInputStream();
+            final int contentLength = connection.getContentLength();
+            // Check whether we should abort load since we have a load limit set
+            // and the content length is higher.
+            if (loadLimit >= 0 && contentLength >= 0 && contentLength > loadLimit)
+                throw new IOException("Load limit exceeded (content length reported by remote is "
+                        + contentLength + " bytes, limit was " + loadLimit + " bytes)!");
+            // Check whether we could calculate the percentage of completion,
+            // this only works if a content length is given and the content is
+            // not gzipped
+            final boolean isZippedResponse = connection.getContentEncoding() != null
+                    && connection.getContentEncoding().equals("gzip");
+            final boolean sendLoadProgress = contentLength > 0 && !isZippedResponse;
+            // Keep the validators for the next request
+            responseEtag = connection.getHeaderField("ETag");
+            responseLastModified = connection.getHeaderField("Last-Modified");
+
+            // showResponseHeaderDetails(connection);
+
+            // 3. Wrap the stream so it counts and reports what is read
+            publishProgress(Progress.LOAD);
+
+            return new RemoteFileStream(remoteStream, connection,
+                    contentLength, sendLoadProgress);
+        } catch (IOException ioe) {
+            // Make sure sub-classes can react if auth is needed
+            if (connection.getResponseCode() == HTTP_UNAUTHORIZED)
+                needsAuthorization = true;
+
+            // Disconnect since nobody else will do it
             connection.disconnect();
 
-            // reportCacheStats();
+            throw ioe;
+        }
+    }
+
+    /**
+     * Create and configure the connection to the remote file. This does not
+     * actually connect.
+     * 
+     * @param remote URL connection to load from.
+     * @return The connection with all request properties set.
+     * @throws IOException If the connection cannot be created.
+     */
+    protected HttpURLConnection openConnection(URL remote) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) remote.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        // Set whether we use the http cache
+        connection.setUseCaches(useCaches);
+        // We set a custom user agent here because some servers (e.g. ZDF.de)
+        // redirect connections from mobile devices to servers where the content
+        // we are looking for might not be available.
+        connection.setRequestProperty(USER_AGENT_KEY, USER_AGENT_VALUE);
+        // Set cache control directive
+        if (maxStale >= 0)
+            connection.addRequestProperty("Cache-Control", "max-stale=" + maxStale);
+        // Allow for password protected feeds
+        if (authorization != null)
+            connection.setRequestProperty(AUTHORIZATION_KEY, authorization);
+        // Make the request conditional
+        if (ifNoneMatch != null)
+            connection.setRequestProperty("If-None-Match", ifNoneMatch);
+        if (ifModifiedSince != null)
+            connection.setRequestProperty("If-Modified-Since", ifModifiedSince);
+        // Ask for the rest of the file, the offset is only valid without
+        // content encoding
+        if (resumeOffset > 0 && ifRange != null) {
+            connection.setRequestProperty("Range", "bytes=" + resumeOffset + "-");
+            connection.setRequestProperty("If-Range", ifRange);
+            connection.setRequestProperty("Accept-Encoding", "identity");
+        }
+
+        return connection;
+    }
+
+    /**
+     * The stream handed out by {@link LoadRemoteFileTask#loadFileAsStream(URL)}
+     * . Counts the bytes read, enforces the load limit and reports progress.
+     * It can also compute the checksum of the file while it is read, see
+     * {@link #setChecksum(Crc64)}.
+     */
+    protected class RemoteFileStream extends FilterInputStream {
+
+        /** The connection the stream belongs to */
+        private final HttpURLConnection connection;
+        /** The total number of bytes to expect, -1 if unknown */
+        private final int contentLength;
+        /** Whether we can calculate and report the percentage of completion */
+        private final boolean sendLoadProgress;
+
+        /** The number of bytes read so far */
+        private int totalBytes = 0;
+        /** Whether the end of the stream was reached */
+        private boolean complete = false;
+        /** The checksum to add the bytes read to, if any */
+        private Crc64 checksum;
+
+        private RemoteFileStream(InputStream remote, HttpURLConnection connection,
+                int contentLength, boolean sendLoadProgress) {
+            super(new BufferedInputStream(remote, BUFFER_SIZE));
+
+            this.connection = connection;
+            this.contentLength = contentLength;
+            this.sendLoadProgress = sendLoadProgress;
+        }
+
+        /**
+         * @return The number of bytes read from the remote so far.
+         */
+        public int getBytesRead() {
+            return totalBytes;
+        }
+
+        /**
+         * @return The content length as reported by the remote or -1 if not
+         *         known.
+         */
+        public int getContentLength() {
+            return contentLength;
+        }
+
+        /**
+         * @return Whether the stream was read to its very end.
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+
+        /**
+         * Add all bytes read (or skipped) from now on to the given checksum.
+         * 
+         * @param checksum The checksum to update, give <code>null</code> to
+         *            stop updating.
+         */
+        public void setChecksum(Crc64 checksum) {
+            this.checksum = checksum;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int result = super.read();
+            count(result < 0 ? -1 : 1);
+            if (checksum != null && result >= 0)
+                checksum.update(result);
+
+            return result;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            final int bytesRead = super.read(buffer, offset, count);
+            count(bytesRead);
+            if (checksum != null && bytesRead > 0)
+                checksum.update(buffer, offset, bytesRead);
+
+            return bytesRead;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            // Skipped bytes need to go into the checksum, so we read them
+            if (checksum != null)
+                return byteCount <= 0 ? 0 :
+                        Math.max(0, read(new byte[(int) Math.min(byteCount, BUFFER_SIZE)]));
+
+            final long skipped = super.skip(byteCount);
+            count((int) skipped);
+
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            // We cannot count correctly when reset
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                connection.disconnect();
+            }
+        }
+
+        private void count(int bytesRead) throws IOException {
+            if (isCancelled())
+                throw new InterruptedIOException("Load cancelled");
+
+            if (bytesRead < 0)
+                complete = true;
+            else if (bytesRead > 0) {
+                totalBytes += bytesRead;
+                if (loadLimit >= 0 && totalBytes > loadLimit)
+                    throw new IOException("Load limit exceeded (read " + totalBytes +
+                            " bytes, limit was " + loadLimit + " bytes)!");
+
+                if (sendLoadProgress)
+                    publishProgress(new Progress(totalBytes, contentLength));
+            }
         }
     }
 }
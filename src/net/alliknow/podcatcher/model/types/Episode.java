@@ -17,14 +17,17 @@
 
 package net.alliknow.podcatcher.model.types;
 
-import android.text.Html;
-
+import net.alliknow.podcatcher.model.HtmlDecoder;
 import net.alliknow.podcatcher.model.ParserUtils;
+import net.alliknow.podcatcher.model.ShowNotesStore;
 import net.alliknow.podcatcher.model.tags.RSS;
+import net.alliknow.podcatcher.model.tags.TagTable;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.util.Date;
 
@@ -35,6 +38,32 @@ import java.util.Date;
  */
 public class Episode extends FeedEntity implements Comparable<Episode> {
 
+    /** The publication date value used if the episode does not have one */
+    public static final long NO_PUB_DATE = Long.MIN_VALUE;
+
+    /** Tag id for the title tag */
+    private static final int TITLE = 0;
+    /** Tag id for the link tag */
+    private static final int LINK = 1;
+    /** Tag id for the explicit tag */
+    private static final int EXPLICIT = 2;
+    /** Tag id for the enclosure tag */
+    private static final int ENCLOSURE = 3;
+    /** Tag id for the (dublin core) date tag */
+    private static final int DATE = 4;
+    /** Tag id for the publication date tag */
+    private static final int PUBDATE = 5;
+    /** Tag id for the duration tag */
+    private static final int DURATION = 6;
+    /** Tag id for the description tag */
+    private static final int DESCRIPTION = 7;
+    /** Tag id for the content:encoded tag */
+    private static final int CONTENT_ENCODED = 8;
+    /** The tags we read from the feed, in the order of the ids above */
+    private static final TagTable TAGS = new TagTable(RSS.TITLE, RSS.LINK, RSS.EXPLICIT,
+            RSS.ENCLOSURE, RSS.DATE, RSS.PUBDATE, RSS.DURATION, RSS.DESCRIPTION,
+            "{" + RSS.CONTENT_NAMESPACE + "}" + RSS.CONTENT_ENCODED);
+
     /** The podcast this episode is part of */
     protected final Podcast podcast;
     /**
@@ -45,12 +74,25 @@ public class Episode extends FeedEntity implements Comparable<Episode> {
 
     /** The episode's long content description */
     protected String content;
-    /** The episode's release date */
-    protected Date pubDate;
+    /** The episode's description if written to disk */
+    protected ShowNotesStore.Note descriptionNote;
+    /** The episode's long content description if written to disk */
+    protected ShowNotesStore.Note contentNote;
+    /** The episode's release date in milliseconds since the epoch */
+    protected long pubDate = NO_PUB_DATE;
     /** The episode's duration */
     protected int duration = -1;
-    /** The episode's media file location */
-    protected String mediaUrl;
+    /**
+     * The first part of the episode's media file location, up to and including
+     * the last slash of the path. Shared by all episodes of the podcast using
+     * the same media directory, <code>null</code> if the location has no such
+     * part or no other episode used it when the location was set.
+     */
+    private String mediaUrlPrefix;
+    /** The rest of the episode's media file location */
+    private String mediaUrlSuffix;
+    /** The hash code of the full media file location */
+    private int mediaUrlHash;
 
     /**
      * Create a new episode.
@@ -82,11 +124,35 @@ public class Episode extends FeedEntity implements Comparable<Episode> {
         this(podcast, -1);
 
         this.name = name;
-        this.mediaUrl = mediaUrl;
         this.description = description;
+        setMediaUrl(mediaUrl);
         // Publication date might not be present
         if (pubDate != null)
-            this.pubDate = new Date(pubDate.getTime());
+            this.pubDate = pubDate.getTime();
+    }
+
+    /**
+     * Create a copy of the given episode at another position in its podcast's
+     * feed. All fields but the index are taken over, no re-parsing needed.
+     * 
+     * @param episode The episode to copy. Cannot be <code>null</code>.
+     * @param index The new index of the episode in the podcast's feed.
+     */
+    Episode(Episode episode, int index) {
+        this(episode.podcast, index);
+
+        this.name = episode.name;
+        this.url = episode.url;
+        this.description = episode.description;
+        this.explicit = episode.explicit;
+        this.content = episode.content;
+        this.descriptionNote = episode.descriptionNote;
+        this.contentNote = episode.contentNote;
+        this.pubDate = episode.pubDate;
+        this.duration = episode.duration;
+        this.mediaUrlPrefix = episode.mediaUrlPrefix;
+        this.mediaUrlSuffix = episode.mediaUrlSuffix;
+        this.mediaUrlHash = episode.mediaUrlHash;
     }
 
     /**
@@ -105,20 +171,69 @@ public class Episode extends FeedEntity implements Comparable<Episode> {
     }
 
     /**
-     * @return The media content online location.
+     * @return The media content online location. The string is put together
+     *         on each call, use {@link #hasMediaUrl(String)} to compare and
+     *         {@link #getMediaUrlHashCode()} to look it up.
      */
     public String getMediaUrl() {
-        return mediaUrl;
+        return mediaUrlPrefix == null ? mediaUrlSuffix : mediaUrlPrefix.concat(mediaUrlSuffix);
+    }
+
+    /**
+     * @return Whether the episode has a media content location. Use this
+     *         instead of checking {@link #getMediaUrl()} for
+     *         <code>null</code>, which builds the string.
+     */
+    public boolean hasMediaUrl() {
+        return mediaUrlSuffix != null;
+    }
+
+    /**
+     * Check the episode's media content location without building it.
+     * 
+     * @param url The location to compare to.
+     * @return Whether this is the episode's media location.
+     */
+    public boolean hasMediaUrl(String url) {
+        if (url == null || mediaUrlSuffix == null)
+            return false;
+
+        final int split = mediaUrlPrefix == null ? 0 : mediaUrlPrefix.length();
+        return url.length() == split + mediaUrlSuffix.length()
+                && (mediaUrlPrefix == null || url.startsWith(mediaUrlPrefix))
+                && url.startsWith(mediaUrlSuffix, split);
+    }
+
+    /**
+     * @return The hash code of the episode's media content location, i.e.
+     *         the same as <code>getMediaUrl().hashCode()</code> without
+     *         building the string. Zero if there is no media location.
+     */
+    public int getMediaUrlHashCode() {
+        return mediaUrlHash;
     }
 
     /**
      * @return The publication date for this episode.
      */
     public Date getPubDate() {
-        if (pubDate == null)
-            return null;
-        else
-            return new Date(pubDate.getTime());
+        return pubDate == NO_PUB_DATE ? null : new Date(pubDate);
+    }
+
+    /**
+     * @return The publication date for this episode in milliseconds since the
+     *         epoch or {@link #NO_PUB_DATE} if not available. Unlike
+     *         {@link #getPubDate()} this does not create an object.
+     */
+    public long getPubDateTime() {
+        return pubDate;
+    }
+
+    /**
+     * @return Whether this episode has a publication date.
+     */
+    public boolean hasPubDate() {
+        return pubDate != NO_PUB_DATE;
     }
 
     /**
@@ -138,12 +253,17 @@ public class Episode extends FeedEntity implements Comparable<Episode> {
         return duration;
     }
 
+    @Override
+    public String getDescription() {
+        return descriptionNote == null ? description : readNote(descriptionNote);
+    }
+
     /**
      * @return The long content description for this episode from the
      *         content:encoded tag (if any). Might be <code>null</code>.
      */
     public String getLongDescription() {
-        return content;
+        return contentNote == null ? content : readNote(contentNote);
     }
 
     @Override
@@ -160,12 +280,19 @@ public class Episode extends FeedEntity implements Comparable<Episode> {
 
         Episode another = (Episode) o;
 
-        return mediaUrl == null ? false : mediaUrl.equals(another.mediaUrl);
+        if (mediaUrlSuffix == null || another.mediaUrlSuffix == null
+                || mediaUrlHash != another.mediaUrlHash)
+            return false;
+        // Episodes of the same podcast share their prefixes
+        else if (mediaUrlPrefix == another.mediaUrlPrefix)
+            return mediaUrlSuffix.equals(another.mediaUrlSuffix);
+        else
+            return sameMediaUrl(another);
     }
 
     @Override
     public int hashCode() {
-        return 42 + (mediaUrl == null ? 0 : mediaUrl.hashCode());
+        return 42 + mediaUrlHash;
     }
 
     @Override
@@ -175,36 +302,53 @@ public class Episode extends FeedEntity implements Comparable<Episode> {
         // pubDates to mysteriously disappear when put in a SortedSet. At the
         // same time, we do accept equal episodes that have different dates,
         // because it does not hurt much.
-        int result = 0;
-
-        // We mainly compare by the publication date of the episodes. If these
-        // are not available or are equal, we check for their position in the
-        // podcast. As a last resort we simply return something <> 0.
-        if (this.pubDate != null && another.pubDate != null)
-            result = another.pubDate.compareTo(pubDate);
-        else if (this.pubDate == null && another.pubDate != null)
-            result = -1;
-        else if (this.pubDate != null && another.pubDate == null)
-            result = 1;
+        final long key = getSortKey();
+        final long anotherKey = another.getSortKey();
+        final int result = key < anotherKey ? -1 : key == anotherKey ? 0 : 1;
 
         // This should never be zero unless the episodes are equal, since a
         // podcast might publish two episodes at the same pubDate. If it is
         // (and the episodes are not equal) we use the original order from
         // the feed instead. If all that is not available we simply return
-        // a consistent, non-zero integer since failing the do so would remove
-        // the episode from sets.
-        if (result == 0 && !this.equals(another)) {
-            // The pubDates are equal, but episode are not, try index
-            if (index >= 0 && another.index >= 0 && index != another.index)
-                result = index - another.index;
-            // As a last resort return a consistent, non-zero int
-            else {
-                final int lastResort = this.hashCode() - another.hashCode();
-                result = lastResort == 0 ? -1 : lastResort;
-            }
+        // a consistent integer, which is non-zero unless (very unlikely) the
+        // identity hashes are the same, since zero would remove the episode
+        // from sets.
+        if (result != 0 || this.equals(another))
+            return result;
+        else if (getTieKey() != another.getTieKey())
+            return getTieKey() < another.getTieKey() ? -1 : 1;
+        else {
+            // As a last resort order by identity, zero if the identity
+            // hashes collide, so the order is the same both ways
+            final int hash = System.identityHashCode(this);
+            final int anotherHash = System.identityHashCode(another);
+
+            return hash < anotherHash ? -1 : hash == anotherHash ? 0 : 1;
         }
+    }
+
+    /**
+     * @return The key this episode is sorted by in its natural (newest first)
+     *         order, episodes with smaller keys come first. Episodes without a
+     *         publication date have the smallest key.
+     * @see #compareTo(Episode)
+     * @see EpisodeOrder
+     */
+    public long getSortKey() {
+        // Negating turns newest first into ascending order and leaves the
+        // missing date (Long.MIN_VALUE) as the smallest value
+        return -pubDate;
+    }
 
-        return result;
+    /**
+     * @return The key to order episodes with equal publication dates by: the
+     *         position in the feed (unknown positions last) in the upper half
+     *         and the media URL's hash code in the lower half. Episodes with
+     *         equal sort and tie keys take the same place in all orders.
+     */
+    public long getTieKey() {
+        return (long) (index < 0 ? Integer.MAX_VALUE : index) << 32
+                | (mediaUrlHash & 0xffffffffL);
     }
 
     /**
@@ -221,50 +365,197 @@ public class Episode extends FeedEntity implements Comparable<Episode> {
         parser.require(XmlPullParser.START_TAG, "", RSS.ITEM);
 
         // Look at all start tags of this item
-        while (parser.nextTag() == XmlPullParser.START_TAG) {
-            final String tagName = parser.getName();
-
-            // Episode title
-            if (tagName.equalsIgnoreCase(RSS.TITLE))
-                name = Html.fromHtml(parser.nextText().trim()).toString();
-            // Episode online location
-            else if (tagName.equalsIgnoreCase(RSS.LINK))
-                url = parser.nextText();
-            // Explicit info found
-            else if (tagName.equalsIgnoreCase(RSS.EXPLICIT))
-                explicit = parseExplicit(parser.nextText());
-            // Episode media URL
-            else if (tagName.equalsIgnoreCase(RSS.ENCLOSURE)) {
-                // Only set the media URL if it is actually there, this will
-                // prevent overriding it when there are multiple enclosures
-                final String urlAttribute = parser.getAttributeValue("", RSS.URL);
-                if (urlAttribute != null)
-                    mediaUrl = normalizeUrl(urlAttribute);
-
-                parser.nextText();
+        while (parser.nextTag() == XmlPullParser.START_TAG)
+            switch (TAGS.lookup(parser)) {
+                case TITLE:
+                    // Episode title
+                    name = HtmlDecoder.decode(parser.nextText().trim());
+                    break;
+                case LINK:
+                    // Episode online location
+                    url = parser.nextText();
+                    break;
+                case EXPLICIT:
+                    // Explicit info found
+                    explicit = parseExplicit(parser.nextText());
+                    break;
+                case ENCLOSURE:
+                    // Episode media URL, only set if it is actually there,
+                    // this will prevent overriding it when there are multiple
+                    // enclosures
+                    final String urlAttribute = parser.getAttributeValue("", RSS.URL);
+                    if (urlAttribute != null)
+                        setMediaUrl(normalizeUrl(urlAttribute));
+
+                    parser.nextText();
+                    break;
+                case DATE:
+                    // Episode publication date (2 options)
+                    if (pubDate == NO_PUB_DATE)
+                        pubDate = toTime(parseDate(parser.nextText()));
+                    else
+                        ParserUtils.skipSubTree(parser);
+                    break;
+                case PUBDATE:
+                    pubDate = toTime(parseDate(parser.nextText()));
+                    break;
+                case DURATION:
+                    // Episode duration
+                    duration = parseDuration(parser.nextText());
+                    break;
+                case DESCRIPTION:
+                    // Episode description
+                    description = parser.nextText();
+                    break;
+                case CONTENT_ENCODED:
+                    content = parser.nextText();
+                    break;
+                default:
+                    // Unneeded node, skip...
+                    ParserUtils.skipSubTree(parser);
             }
-            // Episode publication date (2 options)
-            else if (tagName.equalsIgnoreCase(RSS.DATE) && pubDate == null)
-                pubDate = parseDate(parser.nextText());
-            else if (tagName.equalsIgnoreCase(RSS.PUBDATE))
-                pubDate = parseDate(parser.nextText());
-            // Episode duration
-            else if (tagName.equalsIgnoreCase(RSS.DURATION))
-                duration = parseDuration(parser.nextText());
-            // Episode description
-            else if (tagName.equalsIgnoreCase(RSS.DESCRIPTION))
-                description = parser.nextText();
-            else if (isContentEncodedTag(parser))
-                content = parser.nextText();
-            // Unneeded node, skip...
-            else
-                ParserUtils.skipSubTree(parser);
-        }
 
         // Make sure we end at item tag
         parser.require(XmlPullParser.END_TAG, "", RSS.ITEM);
     }
 
+    /**
+     * Move the long texts of this episode (description and content) from the
+     * heap to the given writer. Texts that are short or cannot be written are
+     * kept in memory.
+     * 
+     * @param writer The writer to use.
+     */
+    void storeNotes(ShowNotesStore.Writer writer) {
+        try {
+            if (description != null && description.length() >= ShowNotesStore.MIN_TEXT_LENGTH) {
+                descriptionNote = writer.write(description);
+                description = null;
+            }
+
+            if (content != null && content.length() >= ShowNotesStore.MIN_TEXT_LENGTH) {
+                contentNote = writer.write(content);
+                content = null;
+            }
+        } catch (IOException ioe) {
+            // pass, texts not written are still in memory
+        }
+    }
+
+    /**
+     * Write this episode to a podcast snapshot.
+     * 
+     * @param out The output to write to.
+     * @throws IOException If the episode cannot be written.
+     * @see #readSnapshot(Podcast, DataInput)
+     */
+    void writeSnapshot(DataOutput out) throws IOException {
+        out.writeInt(index);
+        writeString(out, name);
+        writeString(out, url);
+        writeString(out, getMediaUrl());
+        out.writeLong(pubDate);
+        out.writeInt(duration);
+        out.writeBoolean(explicit);
+        // Texts on disk are read without replacing the ones in the cache
+        writeString(out, descriptionNote == null ? description : readNote(descriptionNote, false));
+        writeString(out, contentNote == null ? content : readNote(contentNote, false));
+    }
+
+    /**
+     * Read an episode written by {@link #writeSnapshot(DataOutput)}.
+     * 
+     * @param podcast The podcast the episode belongs to.
+     * @param in The input to read from.
+     * @return The episode read.
+     * @throws IOException If the episode cannot be read.
+     */
+    static Episode readSnapshot(Podcast podcast, DataInput in) throws IOException {
+        final Episode episode = new Episode(podcast, in.readInt());
+
+        episode.name = readString(in);
+        episode.url = readString(in);
+        episode.setMediaUrl(readString(in));
+        episode.pubDate = in.readLong();
+        episode.duration = in.readInt();
+        episode.explicit = in.readBoolean();
+        episode.description = readString(in);
+        episode.content = readString(in);
+
+        return episode;
+    }
+
+    /**
+     * Set the episode's media file location, sharing its directory part with
+     * the other episodes of the podcast. Locations in a directory of their
+     * own are kept in one piece.
+     * 
+     * @param url The location to set, might be <code>null</code>.
+     */
+    private void setMediaUrl(String url) {
+        if (url == null) {
+            mediaUrlPrefix = null;
+            mediaUrlSuffix = null;
+            mediaUrlHash = 0;
+        } else {
+            // Split after the last slash in the path (not the query)
+            final int query = url.indexOf('?');
+            final int split = url.lastIndexOf('/', query < 0 ? url.length() : query) + 1;
+
+            mediaUrlPrefix = split == 0 ? null : podcast.internMediaUrlPrefix(url, split);
+            mediaUrlSuffix = mediaUrlPrefix == null ? url : url.substring(split);
+            mediaUrlHash = url.hashCode();
+        }
+    }
+
+    /**
+     * @return The shared first part of the media location, <code>null</code>
+     *         if there is none.
+     */
+    String getMediaUrlPrefix() {
+        return mediaUrlPrefix;
+    }
+
+    /**
+     * Compare the media locations of two episodes split at different
+     * positions. This is rare, so we just go through the characters.
+     */
+    private boolean sameMediaUrl(Episode another) {
+        final int length = mediaUrlLength();
+        if (length != another.mediaUrlLength())
+            return false;
+
+        for (int index = 0; index < length; index++)
+            if (mediaUrlCharAt(index) != another.mediaUrlCharAt(index))
+                return false;
+
+        return true;
+    }
+
+    private int mediaUrlLength() {
+        return (mediaUrlPrefix == null ? 0 : mediaUrlPrefix.length()) + mediaUrlSuffix.length();
+    }
+
+    private char mediaUrlCharAt(int index) {
+        final int split = mediaUrlPrefix == null ? 0 : mediaUrlPrefix.length();
+
+        return index < split ? mediaUrlPrefix.charAt(index) : mediaUrlSuffix.charAt(index - split);
+    }
+
+    private static long toTime(Date date) {
+        return date == null ? NO_PUB_DATE : date.getTime();
+    }
+
+    private static String readNote(ShowNotesStore.Note note) {
+        return readNote(note, true);
+    }
+
+    private static String readNote(ShowNotesStore.Note note, boolean keep) {
+        final ShowNotesStore store = ShowNotesStore.getInstance();
+
+        return store == null ? null : store.read(note, keep);
+    }
+
     protected int parseDuration(String durationString) {
         int result = -1;
 
@@ -293,9 +584,4 @@ public class Episode extends FeedEntity implements Comparable<Episode> {
         // Never return zero as a duration since that does not make sense.
         return result == 0 ? -1 : result;
     }
-
-    protected boolean isContentEncodedTag(XmlPullParser parser) {
-        return RSS.CONTENT_ENCODED.equals(parser.getName()) &&
-                RSS.CONTENT_NAMESPACE.equals(parser.getNamespace(parser.getPrefix()));
-    }
 }
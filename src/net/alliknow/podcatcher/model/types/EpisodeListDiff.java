@@ -0,0 +1,253 @@
+/** Copyright 2012-2014 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.types;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Describes how a podcast's episode list changed when it was last replaced,
+ * see {@link Podcast#getEpisodeListDiff()}. Episodes are matched by their
+ * media URL (see {@link Episode#equals(Object)}), an episode counts as changed
+ * if its name, publication date, duration or explicit flag differ.
+ * <p>
+ * Each replacement of the episode list increases the list's version, so
+ * listeners that keep the episodes they have seen can tell whether the diff
+ * is based on these (see {@link #getBaseVersion()}) and only apply the
+ * changes via {@link #applyTo(Collection)}. Otherwise they need to start over
+ * with {@link #getEpisodes()}. Diff objects are immutable.
+ * </p>
+ */
+public class EpisodeListDiff {
+
+    /** The version of the episode list this diff is based on */
+    private final int baseVersion;
+    /** The version of the episode list this diff results in */
+    private final int version;
+    /** The resulting episode list */
+    private final List<Episode> episodes;
+
+    /** The episodes new in the list */
+    private final List<Episode> added;
+    /** The episodes no longer in the list */
+    private final List<Episode> removed;
+    /** The changed episodes as now in the list */
+    private final List<Episode> changed;
+    /** The changed episodes as before, in the same order as above */
+    private final List<Episode> changedBefore;
+    /** Whether the resulting list is in the episodes' natural order */
+    private final boolean sorted;
+
+    private EpisodeListDiff(int baseVersion, int version, List<Episode> episodes,
+            List<Episode> added, List<Episode> removed, List<Episode> changed,
+            List<Episode> changedBefore) {
+        this.baseVersion = baseVersion;
+        this.version = version;
+        this.episodes = episodes;
+        this.added = Collections.unmodifiableList(added);
+        this.removed = Collections.unmodifiableList(removed);
+        this.changed = Collections.unmodifiableList(changed);
+        this.changedBefore = changedBefore;
+        this.sorted = isSorted(episodes);
+    }
+
+    /**
+     * Compare two episode lists.
+     * 
+     * @param baseVersion The version of the old list.
+     * @param oldEpisodes The old list.
+     * @param newEpisodes The new list, this should be immutable.
+     * @return The diff leading from the old list to the new one, its version
+     *         is the base version plus one.
+     */
+    static EpisodeListDiff compute(int baseVersion, List<Episode> oldEpisodes,
+            List<Episode> newEpisodes) {
+        final List<Episode> added = new ArrayList<>();
+        final List<Episode> removed = new ArrayList<>();
+        final List<Episode> changed = new ArrayList<>();
+        final List<Episode> changedBefore = new ArrayList<>();
+
+        // 1. Index the old episodes by media URL (episodes are equal if these
+        // are, so they can be their own keys without building the URLs)
+        final Map<Episode, Episode> oldByUrl = new HashMap<>(oldEpisodes.size() * 2);
+        for (Episode episode : oldEpisodes)
+            oldByUrl.put(episode, episode);
+
+        // 2. Match the new episodes, what is left over was removed
+        for (Episode episode : newEpisodes) {
+            final Episode before = oldByUrl.remove(episode);
+
+            if (before == null)
+                added.add(episode);
+            else if (hasChanged(before, episode)) {
+                changed.add(episode);
+                changedBefore.add(before);
+            }
+        }
+
+        for (Episode episode : oldEpisodes)
+            if (oldByUrl.containsKey(episode))
+                removed.add(episode);
+
+        return new EpisodeListDiff(baseVersion, baseVersion + 1, newEpisodes,
+                added, removed, changed, changedBefore);
+    }
+
+    /**
+     * Create the diff for the episode list resulting from dropping some of
+     * the episodes from this diff's list. The versions stay the same, the
+     * changes are still based on the same list.
+     * 
+     * @param dropped The episodes dropped (need to be the instances from
+     *            {@link #getEpisodes()}).
+     * @param newEpisodes The resulting list, this should be immutable.
+     * @return The diff leading from the base list to the new list.
+     */
+    EpisodeListDiff without(List<Episode> dropped, List<Episode> newEpisodes) {
+        final Set<Episode> droppedSet =
+                Collections.newSetFromMap(new IdentityHashMap<Episode, Boolean>());
+        droppedSet.addAll(dropped);
+
+        final List<Episode> newAdded = new ArrayList<>();
+        final List<Episode> newRemoved = new ArrayList<>(removed);
+        final List<Episode> newChanged = new ArrayList<>();
+        final List<Episode> newChangedBefore = new ArrayList<>();
+
+        // Dropped episodes we just added are simply not added, the others
+        // were in the base list and are now removed
+        for (Episode episode : added)
+            if (!droppedSet.remove(episode))
+                newAdded.add(episode);
+        for (int index = 0; index < changed.size(); index++)
+            if (droppedSet.remove(changed.get(index)))
+                newRemoved.add(changedBefore.get(index));
+            else {
+                newChanged.add(changed.get(index));
+                newChangedBefore.add(changedBefore.get(index));
+            }
+        newRemoved.addAll(droppedSet);
+
+        return new EpisodeListDiff(baseVersion, version, newEpisodes,
+                newAdded, newRemoved, newChanged, newChangedBefore);
+    }
+
+    /**
+     * @return The version of the episode list the changes are based on.
+     */
+    public int getBaseVersion() {
+        return baseVersion;
+    }
+
+    /**
+     * @return The version of the episode list the changes result in.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return The resulting episode list (immutable).
+     */
+    public List<Episode> getEpisodes() {
+        return episodes;
+    }
+
+    /**
+     * @return Whether the resulting list is sorted in the episodes' natural
+     *         order (newest first), so it can be shown without sorting it.
+     */
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    /**
+     * @return The episodes new in the list (immutable, never
+     *         <code>null</code>).
+     */
+    public List<Episode> getAdded() {
+        return added;
+    }
+
+    /**
+     * @return The episodes no longer in the list (immutable, never
+     *         <code>null</code>).
+     */
+    public List<Episode> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return The episodes changed, as now found in the list (immutable, never
+     *         <code>null</code>).
+     */
+    public List<Episode> getChanged() {
+        return changed;
+    }
+
+    /**
+     * @return Whether the list did not change at all.
+     */
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+
+    /**
+     * Apply the changes to the given collection of episodes, e.g. the
+     * episodes shown to the user. This only makes sense if the collection
+     * contains the episodes of the base version.
+     * 
+     * @param target The collection to update.
+     */
+    public void applyTo(Collection<Episode> target) {
+        // Remove first, sorted collections need the old instances for this
+        target.removeAll(removed);
+        target.removeAll(changedBefore);
+
+        target.addAll(changed);
+        target.addAll(added);
+    }
+
+    @Override
+    public String toString() {
+        return "+" + added.size() + " -" + removed.size() + " ~" + changed.size()
+                + " (v" + baseVersion + " -> v" + version + ")";
+    }
+
+    private static boolean isSorted(List<Episode> episodes) {
+        for (int index = 1; index < episodes.size(); index++)
+            if (episodes.get(index - 1).compareTo(episodes.get(index)) >= 0)
+                return false;
+
+        return true;
+    }
+
+    private static boolean hasChanged(Episode before, Episode after) {
+        return before.explicit != after.explicit || before.duration != after.duration
+                || !equal(before.name, after.name) || before.pubDate != after.pubDate;
+    }
+
+    private static boolean equal(Object one, Object another) {
+        return one == null ? another == null : one.equals(another);
+    }
+}
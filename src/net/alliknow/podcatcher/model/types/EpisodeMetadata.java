@@ -20,6 +20,7 @@ package net.alliknow.podcatcher.model.types;
 import net.alliknow.podcatcher.model.EpisodeManager;
 import net.alliknow.podcatcher.model.PodcastManager;
 
+import java.io.File;
 import java.util.Date;
 
 /**
@@ -63,6 +64,9 @@ public class EpisodeMetadata {
     /** The episode description for this metadata */
     public String episodeDescription;
 
+    /** The file at the file path, kept to check for it without new objects */
+    private File file;
+
     /**
      * @return Whether the metadata is actually need because it has any data.
      */
@@ -85,6 +89,26 @@ public class EpisodeMetadata {
                 playlistPosition == null;
     }
 
+    /**
+     * Check whether the file at {@link #filePath} exists. Checking again for
+     * the same path does not create any objects.
+     * 
+     * @return Whether there is a file path and the file is available.
+     */
+    public boolean isFileAvailable() {
+        final String path = filePath;
+        if (path == null)
+            return false;
+
+        File file = this.file;
+        if (file == null || !path.equals(file.getPath())) {
+            file = new File(path);
+            this.file = file;
+        }
+
+        return file.exists();
+    }
+
     /**
      * Create an actual episode object from the metadata.
      * 
@@ -0,0 +1,174 @@
+/** Copyright 2012-2014 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.types;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+/**
+ * An order for episodes defined by a 64-bit key per episode: episodes with
+ * smaller keys come first. Episodes with equal keys fall back to their natural
+ * (newest first) order, so the order is consistent with equals and can be used
+ * for sorted sets. Sub-classes only need to define the key.
+ * 
+ * @see Episode#getSortKey()
+ */
+public abstract class EpisodeOrder implements Comparator<Episode> {
+
+    /** The natural order, newest episodes first */
+    public static final EpisodeOrder NEWEST_FIRST = new EpisodeOrder() {
+
+        @Override
+        protected long getKey(Episode episode) {
+            return episode.getSortKey();
+        }
+    };
+
+    /** Oldest episodes first, the ones without a date last */
+    public static final EpisodeOrder OLDEST_FIRST = new EpisodeOrder() {
+
+        @Override
+        protected long getKey(Episode episode) {
+            return episode.hasPubDate() ? episode.pubDate : Long.MAX_VALUE;
+        }
+    };
+
+    /** Shortest episodes first, the ones without a duration last */
+    public static final EpisodeOrder SHORTEST_FIRST = new EpisodeOrder() {
+
+        @Override
+        protected long getKey(Episode episode) {
+            return episode.duration > 0 ? episode.duration : Long.MAX_VALUE;
+        }
+    };
+
+    /**
+     * Create an order that has the episodes in the same order as the given
+     * list. Episodes not in the list come last.
+     * 
+     * @param episodes The episodes in the order wanted.
+     * @return The order.
+     */
+    public static EpisodeOrder byPosition(List<Episode> episodes) {
+        final Map<Episode, Integer> positions = new HashMap<>(episodes.size() * 2);
+        for (Episode episode : episodes)
+            if (!positions.containsKey(episode))
+                positions.put(episode, positions.size());
+
+        return new EpisodeOrder() {
+
+            @Override
+            protected long getKey(Episode episode) {
+                final Integer position = positions.get(episode);
+
+                return position == null ? Long.MAX_VALUE : position;
+            }
+        };
+    }
+
+    /**
+     * Create an order that groups the episodes by podcast, with the podcasts
+     * in the order given. The episodes of each podcast are newest first.
+     * Episodes of podcasts not in the list come last.
+     * 
+     * @param podcasts The podcasts in the order wanted.
+     * @return The order.
+     */
+    public static EpisodeOrder byPodcast(List<Podcast> podcasts) {
+        final Map<Podcast, Integer> positions = new HashMap<>(podcasts.size() * 2);
+        for (Podcast podcast : podcasts)
+            if (!positions.containsKey(podcast))
+                positions.put(podcast, positions.size());
+
+        return new EpisodeOrder() {
+
+            @Override
+            protected long getKey(Episode episode) {
+                final Integer position = positions.get(episode.getPodcast());
+
+                return position == null ? Long.MAX_VALUE : position;
+            }
+        };
+    }
+
+    /**
+     * Get the key of the given episode in this order. Episodes with smaller
+     * keys come first.
+     * 
+     * @param episode The episode to get the key for.
+     * @return The episode's key.
+     */
+    protected abstract long getKey(Episode episode);
+
+    @Override
+    public final int compare(Episode one, Episode another) {
+        final long key = getKey(one);
+        final long anotherKey = getKey(another);
+
+        return key == anotherKey ? one.compareTo(another) : key < anotherKey ? -1 : 1;
+    }
+
+    /**
+     * Sort the given list in this order. Other than
+     * {@link java.util.Collections#sort(List, Comparator)} this only gets the
+     * key of each episode once.
+     * 
+     * @param episodes The list to sort.
+     */
+    public void sort(List<Episode> episodes) {
+        // 1. Get all the keys
+        final KeyedEpisode[] keyed = new KeyedEpisode[episodes.size()];
+        int index = 0;
+        for (Episode episode : episodes)
+            keyed[index++] = new KeyedEpisode(getKey(episode), episode);
+
+        // 2. Sort by them
+        Arrays.sort(keyed);
+
+        // 3. Write the episodes back
+        final ListIterator<Episode> iterator = episodes.listIterator();
+        for (KeyedEpisode entry : keyed) {
+            iterator.next();
+            iterator.set(entry.episode);
+        }
+    }
+
+    /** An episode together with its key */
+    private static class KeyedEpisode implements Comparable<KeyedEpisode> {
+
+        /** The key */
+        private final long key;
+        /** The episode */
+        private final Episode episode;
+
+        private KeyedEpisode(long key, Episode episode) {
+            this.key = key;
+            this.episode = episode;
+        }
+
+        @Override
+        public int compareTo(KeyedEpisode another) {
+            return key == another.key ? episode.compareTo(another.episode)
+                    : key < another.key ? -1 : 1;
+        }
+    }
+}
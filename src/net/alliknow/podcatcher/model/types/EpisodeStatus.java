@@ -0,0 +1,54 @@
+/** Copyright 2012-2014 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.types;
+
+import net.alliknow.podcatcher.model.EpisodeManager;
+
+/**
+ * A snapshot of the user related state of an episode as needed to show it in
+ * a list, filled in one go by
+ * {@link EpisodeManager#getStatus(Episode, EpisodeStatus)}. Instances are
+ * meant to be re-used, so showing an episode does not create any objects.
+ */
+public class EpisodeStatus {
+
+    /** Whether the episode is marked old */
+    public boolean isOld;
+    /** Whether the episode is downloading */
+    public boolean isDownloading;
+    /** Whether the episode is downloaded and the file is available */
+    public boolean isDownloaded;
+    /** The download progress in percent, -1 if not available */
+    public int downloadProgress = -1;
+    /** The time in millis to resume playback at, zero if not set */
+    public int resumeAt;
+    /** The playlist position (starting at 0), -1 if not in the playlist */
+    public int playlistPosition = -1;
+
+    /**
+     * Reset all fields to the state of an episode the user never touched.
+     */
+    public void clear() {
+        isOld = false;
+        isDownloading = false;
+        isDownloaded = false;
+        downloadProgress = -1;
+        resumeAt = 0;
+        playlistPosition = -1;
+    }
+}
@@ -17,12 +17,14 @@
 
 package net.alliknow.podcatcher.model.types;
 
+import net.alliknow.podcatcher.model.DateParser;
+import net.alliknow.podcatcher.model.UrlNormalizer;
 import net.alliknow.podcatcher.model.tags.RSS;
 
-import java.net.MalformedURLException;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.net.URL;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -35,18 +37,32 @@ import java.util.Locale;
  */
 public abstract class FeedEntity {
 
-    /** The date format used by RSS feeds */
-    private static final String DATE_FORMAT_TEMPLATE = "EEE, dd MMM yy HH:mm:ss zzz";
-    /** Our formatter used when reading the episode item's date string */
-    private static final SimpleDateFormat DATE_FORMATTER =
-            new SimpleDateFormat(DATE_FORMAT_TEMPLATE, Locale.US);
     /**
-     * The alternative date formats supported because they are used by some
-     * feeds, these are all tried in the given order if the default fails
+     * The date formats used if the {@link DateParser} fails, these are all
+     * tried in the given order.
      */
-    private static final String[] DATE_FORMAT_TEMPLATE_ALTERNATIVES = {
-            "EEE, dd MMM yy", "yy-MM-dd"
+    private static final String[] DATE_FORMAT_TEMPLATES = {
+            "EEE, dd MMM yy HH:mm:ss zzz", "EEE, dd MMM yy", "yy-MM-dd"
     };
+    /** Our formatters for the above, SimpleDateFormat is not thread safe */
+    private static final ThreadLocal<SimpleDateFormat[]> DATE_FORMATTERS =
+            new ThreadLocal<SimpleDateFormat[]>() {
+
+                @Override
+                protected SimpleDateFormat[] initialValue() {
+                    final SimpleDateFormat[] formatters =
+                            new SimpleDateFormat[DATE_FORMAT_TEMPLATES.length];
+
+                    for (int index = 0; index < formatters.length; index++)
+                        formatters[index] =
+                                new SimpleDateFormat(DATE_FORMAT_TEMPLATES[index], Locale.US);
+
+                    return formatters;
+                }
+            };
+
+    /** The encoding used for strings in snapshots */
+    private static final Charset SNAPSHOT_ENCODING = Charset.forName("UTF-8");
 
     /** Name of the entity */
     protected String name;
@@ -95,37 +111,10 @@ public abstract class FeedEntity {
      * @return The same URL string with unchanged semantics, but normalized
      *         syntax. When not a valid URL or <code>null</code>, the string
      *         given is returned unaltered.
+     * @see UrlNormalizer
      */
     protected String normalizeUrl(final String spec) {
-        try {
-            // Trim white spaces, normalize path, throw exception if mal-formed
-            final URL url = new URI(spec.trim()).normalize().toURL();
-
-            // Make sure protocol and server are lower case
-            final String scheme = url.getProtocol().toLowerCase(Locale.US);
-            final String host = url.getHost().toLowerCase(Locale.US);
-
-            // Normalize path to be at least "/"
-            String path = url.getPath();
-            if (path == null || path.isEmpty())
-                path = "/";
-            else if (path.length() > 1 && path.endsWith("/"))
-                path = path.substring(0, path.length() - 1);
-
-            // Look at ports and only keep non-defaults
-            boolean needsPort = url.getPort() != -1;
-            if ((scheme.equals("http") && url.getPort() == 80)
-                    || (scheme.equals("https") && url.getPort() == 443))
-                needsPort = false;
-
-            // Reconstruct the string
-            return scheme + "://" + host + (needsPort ? ":" + url.getPort() : "")
-                    + path + (url.getQuery() == null ? "" : "?" + url.getQuery());
-        } catch (MalformedURLException | NullPointerException | URISyntaxException
-                | IllegalArgumentException e) {
-            // We simply return the original string
-            return spec;
-        }
+        return UrlNormalizer.normalize(spec);
     }
 
     /**
@@ -146,25 +135,64 @@ public abstract class FeedEntity {
      * 
      * @param dateString The string from the RSS/XML feed to parse.
      * @return The date or <code>null</code> if the string could not be parsed.
+     * @see DateParser
      */
     protected Date parseDate(String dateString) {
-        try {
-            // SimpleDateFormat is not thread safe
-            synchronized (DATE_FORMATTER) {
-                return DATE_FORMATTER.parse(dateString);
-            }
-        } catch (ParseException e) {
-            // The default format is not available, try all the other formats we
-            // support...
-            for (String format : DATE_FORMAT_TEMPLATE_ALTERNATIVES)
+        final long time = DateParser.parse(dateString);
+
+        if (time != DateParser.INVALID)
+            return new Date(time);
+        else if (dateString != null)
+            // The string is in a format the parser does not know, try all the
+            // other formats we support...
+            for (SimpleDateFormat formatter : DATE_FORMATTERS.get())
                 try {
-                    return new SimpleDateFormat(format, Locale.US).parse(dateString);
-                } catch (ParseException e1) {
+                    return formatter.parse(dateString);
+                } catch (ParseException e) {
                     // Does not fit the format, pass and try next
                 }
-        }
 
         // None of the formats matched
         return null;
     }
+
+    /**
+     * Write a string to a snapshot. Unlike {@link DataOutput#writeUTF(String)}
+     * this allows for <code>null</code> and strings of any length.
+     * 
+     * @param out The output to write to.
+     * @param value The string to write, might be <code>null</code>.
+     * @throws IOException If the string cannot be written.
+     * @see #readString(DataInput)
+     */
+    protected static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null)
+            out.writeInt(-1);
+        else {
+            final byte[] bytes = value.getBytes(SNAPSHOT_ENCODING);
+
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Read a string written by {@link #writeString(DataOutput, String)}.
+     * 
+     * @param in The input to read from.
+     * @return The string, might be <code>null</code>.
+     * @throws IOException If the string cannot be read.
+     */
+    protected static String readString(DataInput in) throws IOException {
+        final int length = in.readInt();
+
+        if (length < 0)
+            return null;
+        else {
+            final byte[] bytes = new byte[length];
+            in.readFully(bytes);
+
+            return new String(bytes, SNAPSHOT_ENCODING);
+        }
+    }
 }
@@ -19,22 +19,37 @@ package net.alliknow.podcatcher.model.types;
 
 import android.graphics.Bitmap;
 import android.net.Uri;
-import android.text.Html;
 import android.util.Base64;
 
+import net.alliknow.podcatcher.model.HtmlDecoder;
+import net.alliknow.podcatcher.model.LogoCache;
 import net.alliknow.podcatcher.model.ParserUtils;
+import net.alliknow.podcatcher.model.ShowNotesStore;
+import net.alliknow.podcatcher.model.UrlNormalizer;
 import net.alliknow.podcatcher.model.tags.RSS;
+import net.alliknow.podcatcher.model.tags.TagTable;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * The podcast type. This represents the most important type in the podcatcher
@@ -60,9 +75,65 @@ import java.util.Locale;
  * {@link #isLogoCached()} to find the current state, {@link #getLogo()} will
  * return an immutable copy.
  * </p>
+ * <p>
+ * <b>Episode window:</b> Some feeds list thousands of episodes. Use
+ * {@link #setEpisodeWindow(int, int)} to only keep the newest episodes (by
+ * count and/or age). The parser does not create episodes past the window and
+ * stops reading if the feed is sorted. {@link #hasOlderEpisodes()} tells
+ * whether there is more and {@link #extendEpisodeWindow()} makes the next
+ * parse include another page of older episodes.
+ * </p>
+ * <p>
+ * <b>Episode list:</b> The episode list is immutable and replaced as a whole
+ * once a parse succeeds, so readers on other threads never see it half-built.
+ * Each replacement comes with an {@link EpisodeListDiff} describing the
+ * changes, see {@link #getEpisodeListDiff()}.
+ * </p>
  */
 public class Podcast extends FeedEntity implements Comparable<Podcast> {
 
+    /** The number of recent episodes used to estimate the publishing interval */
+    private static final int CADENCE_EPISODES = 10;
+    /** Episodes published closer together are considered one release */
+    private static final long MIN_RELEASE_GAP = 60 * 1000;
+
+    /** Tag id for the title tag */
+    private static final int TITLE = 0;
+    /** Tag id for the explicit tag */
+    private static final int EXPLICIT = 1;
+    /** Tag id for the image tag */
+    private static final int IMAGE = 2;
+    /** Tag id for the thumbnail tag */
+    private static final int THUMBNAIL = 3;
+    /** Tag id for the item tag */
+    private static final int ITEM = 4;
+    /** Tag id for the channel tag */
+    private static final int CHANNEL = 5;
+    /** Tag id for the (media) group tag */
+    private static final int GROUP = 6;
+    /** The tags we read from the feed, in the order of the ids above */
+    private static final TagTable TAGS = new TagTable(RSS.TITLE, RSS.EXPLICIT,
+            RSS.IMAGE, RSS.THUMBNAIL, RSS.ITEM, RSS.CHANNEL, RSS.GROUP);
+
+    /**
+     * Tells {@link Podcast#parse(XmlPullParser, boolean, FeedCheck)} whether
+     * the feed it just read to the end is the one the current content was
+     * parsed from.
+     */
+    public static interface FeedCheck {
+
+        /**
+         * Called once the parser reached the end of the feed, before the new
+         * content replaces the current one. Not called if the parser stopped
+         * early.
+         * 
+         * @return Whether the feed did not change. The new content is dropped
+         *         then and the podcast stays as it is.
+         * @throws IOException If the feed cannot be read to its end.
+         */
+        public boolean isUnchanged() throws IOException;
+    }
+
     /** Broadcast language */
     protected Language language;
     /** Podcast genre */
@@ -72,21 +143,54 @@ public class Podcast extends FeedEntity implements Comparable<Podcast> {
 
     /** The podcast's image (logo) location */
     protected String logoUrl;
-    /** The cached logo bitmap */
-    protected Bitmap logo;
 
     /** Username for http authorization */
     protected String username;
     /** Password for http authorization */
     protected String password;
 
+    /** The entity tag the server sent with the feed last time */
+    protected String etag;
+    /** The last modified date the server sent with the feed last time */
+    protected String lastModified;
+    /** The checksum of the feed file parsed last time, zero if unknown */
+    protected long contentFingerprint;
+
     /** The point in time when the RSS file as last been set */
     protected Date lastLoaded;
-    /** The podcasts list of episodes */
-    protected List<Episode> episodes = new ArrayList<>();
+    /** The podcasts list of episodes (immutable, only ever replaced) */
+    protected volatile List<Episode> episodes = Collections.emptyList();
+    /** The changes made by the last replacement of the episode list */
+    private volatile EpisodeListDiff episodeListDiff;
+    /**
+     * The distinct directory parts of the episodes' media locations, only
+     * the ones shared by the current episode list are kept
+     */
+    private final Map<String, String> mediaUrlPrefixes = new HashMap<>();
 
     /** The count of failed load attempts */
     private int failedLoadAttempts = 0;
+    /** The count of loads in a row that did not bring new episodes */
+    private int unchangedLoadCount = 0;
+    /** The typical time between two episodes (in millis), -1 if unknown */
+    private long publishingInterval = -1;
+    /** The publication date of the newest episode (if any) */
+    private Date latestPubDate;
+
+    /** The maximum number of episodes to keep, 0 for no limit */
+    private int episodeLimit = 0;
+    /** The maximum age of the episodes to keep in months, 0 for no limit */
+    private int episodeMonths = 0;
+    /** The number of pages of older episodes added to the window */
+    private int olderPageCount = 0;
+    /** Whether the last parse found feed items past the episode window */
+    private boolean hasOlderEpisodes = false;
+    /** Whether the last parse changed the content */
+    private boolean contentChanged = false;
+    /** Parsing and restoring snapshots never run at the same time */
+    private final Object contentLock = new Object();
+    /** The id to name the podcast's files by, created when needed */
+    private String fileId;
 
     /**
      * Create a new podcast by name and RSS file location. The name will not be
@@ -182,13 +286,21 @@ public class Podcast extends FeedEntity implements Comparable<Podcast> {
      * <code>null</code> but an empty list when encountering problems. Set and
      * parse the RSS file before expecting any results.
      * 
-     * @return The list of episodes as listed in the feed.
+     * @return The list of episodes as listed in the feed. The list is
+     *         immutable and will not change, parsing replaces it.
      * @see #parse(XmlPullParser)
      */
     public List<Episode> getEpisodes() {
-        // Need to return a copy, so nobody can change this on us and changes
-        // made in the model do not make problems in the UI
-        return new ArrayList<>(episodes);
+        // No need to copy, nobody can change this on us
+        return episodes;
+    }
+
+    /**
+     * @return The changes made to the episode list when it was last replaced
+     *         or <code>null</code> if this never happened.
+     */
+    public EpisodeListDiff getEpisodeListDiff() {
+        return episodeListDiff;
     }
 
     /**
@@ -198,14 +310,22 @@ public class Podcast extends FeedEntity implements Comparable<Podcast> {
      * 
      * @return The number of clean episodes left.
      */
-    public int removeExplicitEpisodes() {
-        Iterator<Episode> episodeIterator = episodes.iterator();
-
-        while (episodeIterator.hasNext()) {
-            final Episode episode = episodeIterator.next();
+    public synchronized int removeExplicitEpisodes() {
+        final List<Episode> cleanEpisodes = new ArrayList<>(episodes.size());
+        final List<Episode> explicitEpisodes = new ArrayList<>();
 
+        for (Episode episode : episodes)
             if (episode.isExplicit())
-                episodeIterator.remove();
+                explicitEpisodes.add(episode);
+            else
+                cleanEpisodes.add(episode);
+
+        // The diff is still based on the list before the last parse
+        if (!explicitEpisodes.isEmpty()) {
+            final List<Episode> published = Collections.unmodifiableList(cleanEpisodes);
+
+            episodeListDiff = episodeListDiff.without(explicitEpisodes, published);
+            episodes = published;
         }
 
         return episodes.size();
@@ -219,6 +339,69 @@ public class Podcast extends FeedEntity implements Comparable<Podcast> {
         return episodes.size();
     }
 
+    /**
+     * Limit the episodes kept for this podcast to the newest ones. Items past
+     * this window are not turned into episodes on {@link #parse(XmlPullParser)}
+     * , so memory use and parse time depend on the window rather than the
+     * feed size. Setting the window resets any extension made via
+     * {@link #extendEpisodeWindow()}. Takes effect on the next parse.
+     * 
+     * @param limit The maximum number of episodes to keep, give 0 (zero) for
+     *            no limit.
+     * @param months The maximum age of the episodes to keep in months, give 0
+     *            (zero) for no limit.
+     */
+    public void setEpisodeWindow(int limit, int months) {
+        this.episodeLimit = Math.max(0, limit);
+        this.episodeMonths = Math.max(0, months);
+        this.olderPageCount = 0;
+    }
+
+    /**
+     * @return The maximum number of episodes to keep, 0 (zero) if there is no
+     *         limit.
+     * @see #setEpisodeWindow(int, int)
+     */
+    public int getEpisodeLimit() {
+        return episodeLimit;
+    }
+
+    /**
+     * @return The maximum age of the episodes to keep in months, 0 (zero) if
+     *         there is no limit.
+     * @see #setEpisodeWindow(int, int)
+     */
+    public int getEpisodeMonths() {
+        return episodeMonths;
+    }
+
+    /**
+     * @return Whether an episode window is set for this podcast.
+     * @see #setEpisodeWindow(int, int)
+     */
+    public boolean hasEpisodeWindow() {
+        return episodeLimit > 0 || episodeMonths > 0;
+    }
+
+    /**
+     * @return Whether the feed has items past the episode window that are not
+     *         available via {@link #getEpisodes()}.
+     */
+    public boolean hasOlderEpisodes() {
+        return hasOlderEpisodes;
+    }
+
+    /**
+     * Add another page of older episodes to the window, i.e. as many episodes
+     * (or months) as the window itself covers. Takes effect on the next parse,
+     * which should not be incremental.
+     * 
+     * @see #parse(XmlPullParser, boolean)
+     */
+    public void extendEpisodeWindow() {
+        olderPageCount++;
+    }
+
     /**
      * Find and return the podcast's image location (logo).
      * 
@@ -230,13 +413,33 @@ public class Podcast extends FeedEntity implements Comparable<Podcast> {
     }
 
     /**
-     * Get a cached logo for this podcast.
+     * Get a cached logo for this podcast. Logos live in the {@link LogoCache}
+     * and might have been evicted from there since they were set.
      * 
      * @return The cached logo if it was previously set using
-     *         {@link #setLogo(Bitmap)}, <code>null</code> otherwise.
+     *         {@link #setLogo(Bitmap)}, <code>null</code> otherwise. The
+     *         bitmap is shared, do not modify or recycle it.
      */
     public Bitmap getLogo() {
-        return logo == null ? null : Bitmap.createBitmap(logo);
+        final LogoCache cache = LogoCache.getInstance();
+
+        return cache == null || url == null ? null : cache.get(url);
+    }
+
+    /**
+     * Get a cached logo for this podcast scaled to the given size.
+     * 
+     * @param width The width in pixels.
+     * @param height The height in pixels.
+     * @return The cached logo at the size requested or <code>null</code> if
+     *         not available. The bitmap is shared, do not modify or recycle
+     *         it.
+     * @see #getLogo()
+     */
+    public Bitmap getLogo(int width, int height) {
+        final LogoCache cache = LogoCache.getInstance();
+
+        return cache == null || url == null ? null : cache.get(url, width, height);
     }
 
     /**
@@ -244,7 +447,9 @@ public class Podcast extends FeedEntity implements Comparable<Podcast> {
      *         {@link #getLogo()}.
      */
     public boolean isLogoCached() {
-        return logo != null;
+        final LogoCache cache = LogoCache.getInstance();
+
+        return cache != null && url != null && cache.contains(url);
     }
 
     /**
@@ -253,7 +458,10 @@ public class Podcast extends FeedEntity implements Comparable<Podcast> {
      * @param logo Logo to use for this podcast.
      */
     public void setLogo(Bitmap logo) {
-        this.logo = logo;
+        final LogoCache cache = LogoCache.getInstance();
+
+        if (cache != null && url != null)
+            cache.put(url, logo);
     }
 
     /**
@@ -264,6 +472,139 @@ public class Podcast extends FeedEntity implements Comparable<Podcast> {
         return lastLoaded == null ? null : new Date(lastLoaded.getTime());
     }
 
+    /**
+     * @return Whether the last successful call to
+     *         {@link #parse(XmlPullParser, boolean)} changed the podcast's
+     *         name, logo location, explicit flag or episodes (as compared by
+     *         {@link EpisodeListDiff}). If not, there is no need to store the
+     *         content again.
+     */
+    public boolean hasContentChanged() {
+        return contentChanged;
+    }
+
+    /**
+     * @return An id to name files for this podcast by (e.g. snapshots). This
+     *         is the hex SHA-1 digest of the feed URL, so unlike the URL's
+     *         hash code it is unique among podcasts in practice.
+     */
+    public synchronized String getFileId() {
+        if (fileId == null)
+            try {
+                final byte[] bytes = MessageDigest.getInstance("SHA-1").digest(
+                        url.getBytes(Charset.forName("UTF-8")));
+
+                final StringBuilder id = new StringBuilder(bytes.length * 2);
+                for (byte b : bytes)
+                    id.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
+
+                fileId = id.toString();
+            } catch (NoSuchAlgorithmException e) {
+                // Every platform has SHA-1, this is as unique as the URL
+                fileId = Uri.encode(url);
+            }
+
+        return fileId;
+    }
+
+    /**
+     * @return The entity tag (ETag) the server sent along with the feed file
+     *         the last time it was loaded or <code>null</code> if unknown.
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * @return The last modified date (as sent by the server, not parsed) for
+     *         the feed file the last time it was loaded or <code>null</code>
+     *         if unknown.
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Set the cache validators for the podcast's feed file. These are send to
+     * the server when the podcast is reloaded and allow it to respond with
+     * "304 Not Modified" instead of sending the complete file again.
+     * 
+     * @param etag The ETag header value to use, give <code>null</code> to
+     *            reset.
+     * @param lastModified The Last-Modified header value to use, give
+     *            <code>null</code> to reset.
+     * @return Whether any of the validators actually changed.
+     */
+    public boolean setCacheValidators(String etag, String lastModified) {
+        final boolean changed = !(etag == null ? this.etag == null : etag.equals(this.etag))
+                || !(lastModified == null ? this.lastModified == null :
+                        lastModified.equals(this.lastModified));
+
+        this.etag = etag;
+        this.lastModified = lastModified;
+
+        return changed;
+    }
+
+    /**
+     * @return The checksum of the feed file the podcast content was last
+     *         parsed from or zero if unknown.
+     */
+    public long getContentFingerprint() {
+        return contentFingerprint;
+    }
+
+    /**
+     * Set the checksum of the feed file the podcast content was parsed from.
+     * Use this after calling {@link #parse(XmlPullParser)} to be able to tell
+     * whether the file changed next time.
+     * 
+     * @param fingerprint The checksum, give zero if unknown.
+     */
+    public void setContentFingerprint(long fingerprint) {
+        this.contentFingerprint = fingerprint;
+    }
+
+    /**
+     * Mark the podcast as freshly loaded without any changes to its content.
+     * Use this if the server confirmed the feed did not change since the last
+     * call to {@link #parse(XmlPullParser)}. Has no effect if the podcast was
+     * never parsed.
+     */
+    public void markUnchanged() {
+        if (lastLoaded != null) {
+            lastLoaded = new Date();
+            unchangedLoadCount++;
+        }
+    }
+
+    /**
+     * @return The number of loads in a row that did not find any new
+     *         episodes (including loads the server answered with
+     *         "304 Not Modified").
+     */
+    public int getUnchangedLoadCount() {
+        return unchangedLoadCount;
+    }
+
+    /**
+     * @return The typical time between two episodes of this podcast in
+     *         milliseconds, estimated from the publication dates of the most
+     *         recent episodes. Returns -1 if the podcast is not loaded or has
+     *         too few dated episodes.
+     */
+    public long getPublishingInterval() {
+        return publishingInterval;
+    }
+
+    /**
+     * @return The publication date of the newest episode or <code>null</code>
+     *         if not available.
+     */
+    public Date getLatestPubDate() {
+        return latestPubDate == null ? null : new Date(latestPubDate.getTime());
+    }
+
     /**
      * Reset the failed count to zero.
      */
@@ -356,69 +697,474 @@ public class Podcast extends FeedEntity implements Comparable<Podcast> {
     /**
      * Set the RSS file parser representing this podcast. This is were the
      * object gets its information from. Many of its methods will not return
-     * valid results unless this method was called. Calling this method resets
+     * valid results unless this method was called. Calling this method replaces
      * all episode information that might have been read earlier, other meta
      * data is preserved and will only change if the feed has actually changed.
-     * Episode information is preserved, however, if parsing actually fails. In
-     * this case the episode list will not be altered.
+     * Episode information is preserved, however, if parsing (or reading the
+     * underlying stream) actually fails. In this case the episode list will not
+     * be altered.
      * 
      * @param parser Parser used to read the RSS/XML file.
      * @throws IOException If we encounter problems read the file.
      * @throws XmlPullParserException On parsing errors.
+     * @see #parse(XmlPullParser, boolean)
      */
     public void parse(XmlPullParser parser) throws XmlPullParserException, IOException {
-        // Keep temp list of old episodes is case of errors (disabled for now,
-        // because this doubles our memory needs and crashes the app at times)
-        // final List<Episode> oldEpisodes = new ArrayList<>(episodes);
+        parse(parser, false);
+    }
 
-        // Reset state
-        episodes.clear();
+    /**
+     * Set the RSS file parser representing this podcast, see
+     * {@link #parse(XmlPullParser)}. If the incremental flag is set and the
+     * current episode list is sorted newest-first by publication date, parsing
+     * stops at the feed item matching the current newest episode (by media
+     * URL). The new episodes found so far are then put in front of the episodes
+     * already present, which are taken over without reading the rest of the
+     * feed. Changes made to these older items are therefore <em>not</em>
+     * picked up. If the feed items cannot be trusted to be in the same order
+     * (e.g. the known newest episode is not the first known item in the feed
+     * or new items are not newer), the complete feed is parsed as usual.
+     * <p>
+     * Items past the episode window are never turned into episodes, parsing
+     * stops there if the feed is sorted newest-first.
+     * </p>
+     * 
+     * @param parser Parser used to read the RSS/XML file.
+     * @param incremental Whether we may stop at the first known episode.
+     * @return The number of episodes taken over from the current list without
+     *         parsing them, this is always zero for a full parse.
+     * @throws IOException If we encounter problems read the file.
+     * @throws XmlPullParserException On parsing errors.
+     */
+    public int parse(XmlPullParser parser, boolean incremental)
+            throws XmlPullParserException, IOException {
+        return parse(parser, incremental, null);
+    }
+
+    /**
+     * Set the RSS file parser representing this podcast, see
+     * {@link #parse(XmlPullParser, boolean)}. Once the parser reached the end
+     * of the feed, the check given decides whether the new content is taken
+     * over. Use this to parse the feed while it is loaded and still drop the
+     * result if the feed turns out to be the same as last time.
+     * 
+     * @param parser Parser used to read the RSS/XML file.
+     * @param incremental Whether we may stop at the first known episode.
+     * @param check The check to run before the content is replaced, give
+     *            <code>null</code> to always take it over.
+     * @return The number of episodes taken over from the current list without
+     *         parsing them, this is always zero for a full parse and if the
+     *         check found the feed unchanged.
+     * @throws IOException If we encounter problems read the file.
+     * @throws XmlPullParserException On parsing errors.
+     */
+    public int parse(XmlPullParser parser, boolean incremental, FeedCheck check)
+            throws XmlPullParserException, IOException {
+        synchronized (contentLock) {
+            return parseContent(parser, incremental, check);
+        }
+    }
+
+    private int parseContent(XmlPullParser parser, boolean incremental, FeedCheck check)
+            throws XmlPullParserException, IOException {
+        // The header information we have now, to tell whether it changed
+        final String knownName = name;
+        final String knownLogoUrl = logoUrl;
+        final boolean knownExplicit = explicit;
+        // The parser might be fed directly from the network, so failures
+        // half-way through are not unusual. We therefore build the new episode
+        // list on the side and only replace the current one on success.
+        final List<Episode> newEpisodes = new ArrayList<>();
+        // The episodes we already know, only used if we can stop early
+        final List<Episode> knownEpisodes = episodes;
+        // Long episode texts go to disk (if possible), this might require us
+        // to write all texts again and thus to not stop early
+        final ShowNotesStore notesStore = ShowNotesStore.getInstance();
+        final ShowNotesStore.Writer notesWriter =
+                notesStore == null ? null : notesStore.openWriter(this);
+        final boolean mayStopEarly = incremental && lastLoaded != null
+                && (notesWriter == null || !notesWriter.needsAllTexts())
+                && isSortedNewestFirst(knownEpisodes);
+        // The first feed item matching our current newest episode
+        Episode firstKnownEpisode = null;
+        // The episode window, we do not create episodes past it
+        final int pages = olderPageCount + 1;
+        final int maxEpisodes = episodeLimit == 0 ? Integer.MAX_VALUE
+                : (int) Math.min(Integer.MAX_VALUE, (long) episodeLimit * pages);
+        final int trimSize = maxEpisodes > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE
+                : maxEpisodes * 2;
+        final long cutoff = getWindowCutoff(pages);
+        // Whether there are feed items past the window
+        boolean olderFound = false;
+        // Whether all the remaining feed items are past the window
+        boolean windowReached = false;
 
         try {
             // Start parsing
             int eventType = parser.next();
             int episodeIndex = 0;
+            // Whether the new items are newest-first as well
+            boolean newEpisodesSorted = true;
 
-            // Read complete document
-            while (eventType != XmlPullParser.END_DOCUMENT) {
+            // Read complete document (or until we reach known items or the
+            // end of the episode window)
+            while (eventType != XmlPullParser.END_DOCUMENT && firstKnownEpisode == null
+                    && !windowReached) {
                 // We only need start tags here
-                if (eventType == XmlPullParser.START_TAG) {
-                    String tagName = parser.getName();
-
-                    // Podcast name found and not set yet
-                    if (tagName.equalsIgnoreCase(RSS.TITLE) && name == null)
-                        name = Html.fromHtml(parser.nextText().trim()).toString();
-                    // Explicit info found
-                    else if (tagName.equalsIgnoreCase(RSS.EXPLICIT))
-                        explicit = parseExplicit(parser.nextText());
-                    // Image found
-                    else if (tagName.equalsIgnoreCase(RSS.IMAGE))
-                        parseLogo(parser);
-                    // Thumbnail found (used by some podcast instead of image)
-                    else if (tagName.equalsIgnoreCase(RSS.THUMBNAIL) && logoUrl == null)
-                        logoUrl = parser.getAttributeValue("", RSS.URL);
-                    // Episode found
-                    else if (tagName.equalsIgnoreCase(RSS.ITEM))
-                        parseEpisode(parser, episodeIndex++);
+                if (eventType == XmlPullParser.START_TAG)
+                    switch (TAGS.lookup(parser)) {
+                        case TITLE:
+                            // Podcast name found and not set yet
+                            if (name == null)
+                                name = HtmlDecoder.decode(parser.nextText().trim());
+                            break;
+                        case EXPLICIT:
+                            // Explicit info found
+                            explicit = parseExplicit(parser.nextText());
+                            break;
+                        case IMAGE:
+                            // Image found
+                            parseLogo(parser);
+                            break;
+                        case THUMBNAIL:
+                            // Thumbnail found (used by some podcast instead of
+                            // image)
+                            if (logoUrl == null)
+                                logoUrl = parser.getAttributeValue("", RSS.URL);
+                            break;
+                        case ITEM:
+                            // Window is full and the rest of the feed is older
+                            if (newEpisodes.size() >= maxEpisodes && newEpisodesSorted) {
+                                olderFound = windowReached = true;
+                                break;
+                            }
+
+                            // Episode found
+                            final Episode episode = parseEpisode(parser, episodeIndex++);
+
+                            if (episode != null) {
+                                final int size = newEpisodes.size();
+                                final boolean sorted = newEpisodesSorted
+                                        && episode.hasPubDate()
+                                        && (size == 0 || episode.pubDate
+                                                <= newEpisodes.get(size - 1).pubDate);
+
+                                // Check whether we have reached the part of the
+                                // feed we already know and can stop here
+                                if (mayStopEarly && sorted
+                                        && isFirstKnownEpisode(episode, knownEpisodes,
+                                                newEpisodes))
+                                    firstKnownEpisode = episode;
+                                // Too old for the window, so is the rest of
+                                // the feed if it is sorted
+                                else if (episode.hasPubDate() && episode.pubDate < cutoff) {
+                                    olderFound = true;
+                                    windowReached = sorted;
+                                } else {
+                                    newEpisodesSorted = sorted;
+                                    newEpisodes.add(episode);
+
+                                    if (notesWriter != null)
+                                        episode.storeNotes(notesWriter);
+
+                                    // Unsorted feeds need to be read completely,
+                                    // keep only the newest episodes meanwhile
+                                    if (newEpisodes.size() >= trimSize) {
+                                        trimToNewest(newEpisodes, maxEpisodes);
+                                        olderFound = true;
+                                    }
+                                }
+                            }
+                            break;
+                        case CHANNEL:
+                        case GROUP:
+                            // Containers, look inside
+                            break;
+                        default:
+                            // Unneeded node, skip... (but never the root)
+                            if (parser.getDepth() > 1)
+                                ParserUtils.skipSubTree(parser);
+                    }
+
+                // Done, get next parsing event (unless we stop here)
+                if (firstKnownEpisode == null && !windowReached)
+                    eventType = parser.next();
+            }
+
+            // Same feed as last time, so the episodes we parsed are the ones
+            // we have (the header fields were set to the same values)
+            if (check != null && eventType == XmlPullParser.END_DOCUMENT
+                    && check.isUnchanged())
+                return 0;
+
+            // Parsing completed without errors, replace episodes and mark as
+            // updated
+            int takenOver = 0;
+            if (firstKnownEpisode != null) {
+                // Keep the feed positions consistent
+                final int offset = firstKnownEpisode.index - knownEpisodes.get(0).index;
+
+                for (Episode known : knownEpisodes) {
+                    // Known episodes are sorted, once one is out of the
+                    // window, so are the ones following
+                    if (newEpisodes.size() >= maxEpisodes
+                            || known.pubDate < cutoff) {
+                        olderFound = true;
+                        break;
+                    }
+
+                    newEpisodes.add(new Episode(known, known.index + offset));
+                    takenOver++;
                 }
 
-                // Done, get next parsing event
-                eventType = parser.next();
+                // The known episodes might have been cut off before
+                olderFound |= hasOlderEpisodes;
             }
 
-            // Parsing completed without errors, mark as updated
+            // Unsorted feeds might still have too many episodes
+            if (newEpisodes.size() > maxEpisodes) {
+                trimToNewest(newEpisodes, maxEpisodes);
+                olderFound = true;
+            }
+
+            // Nothing new if the newest episode is the same as before
+            if (lastLoaded != null && !newEpisodes.isEmpty() && !knownEpisodes.isEmpty()
+                    && newEpisodes.get(0).equals(knownEpisodes.get(0)))
+                unchangedLoadCount++;
+            else
+                unchangedLoadCount = 0;
+
+            // All new episodes have their texts in the writer's file, make
+            // sure they can be read before anybody gets to see the episodes
+            if (notesWriter != null)
+                notesWriter.commit();
+
+            final boolean firstParse = lastLoaded == null;
+            publishEpisodes(newEpisodes);
+            contentChanged = firstParse || !episodeListDiff.isEmpty()
+                    || hasOlderEpisodes != olderFound || explicit != knownExplicit
+                    || !equal(name, knownName) || !equal(logoUrl, knownLogoUrl);
+            hasOlderEpisodes = olderFound;
             lastLoaded = new Date();
-        } catch (XmlPullParserException | IOException e) {
-            // Reset the episode list to its former value
-            // this.episodes = oldEpisodes;
-            throw e;
+            updatePublishingInterval();
+
+            return takenOver;
         } finally {
+            if (notesWriter != null)
+                notesWriter.close();
+
             // Make sure name is not empty
             if (name == null || name.trim().isEmpty())
                 name = url;
         }
     }
 
+    /**
+     * Write the podcast's content (as read by {@link #parse(XmlPullParser)})
+     * to a snapshot. Use {@link #readSnapshot(DataInput, Date)} to restore it
+     * without loading and parsing the feed.
+     * 
+     * @param out The output to write to.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    public void writeSnapshot(DataOutput out) throws IOException {
+        // Copy the reference, the list might be replaced while we write
+        final List<Episode> snapshotEpisodes = episodes;
+
+        writeString(out, url);
+        writeString(out, name);
+        out.writeBoolean(explicit);
+        writeString(out, logoUrl);
+        writeString(out, etag);
+        writeString(out, lastModified);
+        out.writeLong(contentFingerprint);
+        out.writeBoolean(hasOlderEpisodes);
+
+        out.writeInt(snapshotEpisodes.size());
+        for (Episode episode : snapshotEpisodes)
+            episode.writeSnapshot(out);
+    }
+
+    /**
+     * Restore the podcast's content from a snapshot written by
+     * {@link #writeSnapshot(DataOutput)}. This only works for podcasts that
+     * were not loaded yet and the snapshot needs to be for this podcast. If
+     * the podcast has no cache validators yet, the snapshot's are used, so
+     * the next load will only revalidate the content with the server.
+     * 
+     * @param in The input to read from.
+     * @param snapshotTime The time the snapshot content was last known to be
+     *            current, this is used as the last loaded time.
+     * @return Whether the snapshot was used.
+     * @throws IOException If the snapshot cannot be read.
+     */
+    public boolean readSnapshot(DataInput in, Date snapshotTime) throws IOException {
+        synchronized (contentLock) {
+            // The snapshot needs to be for this podcast and we never replace
+            // content already loaded
+            if (lastLoaded != null || !url.equals(readString(in)))
+                return false;
+
+            // 1. Read everything on the side, so a broken snapshot changes nothing
+            final String snapshotName = readString(in);
+            final boolean snapshotExplicit = in.readBoolean();
+            final String snapshotLogoUrl = readString(in);
+            final String snapshotEtag = readString(in);
+            final String snapshotLastModified = readString(in);
+            final long snapshotFingerprint = in.readLong();
+            final boolean snapshotHasOlder = in.readBoolean();
+
+            final int episodeCount = in.readInt();
+            final List<Episode> snapshotEpisodes = new ArrayList<>(Math.max(0, episodeCount));
+            for (int index = 0; index < episodeCount; index++)
+                snapshotEpisodes.add(Episode.readSnapshot(this, in));
+
+            // 2. Move long texts to disk, just as parse() does
+            final ShowNotesStore notesStore = ShowNotesStore.getInstance();
+            final ShowNotesStore.Writer notesWriter =
+                    notesStore == null ? null : notesStore.openWriter(this);
+            if (notesWriter != null)
+                try {
+                    for (Episode episode : snapshotEpisodes)
+                        episode.storeNotes(notesWriter);
+
+                    notesWriter.commit();
+                } finally {
+                    notesWriter.close();
+                }
+
+            // 3. Take over the content
+            if (name == null || name.trim().isEmpty())
+                name = snapshotName;
+            explicit = snapshotExplicit;
+            logoUrl = snapshotLogoUrl;
+            // The validators stored with the podcast list might be newer, the
+            // snapshot is not written again if the content did not change
+            if (etag == null && lastModified == null)
+                setCacheValidators(snapshotEtag, snapshotLastModified);
+            contentFingerprint = snapshotFingerprint;
+            hasOlderEpisodes = snapshotHasOlder;
+            publishEpisodes(snapshotEpisodes);
+            lastLoaded = new Date(snapshotTime.getTime());
+            updatePublishingInterval();
+
+            return true;
+        }
+    }
+
+    /**
+     * Replace the episode list in one go and keep track of the changes.
+     * 
+     * @param newEpisodes The new episode list, not to be changed afterwards.
+     */
+    private synchronized void publishEpisodes(List<Episode> newEpisodes) {
+        final List<Episode> published = Collections.unmodifiableList(newEpisodes);
+        final int baseVersion = episodeListDiff == null ? 0 : episodeListDiff.getVersion();
+
+        // Set the diff first, so it is never older than the list
+        episodeListDiff = EpisodeListDiff.compute(baseVersion, episodes, published);
+        episodes = published;
+
+        // Forget the directories no episode shares anymore (this also drops
+        // the ones only seen once during the parse)
+        mediaUrlPrefixes.clear();
+        for (Episode episode : published) {
+            final String prefix = episode.getMediaUrlPrefix();
+
+            if (prefix != null)
+                mediaUrlPrefixes.put(prefix, prefix);
+        }
+    }
+
+    /**
+     * Estimate the publishing interval as the median time between the most
+     * recent episodes. Several episodes released at once count as one.
+     */
+    private void updatePublishingInterval() {
+        // 1. Collect and sort the publication dates, newest first
+        final long[] dates = new long[episodes.size()];
+        int dateCount = 0;
+        for (Episode episode : episodes)
+            if (episode.hasPubDate())
+                dates[dateCount++] = episode.pubDate;
+
+        Arrays.sort(dates, 0, dateCount);
+        latestPubDate = dateCount == 0 ? null : new Date(dates[dateCount - 1]);
+
+        // 2. Find the gaps between the recent releases
+        final long[] gaps = new long[CADENCE_EPISODES];
+        int gapCount = 0;
+        for (int index = dateCount - 1; index > 0 && gapCount < gaps.length; index--) {
+            final long gap = dates[index] - dates[index - 1];
+
+            if (gap >= MIN_RELEASE_GAP)
+                gaps[gapCount++] = gap;
+        }
+
+        // 3. Use the median, we need at least two gaps to make a guess
+        if (gapCount < 2)
+            publishingInterval = -1;
+        else {
+            Arrays.sort(gaps, 0, gapCount);
+            publishingInterval = gaps[gapCount / 2];
+        }
+    }
+
+    /**
+     * @return The time episodes need to be published after to be in the
+     *         window covering the given number of pages,
+     *         {@link Episode#NO_PUB_DATE} if there is no age limit.
+     */
+    private long getWindowCutoff(int pages) {
+        if (episodeMonths == 0)
+            return Episode.NO_PUB_DATE;
+
+        final Calendar cutoff = Calendar.getInstance();
+        cutoff.add(Calendar.MONTH, -episodeMonths * pages);
+
+        return cutoff.getTimeInMillis();
+    }
+
+    /**
+     * Get the shared instance of the given media location's first part, so
+     * the episodes of this podcast do not keep copies of it. A part is only
+     * shared once another episode came with it, splitting off a part used by
+     * one episode only would need more memory than keeping the location.
+     * 
+     * @param mediaUrl The media location of an episode.
+     * @param end The end index of the part to share.
+     * @return The shared prefix or <code>null</code> if this is the first
+     *         episode using it.
+     */
+    synchronized String internMediaUrlPrefix(String mediaUrl, int end) {
+        final String prefix = mediaUrl.substring(0, end);
+        final String shared = mediaUrlPrefixes.get(prefix);
+
+        if (shared == null)
+            mediaUrlPrefixes.put(prefix, prefix);
+
+        return shared;
+    }
+
+    /**
+     * Remove all but the given number of newest episodes from the list, the
+     * episodes kept stay in their order.
+     */
+    private static void trimToNewest(List<Episode> episodeList, int count) {
+        final List<Episode> byDate = new ArrayList<>(episodeList);
+        Collections.sort(byDate);
+
+        // Episodes are equal by media URL, so we need to go by identity
+        final Set<Episode> dropped =
+                Collections.newSetFromMap(new IdentityHashMap<Episode, Boolean>());
+        dropped.addAll(byDate.subList(count, byDate.size()));
+
+        final Iterator<Episode> iterator = episodeList.iterator();
+        while (iterator.hasNext())
+            if (dropped.contains(iterator.next()))
+                iterator.remove();
+    }
+
     protected void parseLogo(XmlPullParser parser) throws XmlPullParserException, IOException {
         try {
             // HREF attribute used?
@@ -450,22 +1196,65 @@ public class Podcast extends FeedEntity implements Comparable<Podcast> {
         }
     }
 
-    protected void parseEpisode(XmlPullParser parser, int index) {
+    protected Episode parseEpisode(XmlPullParser parser, int index) {
         // Create episode and parse the data
         final Episode newEpisode = new Episode(this, index);
 
         try {
             newEpisode.parse(parser);
 
-            // Only add if there is a title and some actual content to play
+            // Only return if there is a title and some actual content to play
             final String title = newEpisode.getName();
-            if (title != null && !title.isEmpty() && newEpisode.getMediaUrl() != null)
-                episodes.add(newEpisode);
+            if (title != null && !title.isEmpty() && newEpisode.hasMediaUrl())
+                return newEpisode;
         } catch (XmlPullParserException e) {
             // pass, episode not added
         } catch (IOException e) {
             // pass, episode not added
         }
+
+        return null;
+    }
+
+    /**
+     * @return Whether the given list is not empty, all episodes have a
+     *         publication date and are sorted newest-first.
+     */
+    private static boolean isSortedNewestFirst(List<Episode> episodeList) {
+        if (episodeList.isEmpty())
+            return false;
+
+        long previous = Long.MAX_VALUE;
+        for (Episode episode : episodeList) {
+            if (!episode.hasPubDate() || episode.pubDate > previous)
+                return false;
+
+            previous = episode.pubDate;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return Whether the given feed episode is the newest of the known
+     *         episodes, has not been changed in terms of its publication date
+     *         and none of the new episodes read before it is already known.
+     */
+    private static boolean isFirstKnownEpisode(Episode episode, List<Episode> knownEpisodes,
+            List<Episode> newEpisodes) {
+        final Episode newestKnown = knownEpisodes.get(0);
+
+        if (episode.equals(newestKnown) && newestKnown.pubDate == episode.pubDate) {
+            // This is a rare event (at most once per parse), so we can afford
+            // to make sure the feed did not move older items to the top
+            final Set<Episode> known = new HashSet<>(knownEpisodes);
+            for (Episode newEpisode : newEpisodes)
+                if (known.contains(newEpisode))
+                    return false;
+
+            return true;
+        } else
+            return false;
     }
 
     @Override
@@ -473,11 +1262,11 @@ public class Podcast extends FeedEntity implements Comparable<Podcast> {
         // We put some extra bit in here to that only apply to podcast URLs and
         // then call the base class method.
         if (spec != null) {
-            if (spec.toLowerCase(Locale.US).startsWith("feed://") ||
-                    spec.toLowerCase(Locale.US).startsWith("itpc://") ||
-                    spec.toLowerCase(Locale.US).startsWith("itms://"))
+            if (UrlNormalizer.startsWithIgnoreCase(spec, "feed://") ||
+                    UrlNormalizer.startsWithIgnoreCase(spec, "itpc://") ||
+                    UrlNormalizer.startsWithIgnoreCase(spec, "itms://"))
                 spec = "http" + spec.substring(4);
-            if (spec.toLowerCase(Locale.US).startsWith("fb:"))
+            if (UrlNormalizer.startsWithIgnoreCase(spec, "fb:"))
                 spec = "http://feeds.feedburner.com/" + spec.substring(3);
         }
 
@@ -494,4 +1283,8 @@ public class Podcast extends FeedEntity implements Comparable<Podcast> {
 
         return spec;
     }
+
+    private static boolean equal(Object one, Object another) {
+        return one == null ? another == null : one.equals(another);
+    }
 }
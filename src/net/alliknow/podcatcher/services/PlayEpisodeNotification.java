@@ -36,10 +36,6 @@ import net.alliknow.podcatcher.PodcastActivity;
 import net.alliknow.podcatcher.R;
 import net.alliknow.podcatcher.model.EpisodeManager;
 import net.alliknow.podcatcher.model.types.Episode;
-import net.alliknow.podcatcher.model.types.Podcast;
-
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * Helper class for the {@link PlayEpisodeService} to encapsulate the complexity
@@ -66,8 +62,6 @@ public class PlayEpisodeNotification {
 
     /** Our builder */
     private Notification.Builder notificationBuilder;
-    /** The cache for the scaled bitmaps */
-    private Map<String, Bitmap> bitmapCache = new HashMap<>();
 
     private PlayEpisodeNotification(Context context) {
         this.context = context;
@@ -153,8 +147,9 @@ public class PlayEpisodeNotification {
                 .setProgress(duration, position, false)
                 .setOngoing(true);
         // Add large image if available
-        if (episode.getPodcast().isLogoCached())
-            notificationBuilder.setLargeIcon(getScaledBitmap(episode.getPodcast()));
+        final Bitmap logo = episode.getPodcast().getLogo(largeIconWidth, largeIconHeight);
+        if (logo != null)
+            notificationBuilder.setLargeIcon(logo);
 
         // Adding actions to notification is only supported in Android >4.1
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
@@ -193,14 +188,4 @@ public class PlayEpisodeNotification {
         // This will call build(), not available before Android 4.1
         return notificationBuilder.getNotification();
     }
-
-    private Bitmap getScaledBitmap(Podcast podcast) {
-        final String cacheKey = podcast.getUrl();
-
-        if (!bitmapCache.containsKey(cacheKey))
-            bitmapCache.put(cacheKey, Bitmap.createScaledBitmap(podcast.getLogo(),
-                    largeIconWidth, largeIconHeight, false));
-
-        return bitmapCache.get(cacheKey);
-    }
 }
@@ -25,6 +25,7 @@ import static android.media.RemoteControlClient.MetadataEditor.BITMAP_KEY_ARTWOR
 
 import android.annotation.TargetApi;
 import android.app.PendingIntent;
+import android.graphics.Bitmap;
 import android.media.RemoteControlClient;
 import android.os.Build;
 
@@ -109,8 +110,9 @@ public class PodcatcherRCClient extends RemoteControlClient {
                     .putString(METADATA_KEY_DATE, Utils.getRelativePubDate(episode))
                     .putLong(METADATA_KEY_DURATION, episode.getDuration() * 1000);
 
-            if (episode.getPodcast().isLogoCached())
-                editor.putBitmap(BITMAP_KEY_ARTWORK, episode.getPodcast().getLogo());
+            final Bitmap logo = episode.getPodcast().getLogo();
+            if (logo != null)
+                editor.putBitmap(BITMAP_KEY_ARTWORK, logo);
 
             editor.apply();
         }
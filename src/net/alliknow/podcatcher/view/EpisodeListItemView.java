@@ -18,8 +18,13 @@
 package net.alliknow.podcatcher.view;
 
 import android.content.Context;
+import android.graphics.Color;
 import android.graphics.Typeface;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.StateListDrawable;
 import android.util.AttributeSet;
+import android.util.SparseArray;
 import android.view.View;
 import android.widget.ImageView;
 import android.widget.ProgressBar;
@@ -28,18 +33,22 @@ import android.widget.TextView;
 
 import net.alliknow.podcatcher.R;
 import net.alliknow.podcatcher.model.types.Episode;
+import net.alliknow.podcatcher.model.types.EpisodeStatus;
 
 /**
  * A list item view to represent an episode.
  */
 public class EpisodeListItemView extends PodcatcherListItemView {
 
-    /** String to use if there is no episode title available */
-    private static final String NO_TITLE = "???";
-    /** String to use if there is no episode publication date available */
-    private static final String NO_DATE = "---";
-    /** Separator for date and podcast name */
-    private static final String SEPARATOR = " • ";
+    /** Shown state value for nothing shown yet */
+    private static final int SHOWN_NONE = 0;
+    /** Shown state value for an old episode */
+    private static final int SHOWN_OLD = 1;
+    /** Shown state value for a new episode */
+    private static final int SHOWN_NEW = 2;
+
+    /** The playlist position texts created so far, shared by all rows */
+    private static final String[] playlistPositionTexts = new String[100];
 
     /** The title text view */
     private TextView titleTextView;
@@ -56,6 +65,26 @@ public class EpisodeListItemView extends PodcatcherListItemView {
     /** The state icon view */
     private ImageView stateIconView;
 
+    /** The episode texts cache */
+    private final EpisodeTexts texts = EpisodeTexts.getInstance();
+    /** The backgrounds created for this view per default color */
+    private final SparseArray<StateListDrawable> backgrounds = new SparseArray<>();
+    /** The download icons loaded for this view per resource id */
+    private final SparseArray<Drawable> downloadIcons = new SparseArray<>();
+
+    /** The title shown */
+    private String shownTitle;
+    /** The caption shown */
+    private String shownCaption;
+    /** The old/new state the title is formatted for */
+    private int shownState = SHOWN_NONE;
+    /** The download icon resource shown */
+    private int shownDownloadIcon = 0;
+    /** The playlist position shown */
+    private int shownPlaylistPosition = -1;
+    /** The layout rule combination applied, -1 for none */
+    private int shownLayout = -1;
+
     /**
      * Create an episode item list view.
      * 
@@ -80,24 +109,40 @@ public class EpisodeListItemView extends PodcatcherListItemView {
     }
 
     /**
-     * Make the view update all its child to represent input given.
+     * Make the view update all its child to represent input given. Texts,
+     * icons and layout rules are only touched if they differ from what the
+     * view shows already, so re-binding the view creates no objects.
      * 
      * @param episode Episode to represent.
      * @param showPodcastName Whether the podcast name should show.
-     * @param isOld Whether the episode is consider old (listened to)
+     * @param status The episode's current status.
      */
-    public void show(final Episode episode, boolean showPodcastName, boolean isOld) {
+    public void show(final Episode episode, boolean showPodcastName, EpisodeStatus status) {
         // 0. Get episode state
-        final boolean downloading = episodeManager.isDownloading(episode);
+        final boolean downloading = status.isDownloading;
+        final boolean isOld = status.isOld;
         final boolean progressShouldFade = episode.hashCode() == lastItemId;
 
-        // 1. Set and format episode title
-        titleTextView.setText(createTitle(episode));
-        titleTextView.setTypeface(null, isOld ? Typeface.NORMAL : Typeface.BOLD);
-        titleTextView.setSingleLine(isOld);
-        
+        // 1. Set and format episode title (the texts come from the cache, so
+        // the same text is the same object)
+        final String title = texts.getTitle(episode);
+        if (title != shownTitle) {
+            titleTextView.setText(title);
+            shownTitle = title;
+        }
+        if (shownState != (isOld ? SHOWN_OLD : SHOWN_NEW)) {
+            titleTextView.setTypeface(null, isOld ? Typeface.NORMAL : Typeface.BOLD);
+            titleTextView.setSingleLine(isOld);
+
+            shownState = isOld ? SHOWN_OLD : SHOWN_NEW;
+        }
+
         // 2. Set caption and make sure it shows
-        captionTextView.setText(createCaption(episode, showPodcastName));
+        final String caption = texts.getCaption(episode, showPodcastName);
+        if (caption != shownCaption) {
+            captionTextView.setText(caption);
+            shownCaption = caption;
+        }
         // If this is the same episode, crossfade (otherwise just set it)
         if (!downloading && isShowingProgress && progressShouldFade)
             crossfade(captionTextView, progressBarView);
@@ -113,10 +158,10 @@ public class EpisodeListItemView extends PodcatcherListItemView {
         // We need to reset the progress here, because the view might be
         // recycled and it should not show another episode's progress
         if (downloading)
-            updateProgress(episodeManager.getDownloadProgress(episode));
+            updateProgress(status.downloadProgress);
 
         // 4. Update the metadata to show for this episode
-        updateMetadata(episode, isOld);
+        updateMetadata(status);
 
         // 5. Store state to make sure it is available next time show() is
         // called and we can decide whether to crossfade or not
@@ -124,6 +169,25 @@ public class EpisodeListItemView extends PodcatcherListItemView {
         this.lastItemId = episode.hashCode();
     }
 
+    /**
+     * Set the background for the view. The pressed, focused and selected
+     * states are transparent to make the list selector visible, the default
+     * state shows the color given. Backgrounds are created once per color.
+     * 
+     * @param defaultColor The background color for the default state.
+     */
+    public void setBackgroundForState(int defaultColor) {
+        StateListDrawable background = backgrounds.get(defaultColor);
+
+        if (background == null) {
+            background = createBackground(defaultColor);
+            backgrounds.put(defaultColor, background);
+        }
+
+        if (getBackground() != background)
+            setBackgroundDrawable(background);
+    }
+
     /**
      * Update the episode progress indicator to the progress given. Does not
      * change the visibility of the progress view.
@@ -139,78 +203,48 @@ public class EpisodeListItemView extends PodcatcherListItemView {
             progressBarView.setIndeterminate(true);
     }
 
-    private String createTitle(Episode episode) {
-        String result = episode.getName();
-
-        if (result != null && !result.isEmpty()) {
-            final String podcastName = episode.getPodcast().getName();
-
-            final String redundantPrefix1 = podcastName + ": ";
-            final String redundantPrefix2 = podcastName + " - ";
-            final String redundantPrefix3 = podcastName + ", ";
-            final String redundantPrefix4 = podcastName + " ";
-
-            // Remove podcast name from the episode title because it takes too
-            // much space and is redundant anyway
-            if (result.startsWith(redundantPrefix1))
-                result = result.substring(redundantPrefix1.length(), result.length());
-            else if (result.startsWith(redundantPrefix2))
-                result = result.substring(redundantPrefix2.length(), result.length());
-            else if (result.startsWith(redundantPrefix3))
-                result = result.substring(redundantPrefix3.length(), result.length());
-            else if (result.startsWith(redundantPrefix4))
-                result = result.substring(redundantPrefix4.length(), result.length());
-        }
-        else
-            result = NO_TITLE;
-
-        return result;
-    }
-
-    private String createCaption(Episode episode, boolean showPodcastName) {
-        String result = NO_DATE;
-
-        // Episode has no date, should not happen
-        if (episode.getPubDate() == null && showPodcastName)
-            result = episode.getPodcast().getName();
-        // This is the interesting case
-        else if (episode.getPubDate() != null) {
-            // Get a nice time span string for the age of the episode
-            String dateString = Utils.getRelativePubDate(episode);
-
-            // Append podcast name
-            if (showPodcastName)
-                result = dateString + SEPARATOR + episode.getPodcast().getName();
-            // Omit podcast name
-            else
-                result = dateString;
-        }
-
-        return result;
-    }
-
-    private void updateMetadata(Episode episode, boolean isOld) {
+    private void updateMetadata(EpisodeStatus status) {
         // Okay, so this gets a bit messy, we have a lot of cases to cover.
         // 1. Find all the information we need to make the view look right
-        final boolean downloading = episodeManager.isDownloading(episode);
-        final boolean downloaded = episodeManager.isDownloaded(episode);
+        final boolean isOld = status.isOld;
+        final boolean downloading = status.isDownloading;
+        final boolean downloaded = status.isDownloaded;
         final boolean downloadIconShows = downloaded || downloading;
-        final boolean willResume = episodeManager.getResumeAt(episode) > 0;
-        final int position = episodeManager.getPlaylistPosition(episode);
+        final boolean willResume = status.resumeAt > 0;
+        final int position = status.playlistPosition;
 
         // 2. Set the view content and visibility accordingly
-        if (downloading)
-            downloadIconView.setImageResource(R.drawable.ic_media_downloading);
-        else if (downloaded)
-            downloadIconView.setImageResource(R.drawable.ic_media_downloaded);
+        final int downloadIcon = downloading ? R.drawable.ic_media_downloading :
+                downloaded ? R.drawable.ic_media_downloaded : shownDownloadIcon;
+        if (downloadIcon != shownDownloadIcon) {
+            // Keep the drawables, loading the resource creates a new one
+            Drawable icon = downloadIcons.get(downloadIcon);
+            if (icon == null) {
+                icon = getResources().getDrawable(downloadIcon);
+                downloadIcons.put(downloadIcon, icon);
+            }
+
+            downloadIconView.setImageDrawable(icon);
+            shownDownloadIcon = downloadIcon;
+        }
 
-        playlistPositionView.setText(String.valueOf(position + 1));
+        if (position >= 0 && position != shownPlaylistPosition) {
+            playlistPositionView.setText(getPlaylistPositionText(position));
+            shownPlaylistPosition = position;
+        }
 
         downloadIconView.setVisibility(downloading || downloaded ? View.VISIBLE : View.GONE);
         resumeIconView.setVisibility(willResume ? View.VISIBLE : View.GONE);
         playlistPositionView.setVisibility(position >= 0 ? View.VISIBLE : View.GONE);
         stateIconView.setVisibility(isOld ? View.GONE : View.VISIBLE);
 
+        // The layout only depends on these four, skip if unchanged
+        final int layout = (position < 0 ? 1 : 0) | (willResume ? 2 : 0)
+                | (downloadIconShows ? 4 : 0) | (isOld ? 8 : 0);
+        if (layout == shownLayout)
+            return;
+        shownLayout = layout;
+
         // 3. Fix the layout params of our views in the lower right corner
         // depending on the metadata showing:
         adjustLayout(playlistPositionView, true, -1);
@@ -227,6 +261,15 @@ public class EpisodeListItemView extends PodcatcherListItemView {
         findViewById(R.id.list_item_main_content).setLayoutParams(params);
     }
 
+    private static String getPlaylistPositionText(int position) {
+        if (position >= playlistPositionTexts.length)
+            return String.valueOf(position + 1);
+        else if (playlistPositionTexts[position] == null)
+            playlistPositionTexts[position] = String.valueOf(position + 1);
+
+        return playlistPositionTexts[position];
+    }
+
     private void adjustLayout(View view, boolean atParentRight, int isLeftOf) {
         LayoutParams params = (RelativeLayout.LayoutParams) view.getLayoutParams();
 
@@ -235,4 +278,24 @@ public class EpisodeListItemView extends PodcatcherListItemView {
 
         view.setLayoutParams(params);
     }
+
+    private static StateListDrawable createBackground(int defaultColor) {
+        final StateListDrawable background = new StateListDrawable();
+
+        // This is needed because we want the list selector to be visible even
+        // though is not drawn on top. To this goal, we set the background to
+        // transparent when the list item is pressed.
+        background.addState(new int[] {
+                android.R.attr.state_pressed
+        }, new ColorDrawable(Color.TRANSPARENT));
+        background.addState(new int[] {
+                android.R.attr.state_focused
+        }, new ColorDrawable(Color.TRANSPARENT));
+        background.addState(new int[] {
+                android.R.attr.state_selected
+        }, new ColorDrawable(Color.TRANSPARENT));
+        background.addState(new int[] {}, new ColorDrawable(defaultColor));
+
+        return background;
+    }
 }
@@ -0,0 +1,185 @@
+/** Copyright 2012-2014 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.view;
+
+import android.text.format.DateUtils;
+
+import net.alliknow.podcatcher.model.types.Episode;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache for the texts shown for episodes in lists. Titles are created once
+ * per episode, captions (which show a relative date) are refreshed every
+ * minute. A row showing an episode it has shown before does not create any
+ * strings. Use this from the main thread only.
+ */
+final class EpisodeTexts {
+
+    /** The number of episodes we keep texts for */
+    private static final int CAPACITY = 512;
+    /** The time after which captions are created again */
+    private static final long CAPTION_LIFETIME = DateUtils.MINUTE_IN_MILLIS;
+
+    /** String to use if there is no episode title available */
+    private static final String NO_TITLE = "???";
+    /** String to use if there is no episode publication date available */
+    private static final String NO_DATE = "---";
+    /** Separator for date and podcast name */
+    private static final String SEPARATOR = " • ";
+    /** Separators following the podcast name in redundant title prefixes */
+    private static final String[] PREFIX_SEPARATORS = {
+            ": ", " - ", ", ", " "
+    };
+
+    /** The texts for one episode */
+    private static final class Texts {
+
+        /** The episode instance the texts are for */
+        private Episode episode;
+        /** The display title */
+        private String title;
+        /** The caption, <code>null</code> if not created yet */
+        private String caption;
+        /** Whether the caption has the podcast name */
+        private boolean captionHasPodcastName;
+        /** The time the caption was created */
+        private long captionTime;
+    }
+
+    /** The single instance */
+    private static final EpisodeTexts instance = new EpisodeTexts();
+
+    /** The texts, least recently used first */
+    private final Map<Episode, Texts> cache = new LinkedHashMap<Episode, Texts>(CAPACITY, 0.75f,
+            true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Episode, Texts> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    private EpisodeTexts() {
+        // Use getInstance()
+    }
+
+    /**
+     * @return The single instance.
+     */
+    static EpisodeTexts getInstance() {
+        return instance;
+    }
+
+    /**
+     * Get the title to show for an episode. This is the episode name without
+     * the podcast name if the episode name starts with it.
+     * 
+     * @param episode Episode to get title for (not <code>null</code>).
+     * @return The title to show.
+     */
+    String getTitle(Episode episode) {
+        return getTexts(episode).title;
+    }
+
+    /**
+     * Get the caption to show for an episode, i.e. its relative publication
+     * date and optionally the podcast name.
+     * 
+     * @param episode Episode to get caption for (not <code>null</code>).
+     * @param showPodcastName Whether the caption should show the podcast name.
+     * @return The caption to show.
+     */
+    String getCaption(Episode episode, boolean showPodcastName) {
+        final Texts texts = getTexts(episode);
+        final long now = System.currentTimeMillis();
+
+        // Relative dates change over time
+        if (texts.caption == null || texts.captionHasPodcastName != showPodcastName
+                || now - texts.captionTime > CAPTION_LIFETIME) {
+            texts.caption = createCaption(episode, showPodcastName);
+            texts.captionHasPodcastName = showPodcastName;
+            texts.captionTime = now;
+        }
+
+        return texts.caption;
+    }
+
+    private Texts getTexts(Episode episode) {
+        Texts texts = cache.get(episode);
+
+        // Reloaded podcasts have new (but equal) episode instances
+        if (texts == null || texts.episode != episode) {
+            if (texts == null) {
+                texts = new Texts();
+                cache.put(episode, texts);
+            }
+
+            texts.episode = episode;
+            texts.title = createTitle(episode);
+            texts.caption = null;
+        }
+
+        return texts;
+    }
+
+    private static String createTitle(Episode episode) {
+        final String name = episode.getName();
+        if (name == null || name.isEmpty())
+            return NO_TITLE;
+
+        // Remove podcast name from the episode title because it takes too
+        // much space and is redundant anyway
+        final String podcastName = episode.getPodcast() == null ?
+                null : episode.getPodcast().getName();
+        if (podcastName != null && name.startsWith(podcastName)) {
+            final int length = podcastName.length();
+
+            for (String separator : PREFIX_SEPARATORS)
+                if (name.startsWith(separator, length))
+                    return name.substring(length + separator.length());
+        }
+
+        return name;
+    }
+
+    private static String createCaption(Episode episode, boolean showPodcastName) {
+        String result = NO_DATE;
+
+        // Episode has no date, should not happen
+        if (!episode.hasPubDate() && showPodcastName)
+            result = episode.getPodcast().getName();
+        // This is the interesting case
+        else if (episode.hasPubDate()) {
+            // Get a nice time span string for the age of the episode
+            String dateString = Utils.getRelativePubDate(episode);
+
+            // Append podcast name
+            if (showPodcastName)
+                result = dateString + SEPARATOR + episode.getPodcast().getName();
+            // Omit podcast name
+            else
+                result = dateString;
+        }
+
+        return result;
+    }
+}
@@ -18,6 +18,7 @@
 package net.alliknow.podcatcher.view;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
 import android.util.AttributeSet;
 import android.view.View;
@@ -43,6 +44,8 @@ public class PodcastListItemView extends PodcatcherListItemView {
     private TextView countTextView;
     /** The podcast logo view */
     private ImageView logoView;
+    /** The size of the logo to show in pixels */
+    private int logoSize;
     /** The load progress view */
     private HorizontalProgressView progressView;
 
@@ -68,6 +71,7 @@ public class PodcastListItemView extends PodcatcherListItemView {
         captionTextView = (TextView) findViewById(R.id.list_item_caption_text);
         countTextView = (TextView) findViewById(R.id.list_item_caption_count);
         logoView = (ImageView) findViewById(R.id.podcast_logo);
+        logoSize = logoView.getLayoutParams().width;
         progressView = (HorizontalProgressView) findViewById(R.id.list_item_progress);
 
         // Create the class handle to star drawable if we are first
@@ -94,7 +98,8 @@ public class PodcastListItemView extends PodcatcherListItemView {
         final boolean loading = podcastManager.isLoading(podcast);
         final int episodeNumber = podcast.getEpisodeCount();
         final int newEpisodeCount = episodeManager.getNewEpisodeCount(podcast);
-        final boolean showLogoView = showLogo && podcast.isLogoCached();
+        final Bitmap logo = showLogo ? podcast.getLogo(logoSize, logoSize) : null;
+        final boolean showLogoView = logo != null;
         final boolean progressShouldFade = podcast.hashCode() == lastItemId;
 
         // 1. Set podcast title
@@ -124,9 +129,12 @@ public class PodcastListItemView extends PodcatcherListItemView {
         // recycled and it should not show another podcast's progress
         progressView.publishProgress(Progress.WAIT);
 
-        // 4. Set podcast logo if available
+        // 4. Set podcast logo if available, it might have been evicted from
+        // the cache in which case we ask for it to come back
         logoView.setVisibility(showLogoView ? VISIBLE : GONE);
-        logoView.setImageBitmap(showLogoView ? podcast.getLogo() : null);
+        logoView.setImageBitmap(logo);
+        if (showLogo && !showLogoView)
+            podcastManager.restoreLogo(podcast);
 
         // 5. Store state to make sure it is available next time show() is
         // called and we can decide whether to crossfade or not
@@ -37,8 +37,8 @@ public class Utils {
      *         publication date cannot be determinated for the episode.
      */
     public static String getRelativePubDate(Episode episode) {
-        if (episode != null && episode.getPubDate() != null) {
-            final long pubTime = episode.getPubDate().getTime();
+        if (episode != null && episode.hasPubDate()) {
+            final long pubTime = episode.getPubDateTime();
 
             // Get a nice time span string for the age of the episode
             String dateString = DateUtils.getRelativeTimeSpanString(pubTime,
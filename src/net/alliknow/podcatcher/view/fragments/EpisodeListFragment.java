@@ -34,10 +34,13 @@ import android.widget.TextView;
 import net.alliknow.podcatcher.R;
 import net.alliknow.podcatcher.adapters.EpisodeListAdapter;
 import net.alliknow.podcatcher.listeners.EpisodeListContextListener;
+import net.alliknow.podcatcher.listeners.OnLoadOlderEpisodesListener;
 import net.alliknow.podcatcher.listeners.OnReorderEpisodeListener;
 import net.alliknow.podcatcher.listeners.OnReverseSortingListener;
 import net.alliknow.podcatcher.listeners.OnSelectEpisodeListener;
 import net.alliknow.podcatcher.listeners.OnToggleFilterListener;
+import net.alliknow.podcatcher.model.EpisodeListMerger.Change;
+import net.alliknow.podcatcher.model.FilteredEpisodeList;
 import net.alliknow.podcatcher.model.tasks.remote.LoadPodcastTask.PodcastLoadError;
 import net.alliknow.podcatcher.model.types.Episode;
 import net.alliknow.podcatcher.view.EpisodeListItemView;
@@ -62,6 +65,8 @@ public class EpisodeListFragment extends PodcatcherListFragment implements Reord
     private OnToggleFilterListener filterListener;
     /** The activity we are in (listens to sorting toggles) */
     private OnReverseSortingListener sortingListener;
+    /** The activity we are in (listens to load older episodes requests) */
+    private OnLoadOlderEpisodesListener loadOlderListener;
 
     /** Out swipe to reorder listener */
     private SwipeReorderListViewTouchListener swipeReorderListener;
@@ -74,6 +79,8 @@ public class EpisodeListFragment extends PodcatcherListFragment implements Reord
     private boolean showFilterMenuItem = false;
     /** Flag for the state of the filter menu item */
     private boolean filterMenuItemState = false;
+    /** Flag for show load older episodes menu item state */
+    private boolean showLoadOlderMenuItem = false;
     /** Flag for the top progress bar state */
     private boolean showTopProgressBar = false;
     /** Flag for show info box state state */
@@ -94,6 +101,8 @@ public class EpisodeListFragment extends PodcatcherListFragment implements Reord
     private ProgressBar topProgressBar;
     /** The filter episodes menu bar item */
     private MenuItem filterMenuItem;
+    /** The load older episodes menu item */
+    private MenuItem loadOlderMenuItem;
     /** The info box label */
     private TextView infoBoxTextView;
     /** The info box label divider */
@@ -112,10 +121,12 @@ public class EpisodeListFragment extends PodcatcherListFragment implements Reord
             this.episodeReorderListener = (OnReorderEpisodeListener) activity;
             this.filterListener = (OnToggleFilterListener) activity;
             this.sortingListener = (OnReverseSortingListener) activity;
+            this.loadOlderListener = (OnLoadOlderEpisodesListener) activity;
         } catch (ClassCastException e) {
             throw new ClassCastException(activity.toString()
                     + " must implement OnSelectEpisodeListener, OnReorderEpisodeListener, " +
-                    "OnFilterToggleListener, and OnReverseSortingListener");
+                    "OnFilterToggleListener, OnReverseSortingListener, " +
+                    "and OnLoadOlderEpisodesListener");
         }
     }
 
@@ -173,6 +184,9 @@ public class EpisodeListFragment extends PodcatcherListFragment implements Reord
 
         filterMenuItem = menu.findItem(R.id.filter_menuitem);
         setFilterMenuItemVisibility(showFilterMenuItem, filterMenuItemState);
+
+        loadOlderMenuItem = menu.findItem(R.id.load_older_menuitem);
+        setLoadOlderMenuItemVisibility(showLoadOlderMenuItem);
     }
 
     @Override
@@ -187,6 +201,11 @@ public class EpisodeListFragment extends PodcatcherListFragment implements Reord
                 // Tell activity to toggle the filter
                 filterListener.onToggleFilter();
 
+                return true;
+            case R.id.load_older_menuitem:
+                // Tell activity to load the episodes outside the window
+                loadOlderListener.onLoadOlderEpisodes();
+
                 return true;
             default:
                 return super.onOptionsItemSelected(item);
@@ -296,6 +315,122 @@ public class EpisodeListFragment extends PodcatcherListFragment implements Reord
         }
     }
 
+    /**
+     * Update the list of episodes shown by swapping the source of the current
+     * paged list. This only works if the fragment is already showing an
+     * unfiltered {@link FilteredEpisodeList} and no episodes are checked,
+     * otherwise use {@link #setEpisodeList(List)}. The current order is
+     * applied to the new source. The episode at the top of the list and the
+     * episode selected stay where they are on screen, and the list is not
+     * redrawn at all if the changes only replace episodes off-screen.
+     * 
+     * @param source The new source for the paged list, this needs to have all
+     *            the changes applied already.
+     * @param changes The changes that lead from the old source to the new one.
+     * @return Whether the list was updated.
+     */
+    public boolean applyEpisodeListChanges(List<Episode> source, List<Change> changes) {
+        if (!viewCreated || adapter == null
+                || !(currentEpisodeList instanceof FilteredEpisodeList)
+                || ((FilteredEpisodeList) currentEpisodeList).isFiltered()
+                || showProgress || showLoadFailed || getListView().getCheckedItemCount() > 0)
+            return false;
+
+        if (!changes.isEmpty()) {
+            final FilteredEpisodeList episodeList = (FilteredEpisodeList) currentEpisodeList;
+            final ListView listView = getListView();
+            final View topView = listView.getChildAt(0);
+            // The list does not know about the changes yet, so this is the
+            // old size and positions
+            final int oldSize = episodeList.size();
+            final int firstRow = listView.getFirstVisiblePosition();
+            final int lastRow = listView.getLastVisiblePosition();
+
+            // Follow the top row, the rows on screen and the selected row
+            // through the changes by their source positions
+            int top = toSourcePosition(firstRow, oldSize);
+            int first = Math.min(top, toSourcePosition(lastRow, oldSize));
+            int last = Math.max(top, toSourcePosition(lastRow, oldSize));
+            int selected = selectedPosition < 0 ? -1 :
+                    toSourcePosition(selectedPosition, oldSize);
+            boolean onScreen = false;
+            boolean sizeChanged = false;
+
+            for (Change change : changes) {
+                final int position = change.getPosition();
+
+                onScreen |= position >= first && position <= last;
+                switch (change.getKind()) {
+                    case INSERT:
+                        sizeChanged = true;
+                        if (position <= top)
+                            top++;
+                        if (position < first)
+                            first++;
+                        if (position <= last)
+                            last++;
+                        if (selected >= 0 && position <= selected)
+                            selected++;
+                        break;
+                    case REMOVE:
+                        sizeChanged = true;
+                        if (position < top)
+                            top--;
+                        if (position < first)
+                            first--;
+                        if (position <= last)
+                            last--;
+                        if (position == selected)
+                            selected = -1;
+                        else if (position < selected)
+                            selected--;
+                        break;
+                    case REPLACE:
+                        // Positions stay the same
+                        break;
+                }
+            }
+
+            // The adapter shares our list, no need to re-create it
+            episodeList.setSource(source);
+
+            // Only episodes off-screen were replaced, these are bound once
+            // they are scrolled to
+            if (!sizeChanged && !onScreen)
+                return true;
+
+            // Positions might have moved, this also redraws the list
+            final int newSize = episodeList.size();
+            if (selectAll)
+                refresh();
+            else if (selected >= 0)
+                select(toSourcePosition(selected, newSize));
+            else if (selectedPosition >= 0)
+                selectNone();
+            else
+                refresh();
+
+            // Keep the top row where it was
+            if (sizeChanged && topView != null && newSize > 0)
+                listView.setSelectionFromTop(
+                        toSourcePosition(Math.max(0, Math.min(top, newSize - 1)), newSize),
+                        topView.getTop());
+
+            // The list might have become empty (or not be empty any more)
+            updateUiElementVisibility();
+        }
+
+        if (currentEpisodeList.isEmpty())
+            ((TextView) emptyView).setText(emptyStringId);
+
+        return true;
+    }
+
+    private int toSourcePosition(int row, int size) {
+        // This works the other way round as well
+        return ((FilteredEpisodeList) currentEpisodeList).isReversed() ? size - 1 - row : row;
+    }
+
     /**
      * Set whether the fragment should show the sort icon. You can call this any
      * time and can expect it to happen on fragment resume at the latest. You
@@ -342,6 +477,20 @@ public class EpisodeListFragment extends PodcatcherListFragment implements Reord
         }
     }
 
+    /**
+     * Set whether the fragment should offer to load the episodes older than
+     * the podcast's episode window. You can call this any time and can expect
+     * it to happen on menu creation at the latest.
+     * 
+     * @param show Whether to show the load older episodes menu item.
+     */
+    public void setLoadOlderMenuItemVisibility(boolean show) {
+        this.showLoadOlderMenuItem = show;
+
+        if (loadOlderMenuItem != null)
+            loadOlderMenuItem.setVisible(showLoadOlderMenuItem);
+    }
+
     /**
      * Configure whether the fragment should show the info box at the top of the
      * list.
@@ -0,0 +1,167 @@
+/** Copyright 2012-2014 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.view.fragments;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.app.DialogFragment;
+import android.app.Fragment;
+import android.content.DialogInterface;
+import android.os.Bundle;
+import android.view.ContextThemeWrapper;
+
+import net.alliknow.podcatcher.R;
+
+/**
+ * A dialog for the user to pick the episode window of a podcast, i.e. how many
+ * or how old episodes are kept after loading the feed. This fragment will not
+ * survive context re-creation, but is dismissed {@link Fragment#onPause()}.
+ * <p>
+ * <b>Register call-back:</b> The fragment will try to use the activity it is
+ * part of as its listener. To make this work, the activity needs to implement
+ * {@link OnSelectEpisodeWindowListener}. Showing this fragment from another
+ * context will <em>not</em> fail, but you need to use
+ * {@link #setListener(OnSelectEpisodeWindowListener)} to register and override
+ * the call-back. Once the listener is called, the fragment will auto-dismiss
+ * itself.
+ * <p>
+ * <b>Preset window:</b> Use {@link #setArguments(Bundle)} with the integers
+ * set using the keys {@link #LIMIT_PRESET_KEY} and {@link #MONTHS_PRESET_KEY}
+ * to have the current window checked. This needs to be done before showing the
+ * dialog.
+ * </p>
+ */
+public class EpisodeWindowFragment extends DialogFragment {
+
+    /** Argument key for the episode limit to preset */
+    public static final String LIMIT_PRESET_KEY = "limit_preset";
+    /** Argument key for the episode months to preset */
+    public static final String MONTHS_PRESET_KEY = "months_preset";
+    /** The tag we identify our episode window dialog fragment with */
+    public static final String TAG = "episode_window";
+
+    /** The episode limits offered, matching the window names resource */
+    private static final int[] LIMITS = { 0, 25, 50, 100, 0, 0 };
+    /** The episode months offered, matching the window names resource */
+    private static final int[] MONTHS = { 0, 0, 0, 0, 6, 12 };
+
+    /** The window checked when the dialog shows, -1 for none */
+    private int checkedWindow = 0;
+
+    /** Flag on whether our activity listens to us */
+    private boolean autoDismissOnPause = false;
+
+    /** The callback we are working with */
+    private OnSelectEpisodeWindowListener listener;
+
+    /**
+     * The callback definition for the dialog that selects an episode window.
+     */
+    public interface OnSelectEpisodeWindowListener {
+
+        /**
+         * Called on the listener if the user picked an episode window.
+         * 
+         * @param limit The maximum number of episodes to keep, 0 (zero) for
+         *            no limit.
+         * @param months The maximum age of the episodes to keep in months, 0
+         *            (zero) for no limit.
+         */
+        public void onSelectEpisodeWindow(int limit, int months);
+    }
+
+    @Override
+    public void setArguments(Bundle args) {
+        super.setArguments(args);
+
+        final int limit = args.getInt(LIMIT_PRESET_KEY);
+        final int months = args.getInt(MONTHS_PRESET_KEY);
+
+        // Windows not offered in the dialog have nothing checked
+        checkedWindow = -1;
+        for (int index = 0; index < LIMITS.length; index++)
+            if (LIMITS[index] == limit && MONTHS[index] == months)
+                checkedWindow = index;
+    }
+
+    @Override
+    public void onAttach(Activity activity) {
+        super.onAttach(activity);
+
+        // Let's see whether the activity implements our call-back, we will only
+        // pick it if the listener is not yet set:
+        if (listener == null)
+            try {
+                this.listener = (OnSelectEpisodeWindowListener) activity;
+            } catch (ClassCastException e) {
+                // Our activity does not listen to us, so we want to dismiss the
+                // fragment when it pauses since the listener is likely to be
+                // gone onRestart()
+                autoDismissOnPause = true;
+            }
+    }
+
+    @Override
+    public Dialog onCreateDialog(Bundle savedInstanceState) {
+        // Define context to use (parent activity might have no theme)
+        final ContextThemeWrapper context = new ContextThemeWrapper(getActivity(),
+                android.R.style.Theme_Holo_Light_Dialog);
+
+        // Build the dialog
+        final AlertDialog.Builder abuilder = new AlertDialog.Builder(context);
+        abuilder.setTitle(R.string.episode_window)
+                .setSingleChoiceItems(R.array.episode_windows, checkedWindow,
+                        new DialogInterface.OnClickListener() {
+
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                if (listener != null)
+                                    listener.onSelectEpisodeWindow(LIMITS[which], MONTHS[which]);
+
+                                dismiss();
+                            }
+                        });
+
+        return abuilder.create();
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+
+        // We auto-dismiss here, because the fragment should not survive
+        // configuration changes when the activity does not implement our
+        // listener
+        if (autoDismissOnPause)
+            dismiss();
+    }
+
+    /**
+     * Register the callback. This will override any existing listener,
+     * including the owning activity that might have been or will be set as the
+     * call-back {@link Fragment#onAttach(Activity)}. Setting the listener using
+     * this method will cause the fragment to auto-dismiss {@link #onPause()}.
+     * 
+     * @param listener Listener to call on user action.
+     */
+    public void setListener(OnSelectEpisodeWindowListener listener) {
+        this.listener = listener;
+        this.autoDismissOnPause = true;
+    }
+}
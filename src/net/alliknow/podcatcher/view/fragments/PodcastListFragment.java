@@ -23,6 +23,7 @@ import android.animation.ValueAnimator;
 import android.animation.ValueAnimator.AnimatorUpdateListener;
 import android.app.Activity;
 import android.content.Intent;
+import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -43,6 +44,7 @@ import net.alliknow.podcatcher.R;
 import net.alliknow.podcatcher.adapters.PodcastListAdapter;
 import net.alliknow.podcatcher.listeners.OnSelectPodcastListener;
 import net.alliknow.podcatcher.listeners.PodcastListContextListener;
+import net.alliknow.podcatcher.model.PodcastManager;
 import net.alliknow.podcatcher.model.types.Podcast;
 import net.alliknow.podcatcher.model.types.Progress;
 import net.alliknow.podcatcher.view.PodcastListItemView;
@@ -444,12 +446,17 @@ public class PodcastListFragment extends PodcatcherListFragment {
         if (currentPodcastList != null && selectedPosition >= 0) {
             final Podcast selectedPodcast = currentPodcastList.get(selectedPosition);
 
+            final Bitmap logo = selectedPodcast.getLogo();
+
             // Check for logo and show it if available
-            if (selectedPodcast.isLogoCached()) {
-                logoView.setImageBitmap(selectedPodcast.getLogo());
+            if (logo != null) {
+                logoView.setImageBitmap(logo);
                 logoView.setScaleType(ScaleType.FIT_XY);
-            } else
+            } else {
                 showGenericPodcastLogo();
+                // Maybe the logo was just evicted from the cache
+                PodcastManager.getInstance().restoreLogo(selectedPodcast);
+            }
         } else
             showGenericPodcastLogo();
     }
@@ -0,0 +1,195 @@
+package net.alliknow.podcatcher.adapters.test;
+
+import android.content.Context;
+import android.os.Debug;
+import android.test.InstrumentationTestCase;
+import android.view.View;
+import android.widget.ListView;
+
+import net.alliknow.podcatcher.adapters.EpisodeListAdapter;
+import net.alliknow.podcatcher.model.EpisodeManager;
+import net.alliknow.podcatcher.model.tasks.remote.DownloadEpisodeTask.EpisodeDownloadError;
+import net.alliknow.podcatcher.model.types.Episode;
+import net.alliknow.podcatcher.model.types.EpisodeStatus;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.List;
+
+@SuppressWarnings({
+        "javadoc", "deprecation"
+})
+public class EpisodeListAdapterTest extends InstrumentationTestCase {
+
+    private static final int EPISODE_COUNT = 200;
+    private static final int VISIBLE_ROWS = 12;
+    private static final int PAGES = 4;
+    private static final int FRAMES = 50;
+
+    private EpisodeManager manager;
+    private List<Episode> episodes;
+    private File downloads;
+    private int playlistSize;
+
+    private int allocations;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        manager = EpisodeManager.getInstance();
+        manager.blockUntilEpisodeMetadataIsLoaded();
+        episodes = createPodcast().getEpisodes();
+        downloads = new File(getInstrumentation().getTargetContext().getCacheDir(),
+                "adapter_test");
+        downloads.mkdirs();
+        playlistSize = manager.getPlaylistSize();
+
+        // Give the pages shown all kinds of metadata
+        getInstrumentation().runOnMainSync(new Runnable() {
+
+            @Override
+            public void run() {
+                for (int index = 0; index < PAGES * VISIBLE_ROWS; index++) {
+                    final Episode episode = episodes.get(index);
+
+                    if (index % 3 == 0)
+                        manager.setState(episode, true);
+                    if (index % 5 == 0)
+                        manager.appendToPlaylist(episode);
+                    if (index % 2 == 1)
+                        manager.setResumeAt(episode, 1000 * index);
+                    if (index % 4 == 1) {
+                        manager.onEpisodeEnqueued(episode, index);
+                        manager.onEpisodeDownloadProgressed(episode, index);
+                    }
+                    if (index % 8 == 1)
+                        try {
+                            final File file = new File(downloads, index + ".mp3");
+                            file.createNewFile();
+                            manager.onEpisodeDownloaded(episode, file);
+                        } catch (Exception e) {
+                            fail(e.getMessage());
+                        }
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+
+            @Override
+            public void run() {
+                for (int index = 0; index < PAGES * VISIBLE_ROWS; index++) {
+                    final Episode episode = episodes.get(index);
+
+                    manager.setState(episode, null);
+                    manager.removeFromPlaylist(episode);
+                    manager.setResumeAt(episode, null);
+                    if (index % 8 == 1)
+                        manager.deleteDownload(episode);
+                    else if (index % 4 == 1)
+                        manager.onEpisodeDownloadFailed(episode, EpisodeDownloadError.UNKNOWN);
+                }
+            }
+        });
+
+        // Downloads are deleted on another thread
+        for (File file : downloads.listFiles())
+            file.delete();
+
+        super.tearDown();
+    }
+
+    public final void testStatus() {
+        final EpisodeStatus status = new EpisodeStatus();
+
+        manager.getStatus(episodes.get(0), status);
+        assertTrue(status.isOld);
+        assertEquals(playlistSize, status.playlistPosition);
+        assertEquals(0, status.resumeAt);
+
+        manager.getStatus(episodes.get(1), status);
+        assertFalse(status.isOld);
+        assertTrue(status.isDownloaded);
+        assertFalse(status.isDownloading);
+        assertEquals(1000, status.resumeAt);
+        assertEquals(-1, status.playlistPosition);
+
+        manager.getStatus(episodes.get(5), status);
+        assertTrue(status.isDownloading);
+        assertFalse(status.isDownloaded);
+        assertEquals(5, status.downloadProgress);
+        assertEquals(playlistSize + 1, status.playlistPosition);
+
+        manager.getStatus(episodes.get(PAGES * VISIBLE_ROWS), status);
+        assertFalse(status.isOld);
+        assertFalse(status.isDownloaded);
+        assertEquals(0, status.resumeAt);
+        assertEquals(-1, status.playlistPosition);
+    }
+
+    public final void testBindWithoutGarbage() throws Exception {
+        final Context context = getInstrumentation().getTargetContext();
+
+        getInstrumentation().runOnMainSync(new Runnable() {
+
+            @Override
+            public void run() {
+                final EpisodeListAdapter adapter = new EpisodeListAdapter(context, episodes);
+                adapter.setShowPodcastNames(true);
+                final ListView parent = new ListView(context);
+                final View[] rows = new View[VISIBLE_ROWS];
+
+                // 1. Fling through the whole list once, rows are recycled
+                for (int position = 0; position < EPISODE_COUNT; position++)
+                    rows[position % VISIBLE_ROWS] = adapter.getView(position,
+                            rows[position % VISIBLE_ROWS], parent);
+
+                // 2. Page through the top of the list, every row shows another
+                // episode (with other metadata) each frame
+                Debug.resetThreadAllocCount();
+                Debug.startAllocCounting();
+                for (int frame = 0; frame < FRAMES; frame++) {
+                    final int first = frame % PAGES * VISIBLE_ROWS;
+
+                    for (int row = 0; row < VISIBLE_ROWS; row++)
+                        adapter.getView(first + row, rows[row], parent);
+                }
+                Debug.stopAllocCounting();
+
+                allocations = Debug.getThreadAllocCount();
+            }
+        });
+
+        assertEquals(0, allocations);
+    }
+
+    private Podcast createPodcast() throws Exception {
+        final StringBuilder feed = new StringBuilder("<rss><channel><title>Test</title>");
+        for (int index = 0; index < EPISODE_COUNT; index++)
+            feed.append("<item><title>Test: Episode ").append(index).append("</title>")
+                    .append("<enclosure url=\"http://example.com/").append(index)
+                    .append(".mp3\" />").append("<pubDate>")
+                    .append(String.format("Mon, %02d Jan 2014 %02d:00:00 GMT", 1 + index / 24,
+                            index % 24))
+                    .append("</pubDate></item>");
+        feed.append("</channel></rss>");
+
+        XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        XmlPullParser parser = factory.newPullParser();
+        parser.setInput(new StringReader(feed.toString()));
+
+        final Podcast podcast = new Podcast("Test", "http://example.com/feed");
+        podcast.parse(parser);
+
+        return podcast;
+    }
+}
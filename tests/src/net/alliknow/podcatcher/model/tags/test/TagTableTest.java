@@ -0,0 +1,242 @@
+package net.alliknow.podcatcher.model.tags.test;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import net.alliknow.podcatcher.model.tags.RSS;
+import net.alliknow.podcatcher.model.tags.TagTable;
+import net.alliknow.podcatcher.model.test.Utils;
+import net.alliknow.podcatcher.model.types.Episode;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@SuppressWarnings("javadoc")
+public class TagTableTest extends InstrumentationTestCase {
+
+    /** The number of times we dispatch the fixture's tags for the benchmark */
+    private static final int ROUNDS = 20000;
+
+    /** The item level tags as read by the episode */
+    private static final TagTable EPISODE_TAGS = new TagTable(RSS.TITLE, RSS.LINK, RSS.EXPLICIT,
+            RSS.ENCLOSURE, RSS.DATE, RSS.PUBDATE, RSS.DURATION, RSS.DESCRIPTION,
+            "{" + RSS.CONTENT_NAMESPACE + "}" + RSS.CONTENT_ENCODED);
+
+    /**
+     * A feed using the different ways of spelling the tags we read, with
+     * namespaces and some unknown subtrees containing known tags
+     */
+    private static final String FIXTURE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<rss xmlns:itunes=\"http://www.itunes.com/dtds/podcast-1.0.dtd\""
+            + " xmlns:content=\"" + RSS.CONTENT_NAMESPACE + "\""
+            + " xmlns:dc=\"http://purl.org/dc/elements/1.1/\""
+            + " xmlns:media=\"http://search.yahoo.com/mrss/\" version=\"2.0\">"
+            + "<channel>"
+            + "<itunes:owner><itunes:name>Owner</itunes:name><title>Wrong</title>"
+            + "<item><title>Hidden</title><enclosure url=\"http://example.com/hidden.mp3\"/>"
+            + "</item></itunes:owner>"
+            + "<title>Fixture</title>"
+            + "<itunes:explicit>yes</itunes:explicit>"
+            + "<textInput><title>Search</title><image><url>http://example.com/no.png</url>"
+            + "</image></textInput>"
+            + "<image><url>http://example.com/logo.png</url><title>Logo</title></image>"
+            + "<item><TITLE>One</TITLE><Link>http://example.com/1</Link>"
+            + "<itunes:EXPLICIT>no</itunes:EXPLICIT>"
+            + "<guid isPermaLink=\"false\"><title>Nested</title></guid>"
+            + "<enclosure url=\"http://example.com/1.mp3\" length=\"1\" type=\"audio/mpeg\"/>"
+            + "<pubDate>Tue, 07 Jan 2014 12:00:00 GMT</pubDate>"
+            + "<itunes:duration>1:00</itunes:duration>"
+            + "<description>Notes one</description>"
+            + "<content:encoded>Content one</content:encoded>"
+            + "<encoded>Not content</encoded></item>"
+            + "<media:group><item><title>Two</title><enclosure url=\"http://example.com/2.mp3\"/>"
+            + "<dc:date>2014-01-06T12:00:00Z</dc:date></item></media:group>"
+            + "</channel></rss>";
+
+    public final void testLookup() {
+        assertEquals(0, EPISODE_TAGS.lookup("title", null));
+        assertEquals(0, EPISODE_TAGS.lookup("TITLE", ""));
+        assertEquals(5, EPISODE_TAGS.lookup("pubdate", null));
+        assertEquals(5, EPISODE_TAGS.lookup("pubDate", "http://some.namespace/"));
+        assertEquals(8, EPISODE_TAGS.lookup("encoded", RSS.CONTENT_NAMESPACE));
+        assertEquals(TagTable.UNKNOWN, EPISODE_TAGS.lookup("encoded", null));
+        assertEquals(TagTable.UNKNOWN, EPISODE_TAGS.lookup("encoded", "http://other/"));
+        assertEquals(TagTable.UNKNOWN, EPISODE_TAGS.lookup("", null));
+        assertEquals(TagTable.UNKNOWN, EPISODE_TAGS.lookup("titles", null));
+        assertEquals(TagTable.UNKNOWN, EPISODE_TAGS.lookup("guid", null));
+    }
+
+    public final void testLookupAllIds() {
+        // More tags than fit without probing, every one finds its own id
+        final String[] tags = new String[40];
+        for (int id = 0; id < tags.length; id++)
+            tags[id] = (id % 2 == 0 ? "Tag" : "tAG") + id;
+        final TagTable table = new TagTable(tags);
+
+        for (int id = 0; id < tags.length; id++) {
+            assertEquals(id, table.lookup(tags[id], null));
+            assertEquals(id, table.lookup(tags[id].toUpperCase(), null));
+            assertEquals(id, table.lookup(tags[id].toLowerCase(), "http://any/"));
+        }
+        assertEquals(TagTable.UNKNOWN, table.lookup("tag40", null));
+        assertEquals(TagTable.UNKNOWN, table.lookup("tag", null));
+
+        // Non-ASCII names are folded as well
+        final TagTable unicode = new TagTable("épisode", "{http://ns/}Ä");
+        assertEquals(0, unicode.lookup("ÉPISODE", null));
+        assertEquals(1, unicode.lookup("ä", "http://ns/"));
+        assertEquals(TagTable.UNKNOWN, unicode.lookup("ä", null));
+    }
+
+    public final void testLookupParser() throws XmlPullParserException, IOException {
+        final XmlPullParser parser = createParser();
+        final List<Integer> ids = new ArrayList<>();
+
+        // 1. The table dispatches every start tag just like the old code
+        int eventType = parser.next();
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            if (eventType == XmlPullParser.START_TAG) {
+                final int id = EPISODE_TAGS.lookup(parser);
+                assertEquals(parser.getName(),
+                        legacyDispatch(parser.getName(), parser.getNamespace()), id);
+
+                if (id != TagTable.UNKNOWN)
+                    ids.add(id);
+            } else if (eventType == XmlPullParser.TEXT)
+                // 2. Events without a name are never known
+                assertEquals(TagTable.UNKNOWN, EPISODE_TAGS.lookup(parser));
+
+            eventType = parser.next();
+        }
+
+        // 3. And finds the tags we expect, in document order
+        assertEquals(Arrays.asList(0, 0, 3, 0, 2, 0, 0, 0, 1, 2, 0, 3, 5, 6, 7, 8, 0, 3, 4),
+                ids);
+    }
+
+    public final void testParseSkipsUnknownSubtrees() throws XmlPullParserException,
+            IOException {
+        final Podcast podcast = new Podcast(null, "http://example.com/feed");
+        podcast.parse(createParser());
+
+        // Tags inside unknown containers are not read
+        assertEquals("Fixture", podcast.getName());
+        assertEquals("http://example.com/logo.png", podcast.getLogoUrl());
+        assertTrue(podcast.isExplicit());
+
+        // Items inside the media group are read, the one in the owner is not
+        final List<Episode> episodes = podcast.getEpisodes();
+        assertEquals(2, episodes.size());
+        assertEquals("One", episodes.get(0).getName());
+        assertEquals("http://example.com/1.mp3", episodes.get(0).getMediaUrl());
+        assertEquals("http://example.com/1", episodes.get(0).getUrl());
+        assertEquals(60, episodes.get(0).getDuration());
+        assertFalse(episodes.get(0).isExplicit());
+        assertEquals("Two", episodes.get(1).getName());
+        assertTrue(episodes.get(1).hasPubDate());
+    }
+
+    public final void testParseNonRssRoot() throws XmlPullParserException, IOException {
+        // The root element is never skipped, even if we do not know it
+        final Podcast podcast = new Podcast(null, "http://example.com/feed");
+        podcast.parse(createParser("<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/"
+                + "22-rdf-syntax-ns#\"><channel><title>RDF</title></channel>"
+                + "<item><title>Item</title><enclosure url=\"http://example.com/1.mp3\"/>"
+                + "</item></rdf:RDF>"));
+
+        assertEquals("RDF", podcast.getName());
+        assertEquals(1, podcast.getEpisodeCount());
+    }
+
+    @LargeTest
+    public final void testDispatchBenchmark() throws XmlPullParserException, IOException {
+        // 1. Record all start tags of the fixture
+        final List<String> names = new ArrayList<>();
+        final List<String> namespaces = new ArrayList<>();
+        final XmlPullParser parser = createParser();
+        int eventType = parser.next();
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            if (eventType == XmlPullParser.START_TAG) {
+                names.add(parser.getName());
+                namespaces.add(parser.getNamespace());
+            }
+
+            eventType = parser.next();
+        }
+
+        final int tagCount = names.size();
+        final String[] nameArray = names.toArray(new String[tagCount]);
+        final String[] namespaceArray = namespaces.toArray(new String[tagCount]);
+
+        // 2. Warm up both, the results need to be the same
+        int checksum = 0;
+        for (int index = 0; index < tagCount; index++) {
+            checksum += legacyDispatch(nameArray[index], namespaceArray[index]);
+            checksum -= EPISODE_TAGS.lookup(nameArray[index], namespaceArray[index]);
+        }
+        assertEquals(0, checksum);
+
+        // 3. Measure both
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++)
+            for (int index = 0; index < tagCount; index++)
+                checksum += legacyDispatch(nameArray[index], namespaceArray[index]);
+        final long legacyNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++)
+            for (int index = 0; index < tagCount; index++)
+                checksum -= EPISODE_TAGS.lookup(nameArray[index], namespaceArray[index]);
+        final long tableNanos = System.nanoTime() - start;
+
+        assertEquals(0, checksum);
+        Log.d(Utils.TEST_STATUS, "Dispatched " + tagCount * ROUNDS + " tags, legacy: "
+                + legacyNanos / 1000000 + "ms, table: " + tableNanos / 1000000 + "ms");
+    }
+
+    /** A copy of the tag checks Episode#parse used to do */
+    private int legacyDispatch(String tagName, String namespace) {
+        if (tagName.equalsIgnoreCase(RSS.TITLE))
+            return 0;
+        else if (tagName.equalsIgnoreCase(RSS.LINK))
+            return 1;
+        else if (tagName.equalsIgnoreCase(RSS.EXPLICIT))
+            return 2;
+        else if (tagName.equalsIgnoreCase(RSS.ENCLOSURE))
+            return 3;
+        else if (tagName.equalsIgnoreCase(RSS.DATE))
+            return 4;
+        else if (tagName.equalsIgnoreCase(RSS.PUBDATE))
+            return 5;
+        else if (tagName.equalsIgnoreCase(RSS.DURATION))
+            return 6;
+        else if (tagName.equalsIgnoreCase(RSS.DESCRIPTION))
+            return 7;
+        else if (RSS.CONTENT_ENCODED.equals(tagName) && RSS.CONTENT_NAMESPACE.equals(namespace))
+            return 8;
+        else
+            return TagTable.UNKNOWN;
+    }
+
+    private XmlPullParser createParser() throws XmlPullParserException {
+        return createParser(FIXTURE);
+    }
+
+    private XmlPullParser createParser(String feed) throws XmlPullParserException {
+        final XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        final XmlPullParser parser = factory.newPullParser();
+        parser.setInput(new StringReader(feed));
+
+        return parser;
+    }
+}
@@ -152,6 +152,8 @@ public class LoadPodcastLogoTaskTest extends InstrumentationTestCase {
         final LoadPodcastLogoTask task = new LoadPodcastLogoTask(
                 getInstrumentation().getTargetContext(), mockLoader);
         task.setMaxAge(1);
+        // Wait for stale logos to be checked, not just the stored copy
+        task.setRevalidate(true);
 
         // Go load podcast logo
         final Date start = new Date();
@@ -0,0 +1,336 @@
+/** Copyright 2012-2014 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.tasks.remote.test;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.Bitmap.Config;
+import android.test.InstrumentationTestCase;
+
+import net.alliknow.podcatcher.Podcatcher;
+import net.alliknow.podcatcher.listeners.OnLoadPodcastLogoListener;
+import net.alliknow.podcatcher.model.LogoCache;
+import net.alliknow.podcatcher.model.LogoStore;
+import net.alliknow.podcatcher.model.PodcastManager;
+import net.alliknow.podcatcher.model.tasks.remote.LoadPodcastLogoTask;
+import net.alliknow.podcatcher.model.test.Utils;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+@SuppressWarnings("javadoc")
+public class LogoRevalidationTest extends InstrumentationTestCase {
+
+    private static final String URL = "http://example.com/logo-revalidation-test";
+    private static final String LAST_MODIFIED = "Tue, 01 Jul 2014 10:00:00 GMT";
+
+    private LogoServer server;
+    private File directory;
+    private LogoStore store;
+    private Podcast podcast;
+
+    private CountDownLatch signal;
+
+    /** Serves one logo and answers conditional requests like a web server */
+    private static class LogoServer extends Thread {
+
+        private final ServerSocket socket;
+        private volatile byte[] logo;
+        private volatile String etag = "\"v1\"";
+        private volatile String lastModified;
+        /** Whether the validators sent are ignored and the logo is sent */
+        private volatile boolean ignoreValidators;
+
+        /** The "If-None-Match" header of each request, null if not sent */
+        private final List<String> requests =
+                Collections.synchronizedList(new ArrayList<String>());
+        private final Semaphore served = new Semaphore(0);
+
+        private LogoServer(byte[] logo) throws IOException {
+            this.logo = logo;
+            this.socket = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+
+            setDaemon(true);
+        }
+
+        private String getUrl() {
+            return "http://127.0.0.1:" + socket.getLocalPort() + "/logo.png";
+        }
+
+        @Override
+        public void run() {
+            while (!socket.isClosed())
+                try {
+                    final Socket client = socket.accept();
+
+                    try {
+                        serve(client);
+                    } finally {
+                        client.close();
+                    }
+                } catch (IOException ioe) {
+                    // Socket closed
+                }
+        }
+
+        private void serve(Socket client) throws IOException {
+            final BufferedReader in = new BufferedReader(
+                    new InputStreamReader(client.getInputStream(), "ISO-8859-1"));
+            String ifNoneMatch = null;
+
+            // Skip the request line, look at the headers
+            String line = in.readLine();
+            while ((line = in.readLine()) != null && !line.isEmpty())
+                if (line.toLowerCase(Locale.US).startsWith("if-none-match:"))
+                    ifNoneMatch = line.substring("if-none-match:".length()).trim();
+
+            final boolean notModified = !ignoreValidators && etag.equals(ifNoneMatch);
+            final StringBuilder header = new StringBuilder(notModified ?
+                    "HTTP/1.1 304 Not Modified\r\n" : "HTTP/1.1 200 OK\r\n");
+            header.append("ETag: ").append(etag).append("\r\n");
+            if (lastModified != null)
+                header.append("Last-Modified: ").append(lastModified).append("\r\n");
+            if (!notModified)
+                header.append("Content-Type: image/png\r\n")
+                        .append("Content-Length: ").append(logo.length).append("\r\n");
+            header.append("Connection: close\r\n\r\n");
+
+            final OutputStream out = client.getOutputStream();
+            out.write(header.toString().getBytes("ISO-8859-1"));
+            if (!notModified)
+                out.write(logo);
+            out.flush();
+
+            requests.add(ifNoneMatch);
+            served.release();
+        }
+
+        private void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private class MockPodcastLogoLoader implements OnLoadPodcastLogoListener {
+
+        private int loaded;
+        private boolean failed;
+
+        @Override
+        public void onPodcastLogoLoaded(Podcast podcast) {
+            loaded++;
+
+            if (signal != null)
+                signal.countDown();
+        }
+
+        @Override
+        public void onPodcastLogoLoadFailed(Podcast podcast) {
+            failed = true;
+
+            if (signal != null)
+                signal.countDown();
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new LogoServer(encode(Bitmap.createBitmap(64, 32, Config.ARGB_8888)));
+        server.start();
+
+        directory = new File(getInstrumentation().getTargetContext().getCacheDir(),
+                "logo-revalidation-test");
+        deleteFiles(false);
+        store = new LogoStore(getInstrumentation().getTargetContext().getResources(),
+                directory, LogoStore.MAX_DISK_SIZE);
+
+        final StringBuilder feed = Utils.createFeed().append("<image><url>")
+                .append(server.getUrl()).append("</url></image>");
+        podcast = Utils.createPodcast("Logo", URL, feed);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.close();
+
+        LogoCache.getInstance().remove(URL);
+        LogoStore.getInstance().remove(URL);
+        PodcastManager.getInstance().setLogoMaxAge(-1);
+
+        deleteFiles(false);
+        directory.delete();
+    }
+
+    public final void testRevalidate() throws Exception {
+        // 1. Nothing stored, the logo is loaded
+        LoadPodcastLogoTask task = loadAndWait(true, 60);
+        assertTrue(task.isChanged());
+        assertFalse(task.isStale());
+        assertNotNull(podcast.getLogo());
+        assertEquals(Collections.singletonList((String) null), server.requests);
+        assertEquals("\"v1\"", store.get(URL).etag);
+
+        // 2. The stored logo is fresh, no need to ask the server
+        task = loadAndWait(true, 60);
+        assertFalse(task.isChanged());
+        assertFalse(task.isStale());
+        assertEquals(1, server.requests.size());
+
+        // 3. The stored logo is stale, but we do not wait for the check
+        Thread.sleep(5);
+        task = loadAndWait(false, 0);
+        assertFalse(task.isChanged());
+        assertTrue(task.isStale());
+        assertEquals(1, server.requests.size());
+
+        // 4. The server says the logo is unchanged and sends a new date
+        server.lastModified = LAST_MODIFIED;
+        long fetchedAt = store.get(URL).fetchedAt;
+        Thread.sleep(5);
+        task = loadAndWait(true, 0);
+        assertFalse(task.isChanged());
+        assertFalse(task.isStale());
+        assertEquals("\"v1\"", server.requests.get(1));
+        assertEquals("\"v1\"", store.get(URL).etag);
+        assertEquals(LAST_MODIFIED, store.get(URL).lastModified);
+        assertTrue(store.get(URL).fetchedAt > fetchedAt);
+
+        // 5. The server does not know about validators and sends the same
+        // file again, it is not stored again
+        server.ignoreValidators = true;
+        server.etag = "\"v2\"";
+        fetchedAt = store.get(URL).fetchedAt;
+        final long diskSize = store.getDiskSize();
+        Thread.sleep(5);
+        task = loadAndWait(true, 0);
+        assertFalse(task.isChanged());
+        assertEquals(3, server.requests.size());
+        assertEquals("\"v2\"", store.get(URL).etag);
+        assertTrue(store.get(URL).fetchedAt > fetchedAt);
+        assertEquals(diskSize, store.getDiskSize());
+    }
+
+    public final void testFilesMissingAfterNotModified() throws Exception {
+        loadAndWait(true, 60);
+        assertNotNull(store.get(URL));
+
+        // The logo is neither in memory nor on disk anymore, but in the index
+        LogoCache.getInstance().remove(URL);
+        deleteFiles(true);
+
+        // The server says the logo is unchanged, but we need it again
+        Thread.sleep(5);
+        final LoadPodcastLogoTask task = loadAndWait(true, 0);
+        assertFalse(task.isCancelled());
+        assertTrue(task.isChanged());
+        assertNotNull(podcast.getLogo());
+        assertEquals(3, server.requests.size());
+        assertEquals("\"v1\"", server.requests.get(1));
+        assertNull(server.requests.get(2));
+        assertNotNull(store.get(URL));
+    }
+
+    public final void testManagerRevalidatesStaleLogo() throws Exception {
+        final Podcatcher app = (Podcatcher) getInstrumentation().getTargetContext()
+                .getApplicationContext();
+        final PodcastManager manager = PodcastManager.getInstance();
+        final MockPodcastLogoLoader listener = new MockPodcastLogoLoader();
+
+        // 1. The app's store has the logo, it becomes stale right away
+        LogoStore.getInstance().put(URL, server.logo, server.etag, null);
+        manager.setLogoMaxAge(0);
+        Thread.sleep(5);
+
+        // 2. The stale logo is shown
+        signal = new CountDownLatch(1);
+        getInstrumentation().runOnMainSync(new Runnable() {
+
+            @Override
+            public void run() {
+                manager.addLoadPodcastLogoListener(listener);
+                manager.loadLogo(podcast);
+            }
+        });
+        try {
+            assertTrue(signal.await(10, TimeUnit.SECONDS));
+            assertFalse(listener.failed);
+            assertNotNull(podcast.getLogo());
+
+            // 3. Another task checks it with the server in the background
+            if (app.isOnline()) {
+                assertTrue(server.served.tryAcquire(10, TimeUnit.SECONDS));
+                assertEquals(Collections.singletonList("\"v1\""), server.requests);
+                // The logo is unchanged, so nobody is told about it again
+                assertEquals(1, listener.loaded);
+            }
+        } finally {
+            getInstrumentation().runOnMainSync(new Runnable() {
+
+                @Override
+                public void run() {
+                    manager.removeLoadPodcastLogoListener(listener);
+                }
+            });
+        }
+    }
+
+    private LoadPodcastLogoTask loadAndWait(boolean revalidate, int maxAge)
+            throws InterruptedException {
+        final MockPodcastLogoLoader listener = new MockPodcastLogoLoader();
+        final LoadPodcastLogoTask task = new LoadPodcastLogoTask(store, listener);
+        task.setRevalidate(revalidate);
+        task.setMaxAge(maxAge);
+
+        signal = new CountDownLatch(1);
+        task.execute(podcast);
+        assertTrue(signal.await(10, TimeUnit.SECONDS));
+        assertFalse(listener.failed);
+
+        return task;
+    }
+
+    private void deleteFiles(boolean keepIndex) {
+        final File[] files = directory.listFiles();
+
+        if (files != null)
+            for (File file : files)
+                if (!keepIndex || !file.getName().startsWith("index"))
+                    file.delete();
+    }
+
+    private byte[] encode(Bitmap bitmap) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(CompressFormat.PNG, 100, out);
+
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,47 @@
+package net.alliknow.podcatcher.model.test;
+
+import android.test.InstrumentationTestCase;
+
+import net.alliknow.podcatcher.model.Crc64;
+
+import java.nio.charset.Charset;
+
+@SuppressWarnings("javadoc")
+public class Crc64Test extends InstrumentationTestCase {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    public final void testCheckValue() {
+        final byte[] bytes = "123456789".getBytes(ASCII);
+        final Crc64 checksum = new Crc64();
+
+        checksum.update(bytes, 0, bytes.length);
+        assertEquals(0x995dc9bbdf1939faL, checksum.getValue());
+    }
+
+    public final void testChunks() {
+        final byte[] bytes = "<rss><channel><title>Test</title></channel></rss>".getBytes(ASCII);
+        final Crc64 whole = new Crc64();
+        whole.update(bytes, 0, bytes.length);
+
+        final Crc64 chunks = new Crc64();
+        chunks.update(bytes, 0, 7);
+        chunks.update(bytes, 7, bytes.length - 7);
+        assertEquals(whole.getValue(), chunks.getValue());
+
+        final Crc64 single = new Crc64();
+        for (byte b : bytes)
+            single.update(b);
+        assertEquals(whole.getValue(), single.getValue());
+
+        // One byte changed
+        bytes[bytes.length / 2]++;
+        chunks.reset();
+        chunks.update(bytes, 0, bytes.length);
+        assertFalse(whole.getValue() == chunks.getValue());
+    }
+
+    public final void testEmpty() {
+        assertEquals(0, new Crc64().getValue());
+    }
+}
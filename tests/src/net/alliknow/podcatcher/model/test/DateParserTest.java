@@ -0,0 +1,111 @@
+package net.alliknow.podcatcher.model.test;
+
+import android.test.InstrumentationTestCase;
+
+import net.alliknow.podcatcher.model.DateParser;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+@SuppressWarnings("javadoc")
+public class DateParserTest extends InstrumentationTestCase {
+
+    /** Date strings the old SimpleDateFormat based parsing fully understands */
+    private static final String[] LEGACY_CORPUS = {
+            "Sun, 17 Nov 2013 00:00:00 -0600",
+            "Sun, 3 Nov 2013 00:00:00 -0500",
+            "Sun, 10 Nov 2013 00:00:00 -0600",
+            "Mon, 06 Jan 2014 18:30:00 GMT",
+            "Mon, 06 Jan 2014 18:30:00 gmt",
+            "Tue, 07 Jan 14 05:00:00 +0000",
+            "Tue, 07 Jan 99 05:00:00 +0000",
+            "Wed, 08 Jan 2014 12:00:00 EST",
+            "Wed, 08 Jan 2014 12:00:00 PST",
+            "Sat, 05 Jul 2014 12:00:00 EDT",
+            "Sat, 05 Jul 2014 12:00:00 PDT",
+            "Sat, 05 Jul 2014 12:00:00 CDT",
+            "Sat, 05 Jul 2014 12:00:00 MST",
+            "Thu, 09 Jan 2014 23:59:59 +0100",
+            "Thu, 09 Jan 2014 23:59:59 +0530",
+            "Fri, 10 Jan 2014 10:00:00 GMT+01:00",
+            "Fri, 10 Jan 2014 10:00:00 -0800 (PST)",
+            "Sunday, 17 Nov 2013 00:00:00 GMT",
+            "Sun, 17 November 2013 00:00:00 GMT",
+            "Mon, 31 Feb 2014 10:00:00 GMT",
+            "Sun, 17 Nov 2013",
+            "2013-11-17",
+            "13-11-17"
+    };
+
+    public final void testLegacyCorpus() throws ParseException {
+        for (String date : LEGACY_CORPUS) {
+            final Date legacy = legacyParseDate(date);
+
+            assertNotNull(date, legacy);
+            assertEquals(date, legacy.getTime(), DateParser.parse(date));
+        }
+    }
+
+    public final void testImprovedFormats() {
+        // ISO 8601, the old parsing only read the date
+        assertEquals(utc(2013, 11, 17, 10, 15, 0, 0), DateParser.parse("2013-11-17T10:15:00Z"));
+        assertEquals(utc(2013, 11, 17, 9, 15, 0, 250),
+                DateParser.parse("2013-11-17T10:15:00.25+01:00"));
+        assertEquals(utc(2013, 11, 17, 15, 15, 0, 0),
+                DateParser.parse("2013-11-17T10:15-0500"));
+        // RFC 822 without seconds and without day of week
+        assertEquals(utc(2013, 11, 17, 10, 15, 0, 0),
+                DateParser.parse("Sun, 17 Nov 2013 10:15 GMT"));
+        assertEquals(utc(2013, 11, 17, 10, 15, 0, 0), DateParser.parse("17 Nov 2013 10:15:00 UT"));
+        assertEquals(utc(2013, 9, 17, 10, 15, 0, 0),
+                DateParser.parse("Tue, 17 Sept 2013 10:15:00 Z"));
+        // White space around
+        assertEquals(utc(2013, 11, 17, 10, 15, 0, 0),
+                DateParser.parse("\n   Sun, 17 Nov 2013 10:15:00 +0000 \n"));
+    }
+
+    public final void testInvalid() {
+        assertEquals(DateParser.INVALID, DateParser.parse(null));
+        assertEquals(DateParser.INVALID, DateParser.parse(""));
+        assertEquals(DateParser.INVALID, DateParser.parse("  "));
+        assertEquals(DateParser.INVALID, DateParser.parse("garbage"));
+        assertEquals(DateParser.INVALID, DateParser.parse("Sun, 17 Foo 2013"));
+        assertEquals(DateParser.INVALID, DateParser.parse("Sun, 17 Nov 213 10:00:00 GMT"));
+        assertEquals(DateParser.INVALID, DateParser.parse("Sun, 17 Nov 2013 10 GMT"));
+        assertEquals(DateParser.INVALID, DateParser.parse("2013-11-17T10:15:00Zulu"));
+        // Unknown zones are left for the caller to handle
+        assertEquals(DateParser.INVALID, DateParser.parse("Sun, 17 Nov 2013 10:15:00 XYZ"));
+    }
+
+    private long utc(int year, int month, int day, int hour, int minute, int second, int millis) {
+        final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("GMT"), Locale.US);
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, minute, second);
+        calendar.set(Calendar.MILLISECOND, millis);
+
+        return calendar.getTimeInMillis();
+    }
+
+    /** A copy of the old FeedEntity#parseDate(String) to compare with */
+    private Date legacyParseDate(String dateString) {
+        try {
+            return new SimpleDateFormat("EEE, dd MMM yy HH:mm:ss zzz", Locale.US)
+                    .parse(dateString);
+        } catch (ParseException e) {
+            for (String format : new String[] {
+                    "EEE, dd MMM yy", "yy-MM-dd"
+            })
+                try {
+                    return new SimpleDateFormat(format, Locale.US).parse(dateString);
+                } catch (ParseException e1) {
+                    // Does not fit the format, pass and try next
+                }
+        }
+
+        return null;
+    }
+}
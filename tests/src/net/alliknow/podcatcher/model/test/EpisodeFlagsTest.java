@@ -0,0 +1,218 @@
+package net.alliknow.podcatcher.model.test;
+
+import static net.alliknow.podcatcher.model.EpisodeFlags.DOWNLOADED;
+import static net.alliknow.podcatcher.model.EpisodeFlags.DOWNLOADING;
+import static net.alliknow.podcatcher.model.EpisodeFlags.IN_PLAYLIST;
+import static net.alliknow.podcatcher.model.EpisodeFlags.OLD;
+import static net.alliknow.podcatcher.model.EpisodeFlags.RESUME_SET;
+
+import android.test.InstrumentationTestCase;
+
+import net.alliknow.podcatcher.Podcatcher;
+import net.alliknow.podcatcher.model.EpisodeBaseManager;
+import net.alliknow.podcatcher.model.EpisodeFlags;
+import net.alliknow.podcatcher.model.types.Episode;
+import net.alliknow.podcatcher.model.types.EpisodeMetadata;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@SuppressWarnings("javadoc")
+public class EpisodeFlagsTest extends InstrumentationTestCase {
+
+    private static final int EPISODE_COUNT = 100;
+
+    /** Gives access to the flag handling of the episode managers */
+    private static class FlagsManager extends EpisodeBaseManager {
+
+        private FlagsManager(Podcatcher app) {
+            super(app);
+        }
+
+        @Override
+        public EpisodeFlags getFlags(Podcast podcast) {
+            return super.getFlags(podcast);
+        }
+
+        @Override
+        public void updateFlags(Episode episode, EpisodeMetadata meta) {
+            super.updateFlags(episode, meta);
+        }
+
+        @Override
+        public void removeFlags(Podcast podcast) {
+            super.removeFlags(podcast);
+        }
+    }
+
+    public final void testBits() throws Exception {
+        final List<Episode> episodes = createPodcast("bits", 0, EPISODE_COUNT).getEpisodes();
+        final EpisodeFlags flags = new EpisodeFlags(episodes);
+        assertTrue(flags.isFor(episodes));
+        assertEquals(EPISODE_COUNT, flags.size());
+
+        // 1. Set flags for some episodes
+        flags.update(3, record(true, null, null, 0, 1000));
+        flags.update(5, record(false, 1L, "file", null, null));
+        flags.update(7, record(null, 2L, null, null, null));
+
+        assertEquals(1 << OLD | 1 << IN_PLAYLIST | 1 << RESUME_SET, flags.getMask(3));
+        assertEquals(1 << DOWNLOADED, flags.getMask(5));
+        assertEquals(1 << DOWNLOADING, flags.getMask(7));
+        assertEquals(0, flags.getMask(4));
+        assertTrue(flags.get(3, OLD));
+        assertFalse(flags.get(5, OLD));
+        assertTrue(flags.get(7, DOWNLOADING));
+
+        // 2. Counters follow, setting the same flag again changes nothing
+        flags.update(3, record(true, null, null, 0, 1000));
+        assertEquals(1, flags.count(OLD));
+        assertEquals(1, flags.count(DOWNLOADED));
+        assertEquals(1, flags.count(IN_PLAYLIST));
+        assertEquals(1, flags.count(RESUME_SET));
+        assertEquals(1, flags.count(DOWNLOADING));
+
+        // 3. The download completes, the other records go away
+        flags.update(7, record(null, 2L, "file", null, null));
+        assertEquals(2, flags.count(DOWNLOADED));
+        assertEquals(0, flags.count(DOWNLOADING));
+
+        flags.update(3, null);
+        flags.update(5, new EpisodeMetadata());
+        assertEquals(0, flags.getMask(3));
+        assertEquals(0, flags.count(OLD));
+        assertEquals(0, flags.count(IN_PLAYLIST));
+        assertEquals(0, flags.count(RESUME_SET));
+        assertEquals(1, flags.count(DOWNLOADED));
+    }
+
+    public final void testIndexOf() throws Exception {
+        final List<Episode> episodes = createPodcast("index", 0, EPISODE_COUNT).getEpisodes();
+        final EpisodeFlags flags = new EpisodeFlags(episodes);
+
+        // 1. All episodes are found at their positions
+        for (int position = 0; position < EPISODE_COUNT; position++)
+            assertEquals(position, flags.indexOf(episodes.get(position)));
+
+        // 2. Episodes are found by media URL, others are not
+        final Podcast other = createPodcast("index", EPISODE_COUNT - 2, EPISODE_COUNT + 2);
+        assertEquals(flags.indexOf(episodes.get(0)), flags.indexOf(other.getEpisodes().get(2)));
+        assertEquals(-1, flags.indexOf(other.getEpisodes().get(0)));
+
+        // 3. Episodes with the same hash code, "Aa" and "BB" hash the same
+        final StringBuilder feed = Utils.createFeed();
+        Utils.appendItem(feed, "Aa", "http://example.com/Aa.mp3", null);
+        Utils.appendItem(feed, "Other", "http://example.com/other.mp3", null);
+        Utils.appendItem(feed, "BB", "http://example.com/BB.mp3", null);
+        final List<Episode> colliding =
+                Utils.createPodcast("Hash", "http://example.com/hash", feed).getEpisodes();
+        assertEquals(colliding.get(0).hashCode(), colliding.get(2).hashCode());
+
+        final EpisodeFlags collidingFlags = new EpisodeFlags(colliding);
+        for (int position = 0; position < colliding.size(); position++)
+            assertEquals(position, collidingFlags.indexOf(colliding.get(position)));
+        assertEquals(-1, collidingFlags.indexOf(episodes.get(0)));
+    }
+
+    public final void testManagerFlags() throws Exception {
+        final Podcast podcast = createPodcast("manager", 0, 10);
+        final Podcast other = createPodcast("other", 0, 10);
+        final FlagsManager manager = createManager();
+
+        final Map<String, EpisodeMetadata> metadata = new HashMap<>();
+        metadata.put(podcast.getEpisodes().get(1).getMediaUrl(),
+                record(true, null, null, null, null));
+        metadata.put(podcast.getEpisodes().get(2).getMediaUrl(),
+                record(null, 1L, "file", null, null));
+        manager.onEpisodeMetadataLoaded(metadata);
+
+        // 1. Flags are created from the metadata and kept
+        final EpisodeFlags flags = manager.getFlags(podcast);
+        assertTrue(flags.isFor(podcast.getEpisodes()));
+        assertEquals(1, flags.count(OLD));
+        assertEquals(1, flags.count(DOWNLOADED));
+        assertTrue(flags.get(1, OLD));
+        assertSame(flags, manager.getFlags(podcast));
+
+        // 2. Updates go to the flags of the episode's podcast only
+        final Episode episode = podcast.getEpisodes().get(3);
+        manager.updateFlags(episode, record(true, null, null, 2, null));
+        assertEquals(2, flags.count(OLD));
+        assertEquals(1, flags.count(IN_PLAYLIST));
+        assertTrue(flags.get(3, IN_PLAYLIST));
+
+        final EpisodeFlags otherFlags = manager.getFlags(other);
+        manager.updateFlags(other.getEpisodes().get(0), record(true, null, null, null, null));
+        assertEquals(1, otherFlags.count(OLD));
+        assertEquals(2, flags.count(OLD));
+
+        manager.updateFlags(episode, null);
+        assertEquals(1, flags.count(OLD));
+        assertEquals(0, flags.count(IN_PLAYLIST));
+
+        // 3. A new episode list gets new flags, built from the metadata
+        podcast.parse(Utils.createParser(createFeed("manager", 0, 12)));
+        assertFalse(flags.isFor(podcast.getEpisodes()));
+        final EpisodeFlags reloaded = manager.getFlags(podcast);
+        assertNotSame(flags, reloaded);
+        assertTrue(reloaded.isFor(podcast.getEpisodes()));
+        assertEquals(1, reloaded.count(OLD));
+        assertEquals(1, reloaded.count(DOWNLOADED));
+
+        // 4. Removed podcasts lose their flags
+        manager.removeFlags(podcast);
+        assertNotSame(reloaded, manager.getFlags(podcast));
+        assertSame(otherFlags, manager.getFlags(other));
+    }
+
+    private FlagsManager createManager() {
+        final Podcatcher app = (Podcatcher) getInstrumentation().getTargetContext()
+                .getApplicationContext();
+        final FlagsManager[] manager = new FlagsManager[1];
+
+        // The manager needs a looper for its handler
+        getInstrumentation().runOnMainSync(new Runnable() {
+
+            @Override
+            public void run() {
+                manager[0] = new FlagsManager(app);
+            }
+        });
+
+        return manager[0];
+    }
+
+    private static EpisodeMetadata record(Boolean isOld, Long downloadId, String filePath,
+            Integer playlistPosition, Integer resumeAt) {
+        final EpisodeMetadata meta = new EpisodeMetadata();
+        meta.isOld = isOld;
+        meta.downloadId = downloadId;
+        meta.filePath = filePath;
+        meta.playlistPosition = playlistPosition;
+        meta.resumeAt = resumeAt;
+
+        return meta;
+    }
+
+    private Podcast createPodcast(String name, int first, int last)
+            throws XmlPullParserException, IOException {
+        return Utils.createPodcast(name, "http://example.com/" + name,
+                createFeed(name, first, last));
+    }
+
+    private StringBuilder createFeed(String name, int first, int last) {
+        final StringBuilder feed = Utils.createFeed();
+        // Higher numbers are newer, feed is newest first
+        for (int index = last - 1; index >= first; index--)
+            Utils.appendItem(feed, name + index, "http://example.com/" + name + '/' + index
+                    + ".mp3", String.format("Mon, %02d Jan 2014 %02d:%02d:00 GMT",
+                    1 + index / 1440, index / 60 % 24, index % 60));
+
+        return feed;
+    }
+}
@@ -0,0 +1,175 @@
+package net.alliknow.podcatcher.model.test;
+
+import android.test.InstrumentationTestCase;
+
+import net.alliknow.podcatcher.listeners.OnMergeEpisodesListener;
+import net.alliknow.podcatcher.model.EpisodeListMerger;
+import net.alliknow.podcatcher.model.EpisodeListMerger.Change;
+import net.alliknow.podcatcher.model.types.Episode;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@SuppressWarnings("javadoc")
+public class EpisodeListMergerTest extends InstrumentationTestCase {
+
+    private final List<Episode> applied = new ArrayList<>();
+    private List<Change> lastChanges;
+    private CountDownLatch signal;
+
+    private final OnMergeEpisodesListener listener = new OnMergeEpisodesListener() {
+
+        @Override
+        public void onEpisodesMerged(List<Change> changes) {
+            for (Change change : changes)
+                switch (change.getKind()) {
+                    case INSERT:
+                        applied.add(change.getPosition(), change.getEpisode());
+                        break;
+                    case REMOVE:
+                        applied.remove(change.getPosition());
+                        break;
+                    case REPLACE:
+                        applied.set(change.getPosition(), change.getEpisode());
+                        break;
+                }
+
+            lastChanges = changes;
+            signal.countDown();
+        }
+    };
+
+    public final void testMerge() throws Exception {
+        final Podcast one = createPodcast("one", 0, 20, 3);
+        final Podcast other = createPodcast("other", 1, 15, 2);
+        final EpisodeListMerger merger = new EpisodeListMerger(listener);
+
+        // 1. Merge the runs one by one
+        setRunAndWait(merger, one, one.getEpisodes());
+        assertMerged(merger, one.getEpisodes());
+        final List<Episode> published = merger.getEpisodes();
+        final List<Episode> publishedCopy = new ArrayList<>(published);
+
+        setRunAndWait(merger, other, other.getEpisodes());
+        assertMerged(merger, one.getEpisodes(), other.getEpisodes());
+        assertEquals(other.getEpisodeCount(), lastChanges.size());
+
+        // 2. Reload one podcast: only the changed episodes move
+        one.parse(createParser("one", 4, 23, 3));
+        setRunAndWait(merger, one, one.getEpisodes());
+        assertMerged(merger, one.getEpisodes(), other.getEpisodes());
+        int moved = 0;
+        for (Change change : lastChanges)
+            if (change.getKind() != Change.Kind.REPLACE)
+                moved++;
+        assertEquals(2, moved);
+
+        // 3. Episodes in several runs are only in the list once
+        final List<Episode> extra = new ArrayList<>(other.getEpisodes().subList(0, 3));
+        setRunAndWait(merger, "extra", extra);
+        assertEquals(0, lastChanges.size());
+
+        setRunAndWait(merger, other, null);
+        assertMerged(merger, one.getEpisodes(), extra);
+
+        setRunAndWait(merger, "extra", null);
+        assertMerged(merger, one.getEpisodes());
+
+        // 4. Lists published before are never changed
+        assertEquals(publishedCopy, published);
+        assertNotSame(published, merger.getEpisodes());
+    }
+
+    public final void testChangesInListOrder() throws Exception {
+        final Podcast one = createPodcast("one", 0, 20, 2);
+        final Podcast other = createPodcast("other", 1, 20, 2);
+        final EpisodeListMerger merger = new EpisodeListMerger(listener);
+        setRunAndWait(merger, one, one.getEpisodes());
+
+        // Inserts all over the list, each right after the one before
+        setRunAndWait(merger, other, other.getEpisodes());
+        assertMerged(merger, one.getEpisodes(), other.getEpisodes());
+        assertEquals(other.getEpisodeCount(), lastChanges.size());
+        for (int index = 1; index < lastChanges.size(); index++)
+            assertTrue(lastChanges.get(index - 1).getPosition()
+                    < lastChanges.get(index).getPosition());
+
+        // Removals and inserts mixed
+        one.parse(createParser("one", 4, 24, 2));
+        setRunAndWait(merger, one, one.getEpisodes());
+        assertMerged(merger, one.getEpisodes(), other.getEpisodes());
+    }
+
+    public final void testUnsortedRun() throws Exception {
+        final Podcast podcast = createPodcast("unsorted", 0, 10, 1);
+        final List<Episode> reversed = new ArrayList<>(podcast.getEpisodes());
+        Collections.reverse(reversed);
+        reversed.add(reversed.get(0));
+
+        final EpisodeListMerger merger = new EpisodeListMerger(listener);
+        setRunAndWait(merger, podcast, reversed);
+        assertMerged(merger, podcast.getEpisodes());
+    }
+
+    @SafeVarargs
+    private final void assertMerged(EpisodeListMerger merger, List<Episode>... runs) {
+        final SortedSet<Episode> expected = new TreeSet<>();
+        for (List<Episode> run : runs)
+            expected.addAll(run);
+
+        assertEquals(new ArrayList<>(expected), merger.getEpisodes());
+        assertEquals(merger.getEpisodes(), applied);
+    }
+
+    private void setRunAndWait(final EpisodeListMerger merger, final Object key,
+            final List<Episode> run) throws InterruptedException {
+        signal = new CountDownLatch(1);
+
+        // The merger is used from the main thread only
+        getInstrumentation().runOnMainSync(new Runnable() {
+
+            @Override
+            public void run() {
+                if (run == null)
+                    merger.removeRun(key);
+                else
+                    merger.setRun(key, run);
+            }
+        });
+
+        assertTrue(signal.await(10, TimeUnit.SECONDS));
+    }
+
+    private Podcast createPodcast(String name, int first, int last, int step)
+            throws XmlPullParserException, IOException {
+        return Utils.createPodcast(name, "http://example.com/" + name,
+                createFeed(name, first, last, step));
+    }
+
+    private XmlPullParser createParser(String name, int first, int last, int step)
+            throws XmlPullParserException {
+        return Utils.createParser(createFeed(name, first, last, step));
+    }
+
+    private StringBuilder createFeed(String name, int first, int last, int step) {
+        final StringBuilder feed = Utils.createFeed();
+        // Higher numbers are newer, feed is newest first, podcasts publish
+        // at different hours
+        for (int index = last - 1; index >= first; index -= step)
+            Utils.appendItem(feed, name + index, "http://example.com/" + name + '/' + index
+                    + ".mp3", String.format("Mon, %02d Jan 2014 %02d:00:00 GMT", 1 + index,
+                    name.length()));
+
+        return feed;
+    }
+}
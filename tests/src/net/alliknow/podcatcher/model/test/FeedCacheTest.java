@@ -0,0 +1,102 @@
+package net.alliknow.podcatcher.model.test;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+
+import net.alliknow.podcatcher.model.FeedCache;
+import net.alliknow.podcatcher.model.FeedCache.CachingStream;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+@SuppressWarnings("javadoc")
+public class FeedCacheTest extends InstrumentationTestCase {
+
+    private static final byte[] FEED = "<rss><channel><title>Test</title></channel></rss>"
+            .getBytes();
+
+    private final Podcast podcast = new Podcast("Test", "http://example.com/feed-cache-test");
+
+    private Context context;
+
+    @Override
+    protected void setUp() throws Exception {
+        context = getInstrumentation().getTargetContext();
+
+        FeedCache.delete(context, podcast);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FeedCache.delete(context, podcast);
+    }
+
+    public final void testComplete() throws IOException {
+        final CachingStream stream = cache();
+        assertEquals(FEED.length, readAll(stream).length);
+        stream.commit();
+        stream.close();
+
+        assertEquals(0, FeedCache.getPartialLength(context, podcast));
+        assertNull(FeedCache.openPartial(context, podcast));
+        assertEqualBytes(FEED, readAll(FeedCache.open(context, podcast)));
+    }
+
+    public final void testPartial() throws IOException {
+        // Read the start of the feed only
+        final CachingStream stream = cache();
+        final byte[] start = new byte[10];
+        assertEquals(start.length, stream.read(start));
+        stream.commit();
+        stream.close();
+
+        assertNull(FeedCache.open(context, podcast));
+        assertEquals(start.length, FeedCache.getPartialLength(context, podcast));
+        assertEqualBytes(start, readAll(FeedCache.openPartial(context, podcast)));
+
+        // Reading all of it next time replaces the partial copy
+        final CachingStream next = cache();
+        readAll(next);
+        next.commit();
+        next.close();
+
+        assertEquals(0, FeedCache.getPartialLength(context, podcast));
+        assertEqualBytes(FEED, readAll(FeedCache.open(context, podcast)));
+    }
+
+    public final void testNotCommitted() throws IOException {
+        final CachingStream stream = cache();
+        readAll(stream);
+        stream.close();
+
+        assertNull(FeedCache.open(context, podcast));
+        assertNull(FeedCache.openPartial(context, podcast));
+    }
+
+    private CachingStream cache() throws IOException {
+        return FeedCache.cache(context, podcast, new ByteArrayInputStream(FEED));
+    }
+
+    private byte[] readAll(InputStream stream) throws IOException {
+        final ByteArrayOutputStream result = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[16];
+
+        try {
+            int count;
+            while ((count = stream.read(buffer)) >= 0)
+                result.write(buffer, 0, count);
+        } finally {
+            if (!(stream instanceof CachingStream))
+                stream.close();
+        }
+
+        return result.toByteArray();
+    }
+
+    private void assertEqualBytes(byte[] expected, byte[] actual) {
+        assertEquals(new String(expected), new String(actual));
+    }
+}
@@ -0,0 +1,212 @@
+package net.alliknow.podcatcher.model.test;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import net.alliknow.podcatcher.model.FilteredEpisodeList;
+import net.alliknow.podcatcher.model.types.Episode;
+import net.alliknow.podcatcher.model.types.EpisodeOrder;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+
+@SuppressWarnings("javadoc")
+public class FilteredEpisodeListTest extends InstrumentationTestCase {
+
+    private static final int EPISODE_COUNT = 1000;
+    /** The size of the "all podcasts" list the benchmark runs on */
+    private static final int LARGE_EPISODE_COUNT = 20000;
+    /** The number of rows on screen */
+    private static final int SCREEN_ROWS = 20;
+    /** The number of runs to average the benchmark over */
+    private static final int RUNS = 20;
+
+    private List<Episode> episodes;
+    private CountingList source;
+
+    private final FilteredEpisodeList.Filter evenFilter = new FilteredEpisodeList.Filter() {
+
+        @Override
+        public boolean accept(Episode episode) {
+            return episodes.indexOf(episode) % 2 == 0;
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        final StringBuilder feed = Utils.createFeed();
+        for (int index = 0; index < EPISODE_COUNT; index++)
+            Utils.appendItem(feed, String.valueOf(index), "http://example.com/" + index + ".mp3",
+                    null);
+        final Podcast podcast = Utils.createPodcast("Test", "http://example.com/feed", feed);
+
+        episodes = podcast.getEpisodes();
+        source = new CountingList(episodes);
+    }
+
+    public final void testPlain() {
+        final FilteredEpisodeList list = new FilteredEpisodeList(source, null);
+
+        assertEquals(episodes, list);
+        assertEquals(0, list.getFilteredCount());
+        assertEquals(EPISODE_COUNT - 1, list.indexOf(episodes.get(EPISODE_COUNT - 1)));
+        assertEquals(-1, list.indexOf(null));
+    }
+
+    public final void testFilterAndReverse() {
+        final FilteredEpisodeList list = new FilteredEpisodeList(source, null);
+        final List<Episode> expected = new ArrayList<>();
+        for (int index = 0; index < EPISODE_COUNT; index += 2)
+            expected.add(episodes.get(index));
+
+        list.setFilter(evenFilter);
+        assertEquals(expected, list);
+        assertEquals(EPISODE_COUNT / 2, list.getFilteredCount());
+        assertEquals(1, list.indexOf(episodes.get(2)));
+        assertEquals(-1, list.indexOf(episodes.get(1)));
+
+        // Reversing does not look at the source
+        source.count = 0;
+        list.setReversed(true);
+        assertEquals(0, source.count);
+
+        Collections.reverse(expected);
+        assertEquals(expected, list);
+        assertEquals(expected.size() - 2, list.indexOf(episodes.get(2)));
+
+        list.setFilter(null);
+        final List<Episode> reversed = new ArrayList<>(episodes);
+        Collections.reverse(reversed);
+        assertEquals(reversed, list);
+    }
+
+    public final void testAccess() {
+        final FilteredEpisodeList list = new FilteredEpisodeList(source, null);
+        list.setFilter(evenFilter);
+
+        // Rows are read from the source when accessed, and only then
+        source.count = 0;
+        for (int position = 0; position < 10; position++)
+            assertEquals(episodes.get(position * 2), list.get(position));
+        assertEquals(10, source.count);
+
+        // Swapping the source shows the new episodes
+        final List<Episode> head = episodes.subList(0, 10);
+        list.setFilter(null);
+        list.setSource(head);
+        assertEquals(head, list);
+    }
+
+    public final void testIndexOfSorted() {
+        final FilteredEpisodeList list = new FilteredEpisodeList(source,
+                EpisodeOrder.NEWEST_FIRST);
+        list.setFilter(evenFilter);
+        list.setReversed(true);
+
+        // The source is searched, not scanned
+        source.count = 0;
+        assertEquals(EPISODE_COUNT / 2 - 1, list.indexOf(episodes.get(0)));
+        assertEquals(0, list.indexOf(episodes.get(EPISODE_COUNT - 2)));
+        assertEquals(-1, list.indexOf(episodes.get(EPISODE_COUNT - 1)));
+        assertEquals(-1, list.indexOf(null));
+        assertTrue(source.count < 50);
+
+        // Same results as without the order
+        list.setSource(source, null);
+        assertEquals(EPISODE_COUNT / 2 - 1, list.indexOf(episodes.get(0)));
+        assertEquals(0, list.indexOf(episodes.get(EPISODE_COUNT - 2)));
+        assertEquals(-1, list.indexOf(episodes.get(EPISODE_COUNT - 1)));
+    }
+
+    @LargeTest
+    public final void testUpdateCost() throws Exception {
+        final List<Episode> large = createEpisodes(LARGE_EPISODE_COUNT);
+        // Every third episode is old, looked up like the episode states
+        final HashSet<Episode> old = new HashSet<>();
+        for (int index = 0; index < LARGE_EPISODE_COUNT; index += 3)
+            old.add(large.get(index));
+        final FilteredEpisodeList.Filter newFilter = new FilteredEpisodeList.Filter() {
+
+            @Override
+            public boolean accept(Episode episode) {
+                return !old.contains(episode);
+            }
+        };
+
+        // 1. Update with filter, as the activity does on each change
+        final FilteredEpisodeList list = new FilteredEpisodeList(large, null);
+        long start = System.nanoTime();
+        for (int run = 0; run < RUNS; run++)
+            list.setFilter(run % 2 == 0 ? newFilter : null);
+        final long filterTime = (System.nanoTime() - start) / RUNS;
+        list.setFilter(newFilter);
+        assertEquals(LARGE_EPISODE_COUNT / 3 + 1, list.getFilteredCount());
+
+        // 2. Scroll through a screenful of rows at the top and the bottom
+        final CountingList counting = new CountingList(large);
+        list.setSource(counting);
+        counting.count = 0;
+        start = System.nanoTime();
+        for (int run = 0; run < RUNS; run++)
+            for (int row = 0; row < SCREEN_ROWS; row++) {
+                list.get(row);
+                list.get(list.size() - 1 - row);
+            }
+        final long rowTime = (System.nanoTime() - start) / RUNS;
+        // Rows are read one by one, nothing else is touched
+        assertEquals(RUNS * SCREEN_ROWS * 2, counting.count);
+
+        // 3. Copying the list as we used to do for each update
+        start = System.nanoTime();
+        for (int run = 0; run < RUNS; run++) {
+            final List<Episode> copy = new ArrayList<>(large);
+            final Iterator<Episode> iterator = copy.iterator();
+            while (iterator.hasNext())
+                if (old.contains(iterator.next()))
+                    iterator.remove();
+        }
+        final long copyTime = (System.nanoTime() - start) / RUNS;
+
+        Log.d(Utils.TEST_STATUS, "Episode list of " + LARGE_EPISODE_COUNT + ", filter update: "
+                + filterTime / 1000 + "us, two screens of rows: " + rowTime / 1000
+                + "us, copy and filter as before: " + copyTime / 1000 + "us");
+    }
+
+    private List<Episode> createEpisodes(int count) throws Exception {
+        final StringBuilder feed = Utils.createFeed();
+        for (int index = 0; index < count; index++)
+            Utils.appendItem(feed, String.valueOf(index), "http://example.com/" + index + ".mp3",
+                    null);
+
+        return Utils.createPodcast("Large", "http://example.com/large", feed).getEpisodes();
+    }
+
+    private static class CountingList extends AbstractList<Episode> implements RandomAccess {
+
+        private final List<Episode> list;
+        private int count;
+
+        private CountingList(List<Episode> list) {
+            this.list = list;
+        }
+
+        @Override
+        public Episode get(int location) {
+            count++;
+
+            return list.get(location);
+        }
+
+        @Override
+        public int size() {
+            return list.size();
+        }
+    }
+}
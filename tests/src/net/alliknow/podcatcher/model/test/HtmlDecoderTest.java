@@ -0,0 +1,90 @@
+package net.alliknow.podcatcher.model.test;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.text.Html;
+import android.util.Log;
+
+import net.alliknow.podcatcher.model.HtmlDecoder;
+import net.alliknow.podcatcher.model.tags.RSS;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+@SuppressWarnings("javadoc")
+public class HtmlDecoderTest extends InstrumentationTestCase {
+
+    private static final String[] SAMPLES = {
+            "", "Plain title", "Episode 12: The Return", "Q & A", "Q &amp; A",
+            "Tom &amp; Jerry &#8211; Part 1", "It&#039;s &quot;fine&quot;", "&#x201C;Hex&#x201d;",
+            "Caf&eacute; &amp; B&auml;ckerei", "Two  blanks", " Leading blank", "Trailing blank ",
+            "Line\nbreak", "Line \n break", "<b>Bold</b> title", "<I>Italic</I>", "a<br>b",
+            "<p>Paragraph</p>", "<span style=\"x\">Styled</span>", "&unknown; entity",
+            "AT&T", "&amp without semicolon", "1 < 2", "2 > 1", "&#32;&#32;x", "&nbsp;Space",
+            "Tab\there", "Emoji &#128512;", "&lt;b&gt;Not bold&lt;/b&gt;"
+    };
+
+    /** The number of feeds to get titles from */
+    private static final int CORPUS_SIZE = 10;
+
+    public final void testSamples() {
+        for (String sample : SAMPLES)
+            assertEquals(sample, Html.fromHtml(sample).toString(), HtmlDecoder.decode(sample));
+    }
+
+    public final void testNoAllocation() {
+        final String plain = "Nothing to decode here";
+
+        assertSame(plain, HtmlDecoder.decode(plain));
+        assertNull(HtmlDecoder.decode(null));
+    }
+
+    @LargeTest
+    public final void testFeedTitles() {
+        final List<String> titles = new ArrayList<>();
+
+        for (Podcast podcast : Utils.getExamplePodcasts(
+                getInstrumentation().getTargetContext(), CORPUS_SIZE))
+            try {
+                recordTitles(podcast.getUrl(), titles);
+            } catch (IOException | XmlPullParserException e) {
+                Log.d(Utils.TEST_STATUS, "Skipping " + podcast + " in corpus", e);
+            }
+
+        assertFalse(titles.isEmpty());
+        for (String title : titles)
+            assertEquals(title, Html.fromHtml(title).toString(), HtmlDecoder.decode(title));
+    }
+
+    private void recordTitles(String url, List<String> titles)
+            throws XmlPullParserException, IOException {
+        final InputStream in = new URL(url).openStream();
+
+        try {
+            final XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            final XmlPullParser parser = factory.newPullParser();
+            parser.setInput(in, null);
+
+            int eventType = parser.next();
+            while (eventType != XmlPullParser.END_DOCUMENT) {
+                if (eventType == XmlPullParser.START_TAG
+                        && parser.getName().equalsIgnoreCase(RSS.TITLE))
+                    // Titles are trimmed before decoding
+                    titles.add(parser.nextText().trim());
+
+                eventType = parser.next();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package net.alliknow.podcatcher.model.test;
+
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_COMPLETE;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.test.InstrumentationTestCase;
+
+import net.alliknow.podcatcher.model.LogoCache;
+
+@SuppressWarnings("javadoc")
+public class LogoCacheTest extends InstrumentationTestCase {
+
+    private static final String URL = "http://example.com/logo-cache-test";
+
+    private LogoCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        cache = LogoCache.getInstance();
+        assertNotNull(cache);
+
+        cache.remove(URL);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        cache.remove(URL);
+    }
+
+    public final void testPutAndGet() {
+        final int misses = cache.getMissCount();
+        assertNull(cache.get(URL));
+        assertFalse(cache.contains(URL));
+        assertEquals(misses + 1, cache.getMissCount());
+
+        final Bitmap logo = Bitmap.createBitmap(100, 100, Config.ARGB_8888);
+        assertTrue(logo.isMutable());
+        cache.put(URL, logo);
+        assertTrue(cache.contains(URL));
+
+        final int hits = cache.getHitCount();
+        final Bitmap cached = cache.get(URL);
+        assertFalse(cached.isMutable());
+        // The bitmap is shared, not copied
+        assertSame(cached, cache.get(URL));
+        assertEquals(hits + 2, cache.getHitCount());
+
+        cache.put(URL, null);
+        assertFalse(cache.contains(URL));
+    }
+
+    public final void testScaled() {
+        assertNull(cache.get(URL, 10, 10));
+
+        cache.put(URL, Bitmap.createBitmap(100, 100, Config.ARGB_8888));
+        final Bitmap scaled = cache.get(URL, 10, 10);
+        assertEquals(10, scaled.getWidth());
+        assertEquals(10, scaled.getHeight());
+        assertSame(scaled, cache.get(URL, 10, 10));
+
+        // A new logo replaces all sizes
+        cache.put(URL, Bitmap.createBitmap(50, 50, Config.ARGB_8888));
+        assertNotSame(scaled, cache.get(URL, 10, 10));
+
+        cache.remove(URL);
+        assertNull(cache.get(URL, 10, 10));
+    }
+
+    public final void testTrimMemory() {
+        cache.put(URL, Bitmap.createBitmap(100, 100, Config.ARGB_8888));
+        assertFalse(cache.clearEvicted(URL));
+
+        final int evictions = cache.getEvictionCount();
+        cache.trimMemory(TRIM_MEMORY_COMPLETE);
+        assertFalse(cache.contains(URL));
+        assertTrue(cache.getEvictionCount() > evictions);
+
+        assertTrue(cache.clearEvicted(URL));
+        assertFalse(cache.clearEvicted(URL));
+    }
+
+    public final void testTrimMemoryRunningLow() {
+        cache.trimMemory(TRIM_MEMORY_COMPLETE);
+        cache.put(URL, Bitmap.createBitmap(100, 100, Config.ARGB_8888));
+
+        // The most recent logo is the last to go
+        cache.trimMemory(TRIM_MEMORY_RUNNING_LOW);
+        assertTrue(cache.contains(URL));
+    }
+}
@@ -0,0 +1,99 @@
+package net.alliknow.podcatcher.model.test;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.test.InstrumentationTestCase;
+
+import net.alliknow.podcatcher.model.LogoDecoder;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+@SuppressWarnings("javadoc")
+public class LogoDecoderTest extends InstrumentationTestCase {
+
+    private LogoDecoder decoder;
+
+    @Override
+    protected void setUp() throws Exception {
+        decoder = LogoDecoder.getInstance();
+    }
+
+    public final void testDecode() {
+        final byte[] data = encode(1000, 500);
+
+        for (int run = 0; run < 3; run++) {
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            final Bitmap logo = decoder.decode(data, 300, options);
+
+            assertEquals(600, logo.getWidth());
+            assertEquals(300, logo.getHeight());
+            assertFalse(logo.isMutable());
+            assertEquals(1000, options.outWidth);
+            assertEquals(500, options.outHeight);
+        }
+
+        // Small images keep their size
+        final Bitmap small = decoder.decode(encode(100, 100), 300, new BitmapFactory.Options());
+        assertEquals(100, small.getWidth());
+
+        assertNull(decoder.decode(new byte[] { 1, 2, 3 }, 300, new BitmapFactory.Options()));
+    }
+
+    public final void testPriority() throws InterruptedException {
+        final CountDownLatch[] blocked = { new CountDownLatch(1), new CountDownLatch(1) };
+        final CountDownLatch done = new CountDownLatch(3);
+        final List<String> order = new ArrayList<>();
+
+        // Keep the workers busy, so the rest is queued
+        for (final CountDownLatch latch : blocked)
+            decoder.getExecutor(latch, LogoDecoder.PRIORITY_BACKGROUND).execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException e) {
+                        // pass
+                    }
+                }
+            });
+        Thread.sleep(100);
+
+        for (final String key : new String[] { "first", "second", "third" })
+            decoder.getExecutor(key, LogoDecoder.PRIORITY_BACKGROUND).execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    synchronized (order) {
+                        order.add(key);
+                    }
+                    done.countDown();
+                }
+            });
+
+        assertTrue(decoder.prioritize("third", LogoDecoder.PRIORITY_VISIBLE));
+        assertFalse(decoder.prioritize("unknown", LogoDecoder.PRIORITY_VISIBLE));
+
+        // Free one worker only, so the queue is run in order
+        blocked[0].countDown();
+        done.await();
+        blocked[1].countDown();
+
+        assertEquals("third", order.get(0));
+        assertEquals("first", order.get(1));
+        assertEquals("second", order.get(2));
+        assertFalse(decoder.prioritize("third", LogoDecoder.PRIORITY_VISIBLE));
+    }
+
+    private byte[] encode(int width, int height) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Bitmap.createBitmap(width, height, Config.ARGB_8888).compress(CompressFormat.PNG, 100, out);
+
+        return out.toByteArray();
+    }
+}
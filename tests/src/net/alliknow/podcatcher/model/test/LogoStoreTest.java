@@ -0,0 +1,180 @@
+package net.alliknow.podcatcher.model.test;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.Bitmap.Config;
+import android.graphics.Color;
+import android.test.InstrumentationTestCase;
+
+import net.alliknow.podcatcher.model.LogoStore;
+import net.alliknow.podcatcher.model.LogoStore.Variant;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+@SuppressWarnings("javadoc")
+public class LogoStoreTest extends InstrumentationTestCase {
+
+    private static final String URL = "http://example.com/logo-store-test";
+
+    private Resources res;
+    private File directory;
+    private LogoStore store;
+
+    @Override
+    protected void setUp() throws Exception {
+        res = getInstrumentation().getTargetContext().getResources();
+        directory = new File(getInstrumentation().getTargetContext().getCacheDir(),
+                "logostore-test");
+        deleteFiles();
+
+        store = new LogoStore(res, directory, LogoStore.MAX_DISK_SIZE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteFiles();
+        directory.delete();
+    }
+
+    public final void testPutAndRead() throws InterruptedException {
+        assertNull(store.get(URL));
+        assertNull(store.read(URL, Variant.LARGE));
+
+        final byte[] data = encode(Bitmap.createBitmap(64, 32, Config.ARGB_8888));
+        assertNotNull(store.put(URL, data, "etag", null));
+
+        final LogoStore.Entry entry = store.get(URL);
+        assertEquals(64, entry.width);
+        assertEquals(32, entry.height);
+        assertEquals("etag", entry.etag);
+        assertTrue(entry.isFresh(1));
+
+        for (Variant variant : Variant.values())
+            assertNotNull(store.read(URL, variant));
+        final Bitmap row = store.read(URL, Variant.ROW);
+        assertEquals(store.getWidth(Variant.ROW), row.getWidth());
+        assertEquals(store.getHeight(Variant.ROW), row.getHeight());
+
+        // Same content only marks the logo as fetched again
+        Thread.sleep(10);
+        assertFalse(store.touchIfUnchanged(URL, new byte[] { 1, 2, 3 }, null, null));
+        assertTrue(store.touchIfUnchanged(URL, data, null, "yesterday"));
+        assertTrue(store.get(URL).fetchedAt > entry.fetchedAt);
+        assertEquals("etag", store.get(URL).etag);
+        assertEquals("yesterday", store.get(URL).lastModified);
+
+        store.remove(URL);
+        assertNull(store.get(URL));
+        assertNull(store.read(URL, Variant.ROW));
+        assertEquals(0, store.getDiskSize());
+    }
+
+    public final void testPutNotSquare() {
+        // Wide logo with black bars left and right of a white square
+        final Bitmap logo = Bitmap.createBitmap(64, 32, Config.ARGB_8888);
+        logo.eraseColor(Color.BLACK);
+        for (int x = 16; x < 48; x++)
+            for (int y = 0; y < 32; y++)
+                logo.setPixel(x, y, Color.WHITE);
+        assertNotNull(store.put(URL, encode(logo), null, null));
+
+        // The row logo is the white square, not the whole logo squeezed
+        final Bitmap row = store.read(URL, Variant.ROW);
+        assertEquals(row.getWidth(), row.getHeight());
+        assertEquals(Color.WHITE, row.getPixel(0, 0));
+        assertEquals(Color.WHITE, row.getPixel(row.getWidth() - 1, row.getHeight() / 2));
+    }
+
+    public final void testPutBroken() {
+        assertNull(store.put(URL, new byte[] { 1, 2, 3 }, null, null));
+        assertNull(store.get(URL));
+    }
+
+    public final void testEviction() {
+        final byte[] data = encode(Bitmap.createBitmap(64, 32, Config.ARGB_8888));
+
+        // 1. Find out how much space one logo takes
+        store.put(URL, data, null, null);
+        final long size = store.getDiskSize();
+        assertTrue(size > 0);
+        assertEquals(size, countFileSizes());
+        store.remove(URL);
+
+        // 2. Fill a store with room for three and a half logos
+        store = new LogoStore(res, directory, 3 * size + size / 2);
+        store.put(URL + 'a', data, null, null);
+        store.put(URL + 'b', data, null, null);
+        store.put(URL + 'c', data, null, null);
+        assertEquals(3 * size, store.getDiskSize());
+
+        // 3. Use a, so b is the least recently used one and goes first
+        assertNotNull(store.read(URL + 'a', Variant.ROW));
+        store.put(URL + 'd', data, null, null);
+        assertNull(store.get(URL + 'b'));
+        assertNotNull(store.get(URL + 'a'));
+        assertNotNull(store.get(URL + 'c'));
+        assertNotNull(store.get(URL + 'd'));
+        assertEquals(3 * size, store.getDiskSize());
+        assertEquals(3 * size, countFileSizes());
+
+        // 4. The order of use survives writing the index, c goes next
+        store.flush();
+        store = new LogoStore(res, directory, 3 * size + size / 2);
+        assertEquals(3 * size, store.getDiskSize());
+        store.put(URL + 'e', data, null, null);
+        assertNull(store.get(URL + 'c'));
+        assertNotNull(store.get(URL + 'a'));
+        assertNotNull(store.get(URL + 'd'));
+        assertNotNull(store.get(URL + 'e'));
+        assertEquals(3 * size, store.getDiskSize());
+    }
+
+    public final void testFlush() {
+        final byte[] data = encode(Bitmap.createBitmap(64, 32, Config.ARGB_8888));
+        final File index = new File(directory, "index");
+
+        // 1. Changes are not written right away
+        store.put(URL, data, "etag", null);
+        store.touch(URL, "other", null);
+        assertFalse(index.exists());
+
+        // 2. Flushing writes them
+        store.flush();
+        assertTrue(index.exists());
+        final LogoStore reloaded = new LogoStore(res, directory, LogoStore.MAX_DISK_SIZE);
+        assertEquals("other", reloaded.get(URL).etag);
+        assertEquals(store.getDiskSize(), reloaded.getDiskSize());
+
+        // 3. Many changes are written without flushing
+        for (int count = 0; count < 100; count++)
+            store.touch(URL, Integer.toString(count), null);
+        assertFalse("other".equals(new LogoStore(res, directory, LogoStore.MAX_DISK_SIZE)
+                .get(URL).etag));
+    }
+
+    private long countFileSizes() {
+        long size = 0;
+        for (File file : directory.listFiles())
+            if (!file.getName().startsWith("index"))
+                size += file.length();
+
+        return size;
+    }
+
+    private void deleteFiles() {
+        final File[] files = directory.listFiles();
+
+        if (files != null)
+            for (File file : files)
+                file.delete();
+    }
+
+    private byte[] encode(Bitmap bitmap) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(CompressFormat.PNG, 100, out);
+
+        return out.toByteArray();
+    }
+}
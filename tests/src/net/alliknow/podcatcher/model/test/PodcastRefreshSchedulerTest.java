@@ -0,0 +1,336 @@
+package net.alliknow.podcatcher.model.test;
+
+import static net.alliknow.podcatcher.model.PodcastRefreshScheduler.PRIORITY_BACKGROUND;
+import static net.alliknow.podcatcher.model.PodcastRefreshScheduler.PRIORITY_SELECTED;
+import static net.alliknow.podcatcher.model.PodcastRefreshScheduler.PRIORITY_VISIBLE;
+
+import android.test.InstrumentationTestCase;
+
+import net.alliknow.podcatcher.model.PodcastRefreshScheduler;
+import net.alliknow.podcatcher.model.tasks.remote.LoadPodcastTask.PodcastLoadError;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+@SuppressWarnings("javadoc")
+public class PodcastRefreshSchedulerTest extends InstrumentationTestCase {
+
+    private static final long MINUTE = 60 * 1000;
+
+    /** The podcasts started by the scheduler in start order */
+    private final List<Podcast> started = new ArrayList<>();
+    /** The podcasts loading right now, no matter who started them */
+    private final Set<Podcast> loading = new HashSet<>();
+    /** Whether the next load is rejected */
+    private boolean reject;
+    /** The scheduler's time */
+    private long now = 1000 * MINUTE;
+
+    private PodcastRefreshScheduler scheduler;
+
+    @Override
+    protected void setUp() throws Exception {
+        scheduler = new PodcastRefreshScheduler(new PodcastRefreshScheduler.Loader() {
+
+            @Override
+            public boolean hasLoadTask(Podcast podcast) {
+                return loading.contains(podcast);
+            }
+
+            @Override
+            public void startLoad(Podcast podcast, Executor executor, boolean acceptStale) {
+                if (reject) {
+                    reject = false;
+                    throw new RejectedExecutionException();
+                }
+
+                started.add(podcast);
+                loading.add(podcast);
+            }
+        }) {
+
+            @Override
+            protected long currentTime() {
+                return now;
+            }
+        };
+    }
+
+    public final void testQueueOrder() throws XmlPullParserException, IOException {
+        scheduler.setWorkerCount(1);
+        final Podcast first = podcast("first.com");
+        scheduler.schedule(first, PRIORITY_BACKGROUND);
+
+        // 1. Loaded podcasts come after the ones never loaded, higher
+        // priorities come first
+        final Podcast loaded = loadedPodcast("loaded.com");
+        final Podcast background = podcast("background.com");
+        final Podcast visible = podcast("visible.com");
+        final Podcast selected = podcast("selected.com");
+        final Podcast later = podcast("later.com");
+        scheduler.schedule(loaded, PRIORITY_BACKGROUND);
+        scheduler.schedule(background, PRIORITY_BACKGROUND);
+        scheduler.schedule(visible, PRIORITY_VISIBLE);
+        scheduler.schedule(selected, PRIORITY_SELECTED);
+        scheduler.schedule(later, PRIORITY_BACKGROUND);
+        assertEquals(Arrays.asList(first), started);
+        assertEquals(5, scheduler.getQueueSize());
+
+        // 2. Run them one by one
+        for (int run = 0; run < 5; run++)
+            finish(started.get(started.size() - 1), null);
+
+        assertEquals(Arrays.asList(first, selected, visible, background, later, loaded),
+                started);
+        assertEquals(0, scheduler.getQueueSize());
+        assertEquals(6, scheduler.getDispatchedCount());
+    }
+
+    public final void testDeduplication() {
+        scheduler.setWorkerCount(1);
+        final Podcast first = podcast("first.com");
+        final Podcast second = podcast("second.com");
+        final Podcast third = podcast("third.com");
+        scheduler.schedule(first, PRIORITY_BACKGROUND);
+
+        // 1. Podcasts loading or pending are not added again
+        scheduler.schedule(first, PRIORITY_SELECTED);
+        scheduler.schedule(second, PRIORITY_BACKGROUND);
+        scheduler.schedule(third, PRIORITY_VISIBLE);
+        scheduler.schedule(second, PRIORITY_BACKGROUND);
+        assertEquals(2, scheduler.getQueueSize());
+        assertFalse(scheduler.isPending(first));
+        assertTrue(scheduler.isPending(second));
+
+        // 2. But the priority is raised
+        scheduler.schedule(second, PRIORITY_SELECTED);
+        assertEquals(2, scheduler.getQueueSize());
+        finish(first, null);
+        assertEquals(Arrays.asList(first, second), started);
+
+        // 3. Podcasts started elsewhere are not started again
+        final Podcast elsewhere = podcast("elsewhere.com");
+        loading.add(elsewhere);
+        scheduler.schedule(elsewhere, PRIORITY_SELECTED);
+        assertFalse(scheduler.isPending(elsewhere));
+
+        // 4. Also if the load started while the request was waiting
+        final Podcast meanwhile = podcast("meanwhile.com");
+        scheduler.schedule(meanwhile, PRIORITY_SELECTED);
+        loading.add(meanwhile);
+        finish(second, null);
+        assertEquals(Arrays.asList(first, second, third), started);
+        assertFalse(scheduler.isPending(meanwhile));
+        assertEquals(0, scheduler.getQueueSize());
+    }
+
+    public final void testHostLimit() {
+        scheduler.setHostLimit(2);
+        final Podcast one = podcast("host.com/1");
+        final Podcast two = podcast("host.com/2");
+        final Podcast three = podcast("host.com/3");
+        final Podcast other = podcast("other.com");
+
+        // 1. The third podcast from the same host waits, others pass it
+        scheduler.schedule(one, PRIORITY_BACKGROUND);
+        scheduler.schedule(two, PRIORITY_BACKGROUND);
+        scheduler.schedule(three, PRIORITY_SELECTED);
+        scheduler.schedule(other, PRIORITY_BACKGROUND);
+        assertEquals(Arrays.asList(one, two, other), started);
+        assertTrue(scheduler.isPending(three));
+
+        // 2. Once a load from the host finished, it starts
+        finish(other, null);
+        assertTrue(scheduler.isPending(three));
+        finish(one, null);
+        assertEquals(Arrays.asList(one, two, other, three), started);
+        assertEquals(0, scheduler.getQueueSize());
+    }
+
+    public final void testDispatch() {
+        // 1. Only as many loads as there are workers run
+        scheduler.setWorkerCount(1);
+        final Podcast one = podcast("one.com");
+        final Podcast two = podcast("two.com");
+        final Podcast three = podcast("three.com");
+        scheduler.schedule(one, PRIORITY_BACKGROUND);
+        scheduler.schedule(two, PRIORITY_BACKGROUND);
+        scheduler.schedule(three, PRIORITY_BACKGROUND);
+        assertEquals(Arrays.asList(one), started);
+        assertEquals(2, scheduler.getQueueSize());
+
+        // 2. More workers start waiting loads right away
+        now += MINUTE;
+        scheduler.setWorkerCount(3);
+        assertEquals(Arrays.asList(one, two, three), started);
+        assertEquals(0, scheduler.getQueueSize());
+        assertEquals(3, scheduler.getDispatchedCount());
+        assertEquals(MINUTE, scheduler.getMaxWaitTime());
+        assertEquals(2 * MINUTE / 3, scheduler.getAverageWaitTime());
+
+        // 3. Loads the executor does not take are kept
+        final Podcast rejected = podcast("rejected.com");
+        scheduler.setWorkerCount(4);
+        reject = true;
+        scheduler.schedule(rejected, PRIORITY_SELECTED);
+        assertTrue(scheduler.isPending(rejected));
+        finish(one, null);
+        assertEquals(rejected, started.get(started.size() - 1));
+        assertFalse(scheduler.isPending(rejected));
+    }
+
+    public final void testBackoff() {
+        final Podcast podcast = podcast("podcast.com");
+
+        // 1. A failed podcast is held back, but for the selected one
+        failLoad(podcast, PodcastLoadError.NOT_PARSEABLE);
+        assertTrue(scheduler.isBlocked(podcast));
+        assertEquals(PodcastLoadError.NOT_PARSEABLE, scheduler.getLastError(podcast));
+        scheduler.schedule(podcast, PRIORITY_VISIBLE);
+        assertFalse(scheduler.isPending(podcast));
+        assertEquals(1, started.size());
+
+        // 2. The wait time doubles with every failure in a row
+        failLoad(podcast, PodcastLoadError.NOT_PARSEABLE);
+        now += 29 * MINUTE;
+        assertTrue(scheduler.isBlocked(podcast));
+        now += 32 * MINUTE;
+        assertFalse(scheduler.isBlocked(podcast));
+        scheduler.schedule(podcast, PRIORITY_BACKGROUND);
+        assertEquals(3, started.size());
+
+        // 3. A success resets it
+        finish(podcast, null);
+        failLoad(podcast, PodcastLoadError.NOT_PARSEABLE);
+        now += 31 * MINUTE;
+        assertFalse(scheduler.isBlocked(podcast));
+
+        // 4. Some podcasts wait for the user
+        failLoad(podcast, PodcastLoadError.AUTH_REQUIRED);
+        now += 24 * 60 * MINUTE;
+        assertTrue(scheduler.isBlocked(podcast));
+        scheduler.resetBackoff(podcast);
+        assertFalse(scheduler.isBlocked(podcast));
+        assertNull(scheduler.getLastError(podcast));
+    }
+
+    public final void testCircuitOpens() {
+        final Podcast waiting = podcast("host.com/waiting");
+
+        // 1. Network failures in a row block the host
+        failLoad(podcast("host.com/1"), PodcastLoadError.NOT_REACHABLE);
+        failLoad(podcast("host.com/2"), PodcastLoadError.UNKNOWN);
+        assertEquals(0, scheduler.getBlockedHostCount());
+        assertFalse(scheduler.isBlocked(waiting));
+        failLoad(podcast("host.com/3"), PodcastLoadError.NOT_REACHABLE);
+        assertEquals(1, scheduler.getBlockedHostCount());
+        assertTrue(scheduler.isBlocked(waiting));
+
+        // 2. No loads to the host but for the selected podcast
+        scheduler.schedule(waiting, PRIORITY_VISIBLE);
+        assertTrue(scheduler.isPending(waiting));
+        final Podcast selected = podcast("host.com/selected");
+        scheduler.schedule(selected, PRIORITY_SELECTED);
+        assertEquals(selected, started.get(started.size() - 1));
+        finish(selected, null);
+        assertEquals(0, scheduler.getBlockedHostCount());
+        assertFalse(scheduler.isPending(waiting));
+    }
+
+    public final void testCircuitTrial() {
+        blockHost();
+        final Podcast trial = podcast("host.com/trial");
+        final Podcast next = podcast("host.com/next");
+        final Podcast elsewhere = podcast("host.com/elsewhere");
+        scheduler.schedule(elsewhere, PRIORITY_VISIBLE);
+        scheduler.schedule(trial, PRIORITY_VISIBLE);
+        scheduler.schedule(next, PRIORITY_BACKGROUND);
+        final int startCount = started.size();
+
+        // 1. Once the block expired, a single trial load passes, a podcast
+        // started elsewhere in the meantime does not take the trial
+        loading.add(elsewhere);
+        now += 11 * MINUTE;
+        assertEquals(0, scheduler.getBlockedHostCount());
+        scheduler.setHostLimit(3);
+        assertEquals(startCount + 1, started.size());
+        assertTrue(started.contains(trial));
+        assertFalse(scheduler.isPending(elsewhere));
+        assertTrue(scheduler.isPending(next));
+
+        // 2. A failed trial blocks the host for twice as long
+        finish(trial, PodcastLoadError.NOT_REACHABLE);
+        assertEquals(1, scheduler.getBlockedHostCount());
+        now += 11 * MINUTE;
+        assertEquals(1, scheduler.getBlockedHostCount());
+        now += 10 * MINUTE;
+        assertEquals(0, scheduler.getBlockedHostCount());
+
+        // 3. The next trial gets through, this closes the circuit and the
+        // other loads follow
+        scheduler.setHostLimit(2);
+        assertEquals(next, started.get(started.size() - 1));
+        finish(next, null);
+        final Podcast after = podcast("host.com/after");
+        scheduler.schedule(after, PRIORITY_BACKGROUND);
+        assertEquals(after, started.get(started.size() - 1));
+    }
+
+    public final void testCircuitClosesOnServerError() {
+        blockHost();
+        now += 11 * MINUTE;
+
+        // The server answering with an error closes the circuit as well
+        final Podcast trial = podcast("host.com/trial");
+        scheduler.schedule(trial, PRIORITY_BACKGROUND);
+        finish(trial, PodcastLoadError.NOT_PARSEABLE);
+        assertEquals(0, scheduler.getBlockedHostCount());
+        assertTrue(scheduler.isBlocked(trial));
+
+        final Podcast after = podcast("host.com/after");
+        scheduler.schedule(after, PRIORITY_BACKGROUND);
+        assertEquals(after, started.get(started.size() - 1));
+    }
+
+    private void blockHost() {
+        for (int count = 0; count < 3; count++)
+            failLoad(podcast("host.com/failed" + count), PodcastLoadError.NOT_REACHABLE);
+
+        assertEquals(1, scheduler.getBlockedHostCount());
+    }
+
+    private void failLoad(Podcast podcast, PodcastLoadError error) {
+        scheduler.schedule(podcast, PRIORITY_SELECTED);
+        assertTrue(loading.contains(podcast));
+
+        finish(podcast, error);
+    }
+
+    private void finish(Podcast podcast, PodcastLoadError error) {
+        loading.remove(podcast);
+        if (error == null)
+            podcast.resetFailedLoadAttempts();
+        else
+            podcast.incrementFailedLoadAttempts();
+
+        scheduler.onLoadFinished(podcast, error);
+    }
+
+    private static Podcast podcast(String location) {
+        return new Podcast(location, "http://" + location);
+    }
+
+    private static Podcast loadedPodcast(String location) throws XmlPullParserException,
+            IOException {
+        return Utils.createPodcast(location, "http://" + location, Utils.createFeed());
+    }
+}
@@ -0,0 +1,160 @@
+package net.alliknow.podcatcher.model.test;
+
+import android.test.InstrumentationTestCase;
+
+import net.alliknow.podcatcher.model.ShowNotesStore;
+import net.alliknow.podcatcher.model.ShowNotesStore.Note;
+import net.alliknow.podcatcher.model.ShowNotesStore.Writer;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+@SuppressWarnings("javadoc")
+public class ShowNotesStoreTest extends InstrumentationTestCase {
+
+    private static final int MAX_FILE_SIZE = 1024;
+
+    private final Podcast podcast = new Podcast("Test", "http://example.com/notes");
+    /** A podcast whose file never grows, used to trigger clean-ups */
+    private final Podcast other = new Podcast("Other", "http://example.com/other");
+
+    private File directory;
+    private ShowNotesStore store;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = new File(getInstrumentation().getTargetContext().getCacheDir(),
+                "shownotes-test");
+        deleteFiles();
+
+        store = new ShowNotesStore(directory, MAX_FILE_SIZE);
+        final Writer writer = store.openWriter(other);
+        writer.commit();
+        writer.close();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteFiles();
+        directory.delete();
+    }
+
+    public final void testWriteAndRead() throws IOException {
+        final Writer writer = store.openWriter(podcast);
+        assertTrue(writer.needsAllTexts());
+        // Only one writer per podcast
+        assertNull(store.openWriter(podcast));
+
+        final Note first = writer.write(text('a', 300));
+        final Note second = writer.write(text('b', 300));
+
+        // Committing makes the texts readable while the writer is still open
+        writer.commit();
+        assertEquals(text('a', 300), store.read(first, false));
+        assertEquals(text('b', 300), store.read(second, false));
+        writer.close();
+
+        // The file is not full, so texts are appended
+        final Writer next = store.openWriter(podcast);
+        assertFalse(next.needsAllTexts());
+        next.close();
+    }
+
+    public final void testRotation() throws IOException {
+        // 1. Fill the first file
+        Writer writer = store.openWriter(podcast);
+        Note first = writer.write(text('a', MAX_FILE_SIZE + 1));
+        writer.commit();
+        writer.close();
+        assertEquals(2, countFiles());
+
+        // 2. Rotate twice, episodes still around can read their texts
+        writer = store.openWriter(podcast);
+        assertTrue(writer.needsAllTexts());
+        Note second = writer.write(text('b', MAX_FILE_SIZE + 1));
+        writer.commit();
+        writer.close();
+
+        writer = store.openWriter(podcast);
+        assertTrue(writer.needsAllTexts());
+        final Note third = writer.write(text('c', 300));
+        writer.commit();
+        writer.close();
+
+        assertEquals(4, countFiles());
+        assertEquals(text('a', MAX_FILE_SIZE + 1), store.read(first, false));
+        assertEquals(text('b', MAX_FILE_SIZE + 1), store.read(second, false));
+
+        // 3. Files are deleted once no episode points into them anymore
+        first = null;
+        second = null;
+        assertEquals(2, countFilesAfterGc(2));
+        assertEquals(text('c', 300), store.read(third, false));
+
+        // 4. The new current file is used from now on
+        writer = store.openWriter(podcast);
+        assertFalse(writer.needsAllTexts());
+        writer.close();
+    }
+
+    public final void testFailedWrite() throws IOException {
+        // 1. Fill the first file
+        Writer writer = store.openWriter(podcast);
+        final Note first = writer.write(text('a', MAX_FILE_SIZE + 1));
+        writer.commit();
+        writer.close();
+
+        // 2. A parse writing a new file fails
+        writer = store.openWriter(podcast);
+        assertTrue(writer.needsAllTexts());
+        Note failed = writer.write(text('b', 300));
+        writer.close();
+        assertEquals(3, countFiles());
+
+        // 3. The current file stays in use
+        assertEquals(text('a', MAX_FILE_SIZE + 1), store.read(first, false));
+        writer = store.openWriter(podcast);
+        assertTrue(writer.needsAllTexts());
+        writer.close();
+        writer = null;
+
+        // 4. The failed files go away, the current one does not
+        failed = null;
+        assertEquals(2, countFilesAfterGc(2));
+        assertEquals(text('a', MAX_FILE_SIZE + 1), store.read(first, false));
+    }
+
+    private int countFilesAfterGc(int expected) {
+        for (int run = 0; run < 20 && countFiles() > expected; run++) {
+            System.gc();
+            System.runFinalization();
+
+            // Opening a writer deletes released files
+            store.openWriter(other).close();
+        }
+
+        return countFiles();
+    }
+
+    private int countFiles() {
+        final File[] files = directory.listFiles();
+
+        return files == null ? 0 : files.length;
+    }
+
+    private void deleteFiles() {
+        final File[] files = directory.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+    }
+
+    private static String text(char c, int length) {
+        final char[] chars = new char[length];
+        Arrays.fill(chars, c);
+
+        return new String(chars);
+    }
+}
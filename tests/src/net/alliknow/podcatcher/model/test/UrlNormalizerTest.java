@@ -0,0 +1,222 @@
+package net.alliknow.podcatcher.model.test;
+
+import android.os.Debug;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import net.alliknow.podcatcher.model.UrlNormalizer;
+import net.alliknow.podcatcher.model.tags.RSS;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+@SuppressWarnings("javadoc")
+public class UrlNormalizerTest extends InstrumentationTestCase {
+
+    private static final String[] SCHEMES = {
+            "http://", "https://", "HTTP://", "ftp://", "feed://", "fb:"
+    };
+    private static final String[] HOSTS = {
+            "example.com", "Example.COM", "feeds2.feedburner.com", "127.0.0.1", "a_b.com", "",
+            "user@host.com", "[::1]"
+    };
+    private static final String[] PORTS = {
+            "", ":80", ":443", ":8080", ":080", ":"
+    };
+    private static final String[] PATHS = {
+            "", "/", "/a/", "/feed/episode-12.mp3", "/a//b", "/./a", "/a/../b", "/a/..",
+            "/%20x", "/%zz", "/a b", "/ä", "/a;b=c:d@e", "/~user/.hidden"
+    };
+    private static final String[] QUERIES = {
+            "", "?", "?format=xml", "?x=/y?z&a=%41", "?a b"
+    };
+    private static final String[] SUFFIXES = {
+            "", "#fragment", " "
+    };
+
+    /** The number of feeds to get URLs from */
+    private static final int CORPUS_SIZE = 10;
+
+    public final void testSamples() {
+        assertNull(UrlNormalizer.normalize(null));
+        assertEquals("", UrlNormalizer.normalize(""));
+        assertEquals("nothing-serious", UrlNormalizer.normalize("nothing-serious"));
+        assertEquals("http://example.com/", UrlNormalizer.normalize(" HTTP://Example.com:80"));
+        assertEquals("https://example.com:8443/a/c?x=y",
+                UrlNormalizer.normalize("https://example.com:8443/a/b/../c/?x=y#top"));
+
+        assertTrue(UrlNormalizer.startsWithIgnoreCase("ITpc://x", "itpc://"));
+        assertFalse(UrlNormalizer.startsWithIgnoreCase("itp", "itpc://"));
+    }
+
+    public final void testNoAllocation() {
+        final String normalized = "http://traffic.example.com:8080/show/episode-1.mp3?src=rss";
+
+        assertSame(normalized, UrlNormalizer.normalize(normalized));
+        assertSame(normalized, new Podcast(null, normalized).getUrl());
+    }
+
+    public final void testGeneratedCorpus() {
+        for (String scheme : SCHEMES)
+            for (String host : HOSTS)
+                for (String port : PORTS)
+                    for (String path : PATHS)
+                        for (String query : QUERIES)
+                            for (String suffix : SUFFIXES)
+                                assertSameAsLegacy(scheme + host + port + path + query + suffix);
+    }
+
+    @LargeTest
+    public final void testFeedCorpus() {
+        final List<List<String>> feeds = recordFeeds();
+
+        for (List<String> urls : feeds)
+            for (String url : urls)
+                assertSameAsLegacy(url);
+    }
+
+    @LargeTest
+    public final void testAllocationBenchmark() {
+        final List<List<String>> feeds = recordFeeds();
+
+        // 1. Count the objects allocated by both for the URLs in the feeds
+        long legacyCount = 0;
+        long count = 0;
+
+        Debug.startAllocCounting();
+        try {
+            for (List<String> urls : feeds) {
+                Debug.resetThreadAllocCount();
+                for (String url : urls)
+                    legacyNormalize(url);
+                legacyCount += Debug.getThreadAllocCount();
+
+                Debug.resetThreadAllocCount();
+                for (String url : urls)
+                    UrlNormalizer.normalize(url);
+                count += Debug.getThreadAllocCount();
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+
+        // 2. Report per feed
+        Log.d(Utils.TEST_STATUS, "Allocations per feed for URL normalization, legacy: "
+                + legacyCount / feeds.size() + ", now: " + count / feeds.size());
+        assertTrue(count < legacyCount);
+    }
+
+    private void assertSameAsLegacy(String url) {
+        assertEquals(url, legacyNormalize(url), UrlNormalizer.normalize(url));
+        assertEquals(url, legacyPodcastNormalize(url), new Podcast(null, url).getUrl());
+    }
+
+    /** The feeds' URLs and the enclosure URLs of their items, one list per feed */
+    private List<List<String>> recordFeeds() {
+        final List<List<String>> feeds = new ArrayList<>();
+
+        for (Podcast podcast : Utils.getExamplePodcasts(
+                getInstrumentation().getTargetContext(), CORPUS_SIZE))
+            try {
+                final List<String> urls = new ArrayList<>();
+                urls.add(podcast.getUrl());
+                recordEnclosures(podcast.getUrl(), urls);
+
+                feeds.add(urls);
+            } catch (IOException | XmlPullParserException e) {
+                Log.d(Utils.TEST_STATUS, "Skipping " + podcast + " in corpus", e);
+            }
+
+        assertFalse(feeds.isEmpty());
+        return feeds;
+    }
+
+    private void recordEnclosures(String url, List<String> urls)
+            throws XmlPullParserException, IOException {
+        final InputStream in = new URL(url).openStream();
+
+        try {
+            final XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            final XmlPullParser parser = factory.newPullParser();
+            parser.setInput(in, null);
+
+            int eventType = parser.next();
+            while (eventType != XmlPullParser.END_DOCUMENT) {
+                if (eventType == XmlPullParser.START_TAG
+                        && parser.getName().equalsIgnoreCase(RSS.ENCLOSURE)
+                        && parser.getAttributeValue("", RSS.URL) != null)
+                    urls.add(parser.getAttributeValue("", RSS.URL));
+
+                eventType = parser.next();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /** A copy of what FeedEntity#normalizeUrl used to do */
+    private String legacyNormalize(final String spec) {
+        try {
+            final URL url = new URI(spec.trim()).normalize().toURL();
+
+            final String scheme = url.getProtocol().toLowerCase(Locale.US);
+            final String host = url.getHost().toLowerCase(Locale.US);
+
+            String path = url.getPath();
+            if (path == null || path.isEmpty())
+                path = "/";
+            else if (path.length() > 1 && path.endsWith("/"))
+                path = path.substring(0, path.length() - 1);
+
+            boolean needsPort = url.getPort() != -1;
+            if ((scheme.equals("http") && url.getPort() == 80)
+                    || (scheme.equals("https") && url.getPort() == 443))
+                needsPort = false;
+
+            return scheme + "://" + host + (needsPort ? ":" + url.getPort() : "")
+                    + path + (url.getQuery() == null ? "" : "?" + url.getQuery());
+        } catch (MalformedURLException | NullPointerException | URISyntaxException
+                | IllegalArgumentException e) {
+            return spec;
+        }
+    }
+
+    /** A copy of what Podcast#normalizeUrl used to do */
+    private String legacyPodcastNormalize(String spec) {
+        if (spec != null) {
+            if (spec.toLowerCase(Locale.US).startsWith("feed://") ||
+                    spec.toLowerCase(Locale.US).startsWith("itpc://") ||
+                    spec.toLowerCase(Locale.US).startsWith("itms://"))
+                spec = "http" + spec.substring(4);
+            if (spec.toLowerCase(Locale.US).startsWith("fb:"))
+                spec = "http://feeds.feedburner.com/" + spec.substring(3);
+        }
+
+        spec = legacyNormalize(spec);
+
+        if (spec != null) {
+            if (spec.startsWith("http://feeds2.feedburner.com"))
+                spec = spec.replaceFirst("feeds2", "feeds");
+            if (spec.startsWith("https://feeds2.feedburner.com"))
+                spec = spec.replaceFirst("feeds2", "feeds");
+            if (spec.contains("://feeds.feedburner.com") && spec.endsWith("?format=xml"))
+                spec = spec.replace("?format=xml", "");
+        }
+
+        return spec;
+    }
+}
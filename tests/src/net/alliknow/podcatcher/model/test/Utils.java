@@ -31,7 +31,11 @@ import net.alliknow.podcatcher.model.types.Progress;
 import net.alliknow.podcatcher.model.types.Suggestion;
 
 import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
@@ -182,4 +186,94 @@ public class Utils {
 
         return examples;
     }
+
+    /**
+     * Start a minimal RSS feed to build test podcasts from without going to
+     * the network. Add episodes using
+     * {@link #appendItem(StringBuilder, String, String, String, String, String)}
+     * and parse the result with {@link #createParser(CharSequence)} or
+     * {@link #createPodcast(String, String, CharSequence)}.
+     * 
+     * @return The feed's start, the closing tags are added when parsing.
+     */
+    public static StringBuilder createFeed() {
+        return new StringBuilder("<rss><channel><title>Test</title>");
+    }
+
+    /**
+     * Add an episode to a feed started by {@link #createFeed()}.
+     * 
+     * @param feed The feed to add to.
+     * @param title Episode title.
+     * @param mediaUrl Enclosure location.
+     * @param pubDate Publication date as given in the feed, might be
+     *            <code>null</code>.
+     * @return The feed given.
+     */
+    public static StringBuilder appendItem(StringBuilder feed, String title, String mediaUrl,
+            String pubDate) {
+        return appendItem(feed, title, null, null, mediaUrl, pubDate);
+    }
+
+    /**
+     * Add an episode to a feed started by {@link #createFeed()}.
+     * 
+     * @param feed The feed to add to.
+     * @param title Episode title.
+     * @param link Episode web site, might be <code>null</code>.
+     * @param description Episode show notes, might be <code>null</code>.
+     * @param mediaUrl Enclosure location.
+     * @param pubDate Publication date as given in the feed, might be
+     *            <code>null</code>.
+     * @return The feed given.
+     */
+    public static StringBuilder appendItem(StringBuilder feed, String title, String link,
+            String description, String mediaUrl, String pubDate) {
+        feed.append("<item><title>").append(title).append("</title>");
+        if (link != null)
+            feed.append("<link>").append(link).append("</link>");
+        if (description != null)
+            feed.append("<description>").append(description).append("</description>");
+        feed.append("<enclosure url=\"").append(mediaUrl).append("\" />");
+        if (pubDate != null)
+            feed.append("<pubDate>").append(pubDate).append("</pubDate>");
+
+        return feed.append("</item>");
+    }
+
+    /**
+     * Create a namespace aware parser for a feed started by
+     * {@link #createFeed()}.
+     * 
+     * @param feed The feed's start and items.
+     * @return A parser set to the complete feed.
+     * @throws XmlPullParserException If the parser cannot be created.
+     */
+    public static XmlPullParser createParser(CharSequence feed) throws XmlPullParserException {
+        final XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        final XmlPullParser parser = factory.newPullParser();
+        parser.setInput(new StringReader(feed + "</channel></rss>"));
+
+        return parser;
+    }
+
+    /**
+     * Create a podcast and parse it from a feed started by
+     * {@link #createFeed()}.
+     * 
+     * @param name Podcast name.
+     * @param url Podcast feed URL.
+     * @param feed The feed's start and items.
+     * @return The parsed podcast.
+     * @throws XmlPullParserException If the feed cannot be parsed.
+     * @throws IOException If the feed cannot be read.
+     */
+    public static Podcast createPodcast(String name, String url, CharSequence feed)
+            throws XmlPullParserException, IOException {
+        final Podcast podcast = new Podcast(name, url);
+        podcast.parse(createParser(feed));
+
+        return podcast;
+    }
 }
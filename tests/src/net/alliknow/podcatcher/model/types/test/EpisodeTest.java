@@ -2,12 +2,26 @@
 package net.alliknow.podcatcher.model.types.test;
 
 import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
 
 import net.alliknow.podcatcher.model.test.Utils;
 import net.alliknow.podcatcher.model.types.Episode;
+import net.alliknow.podcatcher.model.types.EpisodeOrder;
 import net.alliknow.podcatcher.model.types.Podcast;
 
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 @SuppressWarnings("javadoc")
 public class EpisodeTest extends InstrumentationTestCase {
@@ -19,7 +33,7 @@ public class EpisodeTest extends InstrumentationTestCase {
         }
 
         public void setPubDate(Date date) {
-            this.pubDate = date;
+            this.pubDate = date == null ? NO_PUB_DATE : date.getTime();
         }
 
         public Date parsePubDate(String dateString) {
@@ -59,6 +73,190 @@ public class EpisodeTest extends InstrumentationTestCase {
                 second.compareTo(first));
         assertEquals(one.compareTo(other), -first.compareTo(third));
         assertEquals(other.compareTo(one), -third.compareTo(first));
+
+        // Same date and position, order by identity but the same both ways
+        EpisodeForTesting fourth = new EpisodeForTesting(dummy, 1);
+        fourth.setPubDate(one);
+        assertTrue(first.compareTo(fourth) != 0);
+        assertEquals(-first.compareTo(fourth), fourth.compareTo(first));
+        assertEquals(0, first.compareTo(first));
+    }
+
+    /** The same episodes as they used to be stored */
+    static class LegacyEpisode {
+
+        final Podcast podcast;
+        final int index;
+        String name;
+        String url;
+        String description;
+        boolean explicit;
+        String content;
+        Object descriptionNote;
+        Object contentNote;
+        Date pubDate;
+        int duration = -1;
+        String mediaUrl;
+
+        LegacyEpisode(Podcast podcast, int index) {
+            this.podcast = podcast;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Podcasts in the heap test, using the typical media locations: all files
+     * in one directory, a directory per episode and a tracking redirect
+     */
+    private static final int PODCAST_COUNT = 100;
+    /** Episodes per podcast in the heap test */
+    private static final int EPISODE_COUNT = 500;
+
+    public final void testPubDate() {
+        Podcast dummy = new Podcast(null, null);
+        EpisodeForTesting e = new EpisodeForTesting(dummy, 1);
+
+        assertFalse(e.hasPubDate());
+        assertNull(e.getPubDate());
+        assertEquals(Episode.NO_PUB_DATE, e.getPubDateTime());
+
+        e.setPubDate(new Date(1234));
+        assertTrue(e.hasPubDate());
+        assertEquals(new Date(1234), e.getPubDate());
+        assertNotSame(e.getPubDate(), e.getPubDate());
+        assertEquals(1234, e.getPubDateTime());
+    }
+
+    public final void testMediaUrl() throws Exception {
+        final Podcast one = new Podcast(null, "http://example.com/one");
+        one.parse(createParser("http://example.com/", 0, 3));
+        final Podcast other = new Podcast(null, "http://example.com/other");
+        other.parse(createParser("http://example.com/", 1, 3));
+
+        final Episode first = one.getEpisodes().get(1);
+        final Episode second = other.getEpisodes().get(0);
+        assertEquals("http://example.com/media/episode1.mp3?id=1", first.getMediaUrl());
+        assertTrue(first.hasMediaUrl());
+        assertTrue(first.hasMediaUrl(second.getMediaUrl()));
+        assertFalse(first.hasMediaUrl("http://example.com/media/episode1.mp3"));
+        assertFalse(first.hasMediaUrl(null));
+
+        // Same location in different podcasts, split in one only
+        assertEquals(first, second);
+        assertEquals(second, first);
+        assertEquals(first.hashCode(), second.hashCode());
+        assertEquals(first.getMediaUrl().hashCode() + 42, first.hashCode());
+        assertEquals(first.getMediaUrl().hashCode(), first.getMediaUrlHashCode());
+        assertFalse(first.equals(one.getEpisodes().get(0)));
+
+        // Locations in their own directory are kept as they are
+        final Podcast own = new Podcast(null, "http://example.com/own");
+        own.parse(createParser(2, 0, 2));
+        final Episode single = own.getEpisodes().get(1);
+        assertEquals("http://cdn.example.com/show2/2014/01/1-a0b1/episode.mp3",
+                single.getMediaUrl());
+        assertTrue(single.hasMediaUrl(single.getMediaUrl()));
+        assertFalse(single.equals(own.getEpisodes().get(0)));
+    }
+
+    @LargeTest
+    public final void testHeapFootprint() throws Exception {
+        // 1. Parse the subscriptions and measure what they keep on the heap
+        final List<Podcast> podcasts = new ArrayList<>(PODCAST_COUNT);
+        long before = usedHeap();
+        for (int index = 0; index < PODCAST_COUNT; index++) {
+            final Podcast podcast = new Podcast(null, "http://example.com/" + index);
+            podcast.parse(createParser(index, 0, EPISODE_COUNT));
+            podcasts.add(podcast);
+        }
+        final long compact = usedHeap() - before;
+
+        // 2. Build the same episodes as we used to store them
+        final List<List<LegacyEpisode>> legacyPodcasts = new ArrayList<>(PODCAST_COUNT);
+        before = usedHeap();
+        for (Podcast podcast : podcasts) {
+            final List<LegacyEpisode> legacyEpisodes = new ArrayList<>(EPISODE_COUNT);
+            for (Episode episode : podcast.getEpisodes()) {
+                final LegacyEpisode legacy = new LegacyEpisode(podcast,
+                        episode.getPositionInPodcast());
+                legacy.name = copy(episode.getName());
+                legacy.url = copy(episode.getUrl());
+                legacy.description = copy(episode.getDescription());
+                legacy.pubDate = episode.getPubDate();
+                legacy.duration = episode.getDuration();
+                legacy.mediaUrl = copy(episode.getMediaUrl());
+
+                legacyEpisodes.add(legacy);
+            }
+            legacyPodcasts.add(legacyEpisodes);
+        }
+        final long legacy = usedHeap() - before;
+
+        // 3. Report
+        Log.d(Utils.TEST_STATUS, "Heap used for " + PODCAST_COUNT * EPISODE_COUNT
+                + " episodes, legacy: " + legacy / 1024 + "k, now: " + compact / 1024 + "k");
+        assertEquals(PODCAST_COUNT, legacyPodcasts.size());
+        assertTrue(compact < legacy);
+    }
+
+    public final void testSortKey() {
+        Podcast dummy = new Podcast(null, null);
+        EpisodeForTesting none = new EpisodeForTesting(dummy, 3);
+        EpisodeForTesting old = new EpisodeForTesting(dummy, 2);
+        old.setPubDate(new Date(100));
+        EpisodeForTesting recent = new EpisodeForTesting(dummy, 1);
+        recent.setPubDate(new Date(200));
+        EpisodeForTesting same = new EpisodeForTesting(dummy, 0);
+        same.setPubDate(new Date(200));
+
+        assertTrue(none.getSortKey() < recent.getSortKey());
+        assertTrue(recent.getSortKey() < old.getSortKey());
+        assertEquals(recent.getSortKey(), same.getSortKey());
+
+        SortedSet<Episode> set = new TreeSet<>(Arrays.asList(old, recent, none, same));
+        assertEquals(Arrays.asList(none, same, recent, old), new ArrayList<>(set));
+    }
+
+    public final void testEpisodeOrder() {
+        Podcast dummy = new Podcast(null, null);
+        List<Episode> episodes = new ArrayList<>();
+        for (int index = 0; index < 5; index++) {
+            EpisodeForTesting episode = new EpisodeForTesting(dummy, index);
+            episode.setPubDate(new Date(1000 - index));
+            episode.setDuration(index % 2 == 0 ? 60 * (5 - index) : -1);
+            episodes.add(episode);
+        }
+        final List<Episode> natural = new ArrayList<>(episodes);
+        Collections.shuffle(episodes);
+
+        EpisodeOrder.NEWEST_FIRST.sort(episodes);
+        assertEquals(natural, episodes);
+
+        EpisodeOrder.OLDEST_FIRST.sort(episodes);
+        List<Episode> reversed = new ArrayList<>(natural);
+        Collections.reverse(reversed);
+        assertEquals(reversed, episodes);
+
+        // Durations 300, -1, 180, -1, 60
+        EpisodeOrder.SHORTEST_FIRST.sort(episodes);
+        assertEquals(Arrays.asList(natural.get(4), natural.get(2), natural.get(0),
+                natural.get(1), natural.get(3)), episodes);
+
+        // Comparator and sort agree, missing episodes last
+        final EpisodeOrder byPosition = EpisodeOrder.byPosition(natural.subList(2, 5));
+        final SortedSet<Episode> set = new TreeSet<>(byPosition);
+        set.addAll(natural);
+        byPosition.sort(episodes);
+        assertEquals(new ArrayList<>(set), episodes);
+        assertEquals(Arrays.asList(natural.get(2), natural.get(3), natural.get(4),
+                natural.get(0), natural.get(1)), episodes);
+
+        final Podcast other = new Podcast(null, null);
+        final Episode first = new EpisodeForTesting(other, 0);
+        episodes.add(first);
+        EpisodeOrder.byPodcast(Arrays.asList(other, dummy)).sort(episodes);
+        assertEquals(first, episodes.get(0));
+        assertEquals(natural, episodes.subList(1, episodes.size()));
     }
 
     public final void testParsePubDate() {
@@ -70,6 +268,73 @@ public class EpisodeTest extends InstrumentationTestCase {
         assertTrue(dateOkay(e.parsePubDate("Sun, 10 Nov 2013 00:00:00 -0600")));
     }
 
+    private XmlPullParser createParser(int podcast, int first, int count)
+            throws XmlPullParserException {
+        final StringBuilder feed = Utils.createFeed();
+        for (int index = first; index < first + count; index++)
+            Utils.appendItem(feed, "Episode " + index, "http://example.com/" + podcast
+                    + "/episodes/" + index, "The show notes of episode " + index,
+                    mediaUrl(podcast, index), createDate(index));
+
+        return Utils.createParser(feed);
+    }
+
+    private XmlPullParser createParser(String base, int first, int count)
+            throws XmlPullParserException {
+        final StringBuilder feed = new StringBuilder("<rss><channel><title>Test</title>");
+        for (int index = first; index < first + count; index++)
+            feed.append("<item><title>Episode ").append(index).append("</title>")
+                    .append("<link>").append(base).append("episodes/").append(index)
+                    .append("</link><description>The show notes of episode ").append(index)
+                    .append("</description><enclosure url=\"").append(base)
+                    .append("media/episode").append(index).append(".mp3?id=").append(index)
+                    .append("\" /><pubDate>").append(createDate(index))
+                    .append("</pubDate></item>");
+        feed.append("</channel></rss>");
+
+        XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        XmlPullParser parser = factory.newPullParser();
+        parser.setInput(new StringReader(feed.toString()));
+
+        return parser;
+    }
+
+    private static String createDate(int index) {
+        return String.format("Mon, %02d Jan 2014 %02d:%02d:00 GMT",
+                28 - index / 1440 % 28, 23 - index / 60 % 24, 59 - index % 60);
+    }
+
+    /** The media location of an episode as typical hosts build them */
+    private static String mediaUrl(int podcast, int index) {
+        switch (podcast % 3) {
+            case 0:
+                return "http://traffic.example.com/show" + podcast + "/Show" + podcast
+                        + "-" + (1000 + index) + ".mp3";
+            case 1:
+                return "http://dts.example.net/redirect.mp3/media.example.com/show" + podcast
+                        + "/episode-" + index + ".mp3?source=rss";
+            default:
+                return "http://cdn.example.com/show" + podcast + "/2014/01/" + index + "-"
+                        + Integer.toHexString(0xa0b0 + index) + "/episode.mp3";
+        }
+    }
+
+    /** A copy of the string not sharing anything with it */
+    private static String copy(String value) {
+        return new String(value.toCharArray());
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int run = 0; run < 3; run++) {
+            System.gc();
+            System.runFinalization();
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
     private boolean dateOkay(Date date) {
 
         return date != null &&
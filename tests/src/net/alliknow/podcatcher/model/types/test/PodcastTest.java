@@ -8,11 +8,24 @@ import android.test.suitebuilder.annotation.MediumTest;
 import android.util.Base64;
 
 import net.alliknow.podcatcher.model.test.Utils;
+import net.alliknow.podcatcher.model.types.Episode;
+import net.alliknow.podcatcher.model.types.EpisodeListDiff;
 import net.alliknow.podcatcher.model.types.Podcast;
 
+import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 @SuppressWarnings("javadoc")
 public class PodcastTest extends InstrumentationTestCase {
@@ -220,4 +233,216 @@ public class PodcastTest extends InstrumentationTestCase {
         assertEquals("http://feeds.feedburner.com/TestPodcast",
                 new Podcast(null, "FB:TestPodcast?format=xml").getUrl());
     }
+
+    public final void testIncrementalParse() throws XmlPullParserException, IOException {
+        Podcast podcast = new Podcast("Test", "http://example.com/feed.xml");
+        assertEquals(0, podcast.parse(createParser("b", "c"), true));
+        assertEquals(2, podcast.getEpisodeCount());
+
+        // New episode on top, known ones are taken over
+        assertEquals(2, podcast.parse(createParser("a", "b", "c"), true));
+        assertEquals(3, podcast.getEpisodeCount());
+        assertEquals("a", podcast.getEpisodes().get(0).getName());
+        assertEquals("c", podcast.getEpisodes().get(2).getName());
+        assertEquals(2, podcast.getEpisodes().get(2).getPositionInPodcast());
+
+        // Nothing new
+        assertEquals(3, podcast.parse(createParser("a", "b", "c"), true));
+        assertEquals(3, podcast.getEpisodeCount());
+
+        // Known episode moved to the top, needs full parse
+        assertEquals(0, podcast.parse(createParser("c", "a", "b"), true));
+        assertEquals(3, podcast.getEpisodeCount());
+
+        // Not incremental
+        assertEquals(0, podcast.parse(createParser("x", "a", "b", "c"), false));
+        assertEquals(4, podcast.getEpisodeCount());
+    }
+
+    public final void testFeedCheck() throws XmlPullParserException, IOException {
+        Podcast podcast = new Podcast("Test", "http://example.com/feed.xml");
+        podcast.parse(createParser("b", "c"));
+        final Date lastLoaded = podcast.getLastLoaded();
+
+        // Check says unchanged, new content is dropped
+        final int[] checks = new int[1];
+        assertEquals(0, podcast.parse(createParser("a", "b", "c"), false, new Podcast.FeedCheck() {
+
+            @Override
+            public boolean isUnchanged() {
+                checks[0]++;
+                return true;
+            }
+        }));
+        assertEquals(1, checks[0]);
+        assertEquals(2, podcast.getEpisodeCount());
+        assertEquals(lastLoaded, podcast.getLastLoaded());
+
+        // Check says changed, new content is taken over
+        podcast.parse(createParser("a", "b", "c"), false, new Podcast.FeedCheck() {
+
+            @Override
+            public boolean isUnchanged() {
+                checks[0]++;
+                return false;
+            }
+        });
+        assertEquals(2, checks[0]);
+        assertEquals(3, podcast.getEpisodeCount());
+
+        // Parser stops early, no check
+        podcast.parse(createParser("a", "b", "c"), true, new Podcast.FeedCheck() {
+
+            @Override
+            public boolean isUnchanged() {
+                checks[0]++;
+                return true;
+            }
+        });
+        assertEquals(2, checks[0]);
+    }
+
+    public final void testPublishingInterval() throws XmlPullParserException, IOException {
+        Podcast podcast = new Podcast("Test", "http://example.com/feed.xml");
+        assertEquals(-1, podcast.getPublishingInterval());
+
+        // Too few episodes to tell
+        podcast.parse(createParser("a", "b"));
+        assertEquals(-1, podcast.getPublishingInterval());
+
+        // Daily episodes
+        podcast.parse(createParser("b", "c", "d", "e"));
+        assertEquals(24 * 60 * 60 * 1000, podcast.getPublishingInterval());
+        assertEquals(podcast.getEpisodes().get(0).getPubDate(), podcast.getLatestPubDate());
+        assertEquals(0, podcast.getUnchangedLoadCount());
+
+        // Nothing new
+        podcast.parse(createParser("b", "c", "d", "e"), true);
+        podcast.markUnchanged();
+        assertEquals(2, podcast.getUnchangedLoadCount());
+        podcast.parse(createParser("a", "b", "c", "d", "e"), true);
+        assertEquals(0, podcast.getUnchangedLoadCount());
+    }
+
+    public final void testSnapshot() throws XmlPullParserException, IOException {
+        Podcast podcast = new Podcast(null, "http://example.com/feed.xml");
+        podcast.parse(createParser("a", "b", "c"));
+        podcast.setCacheValidators("\"etag\"", null);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        podcast.writeSnapshot(new DataOutputStream(out));
+
+        // Restore to a new podcast
+        final Date snapshotTime = new Date(1000);
+        Podcast restored = new Podcast(null, "http://example.com/feed.xml");
+        assertTrue(restored.readSnapshot(createInput(out), snapshotTime));
+        assertEquals("Test", restored.getName());
+        assertEquals("\"etag\"", restored.getEtag());
+        assertNull(restored.getLastModified());
+        assertEquals(snapshotTime, restored.getLastLoaded());
+        assertEquals(podcast.getEpisodes(), restored.getEpisodes());
+        assertEquals(podcast.getEpisodes().get(2).getPubDate(),
+                restored.getEpisodes().get(2).getPubDate());
+
+        // Loaded podcasts and other podcasts are not restored
+        assertFalse(restored.readSnapshot(createInput(out), snapshotTime));
+        assertFalse(new Podcast(null, "http://example.com/other.xml")
+                .readSnapshot(createInput(out), snapshotTime));
+    }
+
+    public final void testEpisodeWindow() throws XmlPullParserException, IOException {
+        Podcast podcast = new Podcast("Test", "http://example.com/feed.xml");
+        podcast.setEpisodeWindow(2, 0);
+        assertTrue(podcast.hasEpisodeWindow());
+
+        podcast.parse(createParser("a", "b", "c", "d", "e"));
+        assertEquals(2, podcast.getEpisodeCount());
+        assertEquals("a", podcast.getEpisodes().get(0).getName());
+        assertTrue(podcast.hasOlderEpisodes());
+
+        // Page in older episodes
+        podcast.extendEpisodeWindow();
+        podcast.parse(createParser("a", "b", "c", "d", "e"));
+        assertEquals(4, podcast.getEpisodeCount());
+        assertTrue(podcast.hasOlderEpisodes());
+        podcast.extendEpisodeWindow();
+        podcast.parse(createParser("a", "b", "c", "d", "e"));
+        assertEquals(5, podcast.getEpisodeCount());
+        assertFalse(podcast.hasOlderEpisodes());
+
+        // Unsorted feeds keep the newest episodes in feed order
+        podcast.setEpisodeWindow(2, 0);
+        podcast.parse(createParser("c", "a", "e", "b", "d"));
+        assertEquals(2, podcast.getEpisodeCount());
+        assertEquals("a", podcast.getEpisodes().get(0).getName());
+        assertEquals("b", podcast.getEpisodes().get(1).getName());
+        assertTrue(podcast.hasOlderEpisodes());
+
+        // Incremental parse does not take over known episodes past the window
+        podcast.setEpisodeWindow(3, 0);
+        podcast.parse(createParser("b", "c", "d", "e"));
+        assertEquals(2, podcast.parse(createParser("a", "b", "c", "d", "e"), true));
+        assertEquals(3, podcast.getEpisodeCount());
+        assertTrue(podcast.hasOlderEpisodes());
+    }
+
+    public final void testEpisodeListDiff() throws XmlPullParserException, IOException {
+        Podcast podcast = new Podcast("Test", "http://example.com/feed.xml");
+        assertNull(podcast.getEpisodeListDiff());
+
+        podcast.parse(createParser("b", "c", "d"));
+        EpisodeListDiff diff = podcast.getEpisodeListDiff();
+        assertEquals(1, diff.getVersion());
+        assertEquals(3, diff.getAdded().size());
+        assertSame(podcast.getEpisodes(), diff.getEpisodes());
+
+        // The list is immutable
+        try {
+            podcast.getEpisodes().clear();
+            fail("Episode list should not be modifiable");
+        } catch (UnsupportedOperationException uoe) {
+            // pass
+        }
+
+        // One new, one gone
+        final SortedSet<Episode> shown = new TreeSet<>(podcast.getEpisodes());
+        podcast.parse(createParser("a", "b", "c"));
+        diff = podcast.getEpisodeListDiff();
+        assertEquals(1, diff.getBaseVersion());
+        assertEquals(2, diff.getVersion());
+        assertEquals("a", diff.getAdded().get(0).getName());
+        assertEquals("d", diff.getRemoved().get(0).getName());
+        assertTrue(diff.getChanged().isEmpty());
+
+        diff.applyTo(shown);
+        assertEquals(new ArrayList<>(shown), podcast.getEpisodes());
+
+        // Nothing changed
+        podcast.parse(createParser("a", "b", "c"), true);
+        assertTrue(podcast.getEpisodeListDiff().isEmpty());
+    }
+
+    private DataInputStream createInput(ByteArrayOutputStream out) {
+        return new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private XmlPullParser createParser(String... items) throws XmlPullParserException {
+        final StringBuilder feed = new StringBuilder("<rss><channel><title>Test</title>");
+        // Items named "a" are newest, "z" oldest
+        for (String item : items)
+            feed.append("<item><title>").append(item).append("</title>")
+                    .append("<enclosure url=\"http://example.com/").append(item)
+                    .append(".mp3\" />").append("<pubDate>")
+                    .append(String.format("Mon, %02d Jan 2014 12:00:00 GMT",
+                            28 - item.charAt(0) + 'a'))
+                    .append("</pubDate></item>");
+        feed.append("</channel></rss>");
+
+        XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        XmlPullParser parser = factory.newPullParser();
+        parser.setInput(new StringReader(feed.toString()));
+
+        return parser;
+    }
 }